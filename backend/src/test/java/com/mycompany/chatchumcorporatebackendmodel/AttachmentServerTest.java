@@ -0,0 +1,181 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** {@link AttachmentServer} on an ephemeral port, spoken to over a plain socket. */
+class AttachmentServerTest {
+    @TempDir
+    Path dir;
+
+    private AttachmentStore store;
+    private AttachmentServer server;
+    private byte[] file;
+    private String fileId;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        store = new AttachmentStore(dir.toString());
+        server = new AttachmentServer(0, store);
+        server.start();
+        file = AttachmentStoreTest.bytes(100_000, 11);
+        fileId = AttachmentStoreTest.upload(store, "alice", file);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    /** One response: the head as text and the body as bytes. */
+    private static final class Response {
+        final String head;
+        final byte[] body;
+
+        Response(String head, byte[] body) {
+            this.head = head;
+            this.body = body;
+        }
+
+        int status() {
+            return Integer.parseInt(head.split(" ")[1]);
+        }
+
+        String header(String name) {
+            for (String line : head.split("\r\n")) {
+                if (line.toLowerCase().startsWith(name.toLowerCase() + ":")) {
+                    return line.substring(name.length() + 1).trim();
+                }
+            }
+            return null;
+        }
+    }
+
+    private Response request(String method, String target, String... headers) throws IOException {
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            socket.setSoTimeout(10_000);
+            StringBuilder request = new StringBuilder(method + " " + target + " HTTP/1.1\r\nHost: localhost\r\n");
+            for (String header : headers) {
+                request.append(header).append("\r\n");
+            }
+            OutputStream out = socket.getOutputStream();
+            out.write(request.append("\r\n").toString().getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            ByteArrayOutputStream all = new ByteArrayOutputStream();
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) >= 0; ) {
+                all.write(buffer, 0, n);
+            }
+            byte[] bytes = all.toByteArray();
+            String text = new String(bytes, StandardCharsets.ISO_8859_1);
+            int end = text.indexOf("\r\n\r\n") + 4;
+            return new Response(text.substring(0, end), Arrays.copyOfRange(bytes, end, bytes.length));
+        }
+    }
+
+    private Response get(String... headers) throws IOException {
+        return request("GET", "/attachments/" + fileId + "?ticket=" + store.ticket(fileId), headers);
+    }
+
+    @Test
+    void ticketDownloadsTheWholeFile() throws IOException {
+        Response response = get();
+
+        assertEquals(200, response.status());
+        assertEquals(String.valueOf(file.length), response.header("Content-Length"));
+        assertEquals("bytes", response.header("Accept-Ranges"));
+        assertArrayEquals(file, response.body);
+    }
+
+    @Test
+    void downloadWithoutAValidTicketForThatFileIsNotFound() throws Exception {
+        String other = AttachmentStoreTest.upload(store, "bob", AttachmentStoreTest.bytes(10, 12));
+
+        assertEquals(404, request("GET", "/attachments/" + fileId).status());
+        assertEquals(404, request("GET", "/attachments/" + fileId + "?ticket=").status());
+        assertEquals(404, request("GET", "/attachments/" + fileId + "?ticket=0123456789abcdef0123456789abcdef").status());
+        assertEquals(404, request("GET", "/attachments/" + fileId + "?ticket=" + store.ticket(other)).status());
+        String missing = "0".repeat(64);
+        assertEquals(404, request("GET", "/attachments/" + missing + "?ticket=" + store.ticket(missing)).status());
+        assertEquals(405, request("POST", "/attachments/" + fileId + "?ticket=" + store.ticket(fileId)).status());
+    }
+
+    @Test
+    void closedRangeIsServedAsPartialContent() throws IOException {
+        Response response = get("Range: bytes=1000-1999");
+
+        assertEquals(206, response.status());
+        assertEquals("bytes 1000-1999/" + file.length, response.header("Content-Range"));
+        assertEquals("1000", response.header("Content-Length"));
+        assertArrayEquals(Arrays.copyOfRange(file, 1000, 2000), response.body);
+    }
+
+    @Test
+    void openRangeResumesFromTheOffsetToTheEnd() throws IOException {
+        Response response = get("Range: bytes=65536-");
+
+        assertEquals(206, response.status());
+        assertEquals("bytes 65536-" + (file.length - 1) + "/" + file.length, response.header("Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(file, 65536, file.length), response.body);
+    }
+
+    @Test
+    void suffixRangeIsTheLastBytes() throws IOException {
+        Response response = get("Range: bytes=-500");
+
+        assertEquals(206, response.status());
+        assertArrayEquals(Arrays.copyOfRange(file, file.length - 500, file.length), response.body);
+    }
+
+    @Test
+    void rangeEndPastTheFileIsClamped() throws IOException {
+        Response response = get("Range: bytes=99990-200000");
+
+        assertEquals(206, response.status());
+        assertEquals("bytes 99990-99999/" + file.length, response.header("Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(file, 99990, file.length), response.body);
+    }
+
+    @Test
+    void rangeStartingPastTheFileIsNotSatisfiable() throws IOException {
+        Response response = get("Range: bytes=" + file.length + "-");
+
+        assertEquals(416, response.status());
+        assertEquals("bytes */" + file.length, response.header("Content-Range"));
+        assertEquals(0, response.body.length);
+    }
+
+    @Test
+    void malformedOrMultipleRangesGetTheWholeFile() throws IOException {
+        for (String range : new String[] {"bytes=abc-", "bytes=0-9,20-29", "items=0-9"}) {
+            Response response = get("Range: " + range);
+
+            assertEquals(200, response.status(), range);
+            assertArrayEquals(file, response.body, range);
+        }
+    }
+
+    @Test
+    void headSendsTheHeadersWithoutTheBody() throws IOException {
+        Response response = request("HEAD", "/attachments/" + fileId + "?ticket=" + store.ticket(fileId), "Range: bytes=10-19");
+
+        assertEquals(206, response.status());
+        assertEquals("10", response.header("Content-Length"));
+        assertEquals(0, response.body.length);
+    }
+}
@@ -0,0 +1,172 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** {@link AttachmentStore} in a directory of its own; file access goes to the test database. */
+class AttachmentStoreTest {
+    @TempDir
+    Path dir;
+
+    static byte[] bytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    static String sha256(byte[] bytes) throws Exception {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /** Stores {@code bytes} as {@code username}'s upload in one chunk and returns its file id. */
+    static String upload(AttachmentStore store, String username, byte[] bytes) throws Exception {
+        String fileId = sha256(bytes);
+        AttachmentStore.Upload upload = store.begin(username, fileId, bytes.length);
+        assertTrue(store.write(upload, ByteBuffer.wrap(bytes)));
+        return fileId;
+    }
+
+    private long partials() throws IOException {
+        try (Stream<Path> files = Files.list(dir.resolve("partial"))) {
+            return files.count();
+        }
+    }
+
+    @Test
+    void interruptedUploadResumesAtTheBytesAlreadyOnDisk() throws Exception {
+        AttachmentStore store = new AttachmentStore(dir.toString());
+        byte[] file = bytes(300_000, 1);
+        String fileId = sha256(file);
+        AttachmentStore.Upload first = store.begin("alice", fileId, file.length);
+        assertEquals(0, first.getReceived());
+        assertFalse(store.write(first, ByteBuffer.wrap(file, 0, 100_000)));
+        assertFalse(store.write(first, ByteBuffer.wrap(file, 100_000, 70_000)));
+        store.close(first); // Connection dropped
+
+        AttachmentStore.Upload resumed = store.begin("alice", fileId, file.length);
+        assertEquals(170_000, resumed.getReceived());
+        assertTrue(store.write(resumed, ByteBuffer.wrap(file, 170_000, file.length - 170_000)));
+
+        assertEquals(file.length, store.size(fileId));
+        assertArrayEquals(file, Files.readAllBytes(dir.resolve("blobs").resolve(fileId)));
+        assertEquals(0, partials());
+    }
+
+    @Test
+    void resumePointIsPerUser() throws Exception {
+        AttachmentStore store = new AttachmentStore(dir.toString());
+        byte[] file = bytes(1000, 2);
+        String fileId = sha256(file);
+        AttachmentStore.Upload alice = store.begin("alice", fileId, file.length);
+        store.write(alice, ByteBuffer.wrap(file, 0, 400));
+        store.close(alice);
+
+        AttachmentStore.Upload bob = store.begin("bob", fileId, file.length);
+
+        assertEquals(0, bob.getReceived());
+        store.close(bob);
+    }
+
+    @Test
+    void uploadIsOpenOnOneConnectionAtATime() throws Exception {
+        AttachmentStore store = new AttachmentStore(dir.toString());
+        String fileId = sha256(bytes(10, 3));
+        AttachmentStore.Upload upload = store.begin("alice", fileId, 10);
+
+        assertThrows(IllegalStateException.class, () -> store.begin("alice", fileId, 10));
+        store.close(upload);
+        store.close(store.begin("alice", fileId, 10));
+    }
+
+    @Test
+    void bytesThatDoNotMatchTheDeclaredDigestAreDiscarded() throws Exception {
+        AttachmentStore store = new AttachmentStore(dir.toString());
+        byte[] declared = bytes(5000, 4);
+        byte[] sent = declared.clone();
+        sent[4321] ^= 1;
+        String fileId = sha256(declared);
+        AttachmentStore.Upload upload = store.begin("alice", fileId, declared.length);
+        store.write(upload, ByteBuffer.wrap(sent, 0, 2000));
+        store.close(upload);
+        AttachmentStore.Upload resumed = store.begin("alice", fileId, declared.length);
+
+        IOException e = assertThrows(IOException.class,
+                () -> store.write(resumed, ByteBuffer.wrap(sent, 2000, sent.length - 2000)));
+
+        assertEquals("checksum mismatch", e.getMessage());
+        assertEquals(-1, store.size(fileId));
+        assertEquals(0, partials());
+        AttachmentStore.Upload retry = store.begin("alice", fileId, declared.length);
+        assertEquals(0, retry.getReceived(), "a bad upload leaves nothing to resume from");
+        assertTrue(store.write(retry, ByteBuffer.wrap(declared)));
+        assertEquals(declared.length, store.size(fileId));
+    }
+
+    @Test
+    void chunkPastTheDeclaredSizeIsRejected() throws Exception {
+        AttachmentStore store = new AttachmentStore(dir.toString());
+        byte[] file = bytes(100, 5);
+        AttachmentStore.Upload upload = store.begin("alice", sha256(file), 99);
+
+        assertThrows(IOException.class, () -> store.write(upload, ByteBuffer.wrap(file)));
+        assertEquals(0, upload.getReceived());
+        store.close(upload);
+    }
+
+    @Test
+    void declaredFileMustBeAFileIdOfAnAcceptableSize() throws Exception {
+        AttachmentStore store = new AttachmentStore(dir.toString());
+        String fileId = sha256(bytes(10, 6));
+
+        assertThrows(IllegalArgumentException.class, () -> store.begin("alice", fileId.toUpperCase(), 10));
+        assertThrows(IllegalArgumentException.class, () -> store.begin("alice", "../" + fileId.substring(3), 10));
+        assertThrows(IllegalArgumentException.class, () -> store.begin("alice", fileId, -1));
+        assertThrows(IllegalArgumentException.class, () -> store.begin("alice", fileId, AttachmentStore.MAX_FILE_BYTES + 1));
+    }
+
+    @Test
+    void accessIsGrantedPerUser() throws Exception {
+        AttachmentStore store = new AttachmentStore(dir.toString());
+        String fileId = upload(store, "alice", bytes(64, System.nanoTime()));
+
+        assertFalse(store.canRead(fileId, "alice"));
+        assertTrue(store.grant(fileId, "alice"));
+        assertTrue(store.canRead(fileId, "alice"));
+        assertFalse(store.canRead(fileId, "mallory"));
+        assertFalse(store.canRead("not-a-file-id", "alice"));
+    }
+
+    @Test
+    void ticketOpensOnlyItsOwnFile() throws Exception {
+        AttachmentStore store = new AttachmentStore(dir.toString());
+        String fileId = upload(store, "alice", bytes(64, 7));
+
+        String ticket = store.ticket(fileId);
+
+        assertEquals(fileId, store.redeem(ticket));
+        assertEquals(fileId, store.redeem(ticket), "a ticket may be redeemed again until it expires, e.g. to resume");
+        assertNull(store.redeem(ticket.substring(1) + "0"));
+        assertNull(store.redeem(null));
+        assertFalse(Arrays.asList(store.ticket(fileId), store.ticket(fileId)).contains(ticket));
+    }
+}
@@ -0,0 +1,342 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Keyset pagination of {@link ChatLogService}. The database is the shared test file named by
+ * DB_URL, so every test talks in conversations of its own.
+ *
+ * The multi-million-row walk is skipped unless run with {@code -Dchatchum.largeTests=true};
+ * {@code -Dchatchum.largeRows=N} changes its size.
+ */
+class ChatLogServiceTest {
+    private static ChatLogService chatLog;
+
+    @BeforeAll
+    static void setUp() {
+        chatLog = ChatLogService.getInstance();
+    }
+
+    private static String user(String name) {
+        return name + "-" + UUID.randomUUID();
+    }
+
+    /** Logs {@code count} chats alternating between the two directions and returns their messages in order. */
+    private static List<String> converse(String a, String b, int count) {
+        List<String> messages = new ArrayList<>(count);
+        String timestamp = Instant.now().toString();
+        for (int i = 0; i < count; i++) {
+            String message = "message " + i;
+            chatLog.logChat(i % 2 == 0 ? a : b, i % 2 == 0 ? b : a, message, timestamp);
+            messages.add(message);
+        }
+        assertTrue(chatLog.flush());
+        return messages;
+    }
+
+    private static List<String> messages(List<Map<String, String>> page) {
+        List<String> messages = new ArrayList<>(page.size());
+        for (Map<String, String> chat : page) {
+            messages.add(chat.get("message"));
+        }
+        return messages;
+    }
+
+    private static long id(Map<String, String> chat) {
+        return Long.parseLong(chat.get("id"));
+    }
+
+    @Test
+    void newestPageComesOldestFirst() {
+        String a = user("alice");
+        String b = user("bob");
+        List<String> logged = converse(a, b, 25);
+
+        List<Map<String, String>> page = chatLog.getChatHistoryPage(b, a, 0, 10);
+
+        assertEquals(logged.subList(15, 25), messages(page));
+        assertTrue(id(page.get(0)) < id(page.get(9)));
+    }
+
+    @Test
+    void walkingBackVisitsEveryChatOnceWithAPartialLastPage() {
+        String a = user("alice");
+        String b = user("bob");
+        List<String> logged = converse(a, b, 23);
+
+        List<String> walked = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        long before = 0;
+        while (true) {
+            List<Map<String, String>> page = chatLog.getChatHistoryPage(a, b, before, 5);
+            if (page.isEmpty()) {
+                break;
+            }
+            sizes.add(page.size());
+            walked.addAll(0, messages(page));
+            before = id(page.get(0));
+        }
+
+        assertEquals(List.of(5, 5, 5, 5, 3), sizes);
+        assertEquals(logged, walked);
+    }
+
+    @Test
+    void pageSizeDividingTheConversationEndsWithAnEmptyPage() {
+        String a = user("alice");
+        String b = user("bob");
+        converse(a, b, 20);
+
+        List<Map<String, String>> first = chatLog.getChatHistoryPage(a, b, 0, 10);
+        List<Map<String, String>> second = chatLog.getChatHistoryPage(a, b, id(first.get(0)), 10);
+
+        assertEquals(10, second.size());
+        assertTrue(chatLog.getChatHistoryPage(a, b, id(second.get(0)), 10).isEmpty());
+    }
+
+    @Test
+    void cursorIsExclusive() {
+        String a = user("alice");
+        String b = user("bob");
+        List<String> logged = converse(a, b, 3);
+        List<Map<String, String>> all = chatLog.getChatHistoryPage(a, b, 0, 10);
+        long oldest = id(all.get(0));
+        long newest = id(all.get(2));
+
+        assertTrue(chatLog.getChatHistoryPage(a, b, oldest, 10).isEmpty());
+        assertEquals(logged.subList(0, 1), messages(chatLog.getChatHistoryPage(a, b, oldest + 1, 10)));
+        assertEquals(logged.subList(0, 2), messages(chatLog.getChatHistoryPage(a, b, newest, 10)));
+        assertEquals(logged, messages(chatLog.getChatHistoryPage(a, b, newest + 1, 10)));
+    }
+
+    @Test
+    void otherConversationsNeverLeakIntoAPage() {
+        String a = user("alice");
+        String b = user("bob");
+        String c = user("carol");
+        String timestamp = Instant.now().toString();
+        for (int i = 0; i < 12; i++) {
+            chatLog.logChat(a, b, "ab " + i, timestamp);
+            chatLog.logChat(a, c, "ac " + i, timestamp);
+            chatLog.logChat(c, b, "cb " + i, timestamp);
+        }
+        assertTrue(chatLog.flush());
+
+        List<Map<String, String>> page = chatLog.getChatHistoryPage(b, a, 0, 0);
+
+        assertEquals(12, page.size());
+        for (Map<String, String> chat : page) {
+            assertTrue(chat.get("message").startsWith("ab "), chat.toString());
+        }
+    }
+
+    @Test
+    void streamStopsWhenTheVisitorDoes() {
+        String a = user("alice");
+        String b = user("bob");
+        converse(a, b, 10);
+        List<String> seen = new ArrayList<>();
+
+        int visited = chatLog.streamChatHistory(a, b, 0, 0, chat -> seen.add(chat.get("message")) && seen.size() < 4);
+
+        assertEquals(4, visited);
+        assertEquals(List.of("message 9", "message 8", "message 7", "message 6"), seen);
+    }
+
+    private static void log(String sender, String receiver, String... messages) {
+        String timestamp = Instant.now().toString();
+        for (String message : messages) {
+            chatLog.logChat(sender, receiver, message, timestamp);
+        }
+        assertTrue(chatLog.flush());
+    }
+
+    private static Set<String> found(String username, String query) {
+        return new HashSet<>(messages(chatLog.search(username, query, null, 0)));
+    }
+
+    @Test
+    void searchNeverReturnsAnotherUsersChats() {
+        String a = user("alice");
+        String b = user("bob");
+        String c = user("carol");
+        String d = user("dave");
+        log(a, b, "launch plan for alice");
+        log(c, d, "launch plan for carol");
+        log(d, a, "launch day");
+
+        assertEquals(Set.of("launch plan for alice", "launch day"), found(a, "launch"));
+        assertEquals(Set.of("launch plan for carol"), found(c, "launch"));
+        assertEquals(Set.of("launch plan for alice"), new HashSet<>(messages(chatLog.search(a, "launch", b, 0))));
+        assertTrue(chatLog.search(a, "launch", c, 0).isEmpty(), "a conversation alice is not in");
+        assertTrue(chatLog.search(b, "day", null, 0).isEmpty(), "a chat of alice's bob was not in");
+    }
+
+    @Test
+    void quotesDashesStarsAndOperatorsAreSearchedLiterally() {
+        String a = user("alice");
+        String b = user("bob");
+        log(a, b, "she said \"hi\" to me", "NEAR the OR gate", "garden gate", "e-mail me", "rate 5*");
+
+        assertEquals(Set.of("she said \"hi\" to me"), found(a, "\"hi"));
+        assertEquals(Set.of("she said \"hi\" to me"), found(a, "said \"\"hi\"\""));
+        assertEquals(Set.of("NEAR the OR gate"), found(a, "NEAR OR"));
+        assertEquals(Set.of("NEAR the OR gate"), found(a, "OR"));
+        assertEquals(Set.of("NEAR the OR gate"), found(a, "NEAR("));
+        assertTrue(found(a, "gate AND NEAR").isEmpty(), "AND is a word to find, not an operator");
+        assertEquals(Set.of("garden gate"), found(a, "gate -NEAR"));
+        assertEquals(Set.of("garden gate"), found(a, "gate -\"the OR\""));
+        assertEquals(Set.of("e-mail me"), found(a, "e-mail"));
+        assertEquals(Set.of("rate 5*"), found(a, "5*"));
+        for (String nothing : new String[] {"\"", "\"\"", "-", "*", "-gate", "(", ")", "^", ":"}) {
+            assertTrue(found(a, nothing).isEmpty(), nothing);
+        }
+    }
+
+    @Test
+    void prefixAndPhraseQueries() {
+        String a = user("alice");
+        String b = user("bob");
+        log(a, b, "deployment finished", "deploy now", "the quick brown fox", "brown and quick fox");
+
+        assertEquals(Set.of("deployment finished", "deploy now"), found(a, "depl*"));
+        assertEquals(Set.of("deploy now"), found(a, "deploy"));
+        assertEquals(Set.of("the quick brown fox"), found(a, "\"quick brown\""));
+        assertEquals(Set.of("the quick brown fox", "brown and quick fox"), found(a, "quick brown"));
+        assertEquals(Set.of("the quick brown fox", "brown and quick fox"), found(a, "quick bro*"));
+        assertEquals(Set.of("brown and quick fox"), found(a, "qui* -\"quick brown\""));
+    }
+
+    /** The rows of EXPLAIN QUERY PLAN for one history page. */
+    private static List<String> historyPagePlan() throws Exception {
+        return ConnectionProvider.getInstance().read(conn -> {
+            List<String> plan = new ArrayList<>();
+            try (PreparedStatement explain = conn.connection().prepareStatement("EXPLAIN QUERY PLAN " + ChatLogService.HISTORY_PAGE_SQL)) {
+                explain.setString(1, ChatLogService.conversationKey("alice", "bob"));
+                explain.setLong(2, Long.MAX_VALUE);
+                explain.setInt(3, 50);
+                try (ResultSet rs = explain.executeQuery()) {
+                    while (rs.next()) {
+                        plan.add(rs.getString("detail"));
+                    }
+                }
+            }
+            return plan;
+        });
+    }
+
+    @Test
+    void historyPageIsReadAlongTheConversationIndex() throws Exception {
+        List<String> plan = historyPagePlan();
+
+        assertEquals(1, plan.size(), plan.toString());
+        assertTrue(plan.get(0).matches("SEARCH (TABLE )?chats USING INDEX idx_chats_conversation \\(conversation_key=\\? AND id<\\?\\)"),
+                plan.toString());
+    }
+
+    /** Median time of one {@code pageSize} page over a walk of the whole conversation, from the newest page back. */
+    private static long medianPageNanos(String a, String b, int pageSize) {
+        List<Long> times = new ArrayList<>();
+        long before = 0;
+        while (true) {
+            long start = System.nanoTime();
+            List<Map<String, String>> page = chatLog.getChatHistoryPage(a, b, before, pageSize);
+            times.add(System.nanoTime() - start);
+            if (page.isEmpty()) {
+                break;
+            }
+            before = id(page.get(0));
+        }
+        Collections.sort(times);
+        return times.get(times.size() / 2);
+    }
+
+    /**
+     * Pages through a conversation of millions of rows interleaved with as many rows of
+     * other conversations, and checks that a page costs about as much as one of a small
+     * conversation: the page is read from idx_chats_conversation, not found by a scan.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "chatchum.largeTests", matches = "true")
+    void walksAMultiMillionRowConversation() throws Exception {
+        int rows = Integer.getInteger("chatchum.largeRows", 2_000_000);
+        String a = user("alice");
+        String b = user("bob");
+        String noise = user("noise");
+        String timestamp = Instant.now().toString();
+        ConnectionProvider.getInstance().transaction(conn -> {
+            PreparedStatement insert = conn.connection().prepareStatement(
+                    "INSERT INTO chats (sender, receiver, message, timestamp, conversation_key) VALUES (?, ?, ?, ?, ?)");
+            for (int i = 0; i < rows; i++) {
+                boolean own = i % 2 == 0;
+                String sender = own ? a : noise;
+                insert.setString(1, sender);
+                insert.setString(2, b);
+                insert.setString(3, Integer.toString(i));
+                insert.setString(4, timestamp);
+                insert.setString(5, ChatLogService.conversationKey(sender, b));
+                insert.addBatch();
+                if (i % 10_000 == 9_999) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+            insert.close();
+            return null;
+        });
+
+        int pageSize = 500;
+        int expected = (rows + 1) / 2;
+        int pages = 0;
+        int seen = 0;
+        long before = 0;
+        long previousMessage = Long.MAX_VALUE;
+        while (true) {
+            List<Map<String, String>> page = chatLog.getChatHistoryPage(a, b, before, pageSize);
+            if (page.isEmpty()) {
+                break;
+            }
+            pages++;
+            for (int i = page.size() - 1; i >= 0; i--) {
+                long message = Long.parseLong(page.get(i).get("message"));
+                assertTrue(message < previousMessage, "out of order at " + message);
+                assertEquals(0, message % 2, "row of another conversation");
+                previousMessage = message;
+            }
+            seen += page.size();
+            before = id(page.get(0));
+        }
+        assertEquals(expected, seen);
+        assertEquals((expected + pageSize - 1) / pageSize, pages);
+        assertEquals(0, previousMessage);
+
+        String c = user("carol");
+        String d = user("dave");
+        converse(c, d, 20 * pageSize);
+        medianPageNanos(c, d, pageSize); // Warm both walks up before timing them
+        long small = medianPageNanos(c, d, pageSize);
+        long large = medianPageNanos(a, b, pageSize);
+        // A scan of the table would make a page cost thousands of times more than the small one's
+        assertTrue(large <= 5 * small + TimeUnit.MILLISECONDS.toNanos(1),
+                String.format("median page of %d rows took %.2f ms against %.2f ms in a conversation of %d",
+                        expected, large / 1e6, small / 1e6, 20 * pageSize));
+        assertTrue(historyPagePlan().get(0).contains("USING INDEX idx_chats_conversation"), historyPagePlan().toString());
+    }
+}
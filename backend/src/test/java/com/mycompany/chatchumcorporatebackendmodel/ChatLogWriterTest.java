@@ -0,0 +1,127 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** {@link ChatLogWriter} against a database file of its own. */
+class ChatLogWriterTest {
+    @TempDir
+    Path dir;
+
+    private ConnectionProvider db() {
+        return new ConnectionProvider("jdbc:sqlite:" + dir.resolve("chats.db"), 1);
+    }
+
+    private static void createTable(ConnectionProvider db) throws SQLException {
+        db.write(conn -> {
+            try (Statement stmt = conn.connection().createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS chats (id INTEGER PRIMARY KEY AUTOINCREMENT, sender TEXT, "
+                        + "receiver TEXT, message TEXT, timestamp TEXT, conversation_key TEXT, message_id TEXT)");
+            }
+            return null;
+        });
+    }
+
+    private static int rows(ConnectionProvider db) throws SQLException {
+        return db.read(conn -> {
+            try (Statement stmt = conn.connection().createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM chats")) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        });
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void failedCommitIsRetriedUntilTheDatabaseRecovers() throws Exception {
+        ConnectionProvider db = db();
+        ChatLogWriter writer = new ChatLogWriter(db, 16, 1, 1, 1000);
+        try {
+            assertTrue(writer.enqueue("alice", "bob", "hi", "t", "m1")); // No chats table yet
+            await(() -> writer.getRetryCount() > 0);
+            createTable(db);
+
+            assertTrue(writer.flush(5000));
+            assertEquals(1, writer.getCommittedCount());
+            assertEquals(0, writer.getFailedCount());
+            assertEquals(1, rows(db));
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    void batchIsCountedFailedOnlyAfterEveryAttempt() throws Exception {
+        ChatLogWriter writer = new ChatLogWriter(db(), 16, 1, 1, 1000);
+        try {
+            assertTrue(writer.enqueue("alice", "bob", "lost", "t", "m1"));
+
+            assertTrue(writer.flush(10000));
+            assertEquals(1, writer.getFailedCount());
+            assertEquals(ChatLogWriter.COMMIT_ATTEMPTS - 1, writer.getRetryCount());
+            assertEquals(0, writer.getQueueDepth());
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    void everyRecordAcceptedAroundCloseIsCommitted() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            ConnectionProvider db = new ConnectionProvider("jdbc:sqlite:" + dir.resolve("close-" + round + ".db"), 1);
+            createTable(db);
+            ChatLogWriter writer = new ChatLogWriter(db, 1024, 64, 50, 1000);
+            int producers = 4;
+            ExecutorService pool = Executors.newFixedThreadPool(producers);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Integer>> accepted = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                String sender = "p" + p;
+                accepted.add(pool.submit(() -> {
+                    start.await();
+                    int n = 0;
+                    for (int i = 0; i < 200; i++) {
+                        if (writer.enqueue(sender, "bob", "m" + i, "t", sender + "-" + i)) {
+                            n++;
+                        }
+                    }
+                    return n;
+                }));
+            }
+            start.countDown();
+            writer.close();
+            int total = 0;
+            for (Future<Integer> future : accepted) {
+                total += future.get(10, TimeUnit.SECONDS);
+            }
+            pool.shutdown();
+
+            assertEquals(total, rows(db), "round " + round);
+            assertEquals(total, writer.getCommittedCount(), "round " + round);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ChatProtocolTest {
+
+    @Test
+    void decodesAMessage() throws IOException {
+        ChatProtocol.Frame frame = ChatProtocol.decode(
+                "{\"type\":\"message\",\"sender\":\"alice\",\"receiver\":\"bob\",\"content\":\"hi\",\"messageId\":\"m1\",\"extra\":[1,{}]}");
+
+        ChatProtocol.ChatMessage message = assertInstanceOf(ChatProtocol.ChatMessage.class, frame);
+        assertEquals("alice", message.sender);
+        assertEquals("bob", message.receiver);
+        assertEquals("hi", message.content);
+        assertEquals("m1", message.messageId);
+    }
+
+    @Test
+    void allowsTrailingWhitespace() throws IOException {
+        assertEquals(ChatProtocol.Type.PING, ChatProtocol.decode("{\"type\":\"ping\"} \r\n").type);
+    }
+
+    @Test
+    void rejectsAnythingAfterTheFrame() {
+        for (String frame : List.of(
+                "{\"type\":\"message\",\"receiver\":\"bob\",\"content\":\"hi\"} ]] junk",
+                "{\"type\":\"message\",\"receiver\":\"bob\",\"content\":\"hi\"}{\"type\":\"ping\"}",
+                "{\"type\":\"ping\"},0",
+                "{\"type\":\"ping\"}]")) {
+            assertThrows(IOException.class, () -> ChatProtocol.decode(frame), frame);
+        }
+    }
+
+    @Test
+    void stillDecodesAfterARejectedFrame() throws IOException {
+        assertThrows(IOException.class, () -> ChatProtocol.decode("{\"type\":\"ping\"} junk"));
+        assertThrows(Exception.class, () -> ChatProtocol.decode("{\"type\":"));
+        assertThrows(Exception.class, () -> ChatProtocol.decode("]"));
+        assertThrows(IOException.class, () -> ChatProtocol.decode("{\"type\":\"ping\"},1.5"));
+
+        assertEquals(ChatProtocol.Type.GET_USERS, ChatProtocol.decode("{\"type\":\"getUsers\"}").type);
+    }
+
+    @Test
+    void addsTheSenderAsTheLastField() throws IOException {
+        String raw = "{\"type\":\"message\",\"sender\":null,\"receiver\":\"bob\",\"content\":\"}\"} ";
+
+        String sent = ChatProtocol.withSender(raw, "al\"ice");
+
+        ChatProtocol.ChatMessage message = (ChatProtocol.ChatMessage) ChatProtocol.decode(sent);
+        assertEquals("al\"ice", message.sender);
+        assertEquals("}", message.content);
+    }
+
+    /** Frames of every size pass through the one reader the thread keeps. */
+    @Test
+    void decodesFrameAfterFrameOfAnySize() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 5_000; i++) {
+            String text = content.toString();
+            ChatProtocol.ChatMessage message = (ChatProtocol.ChatMessage) ChatProtocol.decode(
+                    "{\"type\":\"message\",\"receiver\":\"bob\",\"content\":\"" + text + "\"}");
+            assertEquals(text, message.content);
+            content.append((char) ('a' + i % 26));
+            if (i % 7 == 1) {
+                assertThrows(IOException.class, () -> ChatProtocol.decode("{\"type\":\"ping\"} " + text));
+            }
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/** Routing through {@link ChatRouter}, on the shared test database named by DB_URL. */
+class ChatRouterTest {
+    @TempDir
+    Path dir;
+
+    private final List<AutoCloseable> open = new ArrayList<>();
+    private final InboxService inbox = InboxService.getInstance();
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (int i = open.size() - 1; i >= 0; i--) {
+            open.get(i).close();
+        }
+    }
+
+    private ChatRouter router(String name) throws IOException {
+        ChatRouter router = new ChatRouter(dir.resolve(name + "/segments").toString(),
+                dir.resolve(name + "/attachments").toString(), null);
+        open.add(router);
+        return router;
+    }
+
+    /** A registered user with a name no other test uses. */
+    private static String user(String name) {
+        String username = name + "-" + UUID.randomUUID();
+        UserService.getInstance().addUser(username);
+        return username;
+    }
+
+    private static TestConnection login(ChatRouter router, String username) {
+        TestConnection conn = new TestConnection();
+        router.onFrame(conn, "{\"type\":\"init\",\"username\":\"" + username + "\"}");
+        return conn;
+    }
+
+    private static String message(String sender, String receiver, String content) {
+        return "{\"type\":\"message\",\"sender\":\"" + sender + "\",\"receiver\":\"" + receiver
+                + "\",\"content\":\"" + content + "\"}";
+    }
+
+    /** Cluster frame carrying {@code frame} to the receiver's node. */
+    private static String deliver(String frame) {
+        return "{\"type\":\"deliver\",\"frame\":\"" + frame.replace("\"", "\\\"") + "\"}";
+    }
+
+    private static void await(String what, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out waiting for " + what);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static boolean received(TestConnection conn, String content) {
+        for (String frame : conn.written) {
+            if (frame.contains("\"content\":\"" + content + "\"")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int stored(String node, String username) {
+        return inbox.read(node, username, 0, 1000).size();
+    }
+
+    @Test
+    void storesForAnOfflineUserAndDeliversOnLogin() throws Exception {
+        ChatRouter router = router("node");
+        String alice = user("alice");
+        String bob = user("bob");
+        TestConnection sender = login(router, alice);
+
+        router.onFrame(sender, message(alice, bob, "while you were out"));
+        await("the message to be stored", () -> stored("", bob) == 1);
+        await("the echo", () -> received(sender, "while you were out"));
+        TestConnection receiver = login(router, bob);
+
+        await("the inbox", () -> !receiver.frames("inbox").isEmpty());
+        assertTrue(receiver.frames("inbox").get(0).contains("while you were out"));
+    }
+
+    @Test
+    void storesNothingForAnUnknownReceiver() throws Exception {
+        ChatRouter router = router("node");
+        String alice = user("alice");
+        String ghost = "ghost-" + UUID.randomUUID();
+        TestConnection sender = login(router, alice);
+
+        router.onFrame(sender, message(alice, ghost, "hello?"));
+        router.getDispatcher().close(); // Runs what was queued
+
+        assertEquals(0, stored("", ghost));
+        assertTrue(!received(sender, "hello?"), "an unstored message must not be echoed as sent");
+    }
+
+    @Test
+    void storesNothingFromAConnectionThatNeverLoggedIn() throws Exception {
+        ChatRouter router = router("node");
+        String alice = user("alice");
+        String bob = user("bob");
+
+        router.onFrame(new TestConnection(), message(alice, bob, "forged"));
+        router.getDispatcher().close();
+
+        assertEquals(0, stored("", bob));
+    }
+
+    @Test
+    void messageWithoutASenderGoesOutAsTheLoggedInUser() throws Exception {
+        ChatRouter router = router("node");
+        String alice = user("alice");
+        String bob = user("bob");
+        TestConnection sender = login(router, alice);
+        TestConnection receiver = login(router, bob);
+
+        router.onFrame(sender, "{\"type\":\"message\",\"receiver\":\"" + bob + "\",\"content\":\"who am I\"}");
+
+        await("delivery", () -> received(receiver, "who am I"));
+        ChatProtocol.ChatMessage delivered = (ChatProtocol.ChatMessage) ChatProtocol.decode(receiver.frames("message").get(0));
+        assertEquals(alice, delivered.sender);
+    }
+
+    @Test
+    void refusesAMessageNamingAnotherSender() throws Exception {
+        ChatRouter router = router("node");
+        String alice = user("alice");
+        String bob = user("bob");
+        String carol = user("carol");
+        TestConnection sender = login(router, alice);
+        TestConnection receiver = login(router, bob);
+
+        router.onFrame(sender, message(carol, bob, "forged"));
+        router.onFrame(sender, message(carol, "ghost-" + UUID.randomUUID(), "forged offline"));
+        router.getDispatcher().close();
+
+        assertTrue(!received(receiver, "forged"), "a forged message must not be delivered");
+        assertEquals(2, sender.frames("error").size());
+        assertEquals(0, stored("", bob));
+    }
+
+    @Test
+    void tcpClientWithoutAVersionGetsTheLegacyReplies() throws Exception {
+        ChatRouter router = router("node");
+        String alice = user("alice");
+        String bob = user("bob");
+        TestConnection legacy = new TestConnection();
+        legacy.defaultProtocol = ChatProtocol.LEGACY_VERSION;
+        router.onFrame(legacy, "{\"type\":\"init\",\"username\":\"" + alice + "\"}");
+        TestConnection receiver = login(router, bob);
+        TestConnection current = new TestConnection();
+        current.defaultProtocol = ChatProtocol.LEGACY_VERSION;
+        router.onFrame(current, "{\"type\":\"init\",\"username\":\"" + user("carol") + "\",\"protocol\":2}");
+
+        router.onFrame(legacy, "{\"type\":\"message\",\"receiver\":\"" + bob + "\",\"content\":\"old tool\"}");
+        router.onFrame(legacy, "{\"type\":\"getUsers\"}");
+        router.onFrame(legacy, message(alice, "ghost-" + UUID.randomUUID(), "nobody"));
+        router.onFrame(new TestConnection(), "{\"type\":\"init\",\"username\":\"" + alice + "\"}");
+        router.onFrame(current, message(alice, bob, "not mine"));
+        router.getDispatcher().close();
+
+        assertEquals(List.of(ChatProtocol.registered(alice)), legacy.frames("registered"));
+        assertEquals(List.of(ChatProtocol.sent(bob, "old tool")), legacy.frames("sent"));
+        assertTrue(received(receiver, "old tool"));
+        assertTrue(legacy.frames("message").isEmpty(), "a legacy client gets sent instead of the echo");
+        assertEquals(1, legacy.frames("userlist").size());
+        assertTrue(legacy.frames("userlist").get(0).contains(alice));
+        assertEquals(1, legacy.frames("error").size());
+        assertTrue(current.frames("registered").isEmpty(), "protocol 2 asked for in init wins over the transport's default");
+        assertEquals(1, current.frames("error").size());
+    }
+
+    @Test
+    void messageThatCannotBeSavedIsNeitherDeliveredNorRemembered() throws Exception {
+        ChatRouter router = router("node");
+        String alice = user("alice");
+        String bob = user("bob");
+        TestConnection sender = login(router, alice);
+        TestConnection receiver = login(router, bob);
+        router.getMessageStore().close(); // Every append fails from here on
+        String frame = "{\"type\":\"message\",\"sender\":\"" + alice + "\",\"receiver\":\"" + bob
+                + "\",\"content\":\"lost?\",\"messageId\":\"m1\"}";
+
+        router.onFrame(sender, frame);
+        router.onFrame(sender, frame); // The client resends what was not confirmed
+        router.getDispatcher().close();
+
+        assertTrue(!received(receiver, "lost?"), "an unsaved message must not be delivered");
+        assertTrue(sender.frames("message").isEmpty(), "an unsaved message must not be echoed");
+        assertEquals(2, sender.frames("error").size(), "the resend must not be taken for a duplicate");
+    }
+
+    @Test
+    void inboxHandedToAnotherNodeIsKeptUntilThatNodeAcknowledgesIt() throws Exception {
+        InProcessClusterTransport.Fabric fabric = new InProcessClusterTransport.Fabric();
+        ChatRouter router = router("a");
+        router.joinCluster(new ClusterNode("a", new InProcessClusterTransport(fabric)));
+        String alice = user("alice");
+        String bob = user("bob");
+        TestConnection sender = login(router, alice);
+        router.onFrame(sender, message(alice, bob, "one"));
+        router.onFrame(sender, message(alice, bob, "two"));
+        await("both messages to be stored", () -> stored("a", bob) == 2);
+
+        List<String> batches = new CopyOnWriteArrayList<>();
+        InProcessClusterTransport peer = new InProcessClusterTransport(fabric);
+        open.add(peer);
+        peer.start("b", (from, frames) -> {
+            for (String frame : frames) {
+                if (frame.startsWith("{\"type\":\"inbox\"")) {
+                    batches.add(frame);
+                }
+            }
+        });
+        peer.send("a", List.of("{\"type\":\"route\",\"user\":\"" + bob + "\",\"online\":true}"));
+        await("the inbox batch", () -> !batches.isEmpty());
+        long upTo = inbox.read("a", bob, 0, 10).get(1).id;
+
+        assertTrue(batches.get(0).contains("\"upTo\":" + upTo), batches.get(0));
+        assertEquals(2, stored("a", bob));
+        peer.send("a", List.of("{\"type\":\"inboxAck\",\"user\":\"" + bob + "\",\"upTo\":" + (upTo - 1) + "}"));
+        Thread.sleep(100);
+        assertEquals(2, stored("a", bob), "an ack for another batch deletes nothing");
+
+        peer.send("a", List.of("{\"type\":\"inboxAck\",\"user\":\"" + bob + "\",\"upTo\":" + upTo + "}"));
+        await("the acknowledged rows to be deleted", () -> stored("a", bob) == 0);
+    }
+
+    @Test
+    void forwardedMessageSentAgainIsDeliveredAndStoredOnce() throws Exception {
+        InProcessClusterTransport.Fabric fabric = new InProcessClusterTransport.Fabric();
+        ChatRouter router = router("a");
+        router.joinCluster(new ClusterNode("a", new InProcessClusterTransport(fabric)));
+        String alice = user("alice");
+        String bob = user("bob");
+        String carol = user("carol");
+        TestConnection receiver = login(router, bob);
+        InProcessClusterTransport peer = new InProcessClusterTransport(fabric);
+        open.add(peer);
+        peer.start("b", (from, frames) -> { });
+        String online = "{\"type\":\"message\",\"sender\":\"" + alice + "\",\"receiver\":\"" + bob
+                + "\",\"content\":\"once\",\"messageId\":\"m1\"}";
+        String offline = "{\"type\":\"message\",\"sender\":\"" + alice + "\",\"receiver\":\"" + carol
+                + "\",\"content\":\"stored once\",\"messageId\":\"m2\"}";
+        List<String> batch = List.of(deliver(online), deliver(offline));
+
+        peer.send("a", batch);
+        peer.send("a", batch); // Resent after the connection that carried it broke
+        await("delivery", () -> received(receiver, "once"));
+        await("the offline copy", () -> stored("a", carol) == 1);
+        router.getDispatcher().awaitIdle();
+        router.getDispatcher().awaitIdle(); // And the history pushes the deliveries queued
+
+        assertEquals(1, receiver.frames("message").size());
+        assertEquals(1, stored("a", carol));
+    }
+
+    @Test
+    void inboxFollowsItsUserToAnotherNode() throws Exception {
+        InProcessClusterTransport.Fabric fabric = new InProcessClusterTransport.Fabric();
+        ChatRouter a = router("a");
+        a.joinCluster(new ClusterNode("a", new InProcessClusterTransport(fabric)));
+        ChatRouter b = router("b");
+        b.joinCluster(new ClusterNode("b", new InProcessClusterTransport(fabric)));
+        String alice = user("alice");
+        String bob = user("bob");
+        TestConnection sender = login(a, alice);
+        a.onFrame(sender, message(alice, bob, "kept for you"));
+        await("the message to be stored", () -> stored("a", bob) == 1);
+
+        TestConnection receiver = login(b, bob);
+
+        await("delivery on the other node", () -> received(receiver, "kept for you"));
+        await("the handed over rows to be deleted", () -> stored("a", bob) == 0);
+        assertEquals(0, stored("b", bob));
+    }
+
+    @Test
+    void searchIsAnsweredWhileTheUsersLaneIsBusy() throws Exception {
+        ChatRouter router = router("node");
+        String alice = user("alice");
+        String bob = user("bob");
+        String word = "needle" + UUID.randomUUID().toString().replace("-", "");
+        ChatLogService.getInstance().logChat(alice, bob, "find the " + word, Instant.now().toString());
+        assertTrue(ChatLogService.getInstance().flush());
+        TestConnection conn = login(router, alice);
+        CountDownLatch release = new CountDownLatch(1);
+        router.getDispatcher().execute(alice, () -> { // A slow upload or inbox on alice's lane
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        try {
+            router.onFrame(conn, "{\"type\":\"search\",\"query\":\"" + word + "\"}");
+            await("the search results", () -> !conn.frames("searchResults").isEmpty());
+            assertTrue(conn.frames("searchResults").get(0).contains("find the " + word));
+        } finally {
+            release.countDown();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** {@link ConversationCache} on its own, fed the way {@link MessageStore} feeds it. */
+class ConversationCacheTest {
+    private static ChatProtocol.ChatMessage message(long seq) {
+        return message(seq, "message " + seq);
+    }
+
+    private static ChatProtocol.ChatMessage message(long seq, String content) {
+        return new ChatProtocol.ChatMessage("alice", "bob", content, "2026-01-01T00:00:00Z", seq);
+    }
+
+    private static List<Long> seqs(List<ChatProtocol.ChatMessage> messages) {
+        List<Long> seqs = new ArrayList<>();
+        messages.forEach(m -> seqs.add(m.seq));
+        return seqs;
+    }
+
+    private static List<Long> range(long from, long to) {
+        List<Long> seqs = new ArrayList<>();
+        for (long seq = from; seq <= to; seq++) {
+            seqs.add(seq);
+        }
+        return seqs;
+    }
+
+    private static void append(ConversationCache cache, String key, long from, long to) {
+        for (long seq = from; seq <= to; seq++) {
+            cache.append(key, message(seq));
+        }
+    }
+
+    @Test
+    void readIsAHitWhileTheTailReachesBackFarEnough() {
+        ConversationCache cache = new ConversationCache(1 << 20, 20);
+        append(cache, "a|b", 1, 50);
+
+        assertEquals(range(31, 50), seqs(cache.read("a|b", 30, 50)));
+        assertEquals(range(41, 45), seqs(cache.read("a|b", 40, 45)));
+        assertNull(cache.read("a|b", 29, 50), "message 30 has left the tail");
+        assertNull(cache.read("a|b", 40, 51), "past the newest message");
+        assertNull(cache.read("x|y", 0, 1));
+        assertEquals(2, cache.getHits());
+        assertEquals(3, cache.getMisses());
+    }
+
+    @Test
+    void ringGrowsOnDemandUpToTheTailLength() {
+        ConversationCache cache = new ConversationCache(1 << 20, 20);
+        cache.append("a|b", message(1));
+        long base = cache.getBytes() - ConversationCache.estimateBytes(message(1));
+        append(cache, "a|b", 2, 8);
+        long full = cache.getBytes();
+        assertEquals(base + 8 * ConversationCache.estimateBytes(message(1)), full, "messages of equal size");
+
+        cache.append("a|b", message(9));
+        assertEquals(full + ConversationCache.estimateBytes(message(9)) + 4 * 8, cache.getBytes(), "ring of 8 doubled to 16");
+
+        append(cache, "a|b", 10, 16);
+        long beforeCap = cache.getBytes();
+        cache.append("a|b", message(17));
+        assertEquals(beforeCap + ConversationCache.estimateBytes(message(17)) + 4 * 4, cache.getBytes(), "ring of 16 grown only to 20");
+
+        append(cache, "a|b", 18, 20);
+        long capped = cache.getBytes();
+        ChatProtocol.ChatMessage longer = message(21, "a much longer message than the one it replaces");
+        cache.append("a|b", longer);
+        assertEquals(capped - ConversationCache.estimateBytes(message(1)) + ConversationCache.estimateBytes(longer),
+                cache.getBytes(), "a full ring overwrites its oldest message");
+        assertEquals(range(2, 21), seqs(cache.read("a|b", 1, 21)));
+    }
+
+    @Test
+    void grownRingKeepsOrderAcrossTheWrap() {
+        ConversationCache cache = new ConversationCache(1 << 20, 12);
+        append(cache, "a|b", 1, 8);
+        append(cache, "a|b", 9, 100); // Grows from a wrapped ring of 8
+
+        assertEquals(range(89, 100), seqs(cache.read("a|b", 88, 100)));
+    }
+
+    @Test
+    void leastRecentlyUsedConversationIsEvictedFirst() {
+        ConversationCache probe = new ConversationCache(1 << 20, 8);
+        append(probe, "a|b", 1, 4);
+        long oneConversation = probe.getBytes();
+        ConversationCache cache = new ConversationCache(2 * oneConversation + oneConversation / 2, 8);
+        append(cache, "a|b", 1, 4);
+        append(cache, "c|d", 1, 4);
+        assertNotNull(cache.read("a|b", 0, 4)); // a|b is now the most recently used
+
+        append(cache, "e|f", 1, 4);
+
+        assertEquals(2, cache.getConversations());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.read("c|d", 0, 4));
+        assertEquals(range(1, 4), seqs(cache.read("a|b", 0, 4)));
+        assertEquals(range(1, 4), seqs(cache.read("e|f", 0, 4)));
+        assertTrue(cache.getBytes() <= cache.getMaxBytes());
+    }
+
+    @Test
+    void evictionReleasesExactlyTheBytesAccounted() {
+        ConversationCache cache = new ConversationCache(64 * 1024, 16);
+        append(cache, "a|b", 1, 40); // Grown and wrapped
+        cache.append("a|b", message(45)); // A gap restarts the tail
+        append(cache, "a|b", 46, 50);
+        cache.fill("c|d", List.of(message(1), message(2), message(3)));
+
+        cache.append("e|f", message(1, "x".repeat(40 * 1024))); // Alone bigger than the budget
+
+        assertEquals(0, cache.getConversations());
+        assertEquals(0, cache.getBytes());
+        assertEquals(3, cache.getEvictions());
+    }
+
+    @Test
+    void messageThatDoesNotFollowTheTailRestartsIt() {
+        ConversationCache cache = new ConversationCache(1 << 20, 20);
+        append(cache, "a|b", 1, 10);
+        cache.append("a|b", message(3));
+        long restarted = cache.getBytes();
+
+        cache.append("a|b", message(7));
+
+        assertEquals(restarted, cache.getBytes(), "one message of the same size");
+        assertEquals(List.of(7L), seqs(cache.read("a|b", 6, 7)));
+        assertNull(cache.read("a|b", 9, 10));
+    }
+
+    @Test
+    void fillKeepsTheNewestMessagesUnlessTheTailReachesFurther() {
+        ConversationCache cache = new ConversationCache(1 << 20, 5);
+        List<ChatProtocol.ChatMessage> page = new ArrayList<>();
+        for (long seq = 1; seq <= 9; seq++) {
+            page.add(message(seq));
+        }
+        cache.fill("a|b", page);
+        assertEquals(range(5, 9), seqs(cache.read("a|b", 4, 9)));
+        assertNull(cache.read("a|b", 3, 9));
+
+        cache.fill("a|b", page.subList(6, 9));
+        assertEquals(range(5, 9), seqs(cache.read("a|b", 4, 9)), "a shorter fill does not shrink the tail");
+    }
+
+    @Test
+    void cacheOfZeroBytesOrMessagesIsDisabled() {
+        for (ConversationCache cache : List.of(new ConversationCache(0, 20), new ConversationCache(1 << 20, 0))) {
+            append(cache, "a|b", 1, 5);
+
+            assertFalse(cache.isEnabled());
+            assertNull(cache.read("a|b", 0, 5));
+            assertEquals(0, cache.getConversations());
+            assertEquals(0, cache.getMisses());
+        }
+    }
+}
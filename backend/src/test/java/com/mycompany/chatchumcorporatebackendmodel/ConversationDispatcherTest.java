@@ -0,0 +1,137 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConversationDispatcherTest {
+    private static final Duration DEADLOCK = Duration.ofSeconds(10);
+
+    @Test
+    void runsOneKeyInSubmissionOrder() throws Exception {
+        ConversationDispatcher dispatcher = new ConversationDispatcher(4, 16);
+        List<Integer> ran = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            int n = i;
+            dispatcher.execute("alice\u001Fbob", () -> ran.add(n));
+        }
+        dispatcher.close();
+
+        assertEquals(1_000, ran.size());
+        for (int i = 0; i < ran.size(); i++) {
+            assertEquals(i, ran.get(i));
+        }
+    }
+
+    /** A lane task that fills its own lane, as a send that disconnects a slow client does. */
+    @Test
+    void laneSubmittingToItsOwnFullLaneDoesNotDeadlock() {
+        ConversationDispatcher dispatcher = new ConversationDispatcher(1, 1);
+        AtomicInteger ran = new AtomicInteger();
+
+        assertTimeoutPreemptively(DEADLOCK, () -> {
+            dispatcher.execute("a", () -> {
+                for (int i = 0; i < 100; i++) {
+                    dispatcher.execute("a", ran::incrementAndGet);
+                }
+            });
+            dispatcher.awaitIdle();
+        });
+        assertEquals(100, ran.get());
+        dispatcher.close();
+    }
+
+    @Test
+    void lanesSubmittingToEachOtherDoNotDeadlock() {
+        ConversationDispatcher dispatcher = new ConversationDispatcher(2, 1);
+        String[] keys = keysOnDistinctLanes(dispatcher);
+        AtomicInteger ran = new AtomicInteger();
+
+        assertTimeoutPreemptively(DEADLOCK, () -> {
+            for (int side = 0; side < 2; side++) {
+                String other = keys[1 - side];
+                dispatcher.execute(keys[side], () -> {
+                    for (int i = 0; i < 100; i++) {
+                        dispatcher.execute(other, ran::incrementAndGet);
+                    }
+                });
+            }
+            dispatcher.awaitIdle();
+            dispatcher.awaitIdle(); // The second round covers what the first one submitted
+        });
+        assertEquals(200, ran.get());
+        dispatcher.close();
+    }
+
+    @Test
+    void outsideSubmittersStillWaitForRoom() throws Exception {
+        ConversationDispatcher dispatcher = new ConversationDispatcher(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        dispatcher.execute("a", () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        while (dispatcher.getQueued() > 0) { // The blocker is running and no longer holds a permit
+            Thread.sleep(1);
+        }
+        dispatcher.execute("a", () -> { });
+        CountDownLatch submitted = new CountDownLatch(1);
+        Thread submitter = new Thread(() -> {
+            dispatcher.execute("a", () -> { });
+            submitted.countDown();
+        });
+        submitter.start();
+
+        assertTrue(!submitted.await(200, TimeUnit.MILLISECONDS), "a full lane must make its submitter wait");
+        release.countDown();
+        assertTrue(submitted.await(10, TimeUnit.SECONDS));
+        dispatcher.close();
+    }
+
+    @Test
+    void countsTasksSubmittedAfterClose() {
+        ConversationDispatcher dispatcher = new ConversationDispatcher(2, 4);
+        dispatcher.close();
+
+        dispatcher.execute("a", () -> { });
+        dispatcher.execute("b", () -> { });
+
+        assertEquals(2, dispatcher.getDropped());
+    }
+
+    private static String[] keysOnDistinctLanes(ConversationDispatcher dispatcher) {
+        // Find two keys that land on different lanes by watching which thread runs them
+        String[] threadOf = new String[64];
+        CountDownLatch done = new CountDownLatch(threadOf.length);
+        for (int i = 0; i < threadOf.length; i++) {
+            int n = i;
+            dispatcher.execute("key-" + i, () -> {
+                threadOf[n] = Thread.currentThread().getName();
+                done.countDown();
+            });
+        }
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+        for (int i = 1; i < threadOf.length; i++) {
+            if (!threadOf[i].equals(threadOf[0])) {
+                return new String[] {"key-0", "key-" + i};
+            }
+        }
+        throw new AssertionError("every key landed on one lane");
+    }
+}
@@ -0,0 +1,140 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** {@link IdleReaper} ticked by hand on a clock the test moves. */
+class IdleReaperTest {
+    private static final long TIMEOUT = 1000;
+    /** One wheel tick for {@link #TIMEOUT}; a session expires at most this late. */
+    private static final long TICK = 2;
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final Set<ChatSession> registered = new HashSet<>();
+    /** How often each session's bucket came up while it was registered. */
+    private final Map<ChatSession, Integer> visits = new HashMap<>();
+    private final List<List<ChatSession>> batches = new ArrayList<>();
+    private final IdleReaper reaper = new IdleReaper(TIMEOUT, session -> {
+        visits.merge(session, 1, Integer::sum);
+        return registered.contains(session);
+    }, batches::add, now::get);
+
+    @AfterEach
+    void tearDown() {
+        reaper.close();
+    }
+
+    private ChatSession session(String name) {
+        ChatSession session = new ChatSession(name, null);
+        registered.add(session);
+        reaper.track(session);
+        return session;
+    }
+
+    private void advanceTo(long offset) {
+        now.set(1_000_000 + offset);
+        reaper.tick();
+    }
+
+    private List<ChatSession> expired() {
+        List<ChatSession> all = new ArrayList<>();
+        batches.forEach(all::addAll);
+        return all;
+    }
+
+    @Test
+    void silentSessionExpiresWithinATickOfItsTimeout() {
+        ChatSession alice = session("alice");
+
+        advanceTo(TIMEOUT - 1);
+        assertTrue(batches.isEmpty());
+
+        advanceTo(TIMEOUT + TICK);
+        assertEquals(List.of(List.of(alice)), batches);
+    }
+
+    @Test
+    void activeSessionIsMovedToItsNewDeadlineOncePerTimeout() {
+        ChatSession alice = session("alice");
+        for (long t = 100; t <= 900; t += 100) {
+            advanceTo(t);
+            reaper.touch(alice);
+        }
+
+        advanceTo(TIMEOUT + TICK);
+        assertTrue(batches.isEmpty(), "touched at 900, so not idle at 1000");
+        assertEquals(1, visits.get(alice), "touches must not visit the wheel");
+
+        advanceTo(900 + TIMEOUT - 1);
+        assertTrue(batches.isEmpty());
+
+        advanceTo(900 + TIMEOUT + TICK);
+        assertEquals(List.of(alice), expired());
+        assertEquals(2, visits.get(alice));
+    }
+
+    @Test
+    void sessionKeptAliveIsLookedAtAboutOncePerTimeout() {
+        ChatSession alice = session("alice");
+        for (long t = 10; t <= 10 * TIMEOUT; t += 10) {
+            advanceTo(t);
+            reaper.touch(alice);
+        }
+
+        assertTrue(batches.isEmpty());
+        assertTrue(visits.get(alice) <= 11, "visited " + visits.get(alice) + " times over 10 timeouts");
+    }
+
+    @Test
+    void sessionsGoingIdleInOneTickAreHandedOverAsOneBatch() {
+        List<ChatSession> sessions = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            sessions.add(session("user" + i));
+        }
+        advanceTo(TIMEOUT / 2);
+        ChatSession later = session("later");
+
+        advanceTo(TIMEOUT + TICK);
+        assertEquals(1, batches.size());
+        assertEquals(new HashSet<>(sessions), new HashSet<>(batches.get(0)));
+
+        advanceTo(TIMEOUT / 2 + TIMEOUT + TICK);
+        assertEquals(List.of(later), batches.get(1));
+    }
+
+    @Test
+    void ticksMissedWhileTheClockJumpedAreCaughtUpInOneBatch() {
+        ChatSession early = session("early");
+        advanceTo(300);
+        ChatSession late = session("late");
+
+        advanceTo(3 * TIMEOUT); // More than a whole turn of the wheel
+
+        assertEquals(1, batches.size());
+        assertEquals(Set.of(early, late), new HashSet<>(batches.get(0)));
+    }
+
+    @Test
+    void unregisteredSessionIsDroppedWithoutExpiring() {
+        ChatSession alice = session("alice");
+        ChatSession bob = session("bob");
+        registered.remove(alice); // Logged out
+
+        advanceTo(TIMEOUT + TICK);
+        advanceTo(5 * TIMEOUT);
+
+        assertEquals(List.of(bob), expired());
+        assertEquals(1, visits.get(alice), "dropped from the wheel on its first visit");
+    }
+}
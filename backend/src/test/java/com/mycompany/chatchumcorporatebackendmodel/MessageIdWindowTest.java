@@ -0,0 +1,161 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** {@link MessageIdWindow} on a clock the test moves. */
+class MessageIdWindowTest {
+    /** Three slices of one second each, so an id is kept for three to four seconds. */
+    private static final long WINDOW_MS = 3000;
+
+    private final AtomicLong now = new AtomicLong(TimeUnit.SECONDS.toNanos(100));
+    private final long start = now.get();
+
+    private MessageIdWindow window(int sliceCapacity) {
+        return new MessageIdWindow(WINDOW_MS, sliceCapacity, now::get);
+    }
+
+    private void at(long millis) {
+        now.set(start + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /** {@code count} ids of {@code sender} that land in the same shard. */
+    private static List<String> idsInOneShard(String sender, int count) {
+        List<String> ids = new ArrayList<>();
+        long shard = MessageIdWindow.fingerprint(sender, "m0") >>> 60;
+        for (int i = 0; ids.size() < count; i++) {
+            if (MessageIdWindow.fingerprint(sender, "m" + i) >>> 60 == shard) {
+                ids.add("m" + i);
+            }
+        }
+        return ids;
+    }
+
+    @Test
+    void idIsRememberedForTheWholeWindowThenDroppedWithItsSlice() {
+        MessageIdWindow window = window(1 << 20);
+        at(999); // End of the first slice
+        window.add("alice", "m1");
+
+        at(999 + WINDOW_MS);
+        assertTrue(window.contains("alice", "m1"));
+        at(3999);
+        assertTrue(window.contains("alice", "m1"));
+
+        at(4000);
+        assertFalse(window.contains("alice", "m1"));
+    }
+
+    @Test
+    void slicesRotateOneAtATime() {
+        MessageIdWindow window = window(1 << 20);
+        window.add("alice", "first");
+        at(1500);
+        window.add("alice", "second");
+
+        at(4000);
+        assertFalse(window.contains("alice", "first"));
+        assertTrue(window.contains("alice", "second"));
+
+        at(5000);
+        assertFalse(window.contains("alice", "second"));
+    }
+
+    @Test
+    void clockJumpPastTheWindowForgetsEverything() {
+        MessageIdWindow window = window(1 << 20);
+        window.add("alice", "m1");
+        at(1000);
+        window.add("alice", "m2");
+
+        at(60_000);
+        assertFalse(window.contains("alice", "m1"));
+        assertFalse(window.contains("alice", "m2"));
+
+        window.add("alice", "m3");
+        at(62_999);
+        assertTrue(window.contains("alice", "m3"), "slices line up again after the jump");
+    }
+
+    @Test
+    void fullSliceRotatesEarly() {
+        MessageIdWindow window = window(16); // One id per shard and slice
+        List<String> ids = idsInOneShard("alice", 5);
+        for (String id : ids.subList(0, 4)) {
+            window.add("alice", id);
+        }
+        for (String id : ids.subList(0, 4)) {
+            assertTrue(window.contains("alice", id), id);
+        }
+
+        window.add("alice", ids.get(4));
+
+        assertFalse(window.contains("alice", ids.get(0)), "oldest generation dropped without any time passing");
+        for (String id : ids.subList(1, 5)) {
+            assertTrue(window.contains("alice", id), id);
+        }
+    }
+
+    @Test
+    void earlyRotationStaysWithinItsShard() {
+        MessageIdWindow window = window(16);
+        List<String> bobs = idsInOneShard("bob", 1);
+        window.add("bob", bobs.get(0));
+        long bobShard = MessageIdWindow.fingerprint("bob", bobs.get(0)) >>> 60;
+        List<String> flood = new ArrayList<>();
+        for (int i = 0; flood.size() < 8; i++) {
+            if (MessageIdWindow.fingerprint("alice", "f" + i) >>> 60 != bobShard) {
+                flood.add("f" + i);
+            }
+        }
+        flood.forEach(id -> window.add("alice", id));
+
+        assertTrue(window.contains("bob", bobs.get(0)));
+    }
+
+    @Test
+    void readdingAnIdDoesNotTakeASecondSlot() {
+        MessageIdWindow window = window(16);
+        List<String> ids = idsInOneShard("alice", 2);
+        window.add("alice", ids.get(0));
+        for (int i = 0; i < 10; i++) {
+            window.add("alice", ids.get(0)); // Retries of the same message
+        }
+        window.add("alice", ids.get(1));
+
+        assertTrue(window.contains("alice", ids.get(0)));
+        assertTrue(window.contains("alice", ids.get(1)));
+    }
+
+    @Test
+    void idsAreScopedToTheirSender() {
+        MessageIdWindow window = window(1 << 20);
+        window.add("alice", "m1");
+        window.add("ab", "c");
+
+        assertTrue(window.contains("alice", "m1"));
+        assertFalse(window.contains("bob", "m1"));
+        assertFalse(window.contains("a", "bc"), "the sender/id boundary is part of the fingerprint");
+        assertFalse(window.contains("abc", ""));
+    }
+
+    @Test
+    void tablesGrowToHoldAFullSlice() {
+        MessageIdWindow window = window(1 << 20);
+        for (int i = 0; i < 50_000; i++) {
+            window.add("user" + (i % 7), "m" + i);
+        }
+
+        for (int i = 0; i < 50_000; i++) {
+            assertTrue(window.contains("user" + (i % 7), "m" + i), "m" + i);
+            assertFalse(window.contains("user" + ((i + 1) % 7), "m" + i));
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageStoreTest {
+    /** Small enough that a few hundred messages span several segments. */
+    private static final long SEGMENT_BYTES = 4096;
+
+    @TempDir
+    Path dir;
+
+    /** Store without the tail cache, so every read follows the back pointers on disk. */
+    private MessageStore open(long fsyncMillis) throws IOException {
+        return new MessageStore(dir.toString(), SEGMENT_BYTES, new ConversationCache(0, 0), fsyncMillis);
+    }
+
+    private static List<String> contents(List<ChatProtocol.ChatMessage> messages) {
+        List<String> contents = new ArrayList<>(messages.size());
+        for (ChatProtocol.ChatMessage message : messages) {
+            contents.add(message.content);
+        }
+        return contents;
+    }
+
+    private File[] segments() {
+        File[] files = dir.toFile().listFiles((d, name) -> name.endsWith(".seg"));
+        Arrays.sort(files);
+        return files;
+    }
+
+    /** Appends {@code perConversation} messages to each of a few interleaved conversations. */
+    private static Map<String, List<String>> fill(MessageStore store, int perConversation) throws IOException {
+        Map<String, List<String>> logged = new HashMap<>();
+        String[][] pairs = {{"alice", "bob"}, {"bob", "carol"}, {"carol", "alice"}, {"dave", "alice"}};
+        for (int i = 0; i < perConversation; i++) {
+            for (String[] pair : pairs) {
+                boolean reply = i % 3 == 0;
+                String sender = reply ? pair[1] : pair[0];
+                String receiver = reply ? pair[0] : pair[1];
+                String content = pair[0] + "/" + pair[1] + " #" + i;
+                assertEquals(i + 1, store.append(sender, receiver, content, 1_700_000_000_000L + i));
+                logged.computeIfAbsent(MessageStore.conversationKey(pair[0], pair[1]), k -> new ArrayList<>()).add(content);
+            }
+        }
+        return logged;
+    }
+
+    private static void assertRandomReads(MessageStore store, Map<String, List<String>> logged, long seed) throws IOException {
+        Random random = new Random(seed);
+        for (int i = 0; i < 2_000; i++) {
+            String key = new ArrayList<>(logged.keySet()).get(random.nextInt(logged.size()));
+            String[] users = key.split("\u001F");
+            List<String> expected = logged.get(key);
+            int after = random.nextInt(expected.size() + 2) - 1;
+            int limit = 1 + random.nextInt(3 * MessageStore.CHECKPOINT_INTERVAL);
+            int from = Math.max(after, 0);
+            int to = Math.min(expected.size(), from + limit);
+            List<ChatProtocol.ChatMessage> read = store.read(users[1], users[0], after, limit);
+
+            assertEquals(from < to ? expected.subList(from, to) : List.of(), contents(read),
+                    key + " after " + after + " limit " + limit);
+            for (int m = 0; m < read.size(); m++) {
+                assertEquals(from + m + 1, read.get(m).seq);
+            }
+        }
+    }
+
+    @Test
+    void randomReadsAcrossSegmentsAndCheckpoints() throws IOException {
+        try (MessageStore store = open(-1)) {
+            Map<String, List<String>> logged = fill(store, 300);
+
+            assertTrue(segments().length > 3, "expected several segments, got " + segments().length);
+            assertRandomReads(store, logged, 1);
+            assertEquals(300, store.lastSeq("bob", "alice"));
+            assertEquals(Set.of("bob", "carol", "dave"), store.peers("alice"));
+        }
+    }
+
+    @Test
+    void reopenRebuildsTheIndex() throws IOException {
+        Map<String, List<String>> logged;
+        try (MessageStore store = open(-1)) {
+            logged = fill(store, 200);
+        }
+        try (MessageStore store = open(-1)) {
+            assertRandomReads(store, logged, 2);
+            assertEquals(201, store.append("alice", "bob", "after reopen", 0));
+            assertEquals("after reopen", store.read("alice", "bob", 200, 10).get(0).content);
+        }
+    }
+
+    @Test
+    void tornTailIsTruncatedOnRecovery() throws IOException {
+        try (MessageStore store = open(-1)) {
+            for (int i = 1; i <= 5; i++) {
+                store.append("alice", "bob", "message " + i, 0);
+            }
+        }
+        File tail = segments()[segments().length - 1];
+        long intact = tail.length();
+        try (RandomAccessFile file = new RandomAccessFile(tail, "rw")) {
+            file.setLength(intact - 3); // Crash in the middle of the last record
+        }
+
+        try (MessageStore store = open(-1)) {
+            assertEquals(4, store.lastSeq("alice", "bob"));
+            assertEquals(List.of("message 1", "message 2", "message 3", "message 4"),
+                    contents(store.readSince("alice", "bob", 0)));
+            assertEquals(5, store.append("bob", "alice", "resent", 0));
+        }
+        try (MessageStore store = open(-1)) {
+            assertEquals("resent", store.read("alice", "bob", 4, 1).get(0).content);
+        }
+    }
+
+    @Test
+    void corruptTailRecordIsDroppedWithEverythingAfterIt() throws IOException {
+        try (MessageStore store = open(-1)) {
+            store.append("alice", "bob", "kept", 0);
+            store.append("alice", "bob", "flipped", 0);
+        }
+        File tail = segments()[segments().length - 1];
+        try (RandomAccessFile file = new RandomAccessFile(tail, "rw")) {
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 0xFF);
+            file.seek(file.length());
+            file.write(new byte[] {0, 0, 0, 40, 1, 2}); // And half a header of garbage
+        }
+
+        try (MessageStore store = open(-1)) {
+            assertEquals(List.of("kept"), contents(store.readSince("alice", "bob", 0)));
+        }
+    }
+
+    @Test
+    void corruptSealedSegmentFailsTheOpenWithoutTruncating() throws IOException {
+        try (MessageStore store = open(-1)) {
+            fill(store, 200);
+        }
+        File[] segments = segments();
+        assertTrue(segments.length > 2, "expected several segments, got " + segments.length);
+        File middle = segments[segments.length / 2];
+        long length = middle.length();
+        try (RandomAccessFile file = new RandomAccessFile(middle, "rw")) {
+            file.seek(length / 2);
+            int b = file.read();
+            file.seek(length / 2);
+            file.write(b ^ 0xFF);
+        }
+
+        IOException error = assertThrows(IOException.class, () -> open(-1));
+        assertTrue(error.getMessage().contains(middle.getName()), error.getMessage());
+        assertEquals(length, middle.length());
+        assertEquals(segments.length, segments().length);
+    }
+
+    private Path legacyLog(String owner, String peer, String... lines) throws IOException {
+        Path file = dir.resolve("legacy").resolve(owner).resolve(owner + "_" + peer + ".json");
+        Files.createDirectories(file.getParent());
+        Files.write(file, List.of(lines), StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private MessageStore openWithLegacy() throws IOException {
+        return new MessageStore(dir.resolve("segments").toString(), SEGMENT_BYTES,
+                new ConversationCache(0, 0), -1, dir.resolve("legacy").toFile());
+    }
+
+    @Test
+    void legacyJsonLogsAreImportedOnceIntoANewStore() throws IOException {
+        legacyLog("alice", "bob",
+                "{\"sender\":\"alice\",\"receiver\":\"bob\",\"content\":\"hi bob\",\"timestamp\":\"Mon Jan 01 10:00:00 UTC 2024\"}",
+                "{\"sender\":\"alice\",\"receiver\":\"bob\",\"content\":\"you there?\",\"timestamp\":\"Mon Jan 01 10:00:09 UTC 2024\",\"seq\":2}",
+                "not json");
+        legacyLog("bob", "alice",
+                "{\"sender\":\"bob\",\"receiver\":\"alice\",\"content\":\"hey\",\"timestamp\":\"Mon Jan 01 10:00:05 UTC 2024\"}");
+        legacyLog("carol", "alice",
+                "{\"sender\":\"carol\",\"receiver\":\"alice\",\"content\":\"lunch?\",\"timestamp\":\"Mon Jan 01 11:00:00 UTC 2024\"}");
+        Files.write(dir.resolve("legacy").resolve("carol").resolve("avatar.json"), List.of("{}"));
+
+        try (MessageStore store = openWithLegacy()) {
+            List<ChatProtocol.ChatMessage> chat = store.readSince("alice", "bob", 0);
+            assertEquals(List.of("hi bob", "hey", "you there?"), contents(chat));
+            assertEquals("bob", chat.get(1).sender);
+            assertEquals(List.of("lunch?"), contents(store.readSince("alice", "carol", 0)));
+            assertEquals(Set.of("bob", "carol"), store.peers("alice"));
+            store.append("bob", "alice", "after import", 0);
+        }
+        // A store that already exists does not import again
+        try (MessageStore store = openWithLegacy()) {
+            assertEquals(List.of("hi bob", "hey", "you there?", "after import"),
+                    contents(store.readSince("alice", "bob", 0)));
+        }
+    }
+
+    @Test
+    void interruptedLegacyImportStartsOver() throws IOException {
+        legacyLog("alice", "bob",
+                "{\"sender\":\"alice\",\"receiver\":\"bob\",\"content\":\"only once\",\"timestamp\":\"Mon Jan 01 10:00:00 UTC 2024\"}");
+        try (MessageStore store = openWithLegacy()) {
+            assertEquals(1, store.lastSeq("alice", "bob"));
+        }
+        Files.createFile(dir.resolve("segments").resolve("legacy-import.pending")); // Crash before the import finished
+
+        try (MessageStore store = openWithLegacy()) {
+            assertEquals(List.of("only once"), contents(store.readSince("alice", "bob", 0)));
+        }
+        assertTrue(Files.notExists(dir.resolve("segments").resolve("legacy-import.pending")));
+    }
+
+    @Test
+    void concurrentAppendsKeepEveryConversationGapless() throws Exception {
+        String[][] pairs = {{"alice", "bob"}, {"carol", "dave"}, {"erin", "frank"}};
+        int threads = 9;
+        int perThread = 250;
+        try (MessageStore store = open(0)) {
+            CountDownLatch start = new CountDownLatch(1);
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String[] pair = pairs[t % pairs.length];
+                String sender = pair[t % 2];
+                String receiver = pair[1 - t % 2];
+                String writer = "w" + t;
+                writers.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        store.append(sender, receiver, writer + " " + i, i);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> writer : writers) {
+                writer.get(60, TimeUnit.SECONDS);
+            }
+            pool.shutdown();
+
+            for (String[] pair : pairs) {
+                List<ChatProtocol.ChatMessage> messages = store.readSince(pair[0], pair[1], 0);
+                assertEquals(threads / pairs.length * perThread, messages.size());
+                assertEquals(messages.size(), store.lastSeq(pair[1], pair[0]));
+                Map<String, Integer> next = new HashMap<>();
+                for (int m = 0; m < messages.size(); m++) {
+                    assertEquals(m + 1, messages.get(m).seq);
+                    // Each writer's messages stay in the order it appended them
+                    String[] content = messages.get(m).content.split(" ");
+                    int expected = next.getOrDefault(content[0], 0);
+                    assertEquals(expected, Integer.parseInt(content[1]), messages.get(m).content);
+                    next.put(content[0], expected + 1);
+                }
+            }
+        }
+        try (MessageStore store = open(-1)) {
+            for (String[] pair : pairs) {
+                assertEquals(threads / pairs.length * perThread, store.readSince(pair[0], pair[1], 0).size());
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboundQueueTest {
+
+    /** Transport whose backlog the test sets, and which checks how it is written to. */
+    private static final class Transport implements OutboundQueue.Transport {
+        final List<String> written = new CopyOnWriteArrayList<>();
+        final AtomicInteger backlog = new AtomicInteger();
+        final List<String> faults = new CopyOnWriteArrayList<>();
+        private final AtomicBoolean writing = new AtomicBoolean();
+        OutboundQueue queue;
+
+        @Override
+        public int backlog() {
+            return backlog.get();
+        }
+
+        @Override
+        public void write(OutboundFrame frame, String text) {
+            if (Thread.holdsLock(queue)) {
+                faults.add("written under the queue lock");
+            }
+            if (!writing.compareAndSet(false, true)) {
+                faults.add("written by two threads at once");
+            }
+            written.add(text);
+            writing.set(false);
+        }
+
+        @Override
+        public void disconnect(String reason) {
+            faults.add("disconnected: " + reason);
+        }
+    }
+
+    private static Transport transport() {
+        Transport transport = new Transport();
+        transport.queue = new OutboundQueue(transport);
+        return transport;
+    }
+
+    private static OutboundFrame history(String peer, long since, long... seqs) {
+        List<ChatProtocol.ChatMessage> messages = new ArrayList<>();
+        for (long seq : seqs) {
+            messages.add(new ChatProtocol.ChatMessage("alice", peer, "message " + seq, "2026-01-01T00:00:00Z", seq));
+        }
+        return OutboundFrame.history(peer, since, seqs.length > 0 ? seqs[seqs.length - 1] : since, messages);
+    }
+
+    @Test
+    void historyPushesQueuedBehindABacklogMergeIntoOne() {
+        Transport transport = transport();
+        transport.backlog.set(OutboundQueue.TRANSPORT_WINDOW);
+
+        transport.queue.offer(history("bob", 0, 1));
+        transport.queue.offer(OutboundFrame.message("{\"type\":\"pong\"}"));
+        transport.queue.offer(history("bob", 1, 2, 3));
+        transport.queue.offer(history("carol", 0, 1));
+        transport.queue.offer(history("bob", 3, 4));
+        assertTrue(transport.written.isEmpty());
+        transport.backlog.set(0);
+        transport.queue.drain();
+
+        assertEquals(List.of(), transport.faults);
+        assertEquals(3, transport.written.size());
+        String merged = transport.written.get(0);
+        assertTrue(merged.contains("\"since\":0,\"lastSeq\":4"), merged);
+        for (int seq = 1; seq <= 4; seq++) {
+            assertTrue(merged.contains("\"content\":\"message " + seq + "\""), merged);
+        }
+        assertEquals("{\"type\":\"pong\"}", transport.written.get(1));
+        assertEquals(2, transport.queue.stats().coalescedHistory);
+    }
+
+    @Test
+    void historyPushAfterTheQueuedOneLeftStartsAFreshFrame() {
+        Transport transport = transport();
+
+        transport.queue.offer(history("bob", 0, 1));
+        transport.queue.offer(history("bob", 1, 2));
+
+        assertEquals(2, transport.written.size());
+        assertTrue(transport.written.get(1).contains("\"since\":1,\"lastSeq\":2"), transport.written.get(1));
+    }
+
+    @Test
+    void concurrentSendersAreWrittenOneAtATimeInTheirOwnOrder() throws Exception {
+        Transport transport = transport();
+        int senders = 8;
+        int perSender = 100;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < senders; t++) {
+            String sender = "s" + t;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perSender; i++) {
+                    transport.queue.offer(OutboundFrame.message(sender + " " + i));
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(List.of(), transport.faults);
+        assertEquals(senders * perSender, transport.written.size());
+        Map<String, Integer> next = new HashMap<>();
+        for (String frame : transport.written) {
+            String[] parts = frame.split(" ");
+            int expected = next.getOrDefault(parts[0], 0);
+            assertEquals(expected, Integer.parseInt(parts[1]), frame);
+            next.put(parts[0], expected + 1);
+        }
+        assertNull(transport.queue.stats().disconnectReason);
+    }
+}
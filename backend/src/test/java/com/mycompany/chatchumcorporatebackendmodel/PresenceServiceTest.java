@@ -0,0 +1,163 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** {@link PresenceService} ticked by hand; its own ticker is set far enough out never to run. */
+class PresenceServiceTest {
+    private static final long NEVER = 3_600_000;
+
+    @TempDir
+    Path dir;
+
+    private final List<String> broadcasts = new ArrayList<>();
+    private PresenceService presence;
+
+    private PresenceService presence(Path snapshotFile) {
+        presence = new PresenceService(broadcasts::add, snapshotFile != null ? snapshotFile.toFile() : null, NEVER, 0);
+        return presence;
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (presence != null) {
+            presence.close();
+        }
+    }
+
+    private static Set<String> strings(JsonObject frame, String field) {
+        Set<String> values = new HashSet<>();
+        for (JsonElement value : frame.getAsJsonArray(field)) {
+            values.add(value.getAsString());
+        }
+        return values;
+    }
+
+    /** What a client holding {@code roster} at {@code version} has after applying {@code delta}. */
+    private static long apply(Set<String> roster, long version, String delta) {
+        JsonObject frame = JsonParser.parseString(delta).getAsJsonObject();
+        long deltaVersion = frame.get("version").getAsLong();
+        if (deltaVersion <= version) {
+            return version;
+        }
+        roster.addAll(strings(frame, "joined"));
+        roster.removeAll(strings(frame, "left"));
+        return deltaVersion;
+    }
+
+    @Test
+    void changesWithinATickArePublishedAsOneDelta() {
+        PresenceService presence = presence(null);
+        presence.join("alice");
+        presence.join("bob");
+        presence.leave("alice");
+        presence.join("carol");
+        presence.join("carol");
+        presence.leave("dave"); // Never joined
+
+        presence.tick();
+
+        assertEquals(1, broadcasts.size());
+        JsonObject delta = JsonParser.parseString(broadcasts.get(0)).getAsJsonObject();
+        assertEquals("presence", delta.get("type").getAsString());
+        assertEquals(1, delta.get("version").getAsLong());
+        assertEquals(Set.of("bob", "carol"), strings(delta, "joined"));
+        assertEquals(Set.of("alice"), strings(delta, "left"));
+        assertEquals(1, presence.getVersion());
+    }
+
+    @Test
+    void quietTickPublishesNothingAndKeepsTheVersion() {
+        PresenceService presence = presence(null);
+        presence.join("alice");
+        presence.tick();
+
+        presence.tick();
+        presence.join("alice");
+        presence.tick();
+
+        assertEquals(1, broadcasts.size());
+        assertEquals(1, presence.getVersion());
+    }
+
+    @Test
+    void deltaIsIdempotentForASnapshotTakenMidTick() {
+        PresenceService presence = presence(null);
+        presence.join("alice");
+        presence.join("bob");
+        presence.tick();
+        presence.join("carol");
+        // A client connects now and snapshots version 1 with carol already in it
+        JsonObject snapshot = JsonParser.parseString(presence.snapshotFrame()).getAsJsonObject();
+        Set<String> early = strings(snapshot, "clients");
+        long earlyVersion = snapshot.get("version").getAsLong();
+        presence.leave("bob");
+        presence.tick();
+
+        String delta = broadcasts.get(1);
+        earlyVersion = apply(early, earlyVersion, delta);
+        Set<String> replayed = new HashSet<>(early);
+        apply(replayed, 1, delta); // The same delta seen twice
+
+        assertEquals(2, earlyVersion);
+        assertEquals(Set.of("alice", "carol"), early);
+        assertEquals(early, replayed);
+        assertEquals(Set.of("alice", "carol"), strings(JsonParser.parseString(presence.snapshotFrame()).getAsJsonObject(), "clients"));
+    }
+
+    @Test
+    void snapshotRequestsOfOneTickShareOneFrame() {
+        PresenceService presence = presence(null);
+        presence.join("alice");
+        List<String> first = new ArrayList<>();
+        List<String> second = new ArrayList<>();
+        presence.requestSnapshot(first::add);
+        presence.requestSnapshot(second::add);
+        presence.requestSnapshot(frame -> {
+            throw new IllegalStateException("disconnected");
+        });
+
+        presence.tick();
+
+        assertEquals(1, first.size());
+        assertSame(first.get(0), second.get(0));
+        JsonObject snapshot = JsonParser.parseString(first.get(0)).getAsJsonObject();
+        assertEquals(1, snapshot.get("version").getAsLong());
+        JsonArray clients = snapshot.getAsJsonArray("clients");
+        assertEquals(1, clients.size());
+        assertEquals("alice", clients.get(0).getAsString());
+
+        presence.tick();
+        assertEquals(1, first.size(), "a request is answered once");
+    }
+
+    @Test
+    void rosterFileIsWrittenFromTheTick() throws IOException {
+        Path file = dir.resolve("active_clients.txt");
+        PresenceService presence = presence(file);
+        presence.join("alice");
+        presence.join("bob");
+        assertTrue(Files.notExists(file), "joins must not touch the file");
+
+        presence.tick();
+
+        assertEquals(Set.of("alice", "bob"), new HashSet<>(Files.readAllLines(file)));
+    }
+}
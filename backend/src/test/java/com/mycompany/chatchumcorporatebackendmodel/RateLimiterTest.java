@@ -0,0 +1,174 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** {@link RateLimiter} on a clock the test moves. */
+class RateLimiterTest {
+    private final AtomicLong now = new AtomicLong(TimeUnit.SECONDS.toNanos(100));
+    private final List<RateLimiter> limiters = new ArrayList<>();
+
+    /** Ten tokens a second, one every 100 ms, five in a full bucket. */
+    private RateLimiter limiter() {
+        return limiter(10, 5);
+    }
+
+    private RateLimiter limiter(double perSecond, int burst) {
+        RateLimiter limiter = new RateLimiter("test", perSecond, burst, now::get);
+        limiters.add(limiter);
+        return limiter;
+    }
+
+    @AfterEach
+    void tearDown() {
+        limiters.forEach(RateLimiter::close);
+    }
+
+    private void advance(long millis) {
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    @Test
+    void fullBucketAdmitsABurstThenRefusesWithTheWait() {
+        RateLimiter limiter = limiter();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.tryAcquire("alice"), "request " + i);
+        }
+
+        assertEquals(100, limiter.tryAcquire("alice"));
+        assertEquals(100, limiter.tryAcquire("alice"), "a refusal takes no token");
+    }
+
+    @Test
+    void retryAfterTheAnnouncedWaitIsAdmitted() {
+        RateLimiter limiter = limiter();
+        for (int i = 0; i < 5; i++) {
+            limiter.tryAcquire("alice");
+        }
+        advance(30);
+        long wait = limiter.tryAcquire("alice");
+        assertEquals(70, wait);
+
+        advance(wait - 1);
+        assertTrue(limiter.tryAcquire("alice") > 0);
+        advance(1);
+        assertEquals(0, limiter.tryAcquire("alice"));
+        assertEquals(100, limiter.tryAcquire("alice"));
+    }
+
+    @Test
+    void waitIsRoundedUpToAWholeMillisecond() {
+        RateLimiter limiter = limiter();
+        for (int i = 0; i < 5; i++) {
+            limiter.tryAcquire("alice");
+        }
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(99) + 1);
+
+        assertEquals(1, limiter.tryAcquire("alice"));
+    }
+
+    @Test
+    void drainedBucketSustainsTheRateAndRefillsToTheBurst() {
+        RateLimiter limiter = limiter();
+        for (int i = 0; i < 5; i++) {
+            limiter.tryAcquire("alice");
+        }
+        for (int i = 0; i < 20; i++) {
+            advance(100);
+            assertEquals(0, limiter.tryAcquire("alice"), "tick " + i);
+            assertTrue(limiter.tryAcquire("alice") > 0, "tick " + i);
+        }
+
+        advance(10_000); // Idle far longer than it takes to refill
+        int admitted = 0;
+        while (limiter.tryAcquire("alice") == 0) {
+            admitted++;
+        }
+        assertEquals(5, admitted, "an idle bucket holds no more than the burst");
+    }
+
+    @Test
+    void bucketsAreKeyedSeparately() {
+        RateLimiter limiter = limiter(1, 1);
+        assertEquals(0, limiter.tryAcquire("alice"));
+        assertTrue(limiter.tryAcquire("alice") > 0);
+
+        assertEquals(0, limiter.tryAcquire("bob"));
+        assertEquals(2, limiter.size());
+    }
+
+    @Test
+    void sweepDropsOnlyBucketsThatHaveRefilled() {
+        RateLimiter limiter = limiter();
+        limiter.tryAcquire("alice");
+        for (int i = 0; i < 5; i++) {
+            limiter.tryAcquire("bob");
+        }
+
+        advance(100);
+        limiter.sweep();
+        assertEquals(1, limiter.size(), "alice is full again, bob is not");
+
+        advance(400);
+        limiter.sweep();
+        assertEquals(0, limiter.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.tryAcquire("bob"), "a swept bucket starts out full");
+        }
+    }
+
+    @Test
+    void sweptBucketGrantsWhatTheKeptOneWould() {
+        RateLimiter kept = limiter();
+        RateLimiter swept = limiter();
+        for (RateLimiter limiter : List.of(kept, swept)) {
+            for (int i = 0; i < 5; i++) {
+                limiter.tryAcquire("alice");
+            }
+        }
+        advance(500);
+        swept.sweep();
+
+        for (int i = 0; i < 7; i++) {
+            assertEquals(kept.tryAcquire("alice"), swept.tryAcquire("alice"), "request " + i);
+        }
+    }
+
+    @Test
+    void zeroRateTurnsTheLimitOff() {
+        RateLimiter limiter = limiter(0, 5);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0, limiter.tryAcquire("alice"));
+        }
+        assertEquals(0, limiter.size());
+    }
+
+    @Test
+    void specIsRateColonBurstWithTheBurstDefaultingToOneSecond() {
+        RateLimiter explicit = RateLimiter.parse("test", "2:3");
+        RateLimiter bare = RateLimiter.parse("test", " 2.5 ");
+        limiters.add(explicit);
+        limiters.add(bare);
+
+        int admitted = 0;
+        while (explicit.tryAcquire("alice") == 0) {
+            admitted++;
+        }
+        assertEquals(3, admitted);
+        admitted = 0;
+        while (bare.tryAcquire("alice") == 0) {
+            admitted++;
+        }
+        assertEquals(3, admitted, "ceil(2.5)");
+        assertThrows(NumberFormatException.class, () -> RateLimiter.parse("test", "fast:3"));
+    }
+}
@@ -0,0 +1,163 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionRegistryTest {
+    private static final int THREADS = 8;
+
+    @Test
+    void registersAndEvictsInBothDirections() {
+        SessionRegistry registry = new SessionRegistry();
+        TestConnection conn = new TestConnection();
+
+        ChatSession session = registry.register("alice", conn);
+
+        assertNotNull(session);
+        assertSame(session, registry.get("alice"));
+        assertSame(session, registry.get(conn));
+        assertSame(session, conn.getSession());
+        assertEquals("alice", registry.getUsername(conn));
+        assertSame(session, registry.evict(conn));
+        assertNull(registry.get("alice"));
+        assertNull(conn.getSession());
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    void refusesATakenNameAndASecondNameOnOneConnection() {
+        SessionRegistry registry = new SessionRegistry();
+        TestConnection first = new TestConnection();
+        registry.register("alice", first);
+
+        assertNull(registry.register("alice", new TestConnection()));
+        assertNull(registry.register("bob", first));
+        assertEquals(List.of("alice"), registry.usernames());
+    }
+
+    @Test
+    void closedConnectionLeavesNothingBehind() {
+        SessionRegistry registry = new SessionRegistry();
+        TestConnection conn = new TestConnection();
+        conn.close();
+
+        assertNull(registry.register("alice", conn));
+        assertEquals(0, registry.size());
+        assertNotNull(registry.register("alice", new TestConnection()));
+    }
+
+    @Test
+    void lateEvictOfAnOldSessionKeepsTheNewOne() {
+        SessionRegistry registry = new SessionRegistry();
+        ChatSession old = registry.register("alice", new TestConnection());
+        registry.evict(old.getConnection());
+        ChatSession current = registry.register("alice", new TestConnection());
+
+        assertFalse(registry.evict(old));
+        assertSame(current, registry.get("alice"));
+    }
+
+    @Test
+    void exactlyOneConnectionWinsARaceForAName() throws Exception {
+        for (int round = 0; round < 200; round++) {
+            SessionRegistry registry = new SessionRegistry();
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicInteger winners = new AtomicInteger();
+            ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+            List<Future<?>> racers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                racers.add(pool.submit(() -> {
+                    start.await();
+                    if (registry.register("alice", new TestConnection()) != null) {
+                        winners.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> racer : racers) {
+                racer.get();
+            }
+            pool.shutdown();
+            assertEquals(1, winners.get());
+            assertEquals(1, registry.size());
+        }
+    }
+
+    /**
+     * Parallel init/close storm over a small pool of names: each name is owned by at most
+     * one connection at a time, every owner resolves back to its own session, and once all
+     * connections are closed and evicted nothing is left registered.
+     */
+    @Test
+    void initAndCloseStormLosesAndDuplicatesNothing() throws Exception {
+        SessionRegistry registry = new SessionRegistry();
+        int names = 32;
+        AtomicInteger[] owners = new AtomicInteger[names];
+        for (int i = 0; i < names; i++) {
+            owners[i] = new AtomicInteger();
+        }
+        AtomicInteger violations = new AtomicInteger();
+        AtomicInteger registrations = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            workers.add(pool.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 20_000; i++) {
+                    int name = random.nextInt(names);
+                    TestConnection conn = new TestConnection();
+                    ChatSession session = registry.register("user-" + name, conn);
+                    if (session == null) {
+                        continue;
+                    }
+                    registrations.incrementAndGet();
+                    if (owners[name].incrementAndGet() != 1) {
+                        violations.incrementAndGet();
+                    }
+                    if (registry.get("user-" + name) != session || registry.get(conn) != session) {
+                        violations.incrementAndGet();
+                    }
+                    owners[name].decrementAndGet();
+                    conn.close();
+                    if (random.nextBoolean()) {
+                        registry.evict(conn);
+                    } else {
+                        registry.evict(session);
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> worker : workers) {
+            worker.get(60, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        assertEquals(0, violations.get());
+        assertTrue(registrations.get() > names, "only " + registrations.get() + " registrations succeeded");
+        assertEquals(0, registry.size());
+        for (int i = 0; i < names; i++) {
+            assertNotNull(registry.register("user-" + i, new TestConnection()), "user-" + i + " leaked");
+        }
+    }
+}
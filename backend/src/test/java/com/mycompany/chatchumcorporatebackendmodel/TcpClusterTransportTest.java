@@ -0,0 +1,101 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/** Batches between {@link TcpClusterTransport}s on loopback, and peers that must be turned away. */
+class TcpClusterTransportTest {
+    private final List<AutoCloseable> open = new ArrayList<>();
+    private final List<String> received = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (int i = open.size() - 1; i >= 0; i--) {
+            open.get(i).close();
+        }
+    }
+
+    /** Node {@code b}, recording every frame it receives as {@code from:frame}. */
+    private TcpClusterTransport receiver(String secret) throws Exception {
+        TcpClusterTransport b = new TcpClusterTransport(0, Map.of(), secret);
+        open.add(b);
+        b.start("b", (from, frames) -> {
+            for (String frame : frames) {
+                received.add(from + ":" + frame);
+            }
+        });
+        return b;
+    }
+
+    private TcpClusterTransport sender(TcpClusterTransport b, String secret) throws Exception {
+        TcpClusterTransport a = new TcpClusterTransport(0, Map.of("b", new InetSocketAddress("127.0.0.1", b.getPort())), secret);
+        open.add(a);
+        a.start("a", (from, frames) -> { });
+        return a;
+    }
+
+    @Test
+    void nodesSharingTheSecretExchangeBatches() throws Exception {
+        TcpClusterTransport b = receiver("s3cret");
+        TcpClusterTransport a = sender(b, "s3cret");
+
+        a.send("b", List.of("one", "two"));
+        a.send("b", List.of("three"));
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (received.size() < 3) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out; received " + received);
+            }
+            Thread.sleep(10);
+        }
+        assertEquals(List.of("a:one", "a:two", "a:three"), received);
+    }
+
+    @Test
+    void nodeWithAnotherSecretIsRejected() throws Exception {
+        TcpClusterTransport b = receiver("s3cret");
+        TcpClusterTransport a = sender(b, "guess");
+
+        a.send("b", List.of("forged"));
+        Thread.sleep(500);
+
+        assertTrue(received.isEmpty(), received.toString());
+    }
+
+    @Test
+    void unauthenticatedHelloIsRejected() throws Exception {
+        TcpClusterTransport b = receiver("s3cret");
+
+        try (Socket socket = new Socket("127.0.0.1", b.getPort())) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            assertTrue(in.readLine().startsWith("challenge "));
+            OutputStream out = socket.getOutputStream();
+            out.write("node a\n1\n{\"type\":\"deliver\"}\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            assertEquals(null, in.readLine(), "the connection is closed without an ok");
+        }
+        assertTrue(received.isEmpty(), received.toString());
+    }
+
+    @Test
+    void requiresASecret() {
+        assertThrows(IllegalArgumentException.class, () -> new TcpClusterTransport(0, Map.of(), ""));
+    }
+}
@@ -0,0 +1,97 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/** In-memory {@link ChatConnection} that keeps every frame written to it. */
+class TestConnection implements ChatConnection, OutboundQueue.Transport {
+    final List<String> written = new CopyOnWriteArrayList<>();
+    private final OutboundQueue outbound = new OutboundQueue(this);
+    private final String address;
+    private volatile boolean open = true;
+    private volatile ChatSession session;
+    volatile String disconnectReason;
+    /** Version assumed for an {@code init} without one; {@link ChatProtocol#LEGACY_VERSION} acts like a TCP client. */
+    volatile int defaultProtocol = ChatProtocol.VERSION;
+
+    TestConnection() {
+        this("127.0.0.1");
+    }
+
+    TestConnection(String address) {
+        this.address = address;
+    }
+
+    /** Frames written so far whose type is {@code type}. */
+    List<String> frames(String type) {
+        List<String> frames = new CopyOnWriteArrayList<>();
+        for (String frame : written) {
+            if (frame.startsWith("{\"type\":\"" + type + "\"")) {
+                frames.add(frame);
+            }
+        }
+        return frames;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void send(String frame) {
+        outbound.offer(OutboundFrame.message(frame));
+    }
+
+    @Override
+    public void send(OutboundFrame frame) {
+        outbound.offer(frame);
+    }
+
+    @Override
+    public OutboundQueue getOutbound() {
+        return outbound;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        outbound.close();
+    }
+
+    @Override
+    public ChatSession getSession() {
+        return session;
+    }
+
+    @Override
+    public void setSession(ChatSession session) {
+        this.session = session;
+    }
+
+    @Override
+    public int getDefaultProtocol() {
+        return defaultProtocol;
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return address;
+    }
+
+    @Override
+    public int backlog() {
+        return 0;
+    }
+
+    @Override
+    public void write(OutboundFrame frame, String text) {
+        written.add(text);
+    }
+
+    @Override
+    public void disconnect(String reason) {
+        disconnectReason = reason;
+        close();
+    }
+}
@@ -0,0 +1,196 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** {@link VerifiedTokenCache} in front of a stand-in verifier, on a clock the test moves. */
+class VerifiedTokenCacheTest {
+    private final AtomicLong now = new AtomicLong(1_000);
+
+    /** Answers each token with the future queued for it, or a token of {@code <token>@example.com} expiring at 10 s. */
+    private static final class StandInVerifier implements TokenVerifier {
+        final Map<String, Integer> calls = new HashMap<>();
+        final Map<String, List<CompletableFuture<VerifiedToken>>> answers = new HashMap<>();
+
+        synchronized void answer(String token, CompletableFuture<VerifiedToken> answer) {
+            answers.computeIfAbsent(token, t -> new ArrayList<>()).add(answer);
+        }
+
+        synchronized int calls(String token) {
+            return calls.getOrDefault(token, 0);
+        }
+
+        @Override
+        public synchronized CompletableFuture<VerifiedToken> verify(String idToken) {
+            calls.merge(idToken, 1, Integer::sum);
+            List<CompletableFuture<VerifiedToken>> queued = answers.get(idToken);
+            if (queued != null && !queued.isEmpty()) {
+                return queued.remove(0);
+            }
+            return CompletableFuture.completedFuture(token(idToken + "@example.com", 10_000));
+        }
+    }
+
+    private static VerifiedToken token(String email, long expiresAtMillis) {
+        return new VerifiedToken("uid-" + email, email, expiresAtMillis, null);
+    }
+
+    private final StandInVerifier verifier = new StandInVerifier();
+
+    private VerifiedTokenCache cache(int maxEntries) {
+        return new VerifiedTokenCache(verifier, maxEntries, now::get);
+    }
+
+    @Test
+    void concurrentLookupsShareOneVerification() throws Exception {
+        VerifiedTokenCache cache = cache(16);
+        CompletableFuture<VerifiedToken> pending = new CompletableFuture<>();
+        verifier.answer("t", pending);
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<CompletableFuture<VerifiedToken>>> lookups = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            lookups.add(pool.submit(() -> {
+                start.await();
+                return cache.verify("t");
+            }));
+        }
+        start.countDown();
+        List<CompletableFuture<VerifiedToken>> results = new ArrayList<>();
+        for (Future<CompletableFuture<VerifiedToken>> lookup : lookups) {
+            results.add(lookup.get(10, TimeUnit.SECONDS));
+        }
+        pool.shutdown();
+
+        assertEquals(1, verifier.calls("t"));
+        pending.complete(token("t@example.com", 5_000));
+        for (CompletableFuture<VerifiedToken> result : results) {
+            assertEquals("t@example.com", result.get(1, TimeUnit.SECONDS).email);
+        }
+        assertEquals("t@example.com", cache.verify("t").join().email);
+        assertEquals(1, verifier.calls("t"));
+        assertEquals(1, cache.getMisses());
+        assertEquals(threads, cache.getHits());
+    }
+
+    @Test
+    void tokenIsNeverServedFromTheCacheAfterItsExp() {
+        VerifiedTokenCache cache = cache(16);
+        verifier.answer("t", CompletableFuture.completedFuture(token("old@example.com", 2_000)));
+        verifier.answer("t", CompletableFuture.completedFuture(token("new@example.com", 9_000)));
+        assertEquals("old@example.com", cache.verify("t").join().email);
+
+        now.set(1_999);
+        assertEquals("old@example.com", cache.verify("t").join().email);
+        assertEquals(1, verifier.calls("t"));
+
+        now.set(2_000);
+        assertEquals("new@example.com", cache.verify("t").join().email);
+        assertEquals(2, verifier.calls("t"));
+    }
+
+    @Test
+    void tokenThatIsAlreadyExpiredIsNotCached() {
+        VerifiedTokenCache cache = cache(16);
+        verifier.answer("t", CompletableFuture.completedFuture(token("t@example.com", 500)));
+
+        cache.verify("t").join();
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void failedVerificationsAreNotCached() {
+        VerifiedTokenCache cache = cache(16);
+        verifier.answer("t", CompletableFuture.failedFuture(new IllegalArgumentException("bad signature")));
+        assertTrue(cache.verify("t").isCompletedExceptionally());
+        assertEquals(0, cache.size());
+
+        assertEquals("t@example.com", cache.verify("t").join().email);
+        assertEquals(2, verifier.calls("t"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void verifierThatThrowsIsNotCachedEither() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(token -> {
+            throw new IllegalStateException("keys unavailable");
+        }, 16, now::get);
+
+        assertTrue(cache.verify("t").isCompletedExceptionally());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void fullCacheEvictsTheEntryClosestToExpiry() {
+        VerifiedTokenCache cache = cache(2);
+        verifier.answer("late", CompletableFuture.completedFuture(token("late@example.com", 5_000)));
+        verifier.answer("soon", CompletableFuture.completedFuture(token("soon@example.com", 3_000)));
+        verifier.answer("mid", CompletableFuture.completedFuture(token("mid@example.com", 4_000)));
+        cache.verify("late").join();
+        cache.verify("soon").join();
+
+        cache.verify("mid").join();
+
+        assertEquals(2, cache.size());
+        cache.verify("late").join();
+        cache.verify("mid").join();
+        assertEquals(1, verifier.calls("late"));
+        assertEquals(1, verifier.calls("mid"));
+        cache.verify("soon").join();
+        assertEquals(2, verifier.calls("soon"));
+    }
+
+    @Test
+    void invalidatedTokenGivesUpItsSlot() {
+        VerifiedTokenCache cache = cache(2);
+        cache.verify("a").join();
+        cache.verify("b").join();
+
+        cache.invalidate("a");
+        assertEquals(1, cache.tracked());
+        cache.verify("c").join();
+
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.tracked());
+        cache.verify("b").join();
+        assertEquals(1, verifier.calls("b"), "b must not have been evicted for the invalidated a");
+        cache.verify("a").join();
+        assertEquals(2, verifier.calls("a"));
+    }
+
+    @Test
+    void usernameChangeReachesEveryCachedTokenOfThatEmail() {
+        VerifiedTokenCache cache = cache(16);
+        verifier.answer("phone", CompletableFuture.completedFuture(token("alice@example.com", 9_000)));
+        verifier.answer("laptop", CompletableFuture.completedFuture(token("alice@example.com", 9_000)));
+        verifier.answer("other", CompletableFuture.completedFuture(token("bob@example.com", 9_000)));
+        cache.verify("phone").join();
+        cache.verify("laptop").join();
+        cache.verify("other").join();
+
+        cache.updateUsername("alice@example.com", "alice2");
+
+        assertEquals("alice2", cache.verify("phone").join().getUsername());
+        assertEquals("alice2", cache.verify("laptop").join().getUsername());
+        assertNull(cache.verify("other").join().getUsername());
+        assertSame(cache.verify("phone").join(), cache.verify("phone").join());
+    }
+}
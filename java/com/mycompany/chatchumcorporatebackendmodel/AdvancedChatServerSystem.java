@@ -1,55 +1,230 @@
-//package com.mycompany.chatchumcorporatebackendmodel;
-//
-//import java.net.ServerSocket;
-//import java.net.Socket;
-//import java.util.ArrayList;
-//import java.util.HashMap;
-//
-//public class AdvancedChatServerSystem {
-//    private final ArrayList<ServerThreaded> threadList;
-//    private final HashMap<String, ServerThreaded> clientMap;
-//    private final int port;
-//
-//    public AdvancedChatServerSystem() {
-//        this.port = Integer.parseInt(System.getenv().getOrDefault("TCP_PORT", "7454"));
-//        threadList = new ArrayList<>();
-//        clientMap = new HashMap<>();
-//    }
-//
-//    public HashMap<String, ServerThreaded> getClientMap() {
-//        return clientMap;
-//    }
-//
-//    public void start() {
-//        try (ServerSocket serverSocket = new ServerSocket(port)) {
-//            System.out.println("🚀 TCP Chat Server started on port " + port);
-//            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-//                try {
-//                    serverSocket.close();
-//                    synchronized (clientMap) {
-//                        for (ServerThreaded thread : threadList) {
-//                            thread.interrupt();
-//                        }
-//                    }
-//                    System.out.println("🛑 TCP Server stopped");
-//                } catch (Exception e) {
-//                    System.err.println("❌ Error stopping TCP server: " + e.getMessage());
-//                }
-//            }));
-//            while (!serverSocket.isClosed()) {
-//                Socket socket = serverSocket.accept();
-//                System.out.println("🔗 New connection from " + socket.getRemoteSocketAddress());
-//                ServerThreaded serverThread = new ServerThreaded(socket, this, threadList, clientMap);
-//                threadList.add(serverThread);
-//                serverThread.start();
-//            }
-//        } catch (Exception e) {
-//            System.err.println("❌ Error in TCP server: " + e.getMessage());
-//            e.printStackTrace();
-//        }
-//    }
-//
-//    public static void main(String[] args) {
-//        new AdvancedChatServerSystem().start();
-//    }
-//}
\ No newline at end of file
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Line-delimited JSON chat over plain TCP, for internal tools.
+ *
+ * An acceptor thread hands new sockets round-robin to a fixed set of selector threads, one
+ * per core by default. Each selector multiplexes thousands of non-blocking
+ * {@link TcpChatConnection}s, so an idle connection costs a few objects and no thread.
+ * Frames go to the shared {@link ChatRouter}, so TCP and WebSocket users share one
+ * session registry and can message each other.
+ */
+public class AdvancedChatServerSystem implements AutoCloseable {
+    static final int PORT = Integer.parseInt(System.getenv().getOrDefault("TCP_PORT", "7454"));
+    private static final int SELECTORS = Integer.parseInt(System.getenv().getOrDefault("TCP_SELECTORS",
+            String.valueOf(Runtime.getRuntime().availableProcessors())));
+    private static final int ACCEPT_BACKLOG = 4096;
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+    private static final Metrics.Counter CONNECTS = Metrics.counter("chat_tcp_connects_total", "TCP connections accepted");
+    private static final Metrics.Counter DISCONNECTS = Metrics.counter("chat_tcp_disconnects_total", "TCP connections closed");
+
+    private final int port;
+    private final ChatRouter router;
+    private final Set<TcpChatConnection> connections = ConcurrentHashMap.newKeySet();
+    private final SelectorLoop[] loops;
+    private final Consumer<String> broadcastFrame = this::broadcast;
+    private ServerSocketChannel serverChannel;
+    private Thread acceptor;
+    private volatile boolean running;
+
+    public AdvancedChatServerSystem(int port, ChatRouter router) throws IOException {
+        this.port = port;
+        this.router = router;
+        this.loops = new SelectorLoop[Math.max(1, SELECTORS)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new SelectorLoop(i);
+        }
+    }
+
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+        running = true;
+        for (SelectorLoop loop : loops) {
+            loop.thread.start();
+        }
+        acceptor = new Thread(this::acceptLoop, "tcp-acceptor");
+        acceptor.start();
+        router.addBroadcaster(broadcastFrame);
+        Metrics.gauge("chat_tcp_connections", "Open TCP connections", connections::size);
+        System.out.println("🚀 TCP Chat Server started on port " + getPort());
+    }
+
+    /** Bound port, useful when started on port 0. */
+    public int getPort() {
+        return serverChannel != null ? serverChannel.socket().getLocalPort() : port;
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    private void acceptLoop() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                if (running) {
+                    Log.error("❌ Error accepting TCP connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    void onFrame(TcpChatConnection conn, String line) {
+        router.onFrame(conn, line);
+    }
+
+    void onClosed(TcpChatConnection conn) {
+        connections.remove(conn);
+        DISCONNECTS.increment();
+        router.onClose(conn);
+    }
+
+    /** Sends a presence frame to every TCP connection; the wire line is encoded once and shared. */
+    private void broadcast(String frame) {
+        OutboundFrame shared = OutboundFrame.shared(OutboundFrame.Kind.PRESENCE, frame,
+                TcpChatConnection.encode(frame).asReadOnlyBuffer());
+        for (TcpChatConnection conn : connections) {
+            conn.send(shared);
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        router.removeBroadcaster(broadcastFrame);
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("❌ Error stopping TCP server: " + e.getMessage());
+        }
+        for (TcpChatConnection conn : connections) {
+            conn.close();
+        }
+        for (SelectorLoop loop : loops) {
+            loop.selector.wakeup();
+            try {
+                loop.thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        System.out.println("🛑 TCP Server stopped");
+    }
+
+    /** One selector thread and the connections it owns. */
+    private final class SelectorLoop implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+
+        SelectorLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "tcp-selector-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void register(SocketChannel channel) {
+            pending.offer(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                    registerPending();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        TcpChatConnection conn = (TcpChatConnection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isWritable()) {
+                                conn.onWritable();
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                conn.onReadable(readBuffer);
+                            }
+                        } catch (CancelledKeyException e) {
+                            conn.close();
+                        }
+                    }
+                } catch (IOException e) {
+                    System.err.println("❌ Error in TCP selector: " + e.getMessage());
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Shutting down anyway
+            }
+        }
+
+        private void registerPending() {
+            SocketChannel channel;
+            while ((channel = pending.poll()) != null) {
+                try {
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    TcpChatConnection conn = new TcpChatConnection(channel, key, AdvancedChatServerSystem.this);
+                    key.attach(conn);
+                    connections.add(conn);
+                    CONNECTS.increment();
+                } catch (IOException e) {
+                    Log.error("❌ Error registering TCP connection: " + e.getMessage());
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                        // Nothing left to release
+                    }
+                }
+            }
+        }
+    }
+
+    /** Runs the TCP transport on its own; {@link ChatWebSocketServer#main} serves both. */
+    public static void main(String[] args) {
+        try {
+            ChatRouter router = new ChatRouter(ChatWebSocketServer.SEGMENTS_DIR, new File(ChatWebSocketServer.CLIENTS_FILE));
+            AdvancedChatServerSystem server = new AdvancedChatServerSystem(PORT, router);
+            server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.close();
+                router.close();
+            }));
+        } catch (IOException e) {
+            System.err.println("❌ Error in TCP server: " + e.getMessage());
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,230 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plain HTTP downloads of attachments, so a browser can use them as an image source or a
+ * download link.
+ *
+ * A client asks for a download over its chat connection and gets a ticket; {@code GET
+ * /attachments/<fileId>?ticket=<ticket>} then returns the file. The body is sent with
+ * {@link FileChannel#transferTo}, which on Linux is {@code sendfile}: the bytes go from
+ * the page cache to the socket without passing through the JVM. A {@code Range} header
+ * with a single range resumes an interrupted download. Each request is served on one of
+ * {@code ATTACHMENT_HTTP_THREADS} threads and the connection is closed afterwards.
+ */
+public class AttachmentServer implements AutoCloseable {
+    static final int PORT = Integer.parseInt(System.getenv().getOrDefault("ATTACHMENT_PORT", "8082"));
+    private static final int THREADS = Integer.parseInt(System.getenv().getOrDefault("ATTACHMENT_HTTP_THREADS", "8"));
+    private static final String ALLOWED_ORIGIN = "http://localhost:3000";
+    private static final String PATH_PREFIX = "/attachments/";
+    private static final int MAX_HEAD_BYTES = 8 * 1024;
+    private static final int READ_TIMEOUT_MS = 10_000;
+    private static final Metrics.Counter REQUESTS = Metrics.counter("attachment_downloads_total", "Attachment downloads served");
+    private static final Metrics.Counter BYTES_SENT = Metrics.counter("attachment_bytes_sent_total", "Attachment bytes sent to clients");
+
+    private final int port;
+    private final AttachmentStore store;
+    private final ExecutorService workers = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(THREADS * 16), r -> new Thread(r, "attachment-http"));
+    private ServerSocketChannel serverChannel;
+    private Thread acceptor;
+    private volatile boolean running;
+
+    public AttachmentServer(int port, AttachmentStore store) {
+        this.port = port;
+        this.store = store;
+    }
+
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(new InetSocketAddress(port));
+        running = true;
+        acceptor = new Thread(this::acceptLoop, "attachment-acceptor");
+        acceptor.start();
+        Log.info("🚀 Attachment Server started on port " + getPort());
+    }
+
+    /** Bound port, useful when started on port 0. */
+    public int getPort() {
+        return serverChannel != null ? serverChannel.socket().getLocalPort() : port;
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                try {
+                    workers.execute(() -> serve(channel));
+                } catch (RejectedExecutionException e) {
+                    respond(channel, 503, "Service Unavailable");
+                    channel.close();
+                }
+            } catch (IOException e) {
+                if (running) {
+                    Log.warn("⚠️ AttachmentServer: Accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(SocketChannel channel) {
+        try (SocketChannel c = channel) {
+            c.socket().setSoTimeout(READ_TIMEOUT_MS);
+            String head = readHead(new BufferedInputStream(c.socket().getInputStream(), 1024));
+            if (head == null) {
+                respond(c, 400, "Bad Request");
+                return;
+            }
+            String[] requestLine = head.substring(0, head.indexOf("\r\n")).split(" ");
+            if (requestLine.length != 3 || !requestLine[0].equals("GET") && !requestLine[0].equals("HEAD")) {
+                respond(c, 405, "Method Not Allowed");
+                return;
+            }
+            String target = requestLine[1];
+            int query = target.indexOf("?ticket=");
+            if (!target.startsWith(PATH_PREFIX) || query < 0) {
+                respond(c, 404, "Not Found");
+                return;
+            }
+            String fileId = target.substring(PATH_PREFIX.length(), query);
+            String ticket = target.substring(query + "?ticket=".length());
+            long size = store.size(fileId);
+            if (!fileId.equals(store.redeem(ticket)) || size < 0) {
+                respond(c, 404, "Not Found");
+                return;
+            }
+            long start = 0;
+            long end = size - 1;
+            String range = header(head, "range");
+            boolean partial = false;
+            if (range != null && range.startsWith("bytes=") && range.indexOf(',') < 0) {
+                String[] bounds = range.substring("bytes=".length()).split("-", -1);
+                try {
+                    if (bounds[0].isEmpty()) {
+                        start = Math.max(0, size - Long.parseLong(bounds[1]));
+                    } else {
+                        start = Long.parseLong(bounds[0]);
+                        if (!bounds[1].isEmpty()) {
+                            end = Math.min(end, Long.parseLong(bounds[1]));
+                        }
+                    }
+                    partial = true;
+                } catch (NumberFormatException e) {
+                    start = 0;
+                }
+                if (partial && (start > end || start >= size)) {
+                    respond(c, 416, "Range Not Satisfiable", "Content-Range: bytes */" + size + "\r\n");
+                    return;
+                }
+            }
+            long length = end - start + 1;
+            String headers = "HTTP/1.1 " + (partial ? "206 Partial Content" : "200 OK") + "\r\n" +
+                    "Content-Type: application/octet-stream\r\n" +
+                    "Content-Length: " + length + "\r\n" +
+                    (partial ? "Content-Range: bytes " + start + "-" + end + "/" + size + "\r\n" : "") +
+                    "Accept-Ranges: bytes\r\n" +
+                    "Cache-Control: private, max-age=31536000, immutable\r\n" + // Content-addressed, never changes
+                    "Access-Control-Allow-Origin: " + ALLOWED_ORIGIN + "\r\n" +
+                    "Connection: close\r\n\r\n";
+            writeFully(c, ByteBuffer.wrap(headers.getBytes(StandardCharsets.US_ASCII)));
+            if (requestLine[0].equals("GET")) {
+                try (FileChannel file = store.open(fileId)) {
+                    long sent = 0;
+                    while (sent < length) {
+                        long n = file.transferTo(start + sent, length - sent, c);
+                        if (n <= 0) {
+                            break;
+                        }
+                        sent += n;
+                    }
+                    BYTES_SENT.add(sent);
+                }
+            }
+            REQUESTS.increment();
+        } catch (SocketTimeoutException e) {
+            Log.debug("⚠️ AttachmentServer: Request timed out");
+        } catch (IOException e) {
+            Log.debug("⚠️ AttachmentServer: Download aborted: " + e.getMessage());
+        }
+    }
+
+    /** The request line and headers, or {@code null} if they are missing or too long. */
+    private static String readHead(InputStream in) throws IOException {
+        byte[] head = new byte[MAX_HEAD_BYTES];
+        int length = 0;
+        while (length < head.length) {
+            int b = in.read();
+            if (b < 0) {
+                return null;
+            }
+            head[length++] = (byte) b;
+            if (length >= 4 && head[length - 4] == '\r' && head[length - 3] == '\n'
+                    && head[length - 2] == '\r' && head[length - 1] == '\n') {
+                return new String(head, 0, length, StandardCharsets.ISO_8859_1);
+            }
+        }
+        return null;
+    }
+
+    /** Value of header {@code name} (lowercase), or {@code null}. */
+    private static String header(String head, String name) {
+        for (String line : head.split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase(name)) {
+                return line.substring(colon + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    private static void respond(SocketChannel channel, int status, String reason) {
+        respond(channel, status, reason, "");
+    }
+
+    private static void respond(SocketChannel channel, int status, String reason, String extraHeaders) {
+        String response = "HTTP/1.1 " + status + " " + reason + "\r\n" + extraHeaders +
+                "Content-Length: 0\r\nAccess-Control-Allow-Origin: " + ALLOWED_ORIGIN + "\r\nConnection: close\r\n\r\n";
+        try {
+            writeFully(channel, ByteBuffer.wrap(response.getBytes(StandardCharsets.US_ASCII)));
+        } catch (IOException e) {
+            Log.debug("⚠️ AttachmentServer: Failed to respond: " + e.getMessage());
+        }
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            Log.warn("⚠️ AttachmentServer: Failed to close: " + e.getMessage());
+        }
+        workers.shutdownNow();
+        Log.info("🛑 Attachment Server stopped");
+    }
+}
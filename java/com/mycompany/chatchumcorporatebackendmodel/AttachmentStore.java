@@ -0,0 +1,345 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Content-addressed store for chat attachments.
+ *
+ * A finished upload is kept once under {@code blobs/<sha256>}, however many users upload
+ * the same bytes; its SHA-256 is the file id. An upload in progress is written straight
+ * from each chunk's buffer to {@code partial/<user hash>-<sha256>.part} through a
+ * {@link FileChannel}, with the digest updated as it goes, so memory per upload is one
+ * channel and one digest whatever the file size. The partial file is the resume point: a
+ * client that reconnects asks to start the same upload again and continues at its length.
+ * Partial files untouched for {@code ATTACHMENT_PARTIAL_TTL_HOURS} are deleted on startup.
+ *
+ * Who may read a blob is recorded in the file_access table: the users who uploaded it and
+ * the receivers of a chat that shared it. Knowing a file id grants nothing by itself, and
+ * an upload of a file that is already stored is only skipped for a user who already has
+ * access to it. Downloads go through {@link AttachmentServer} with a short-lived ticket.
+ */
+public class AttachmentStore {
+    /** Binary frames in both directions start with {@code [int id][long offset]}. */
+    static final int CHUNK_HEADER_BYTES = 12;
+    static final int CHUNK_BYTES = Integer.parseInt(System.getenv().getOrDefault("ATTACHMENT_CHUNK_BYTES", String.valueOf(256 * 1024)));
+    static final long MAX_FILE_BYTES = Long.parseLong(System.getenv().getOrDefault("ATTACHMENT_MAX_BYTES", String.valueOf(1L << 30)));
+    private static final long PARTIAL_TTL_MS = TimeUnit.HOURS.toMillis(
+            Long.parseLong(System.getenv().getOrDefault("ATTACHMENT_PARTIAL_TTL_HOURS", "24")));
+    private static final Pattern SHA256 = Pattern.compile("[0-9a-f]{64}");
+    private static final int REHASH_BUFFER_BYTES = 64 * 1024;
+    private static final long TICKET_TTL_MS = TimeUnit.SECONDS.toMillis(
+            Long.parseLong(System.getenv().getOrDefault("ATTACHMENT_TICKET_SECONDS", "300")));
+
+    private final Path blobs;
+    private final Path partials;
+    private final ConnectionProvider db = ConnectionProvider.getInstance();
+    /** Partial files with an open upload, so two connections never write the same one. */
+    private final Set<Path> active = ConcurrentHashMap.newKeySet();
+    /** Download ticket -> the file it opens. */
+    private final Map<String, Ticket> tickets = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+
+    public AttachmentStore(String dir) throws IOException {
+        this.blobs = new File(dir, "blobs").toPath();
+        this.partials = new File(dir, "partial").toPath();
+        Files.createDirectories(blobs);
+        Files.createDirectories(partials);
+        try {
+            db.write(conn -> {
+                try (Statement stmt = conn.connection().createStatement()) {
+                    stmt.execute("CREATE TABLE IF NOT EXISTS file_access (" +
+                            "file_id TEXT NOT NULL, " +
+                            "username TEXT NOT NULL, " +
+                            "PRIMARY KEY (file_id, username)) WITHOUT ROWID");
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            Log.error("⚠️ AttachmentStore: Failed to initialize database: " + e.getMessage());
+        }
+        sweepPartials();
+    }
+
+    /** Whether {@code fileId} has the form of a file id, i.e. a lowercase hex SHA-256. */
+    static boolean isFileId(String fileId) {
+        return fileId != null && SHA256.matcher(fileId).matches();
+    }
+
+    /** Size of the stored blob {@code fileId}, or -1 if there is none. */
+    public long size(String fileId) {
+        if (!isFileId(fileId)) {
+            return -1;
+        }
+        File blob = blobs.resolve(fileId).toFile();
+        return blob.isFile() ? blob.length() : -1;
+    }
+
+    /** Whether {@code username} may download {@code fileId}. */
+    public boolean canRead(String fileId, String username) {
+        if (!isFileId(fileId) || username == null) {
+            return false;
+        }
+        try {
+            return db.read(conn -> {
+                PreparedStatement pstmt = conn.prepare("SELECT 1 FROM file_access WHERE file_id = ? AND username = ?");
+                pstmt.setString(1, fileId);
+                pstmt.setString(2, username);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    return rs.next();
+                }
+            });
+        } catch (SQLException e) {
+            Log.error("⚠️ AttachmentStore: Failed to check access to " + fileId + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /** Lets {@code username} download {@code fileId}. */
+    public boolean grant(String fileId, String username) {
+        try {
+            db.write(conn -> {
+                PreparedStatement pstmt = conn.prepare("INSERT OR IGNORE INTO file_access (file_id, username) VALUES (?, ?)");
+                pstmt.setString(1, fileId);
+                pstmt.setString(2, username);
+                return pstmt.executeUpdate();
+            });
+            return true;
+        } catch (SQLException e) {
+            Log.error("⚠️ AttachmentStore: Failed to grant " + username + " access to " + fileId + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Opens or resumes {@code username}'s upload of {@code size} bytes hashing to
+     * {@code sha256}. The bytes already on disk from an earlier attempt are hashed again,
+     * so the upload continues at {@link Upload#received}.
+     *
+     * @throws IllegalArgumentException if the declared file is not acceptable
+     * @throws IllegalStateException if the same upload is open on another connection
+     */
+    public Upload begin(String username, String sha256, long size) throws IOException {
+        if (!isFileId(sha256)) {
+            throw new IllegalArgumentException("sha256 must be 64 lowercase hex digits");
+        }
+        if (size < 0 || size > MAX_FILE_BYTES) {
+            throw new IllegalArgumentException("size must be between 0 and " + MAX_FILE_BYTES + " bytes");
+        }
+        String owner = hex(sha256().digest(username.getBytes(StandardCharsets.UTF_8))).substring(0, 32);
+        Path partial = partials.resolve(owner + "-" + sha256 + ".part");
+        if (!active.add(partial)) {
+            throw new IllegalStateException("upload already in progress");
+        }
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (channel.size() > size) {
+                channel.truncate(0);
+            }
+            MessageDigest digest = sha256();
+            long received = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate(REHASH_BUFFER_BYTES);
+            for (long position = 0; position < received; ) {
+                buffer.clear();
+                int n = channel.read(buffer, position);
+                if (n < 0) {
+                    break;
+                }
+                buffer.flip();
+                digest.update(buffer);
+                position += n;
+            }
+            return new Upload(partial, channel, digest, sha256, size, received);
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) {
+                channel.close();
+            }
+            active.remove(partial);
+            throw e;
+        }
+    }
+
+    /**
+     * Appends {@code chunk} at the end of {@code upload} and {@link #finish}es it when the
+     * last byte arrives.
+     *
+     * @return {@code true} once the upload is complete and stored
+     * @throws IOException if the bytes do not hash to the declared SHA-256, or on I/O failure
+     */
+    public boolean write(Upload upload, ByteBuffer chunk) throws IOException {
+        if (chunk.remaining() > upload.size - upload.received) {
+            throw new IOException("chunk runs past the declared size");
+        }
+        upload.digest.update(chunk.duplicate());
+        long position = upload.received;
+        while (chunk.hasRemaining()) {
+            position += upload.channel.write(chunk, position);
+        }
+        upload.received = position;
+        if (upload.received < upload.size) {
+            return false;
+        }
+        finish(upload);
+        return true;
+    }
+
+    /**
+     * Closes a fully received upload and checks its digest: the file becomes blob
+     * {@code sha256}, or is discarded if it does not match.
+     *
+     * @throws IOException if the bytes do not hash to the declared SHA-256, or on I/O failure
+     */
+    public void finish(Upload upload) throws IOException {
+        upload.channel.force(false);
+        close(upload);
+        String actual = hex(upload.digest.digest());
+        if (!actual.equals(upload.sha256)) {
+            Files.deleteIfExists(upload.partial);
+            throw new IOException("checksum mismatch");
+        }
+        Path blob = blobs.resolve(upload.sha256);
+        try {
+            Files.move(upload.partial, blob, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            Files.deleteIfExists(upload.partial); // Someone else stored the same bytes first
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(upload.partial, blob, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /** Closes {@code upload} without finishing it; its partial file stays for a resume. */
+    public void close(Upload upload) {
+        try {
+            upload.channel.close();
+        } catch (IOException e) {
+            Log.warn("⚠️ AttachmentStore: Failed to close " + upload.partial.getFileName() + ": " + e.getMessage());
+        } finally {
+            active.remove(upload.partial);
+        }
+    }
+
+    /** Opens blob {@code fileId} for reading; the caller closes it. */
+    public FileChannel open(String fileId) throws IOException {
+        if (!isFileId(fileId)) {
+            throw new IOException("not a file id: " + fileId);
+        }
+        return FileChannel.open(blobs.resolve(fileId), StandardOpenOption.READ);
+    }
+
+    /**
+     * A download ticket for {@code fileId}, valid for {@code ATTACHMENT_TICKET_SECONDS}. The
+     * caller has checked that the user may read the file; the ticket stands in for the
+     * user on the {@link AttachmentServer}, which has no chat session to check.
+     */
+    public String ticket(String fileId) {
+        long now = System.currentTimeMillis();
+        tickets.values().removeIf(t -> t.expiresAtMillis <= now);
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        String ticket = hex(bytes);
+        tickets.put(ticket, new Ticket(fileId, now + TICKET_TTL_MS));
+        return ticket;
+    }
+
+    /** The file {@code ticket} was issued for, or {@code null} if it is unknown or expired. */
+    public String redeem(String ticket) {
+        Ticket t = ticket != null ? tickets.get(ticket) : null;
+        return t != null && t.expiresAtMillis > System.currentTimeMillis() ? t.fileId : null;
+    }
+
+    private void sweepPartials() {
+        File[] stale = partials.toFile().listFiles((d, name) -> name.endsWith(".part")
+                && System.currentTimeMillis() - new File(d, name).lastModified() > PARTIAL_TTL_MS);
+        if (stale == null) {
+            return;
+        }
+        for (File file : stale) {
+            if (!file.delete()) {
+                Log.warn("⚠️ AttachmentStore: Failed to delete stale upload " + file.getName());
+            }
+        }
+        if (stale.length > 0) {
+            Log.info("🗂️ AttachmentStore: Deleted " + stale.length + " abandoned uploads");
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static final class Ticket {
+        final String fileId;
+        final long expiresAtMillis;
+
+        Ticket(String fileId, long expiresAtMillis) {
+            this.fileId = fileId;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    /** One upload in progress on one connection. */
+    public static final class Upload {
+        final Path partial;
+        final FileChannel channel;
+        final MessageDigest digest;
+        final String sha256;
+        final long size;
+        /** Bytes on disk so far; the offset the next chunk must start at. */
+        volatile long received;
+
+        Upload(Path partial, FileChannel channel, MessageDigest digest, String sha256, long size, long received) {
+            this.partial = partial;
+            this.channel = channel;
+            this.digest = digest;
+            this.sha256 = sha256;
+            this.size = size;
+            this.received = received;
+        }
+
+        public long getReceived() {
+            return received;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+    }
+}
@@ -2,41 +2,53 @@ package com.mycompany.chatchumcorporatebackendmodel;
 
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.FirebaseOptions;
-import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.auth.FirebaseToken;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
-import org.mindrot.jbcrypt.BCrypt;
 import spark.Spark;
 
 import java.io.InputStream;
 import java.lang.reflect.Type;
 import java.sql.*;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class AuthServer {
-    private static final String DB_URL = "jdbc:sqlite:chatchum.db";
     private static final Gson gson = new Gson();
     private static final UserService userService = UserService.getInstance();
+    private static final ConnectionProvider db = ConnectionProvider.getInstance();
+    private static final int TOKEN_CACHE_SIZE = Integer.parseInt(System.getenv().getOrDefault("AUTH_TOKEN_CACHE_SIZE", "10000"));
+    private static final long VERIFY_TIMEOUT_MS = Long.parseLong(System.getenv().getOrDefault("AUTH_VERIFY_TIMEOUT_MS", "10000"));
+    private static final long HASH_TIMEOUT_MS = Long.parseLong(System.getenv().getOrDefault("AUTH_BCRYPT_TIMEOUT_MS", "10000"));
+    private static final Set<String> ROUTES = Set.of("/signup", "/login", "/google-login", "/set-username", "/verify-session", "/metrics");
+    private static final String START_ATTRIBUTE = "startNanos";
+    private static final Set<String> CREDENTIAL_ROUTES = Set.of("/signup", "/login", "/google-login");
+    private static VerifiedTokenCache tokens;
+    private static PasswordHasher hasher;
+    private static RateLimiter addressLimit;
+    private static RateLimiter loginLimit;
 
     private static void initDatabase() {
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            Statement stmt = conn.createStatement();
-            stmt.execute("CREATE TABLE IF NOT EXISTS auth_users (" +
-                    "email TEXT PRIMARY KEY, " +
-                    "username TEXT UNIQUE, " +
-                    "password TEXT)");
-            stmt.execute("PRAGMA journal_mode=WAL;");
+        try {
+            db.write(conn -> {
+                try (Statement stmt = conn.connection().createStatement()) {
+                    stmt.execute("CREATE TABLE IF NOT EXISTS auth_users (" +
+                            "email TEXT PRIMARY KEY, " +
+                            "username TEXT UNIQUE, " +
+                            "password TEXT)");
+                }
+                return null;
+            });
         } catch (SQLException e) {
-            System.err.println("⚠️ AuthServer: Failed to initialize database: " + e.getMessage());
+            Log.error("⚠️ AuthServer: Failed to initialize database: " + e.getMessage());
         }
     }
 
     public static void main(String[] args) throws Exception {
-        initDatabase();
-
         // Firebase initialization
         InputStream serviceAccount = AuthServer.class.getClassLoader().getResourceAsStream("mychatapp-f92ae-firebase-adminsdk-fbsvc-0f95149a60.json");
         if (serviceAccount == null) {
@@ -48,15 +60,56 @@ public class AuthServer {
         FirebaseApp.initializeApp(options);
         System.out.println("🔥 Firebase Admin SDK initialized successfully.");
 
-        // Set Spark port
         int port = Integer.parseInt(System.getenv().getOrDefault("AUTH_PORT", "8081"));
+        start(port, new FirebaseTokenVerifier());
+    }
+
+    /** Starts the HTTP API on {@code port}, checking ID tokens with {@code verifier}. */
+    public static void start(int port, TokenVerifier verifier) {
+        initDatabase();
+        tokens = new VerifiedTokenCache(verifier, TOKEN_CACHE_SIZE);
+        hasher = new PasswordHasher();
+        addressLimit = RateLimiter.fromEnv("auth_ip", "RATE_LIMIT_AUTH_IP", "2:20");
+        loginLimit = RateLimiter.fromEnv("login_email", "RATE_LIMIT_LOGIN_EMAIL", "0.1:5");
+        Metrics.gauge("auth_bcrypt_backlog", "Password hashes running or waiting", hasher::getBacklog);
+        Metrics.counter("auth_bcrypt_rejected_total", "Password hashes rejected because the pool was full", hasher::getRejectedCount);
+        Metrics.gauge("auth_token_cache_size", "Verified ID tokens held in the cache", tokens::size);
+        Metrics.counter("auth_token_cache_hits_total", "Token verifications answered from the cache", tokens::getHits);
+        Metrics.counter("auth_token_cache_misses_total", "Token verifications sent to the verifier", tokens::getMisses);
+
+        // Set Spark port
         Spark.port(port);
 
         // CORS
         Spark.before((request, response) -> {
+            request.attribute(START_ATTRIBUTE, System.nanoTime());
             applyCorsHeaders(response);
         });
 
+        // Per client address on the routes that check credentials or hash a password
+        for (String route : CREDENTIAL_ROUTES) {
+            Spark.before(route, (request, response) -> {
+                if (!"POST".equals(request.requestMethod())) {
+                    return; // CORS preflights are free
+                }
+                long retryAfterMs = addressLimit.tryAcquire(request.ip());
+                if (retryAfterMs > 0) {
+                    Spark.halt(429, tooManyRequests(response, retryAfterMs));
+                }
+            });
+        }
+
+        // Latency and status per route, recorded after every response including errors
+        Spark.afterAfter((request, response) -> {
+            Long start = request.attribute(START_ATTRIBUTE);
+            String route = ROUTES.contains(request.pathInfo()) ? request.pathInfo() : "other";
+            String labels = "method=\"" + request.requestMethod() + "\",route=\"" + route + "\"";
+            if (start != null) {
+                Metrics.histogram("auth_request_seconds", "Time to answer an HTTP request", labels).recordSince(start);
+            }
+            Metrics.counter("auth_responses_total", "HTTP responses by status", labels + ",status=\"" + response.status() + "\"").increment();
+        });
+
         Spark.options("/*", (request, response) -> {
           
             String requestHeaders = request.headers("Access-Control-Request-Headers");
@@ -84,10 +137,8 @@ public class AuthServer {
                 return gson.toJson(Map.of("error", "Email, username, and password are required"));
             }
 
-            try (Connection conn = DriverManager.getConnection(DB_URL)) {
-                PreparedStatement pstmt = conn.prepareStatement("SELECT 1 FROM auth_users WHERE email = ?");
-                pstmt.setString(1, email);
-                if (pstmt.executeQuery().next()) {
+            try {
+                if (emailRegistered(email)) {
                     res.status(400);
                     return gson.toJson(Map.of("error", "Email already registered"));
                 }
@@ -97,16 +148,21 @@ public class AuthServer {
                     return gson.toJson(Map.of("error", "Username already taken"));
                 }
 
-                String hashedPassword = BCrypt.hashpw(password, BCrypt.gensalt());
-                pstmt = conn.prepareStatement("INSERT INTO auth_users (email, username, password) VALUES (?, ?, ?)");
-                pstmt.setString(1, email);
-                pstmt.setString(2, username);
-                pstmt.setString(3, hashedPassword);
-                pstmt.executeUpdate();
+                // Hash before taking the writer so bcrypt never holds up other writes.
+                String hashedPassword = hasher.hash(password).get(HASH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                db.write(conn -> {
+                    PreparedStatement pstmt = conn.prepare("INSERT INTO auth_users (email, username, password) VALUES (?, ?, ?)");
+                    pstmt.setString(1, email);
+                    pstmt.setString(2, username);
+                    pstmt.setString(3, hashedPassword);
+                    return pstmt.executeUpdate();
+                });
                 userService.addUser(username);
 
                 res.status(200);
                 return gson.toJson(Map.of("email", email, "username", username, "token", "mock-token-" + email));
+            } catch (RejectedExecutionException | TimeoutException e) {
+                return busy(res);
             } catch (SQLException e) {
                 res.status(500);
                 return gson.toJson(Map.of("error", "Server error: " + e.getMessage()));
@@ -123,24 +179,38 @@ public class AuthServer {
                 res.status(400);
                 return gson.toJson(Map.of("error", "Email and password are required"));
             }
+            // Per account as well, so guesses spread over many addresses still run into a limit
+            long retryAfterMs = loginLimit.tryAcquire(email.trim().toLowerCase());
+            if (retryAfterMs > 0) {
+                return tooManyRequests(res, retryAfterMs);
+            }
 
-            try (Connection conn = DriverManager.getConnection(DB_URL)) {
-                PreparedStatement pstmt = conn.prepareStatement("SELECT username, password FROM auth_users WHERE email = ?");
-                pstmt.setString(1, email);
-                ResultSet rs = pstmt.executeQuery();
-                if (!rs.next()) {
+            try {
+                String[] credentials = db.read(conn -> {
+                    PreparedStatement pstmt = conn.prepare("SELECT username, password FROM auth_users WHERE email = ?");
+                    pstmt.setString(1, email);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        return rs.next() ? new String[] { rs.getString("username"), rs.getString("password") } : null;
+                    }
+                });
+                if (credentials == null) {
                     res.status(401);
                     return gson.toJson(Map.of("error", "Invalid email or password"));
                 }
-                String storedPassword = rs.getString("password");
-                String username = rs.getString("username");
-                if (!BCrypt.checkpw(password, storedPassword)) {
+                String username = credentials[0];
+                String storedPassword = credentials[1];
+                if (!hasher.check(password, storedPassword).get(HASH_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
                     res.status(401);
                     return gson.toJson(Map.of("error", "Invalid email or password"));
                 }
+                if (hasher.needsRehash(storedPassword)) {
+                    rehash(email, password, storedPassword);
+                }
 
                 res.status(200);
                 return gson.toJson(Map.of("email", email, "username", username, "token", "mock-token-" + email));
+            } catch (RejectedExecutionException | TimeoutException e) {
+                return busy(res);
             } catch (SQLException e) {
                 res.status(500);
                 return gson.toJson(Map.of("error", "Server error: " + e.getMessage()));
@@ -152,31 +222,41 @@ public class AuthServer {
             Map<String, String> body = gson.fromJson(req.body(), mapType);
             String idToken = body.get("token");
 
+            if (idToken == null) {
+                res.status(400);
+                return gson.toJson(Map.of("error", "Token is required"));
+            }
+
             try {
-                FirebaseToken decodedToken = FirebaseAuth.getInstance().verifyIdTokenAsync(idToken).get();
-                String email = decodedToken.getEmail();
+                VerifiedToken verified = tokens.verify(idToken).get(VERIFY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                String email = verified.email;
 
-                try (Connection conn = DriverManager.getConnection(DB_URL)) {
-                    PreparedStatement pstmt = conn.prepareStatement("SELECT username FROM auth_users WHERE email = ?");
-                    pstmt.setString(1, email);
-                    ResultSet rs = pstmt.executeQuery();
-                    String username = rs.next() ? rs.getString("username") : null;
+                String username = usernameOf(verified);
 
-                    if (username == null) {
-                        pstmt = conn.prepareStatement("INSERT INTO auth_users (email, username, password) VALUES (?, ?, ?)");
+                if (username == null) {
+                    // Requests sharing one verification all get here at once; only the first inserts
+                    db.write(conn -> {
+                        PreparedStatement pstmt = conn.prepare("INSERT OR IGNORE INTO auth_users (email, username, password) VALUES (?, ?, ?)");
                         pstmt.setString(1, email);
                         pstmt.setString(2, email); // Temporary username
                         pstmt.setString(3, "");
-                        pstmt.executeUpdate();
+                        return pstmt.executeUpdate();
+                    });
+                    username = findUsername(email);
+                    if (username == null) {
                         username = email; // Use email as temporary username
                     }
-
-                    res.status(200);
-                    return gson.toJson(Map.of("email", email, "username", username, "token", idToken));
+                    verified.setUsername(username);
                 }
+
+                res.status(200);
+                return gson.toJson(Map.of("email", email, "username", username, "token", idToken));
             } catch (InterruptedException | ExecutionException e) {
                 res.status(401);
                 return gson.toJson(Map.of("error", "Invalid token: " + e.getMessage()));
+            } catch (TimeoutException e) {
+                res.status(503);
+                return gson.toJson(Map.of("error", "Token verification timed out"));
             }
         });
 
@@ -191,10 +271,8 @@ public class AuthServer {
                 return gson.toJson(Map.of("error", "Email and username are required"));
             }
 
-            try (Connection conn = DriverManager.getConnection(DB_URL)) {
-                PreparedStatement pstmt = conn.prepareStatement("SELECT 1 FROM auth_users WHERE email = ?");
-                pstmt.setString(1, email);
-                if (!pstmt.executeQuery().next()) {
+            try {
+                if (!emailRegistered(email)) {
                     res.status(404);
                     return gson.toJson(Map.of("error", "User not found"));
                 }
@@ -204,11 +282,14 @@ public class AuthServer {
                     return gson.toJson(Map.of("error", "Username already taken"));
                 }
 
-                pstmt = conn.prepareStatement("UPDATE auth_users SET username = ? WHERE email = ?");
-                pstmt.setString(1, username);
-                pstmt.setString(2, email);
-                pstmt.executeUpdate();
+                db.write(conn -> {
+                    PreparedStatement pstmt = conn.prepare("UPDATE auth_users SET username = ? WHERE email = ?");
+                    pstmt.setString(1, username);
+                    pstmt.setString(2, email);
+                    return pstmt.executeUpdate();
+                });
                 userService.addUser(username);
+                tokens.updateUsername(email, username);
 
                 res.status(200);
                 return gson.toJson(Map.of("email", email, "username", username));
@@ -230,32 +311,97 @@ public class AuthServer {
             String token = authHeader.substring("Bearer ".length());
 
             try {
-                FirebaseToken decodedToken = FirebaseAuth.getInstance().verifyIdTokenAsync(token).get();
-                String email = decodedToken.getEmail();
+                VerifiedToken verified = tokens.verify(token).get(VERIFY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                String email = verified.email;
 
-                try (Connection conn = DriverManager.getConnection(DB_URL)) {
-                    PreparedStatement pstmt = conn.prepareStatement("SELECT username FROM auth_users WHERE email = ?");
-                    pstmt.setString(1, email);
-                    ResultSet rs = pstmt.executeQuery();
-
-                    if (rs.next()) {
-                        String username = rs.getString("username");
-                        return gson.toJson(Map.of("email", email, "username", username));
-                    } else {
-                        res.status(404);
-                        return gson.toJson(Map.of("error", "User not found"));
-                    }
+                String username = usernameOf(verified); // Cached with the token after the first lookup
+                if (username != null) {
+                    return gson.toJson(Map.of("email", email, "username", username));
+                } else {
+                    res.status(404);
+                    return gson.toJson(Map.of("error", "User not found"));
                 }
             } catch (InterruptedException | ExecutionException e) {
                 res.status(401);
                 return gson.toJson(Map.of("error", "Invalid token: " + e.getMessage()));
+            } catch (TimeoutException e) {
+                res.status(503);
+                return gson.toJson(Map.of("error", "Token verification timed out"));
             }
         });
 
+        Metrics.route();
+
         Spark.init();
         System.out.println("🚀 HTTP Auth Server started on port " + port);
     }
 
+    private static boolean emailRegistered(String email) throws SQLException {
+        return db.read(conn -> {
+            PreparedStatement pstmt = conn.prepare("SELECT 1 FROM auth_users WHERE email = ?");
+            pstmt.setString(1, email);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        });
+    }
+
+    private static String findUsername(String email) throws SQLException {
+        return db.read(conn -> {
+            PreparedStatement pstmt = conn.prepare("SELECT username FROM auth_users WHERE email = ?");
+            pstmt.setString(1, email);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getString("username") : null;
+            }
+        });
+    }
+
+    /** Fast answer when bcrypt is saturated, instead of tying up a request thread in its queue. */
+    private static String busy(spark.Response res) {
+        res.status(503);
+        res.header("Retry-After", "1");
+        return gson.toJson(Map.of("error", "Server busy, please try again"));
+    }
+
+    /** 429 with the wait in {@code Retry-After}, rounded up to whole seconds. */
+    private static String tooManyRequests(spark.Response res, long retryAfterMs) {
+        res.status(429);
+        res.type("application/json");
+        res.header("Retry-After", String.valueOf((retryAfterMs + 999) / 1000));
+        return gson.toJson(Map.of("error", "Too many attempts, please try again later", "retryAfterMs", retryAfterMs));
+    }
+
+    /** Upgrades a hash made with another work factor, off the request path; skipped while bcrypt is busy. */
+    private static void rehash(String email, String password, String oldHash) {
+        try {
+            hasher.hash(password).thenAccept(newHash -> {
+                try {
+                    db.write(conn -> {
+                        PreparedStatement pstmt = conn.prepare("UPDATE auth_users SET password = ? WHERE email = ? AND password = ?");
+                        pstmt.setString(1, newHash);
+                        pstmt.setString(2, email);
+                        pstmt.setString(3, oldHash); // Unless the password changed meanwhile
+                        return pstmt.executeUpdate();
+                    });
+                } catch (SQLException e) {
+                    Log.warn("⚠️ AuthServer: Failed to rehash password: " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Upgraded on a later login
+        }
+    }
+
+    /** The username of a verified token's email, looked up once and then kept with the token. */
+    private static String usernameOf(VerifiedToken verified) throws SQLException {
+        String username = verified.getUsername();
+        if (username == null) {
+            username = findUsername(verified.email);
+            verified.setUsername(username);
+        }
+        return username;
+    }
+
     private static void applyCorsHeaders(spark.Response response) {
     String allowedOrigin = System.getenv().getOrDefault("CORS_ORIGIN", "http://localhost:3000");
 
@@ -267,4 +413,4 @@ public class AuthServer {
         response.header("Access-Control-Allow-Credentials", "true");
     }
    }
-}
+}
\ No newline at end of file
@@ -0,0 +1,37 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+/**
+ * One client connection, independent of the transport it arrived on.
+ *
+ * {@link ChatRouter} only talks to connections through this interface, so a WebSocket
+ * user and a TCP user are registered in the same {@link SessionRegistry} and reach each
+ * other through the same delivery path. Implementations must allow {@link #send} from
+ * any thread, and route every frame through the connection's {@link OutboundQueue}.
+ */
+public interface ChatConnection {
+
+    boolean isOpen();
+
+    /** Queues one text frame that must not be dropped. Frames sent on a closed connection are discarded. */
+    void send(String frame);
+
+    /** Queues a frame the slow-consumer policy may drop or coalesce, depending on its kind. */
+    void send(OutboundFrame frame);
+
+    OutboundQueue getOutbound();
+
+    void close();
+
+    /** The session registered on this connection, or {@code null} before {@code init}. */
+    ChatSession getSession();
+
+    void setSession(ChatSession session);
+
+    /** Protocol version of a client whose {@code init} names none. */
+    default int getDefaultProtocol() {
+        return ChatProtocol.VERSION;
+    }
+
+    /** Address of the client, used to rate-limit it before it logs in; {@code null} once closed. */
+    String getRemoteAddress();
+}
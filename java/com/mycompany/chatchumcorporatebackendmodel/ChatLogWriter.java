@@ -0,0 +1,280 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Write-behind pipeline for the chats table.
+ *
+ * Delivery threads enqueue records and return immediately; a single writer thread drains
+ * the queue and inserts records in one transaction per batch, committing once
+ * {@code batchSize} records are pending or {@code flushIntervalMs} has passed. The queue
+ * is bounded by a permit count, so producers block (up to {@code offerTimeoutMs}) instead
+ * of letting it grow without limit when the disk falls behind.
+ *
+ * A batch whose transaction fails is retried up to {@link #COMMIT_ATTEMPTS} times with
+ * doubling backoff before its records are counted as failed; the queue keeps filling in
+ * the meantime and pushes back on producers. Retrying is safe because the transaction
+ * rolled back and rows with a message id are inserted at most once.
+ */
+public class ChatLogWriter {
+    static final int COMMIT_ATTEMPTS = 5;
+    static final long RETRY_BACKOFF_MS = 50;
+    private static final Metrics.Histogram COMMIT_SECONDS = Metrics.histogram("chatlog_commit_seconds", "Time to commit one batch of chats");
+
+    /** A row whose (sender, message_id) is already stored is a client retry and is skipped. */
+    static final String INSERT_SQL = "INSERT OR IGNORE INTO chats " +
+            "(sender, receiver, message, timestamp, conversation_key, message_id) VALUES (?, ?, ?, ?, ?, ?)";
+
+    /** One pending row of the chats table. */
+    static final class ChatRecord {
+        final String sender;
+        final String receiver;
+        final String message;
+        final String timestamp;
+        final String messageId;
+
+        ChatRecord(String sender, String receiver, String message, String timestamp, String messageId) {
+            this.sender = sender;
+            this.receiver = receiver;
+            this.message = message;
+            this.timestamp = timestamp;
+            this.messageId = messageId;
+        }
+    }
+
+    private final ConnectionProvider db;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final long offerTimeoutMs;
+    private final ConcurrentLinkedQueue<ChatRecord> queue = new ConcurrentLinkedQueue<>();
+    private final Semaphore capacity;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong committed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong totalCommitNanos = new AtomicLong();
+    private volatile long lastCommitNanos;
+    private volatile long maxCommitNanos;
+
+    public ChatLogWriter(ConnectionProvider db, int capacity, int batchSize, long flushIntervalMs, long offerTimeoutMs) {
+        this.db = db;
+        this.capacity = new Semaphore(capacity);
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        this.offerTimeoutMs = offerTimeoutMs;
+        this.writerThread = new Thread(this::runWriter, "chatlog-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Queues a record for the next batch. Blocks while the queue is full.
+     *
+     * @return {@code false} if the queue stayed full for the whole offer timeout or the
+     *         writer has been shut down
+     */
+    public boolean enqueue(String sender, String receiver, String message, String timestamp, String messageId) {
+        if (!running) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        try {
+            if (!capacity.tryAcquire(offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+                rejected.incrementAndGet();
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rejected.incrementAndGet();
+            return false;
+        }
+        long pending = enqueued.incrementAndGet() - committed.get() - failed.get();
+        queue.offer(new ChatRecord(sender, receiver, message, timestamp, messageId));
+        if (!running) {
+            // close() may have taken its last look at the queue before this offer; commit it here
+            drain();
+            return true;
+        }
+        if (pending >= batchSize) {
+            LockSupport.unpark(writerThread);
+        }
+        return true;
+    }
+
+    /** Waits until every record enqueued before this call has been committed or has failed. */
+    public boolean flush(long timeoutMs) {
+        long target = enqueued.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        LockSupport.unpark(writerThread);
+        while (committed.get() + failed.get() < target) {
+            if (System.nanoTime() >= deadline || !writerThread.isAlive()) {
+                return false;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return true;
+    }
+
+    /** Stops accepting records, commits everything still queued and stops the writer thread. */
+    public void close() {
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // A producer may have slipped a record in after the writer's last drain.
+        drain();
+    }
+
+    /**
+     * Commits whatever is queued on the calling thread. Used once the writer is stopping; a
+     * producer that offered past the {@code running} check sees it cleared afterwards and
+     * drains its own record, so every accepted record is committed by someone.
+     */
+    private void drain() {
+        List<ChatRecord> batch = new ArrayList<>(batchSize);
+        ChatRecord record;
+        do {
+            record = queue.poll();
+            if (record != null) {
+                batch.add(record);
+            }
+            if (batch.size() == batchSize || (record == null && !batch.isEmpty())) {
+                commit(batch);
+                capacity.release(batch.size());
+                batch.clear();
+            }
+        } while (record != null);
+    }
+
+    private void runWriter() {
+        List<ChatRecord> batch = new ArrayList<>(batchSize);
+        long lastFlush = System.nanoTime();
+        while (running || !queue.isEmpty()) {
+            long sinceFlush = System.nanoTime() - lastFlush;
+            if (running && getQueueDepth() < batchSize && sinceFlush < flushIntervalNanos) {
+                LockSupport.parkNanos(flushIntervalNanos - sinceFlush);
+                continue;
+            }
+            ChatRecord record;
+            while (batch.size() < batchSize && (record = queue.poll()) != null) {
+                batch.add(record);
+            }
+            if (!batch.isEmpty()) {
+                commit(batch);
+                capacity.release(batch.size());
+                batch.clear();
+            }
+            lastFlush = System.nanoTime();
+        }
+    }
+
+    /** Commits {@code batch}, retrying a failed transaction with backoff before giving up on it. */
+    private void commit(List<ChatRecord> batch) {
+        long backoffMs = RETRY_BACKOFF_MS;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                tryCommit(batch);
+                return;
+            } catch (SQLException e) {
+                if (attempt == COMMIT_ATTEMPTS) {
+                    failed.addAndGet(batch.size());
+                    Log.error("⚠️ ChatLogWriter: Failed to commit " + batch.size() + " chats after "
+                            + attempt + " attempts: " + e.getMessage());
+                    return;
+                }
+                retries.incrementAndGet();
+                Log.warn("⚠️ ChatLogWriter: Commit of " + batch.size() + " chats failed, retrying in "
+                        + backoffMs + " ms: " + e.getMessage());
+            }
+            try {
+                Thread.sleep(backoffMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed.addAndGet(batch.size());
+                Log.error("⚠️ ChatLogWriter: Interrupted while retrying, dropped " + batch.size() + " chats");
+                return;
+            }
+            backoffMs *= 2;
+        }
+    }
+
+    private void tryCommit(List<ChatRecord> batch) throws SQLException {
+        long start = System.nanoTime();
+        db.transaction(conn -> {
+            PreparedStatement pstmt = conn.prepare(INSERT_SQL);
+            for (ChatRecord record : batch) {
+                pstmt.setString(1, record.sender);
+                pstmt.setString(2, record.receiver);
+                pstmt.setString(3, record.message);
+                pstmt.setString(4, record.timestamp);
+                pstmt.setString(5, ChatLogService.conversationKey(record.sender, record.receiver));
+                pstmt.setString(6, record.messageId);
+                pstmt.addBatch();
+            }
+            return pstmt.executeBatch();
+        });
+        long elapsed = System.nanoTime() - start;
+        COMMIT_SECONDS.record(elapsed);
+        lastCommitNanos = elapsed;
+        if (elapsed > maxCommitNanos) {
+            maxCommitNanos = elapsed;
+        }
+        totalCommitNanos.addAndGet(elapsed);
+        commits.incrementAndGet();
+        committed.addAndGet(batch.size());
+    }
+
+    public int getQueueDepth() {
+        return (int) (enqueued.get() - committed.get() - failed.get());
+    }
+
+    public long getCommittedCount() {
+        return committed.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /** Failed transactions that were tried again. */
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    public long getCommitCount() {
+        return commits.get();
+    }
+
+    public long getLastCommitMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(lastCommitNanos);
+    }
+
+    public long getMaxCommitMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxCommitNanos);
+    }
+
+    public long getAverageCommitMicros() {
+        long n = commits.get();
+        return n == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalCommitNanos.get() / n);
+    }
+}
@@ -0,0 +1,709 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Codec for the line-delimited JSON chat protocol.
+ *
+ * Inbound frames are decoded with Gson's streaming {@link JsonReader} straight into typed
+ * frames, without building an intermediate map. Each thread keeps one reader for all the
+ * frames it decodes (see {@link FrameSource}), so a frame does not allocate a reader and
+ * its buffers. Outbound frames are written with
+ * {@link JsonWriter} into a per-thread buffer that is reused across calls, so strings are
+ * always escaped correctly and no map or list is built just to be serialized.
+ */
+public final class ChatProtocol {
+    public static final String PONG = "{\"type\":\"pong\"}";
+    /** Protocol version this server speaks. */
+    public static final int VERSION = 2;
+    /**
+     * Version of the old thread-per-socket TCP server, whose clients expect {@code registered},
+     * {@code sent}, {@code userlist} and {@code error} replies; see {@link ChatSession#isLegacy}.
+     */
+    public static final int LEGACY_VERSION = 1;
+
+    private static final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+
+    private ChatProtocol() {
+    }
+
+    public enum Type { INIT, PING, MESSAGE, HISTORY, GET_USERS, SEARCH, INBOX_ACK, UPLOAD_START, DOWNLOAD, UNKNOWN }
+
+    /** A decoded inbound frame. */
+    public abstract static class Frame {
+        public final Type type;
+
+        Frame(Type type) {
+            this.type = type;
+        }
+    }
+
+    /** Login; {@code protocol} is 0 when the client names no version. */
+    public static final class Init extends Frame {
+        public final String username;
+        public final int protocol;
+
+        Init(String username, int protocol) {
+            super(Type.INIT);
+            this.username = username;
+            this.protocol = protocol;
+        }
+    }
+
+    public static final class Ping extends Frame {
+        static final Ping INSTANCE = new Ping();
+
+        private Ping() {
+            super(Type.PING);
+        }
+    }
+
+    /**
+     * A chat message, either as sent by a client or as read back from the message store.
+     * A {@code file} frame decodes to a message whose {@code fileId} names the attachment.
+     */
+    public static final class ChatMessage extends Frame {
+        public final String sender;
+        public final String receiver;
+        public final String content;
+        public final String timestamp;
+        /** Per-conversation sequence number, 0 if the message has not been stored yet. */
+        public final long seq;
+        /** Attachment shared by a {@code file} frame, or {@code null}. */
+        public final String fileId;
+        /** Client-chosen id that makes a resend recognizable, or {@code null}. */
+        public final String messageId;
+
+        public ChatMessage(String sender, String receiver, String content, String timestamp, long seq) {
+            this(sender, receiver, content, timestamp, seq, null, null);
+        }
+
+        ChatMessage(String sender, String receiver, String content, String timestamp, long seq, String fileId, String messageId) {
+            super(Type.MESSAGE);
+            this.sender = sender;
+            this.receiver = receiver;
+            this.content = content;
+            this.timestamp = timestamp;
+            this.seq = seq;
+            this.fileId = fileId;
+            this.messageId = messageId;
+        }
+    }
+
+    /** Client request for its history with {@code receiver}; {@code since} is null when absent. */
+    public static final class HistoryRequest extends Frame {
+        public final String receiver;
+        public final Long since;
+
+        HistoryRequest(String receiver, Long since) {
+            super(Type.HISTORY);
+            this.receiver = receiver;
+            this.since = since;
+        }
+    }
+
+    /** Client search of its own history; {@code receiver} narrows it to one conversation when set. */
+    public static final class SearchRequest extends Frame {
+        public final String query;
+        public final String receiver;
+        public final int limit;
+
+        SearchRequest(String query, String receiver, int limit) {
+            super(Type.SEARCH);
+            this.query = query;
+            this.receiver = receiver;
+            this.limit = limit;
+        }
+    }
+
+    /** Client acknowledgement of every inbox message up to and including {@code upTo}. */
+    public static final class InboxAck extends Frame {
+        public final long upTo;
+
+        InboxAck(long upTo) {
+            super(Type.INBOX_ACK);
+            this.upTo = upTo;
+        }
+    }
+
+    /**
+     * Start or resume of an attachment upload: {@code size} bytes whose SHA-256 is
+     * {@code sha256}, sent as binary frames tagged with the client's {@code id}.
+     */
+    public static final class UploadStart extends Frame {
+        public final int id;
+        public final long size;
+        public final String sha256;
+
+        UploadStart(int id, long size, String sha256) {
+            super(Type.UPLOAD_START);
+            this.id = id;
+            this.size = size;
+            this.sha256 = sha256;
+        }
+    }
+
+    /** Request for a ticket to download attachment {@code fileId}. */
+    public static final class DownloadRequest extends Frame {
+        public final int id;
+        public final String fileId;
+
+        DownloadRequest(int id, String fileId) {
+            super(Type.DOWNLOAD);
+            this.id = id;
+            this.fileId = fileId;
+        }
+    }
+
+    public static final class GetUsers extends Frame {
+        static final GetUsers INSTANCE = new GetUsers();
+
+        private GetUsers() {
+            super(Type.GET_USERS);
+        }
+    }
+
+    public static final class Unknown extends Frame {
+        public final String name;
+
+        Unknown(String name) {
+            super(Type.UNKNOWN);
+            this.name = name;
+        }
+    }
+
+    /**
+     * Decodes one inbound frame. Fields that are not part of the frame's type are skipped;
+     * anything after the frame's object is an error, so a frame that decodes is one JSON value.
+     */
+    public static Frame decode(String json) throws IOException {
+        Buffers b = buffers.get();
+        JsonReader reader = b.decoder(json);
+        boolean reusable = false;
+        try {
+            Frame frame = read(reader);
+            if (!b.atTerminator(reader)) {
+                throw new MalformedJsonException("Unexpected data after the frame");
+            }
+            reusable = true;
+            return frame;
+        } finally {
+            if (!reusable) {
+                b.decoder = null; // Stopped somewhere inside the bad frame
+            }
+        }
+    }
+
+    private static Frame read(JsonReader reader) throws IOException {
+        String type = null;
+        String username = null;
+        int protocol = 0;
+        String sender = null;
+        String receiver = null;
+        String content = null;
+        String timestamp = null;
+        Long since = null;
+        String query = null;
+        int limit = 0;
+        long upTo = 0;
+        int id = 0;
+        long size = -1;
+        String sha256 = null;
+        String fileId = null;
+        String messageId = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "type": type = reader.nextString(); break;
+                case "username": username = reader.nextString(); break;
+                case "protocol":
+                    try {
+                        protocol = reader.nextInt();
+                    } catch (NumberFormatException | IllegalStateException e) {
+                        reader.skipValue();
+                    }
+                    break;
+                case "sender": sender = reader.nextString(); break;
+                case "receiver": receiver = reader.nextString(); break;
+                case "content": content = reader.nextString(); break;
+                case "timestamp": timestamp = reader.nextString(); break;
+                case "since":
+                    try {
+                        since = reader.nextLong();
+                    } catch (NumberFormatException | IllegalStateException e) {
+                        reader.skipValue();
+                    }
+                    break;
+                case "query": query = reader.nextString(); break;
+                case "limit":
+                    try {
+                        limit = reader.nextInt();
+                    } catch (NumberFormatException | IllegalStateException e) {
+                        reader.skipValue();
+                    }
+                    break;
+                case "upTo":
+                    try {
+                        upTo = reader.nextLong();
+                    } catch (NumberFormatException | IllegalStateException e) {
+                        reader.skipValue();
+                    }
+                    break;
+                case "id":
+                    try {
+                        id = reader.nextInt();
+                    } catch (NumberFormatException | IllegalStateException e) {
+                        reader.skipValue();
+                    }
+                    break;
+                case "size":
+                    try {
+                        size = reader.nextLong();
+                    } catch (NumberFormatException | IllegalStateException e) {
+                        reader.skipValue();
+                    }
+                    break;
+                case "sha256": sha256 = reader.nextString(); break;
+                case "fileId": fileId = reader.nextString(); break;
+                case "messageId": messageId = reader.nextString(); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (type == null) {
+            return new Unknown(null);
+        }
+        switch (type) {
+            case "init": return new Init(username, protocol);
+            case "ping": return Ping.INSTANCE;
+            case "message": return new ChatMessage(sender, receiver, content, timestamp, 0, null, messageId);
+            case "file": return new ChatMessage(sender, receiver, content, timestamp, 0, fileId, messageId);
+            case "history": return new HistoryRequest(receiver, since);
+            case "getUsers": return GetUsers.INSTANCE;
+            case "search": return new SearchRequest(query, receiver, limit);
+            case "inboxAck": return new InboxAck(upTo);
+            case "uploadStart": return new UploadStart(id, size, sha256);
+            case "download": return new DownloadRequest(id, fileId);
+            default: return new Unknown(type);
+        }
+    }
+
+    /**
+     * {@code raw}, a message frame that decoded without a sender, with {@code sender} added as
+     * its last field. {@code raw} must have decoded, so it is one object with at least a type.
+     */
+    public static String withSender(String raw, String sender) {
+        JsonWriter writer = buffers.get().writer();
+        try {
+            writer.value(sender);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        int close = raw.lastIndexOf('}');
+        return raw.substring(0, close) + ",\"sender\":" + buffers.get().take() + raw.substring(close);
+    }
+
+    /** {@code error} frame: the last frame was refused for {@code message}. */
+    public static String error(String message) {
+        JsonWriter writer = buffers.get().writer();
+        try {
+            writer.beginObject();
+            writer.name("type").value("error");
+            writer.name("message").value(message);
+            writer.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffers.get().take();
+    }
+
+    /** Version 1 {@code registered} frame, the reply to a successful {@code init}. */
+    public static String registered(String username) {
+        JsonWriter writer = buffers.get().writer();
+        try {
+            writer.beginObject();
+            writer.name("type").value("registered");
+            writer.name("username").value(username);
+            writer.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffers.get().take();
+    }
+
+    /** Version 1 {@code sent} frame, the reply to an accepted message in place of its echo. */
+    public static String sent(String to, String content) {
+        JsonWriter writer = buffers.get().writer();
+        try {
+            writer.beginObject();
+            writer.name("type").value("sent");
+            writer.name("to").value(to);
+            writer.name("content").value(content);
+            writer.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffers.get().take();
+    }
+
+    /** Version 1 {@code userlist} frame: the registered users, comma-separated in one string. */
+    public static String userList(Collection<String> users) {
+        JsonWriter writer = buffers.get().writer();
+        try {
+            writer.beginObject();
+            writer.name("type").value("userlist");
+            writer.name("users").value(String.join(",", users));
+            writer.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffers.get().take();
+    }
+
+    /** {@code chatHistory} frame with the messages exchanged with {@code peer}. */
+    public static String history(String peer, long since, long lastSeq, List<ChatMessage> messages) {
+        JsonWriter writer = buffers.get().writer();
+        try {
+            writer.beginObject();
+            writer.name("type").value("chatHistory");
+            writer.name("receiver").value(peer);
+            writer.name("since").value(since);
+            writer.name("lastSeq").value(lastSeq);
+            writer.name("history").beginArray();
+            for (ChatMessage message : messages) {
+                writeMessage(writer, message);
+            }
+            writer.endArray();
+            writer.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffers.get().take();
+    }
+
+    /** {@code searchResults} frame with the chats found by {@link ChatLogService#search}, best match first. */
+    public static String searchResults(String query, List<Map<String, String>> chats) {
+        JsonWriter writer = buffers.get().writer();
+        try {
+            writer.beginObject();
+            writer.name("type").value("searchResults");
+            writer.name("query").value(query);
+            writer.name("results").beginArray();
+            for (Map<String, String> chat : chats) {
+                writer.beginObject();
+                writer.name("id").value(Long.parseLong(chat.get("id")));
+                writer.name("sender").value(chat.get("from"));
+                writer.name("receiver").value(chat.get("to"));
+                writer.name("content").value(chat.get("message"));
+                writer.name("timestamp").value(chat.get("timestamp"));
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffers.get().take();
+    }
+
+    /**
+     * {@code inbox} frame carrying stored messages as their senders sent them; the client
+     * acknowledges it with {@code {"type":"inboxAck","upTo":lastId}}.
+     */
+    public static String inbox(List<InboxService.Entry> entries) {
+        JsonWriter writer = buffers.get().writer();
+        try {
+            writer.beginObject();
+            writer.name("type").value("inbox");
+            writer.name("lastId").value(entries.isEmpty() ? 0 : entries.get(entries.size() - 1).id);
+            writer.name("messages").beginArray();
+            for (InboxService.Entry entry : entries) {
+                writer.jsonValue(entry.frame);
+            }
+            writer.endArray();
+            writer.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffers.get().take();
+    }
+
+    /** {@code uploadReady} frame: send the bytes of upload {@code id} from {@code offset} on, in chunks of at most {@code chunkSize}. */
+    public static String uploadReady(int id, long offset, int chunkSize) {
+        JsonWriter writer = buffers.get().writer();
+        try {
+            writer.beginObject();
+            writer.name("type").value("uploadReady");
+            writer.name("id").value(id);
+            writer.name("offset").value(offset);
+            writer.name("chunkSize").value(chunkSize);
+            writer.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffers.get().take();
+    }
+
+    /** {@code uploadComplete} frame: upload {@code id} is stored and can be shared as {@code fileId}. */
+    public static String uploadComplete(int id, String fileId, long size) {
+        JsonWriter writer = buffers.get().writer();
+        try {
+            writer.beginObject();
+            writer.name("type").value("uploadComplete");
+            writer.name("id").value(id);
+            writer.name("fileId").value(fileId);
+            writer.name("size").value(size);
+            writer.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffers.get().take();
+    }
+
+    /** {@code downloadReady} frame: fetch the attachment from {@code path} on the attachment port. */
+    public static String downloadReady(int id, String fileId, long size, String ticket) {
+        JsonWriter writer = buffers.get().writer();
+        try {
+            writer.beginObject();
+            writer.name("type").value("downloadReady");
+            writer.name("id").value(id);
+            writer.name("fileId").value(fileId);
+            writer.name("size").value(size);
+            writer.name("path").value("/attachments/" + fileId + "?ticket=" + ticket);
+            writer.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffers.get().take();
+    }
+
+    /**
+     * {@code rateLimited} frame: a frame was refused by {@code limit} and may be retried after
+     * {@code retryAfterMs}. {@code messageId} names the refused message, if it was one.
+     */
+    public static String rateLimited(String limit, long retryAfterMs, String messageId) {
+        JsonWriter writer = buffers.get().writer();
+        try {
+            writer.beginObject();
+            writer.name("type").value("rateLimited");
+            writer.name("limit").value(limit);
+            writer.name("retryAfterMs").value(retryAfterMs);
+            if (messageId != null) {
+                writer.name("messageId").value(messageId);
+            }
+            writer.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffers.get().take();
+    }
+
+    /** {@code uploadFailed} or {@code downloadFailed} frame for transfer {@code id}. */
+    public static String transferFailed(String type, int id, String reason) {
+        JsonWriter writer = buffers.get().writer();
+        try {
+            writer.beginObject();
+            writer.name("type").value(type);
+            writer.name("id").value(id);
+            writer.name("reason").value(reason);
+            writer.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffers.get().take();
+    }
+
+    /** Full roster frame. */
+    public static String clientList(long version, Collection<String> clients) {
+        JsonWriter writer = buffers.get().writer();
+        try {
+            writer.beginObject();
+            writer.name("type").value("clientList");
+            writer.name("version").value(version);
+            writer.name("clients");
+            writeStrings(writer, clients);
+            writer.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffers.get().take();
+    }
+
+    /** Roster delta frame. */
+    public static String presence(long version, Collection<String> joined, Collection<String> left) {
+        JsonWriter writer = buffers.get().writer();
+        try {
+            writer.beginObject();
+            writer.name("type").value("presence");
+            writer.name("version").value(version);
+            writer.name("joined");
+            writeStrings(writer, joined);
+            writer.name("left");
+            writeStrings(writer, left);
+            writer.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffers.get().take();
+    }
+
+    private static void writeMessage(JsonWriter writer, ChatMessage message) throws IOException {
+        writer.beginObject();
+        writer.name("sender").value(message.sender);
+        writer.name("receiver").value(message.receiver);
+        writer.name("content").value(message.content);
+        writer.name("timestamp").value(message.timestamp);
+        if (message.seq > 0) {
+            writer.name("seq").value(message.seq);
+        }
+        writer.endObject();
+    }
+
+    private static void writeStrings(JsonWriter writer, Collection<String> values) throws IOException {
+        writer.beginArray();
+        for (String value : values) {
+            writer.value(value);
+        }
+        writer.endArray();
+    }
+
+    /** Per-thread reader and output buffer, reused by every decode and encode on that thread. */
+    private static final class Buffers {
+        final FrameSource source = new FrameSource();
+        final StringBuilderWriter out = new StringBuilderWriter();
+        /** Read back after every frame; a client cannot guess it to smuggle data past a frame. */
+        private final long terminator = new SecureRandom().nextLong() & Long.MAX_VALUE;
+        private final String suffix = "," + terminator;
+        JsonReader decoder;
+
+        /** The thread's reader, about to read {@code json}. */
+        JsonReader decoder(String json) throws IOException {
+            if (decoder == null) {
+                source.reset('[', json, suffix);
+                decoder = new JsonReader(source);
+                decoder.beginArray();
+            } else {
+                source.reset(',', json, suffix);
+            }
+            return decoder;
+        }
+
+        /** Whether the frame just read is followed by nothing but the terminator. */
+        boolean atTerminator(JsonReader reader) throws IOException {
+            if (reader.peek() != JsonToken.NUMBER) {
+                return false;
+            }
+            try {
+                return reader.nextLong() == terminator;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        JsonWriter writer() {
+            out.builder.setLength(0);
+            return new JsonWriter(out);
+        }
+
+        String take() {
+            String result = out.builder.toString();
+            if (out.builder.capacity() > 64 * 1024) {
+                // Don't pin a huge history frame's buffer to the thread forever.
+                out.builder.setLength(0);
+                out.builder.trimToSize();
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Input of a thread's reader. A {@link JsonReader} cannot be reset and reads only one
+     * top-level value, so every frame is presented as the next element of one endless array:
+     * {@code [frame1,T} then {@code frame2,T} and so on. The terminator {@code T} after each
+     * frame is read back as a number; if anything else comes first, the frame had trailing
+     * data and the reader is dropped, as it is after any decode error.
+     */
+    private static final class FrameSource extends Reader {
+        private char separator;
+        private String text;
+        private String suffix;
+        private int position;
+
+        void reset(char separator, String text, String suffix) {
+            this.separator = separator;
+            this.text = text;
+            this.suffix = suffix;
+            this.position = 0;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            int end = 1 + text.length() + suffix.length();
+            if (position >= end) {
+                return -1;
+            }
+            int n = 0;
+            if (position == 0 && len > 0) {
+                cbuf[off] = separator;
+                position = n = 1;
+            }
+            while (n < len && position < end) {
+                int i = position - 1;
+                String part = i < text.length() ? text : suffix;
+                int from = i < text.length() ? i : i - text.length();
+                int count = Math.min(len - n, part.length() - from);
+                part.getChars(from, from + count, cbuf, off + n);
+                n += count;
+                position += count;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class StringBuilderWriter extends Writer {
+        final StringBuilder builder = new StringBuilder(1024);
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            builder.append(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            builder.append(str, off, off + len);
+        }
+
+        @Override
+        public void write(int c) {
+            builder.append((char) c);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
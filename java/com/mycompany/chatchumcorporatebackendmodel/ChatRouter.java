@@ -0,0 +1,895 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Transport-independent chat logic: registration, message delivery, the offline inbox,
+ * history, search, attachments and presence.
+ *
+ * Every transport ({@link ChatWebSocketServer}, {@link AdvancedChatServerSystem}) hands its
+ * decoded text frames and disconnects to one shared router, so users are registered in one
+ * {@link SessionRegistry} whichever transport they are on and can message each other.
+ * Transports register a broadcaster that fans a frame out to all of their connections.
+ * Frames are handled on the lanes of a {@link ConversationDispatcher}, so one conversation
+ * is processed in order while different conversations proceed in parallel. Searches can
+ * take much longer than a message, so they run on a pool of their own
+ * ({@code SEARCH_THREADS}, at most {@code SEARCH_QUEUE} waiting) instead of holding up
+ * the lane of the user who asked.
+ * With a {@link ClusterNode} joined, messages for users on other nodes are forwarded there
+ * and the roster covers the whole cluster.
+ */
+public class ChatRouter implements AutoCloseable {
+    private static final long PRESENCE_TICK_MS = 100;
+    private static final long ROSTER_SNAPSHOT_INTERVAL_MS = 1000;
+    private static final Map<ChatProtocol.Type, Metrics.Counter> FRAMES_IN = new EnumMap<>(ChatProtocol.Type.class);
+    private static final Metrics.Counter DELIVERED_LOCAL = messages("local");
+    private static final Metrics.Counter DELIVERED_FORWARDED = messages("forwarded");
+    private static final Metrics.Counter DELIVERED_FROM_PEER = messages("from_peer");
+    private static final Metrics.Counter STORED_OFFLINE = messages("inbox");
+    private static final Metrics.Counter UNROUTABLE = messages("unroutable");
+    private static final Metrics.Counter DUPLICATES = messages("duplicate");
+    private static final Metrics.Counter REJECTED = messages("rejected");
+    private static final Metrics.Counter FRAME_ERRORS = Metrics.counter("chat_frame_errors_total", "Client frames that failed to decode or handle");
+    private static final Metrics.Counter UPLOADS = Metrics.counter("attachment_uploads_total", "Attachment uploads completed");
+    private static final Metrics.Counter UPLOADS_SKIPPED = Metrics.counter("attachment_uploads_skipped_total", "Uploads of files the user had already stored");
+    private static final Metrics.Counter UPLOAD_BYTES = Metrics.counter("attachment_bytes_received_total", "Attachment bytes received from clients");
+    private static final Metrics.Counter SEARCHES_REJECTED = Metrics.counter("chat_searches_rejected_total", "Searches refused because the search pool was full");
+    private static final int MAX_UPLOADS_PER_SESSION = 4;
+    private static final int SEARCH_THREADS = Integer.parseInt(System.getenv().getOrDefault("SEARCH_THREADS", "2"));
+    private static final int SEARCH_QUEUE = Integer.parseInt(System.getenv().getOrDefault("SEARCH_QUEUE", "64"));
+
+    static {
+        for (ChatProtocol.Type type : ChatProtocol.Type.values()) {
+            FRAMES_IN.put(type, Metrics.counter("chat_frames_in_total", "Frames received from clients, by type",
+                    "type=\"" + type.name().toLowerCase() + "\""));
+        }
+    }
+
+    private static Metrics.Counter messages(String route) {
+        return Metrics.counter("chat_messages_total", "Chat messages routed, by outcome", "route=\"" + route + "\"");
+    }
+
+    private final SessionRegistry sessions = new SessionRegistry();
+    private final ChatLogService chatLogService = ChatLogService.getInstance();
+    private final InboxService inbox = InboxService.getInstance();
+    private final UserService users = UserService.getInstance();
+    /** Users whose stored messages are on their way to another node -> the batch awaiting its ack. */
+    private final Map<String, InboxHandoff> inboxHandoffs = new ConcurrentHashMap<>();
+    private final List<Consumer<String>> broadcasters = new CopyOnWriteArrayList<>();
+    private final MessageStore messageStore;
+    private final AttachmentStore attachments;
+    private final PresenceService presence;
+    private final ConversationDispatcher dispatcher;
+    private final ThreadPoolExecutor searches;
+    private final IdleReaper reaper;
+    private final MessageIdWindow recentIds = new MessageIdWindow();
+    /**
+     * Ids of messages other nodes forwarded here. Kept apart from {@link #recentIds}, which is
+     * seeded from the shared chat log at startup and so already holds every message another
+     * node logged before forwarding it.
+     */
+    private final MessageIdWindow forwardedIds = new MessageIdWindow();
+    private final Map<ChatProtocol.Type, RateLimiter> limits = new EnumMap<>(ChatProtocol.Type.class);
+    private final RateLimiter connectLimit = RateLimiter.fromEnv("connect", "RATE_LIMIT_CONNECT", "200:2000");
+    private volatile ClusterNode cluster;
+
+    /** Router whose attachments are kept in {@code attachments} next to {@code segmentsDir}. */
+    public ChatRouter(String segmentsDir, File clientsFile) throws IOException {
+        this(segmentsDir, new File(new File(segmentsDir).getAbsoluteFile().getParentFile(), "attachments").getPath(), clientsFile);
+    }
+
+    /**
+     * @param segmentsDir directory of the message log
+     * @param attachmentsDir directory of uploaded attachments
+     * @param clientsFile roster file to keep up to date, or {@code null} to skip it
+     */
+    public ChatRouter(String segmentsDir, String attachmentsDir, File clientsFile) throws IOException {
+        this(segmentsDir, attachmentsDir, clientsFile, new ConversationDispatcher());
+    }
+
+    /** Router that runs its work on {@code dispatcher}, which it closes with itself. */
+    public ChatRouter(String segmentsDir, String attachmentsDir, File clientsFile, ConversationDispatcher dispatcher) throws IOException {
+        this.dispatcher = dispatcher;
+        AtomicInteger searchThreads = new AtomicInteger();
+        this.searches = new ThreadPoolExecutor(SEARCH_THREADS, SEARCH_THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, SEARCH_QUEUE)), r -> {
+                    Thread t = new Thread(r, "chat-search-" + searchThreads.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        // Logs of the JSON-lines versions sit next to the segments, one directory per user
+        this.messageStore = new MessageStore(segmentsDir, new File(segmentsDir).getAbsoluteFile().getParentFile());
+        this.attachments = new AttachmentStore(attachmentsDir);
+        this.presence = new PresenceService(this::broadcast, clientsFile,
+                PRESENCE_TICK_MS, ROSTER_SNAPSHOT_INTERVAL_MS);
+        // Retries that arrive just after a restart are still recognized
+        chatLogService.forEachRecentMessageId(Instant.now().minusMillis(MessageIdWindow.WINDOW_MS), recentIds::add);
+        limit(RateLimiter.fromEnv("message", "RATE_LIMIT_MESSAGE", "20:40"), ChatProtocol.Type.MESSAGE);
+        limit(RateLimiter.fromEnv("history", "RATE_LIMIT_HISTORY", "5:20"), ChatProtocol.Type.HISTORY);
+        limit(RateLimiter.fromEnv("search", "RATE_LIMIT_SEARCH", "2:10"), ChatProtocol.Type.SEARCH);
+        limit(RateLimiter.fromEnv("transfer", "RATE_LIMIT_TRANSFER", "5:20"), ChatProtocol.Type.UPLOAD_START, ChatProtocol.Type.DOWNLOAD);
+        RateLimiter other = RateLimiter.fromEnv("default", "RATE_LIMIT_DEFAULT", "50:100");
+        for (ChatProtocol.Type type : ChatProtocol.Type.values()) {
+            limits.putIfAbsent(type, other);
+        }
+        this.reaper = new IdleReaper(IdleReaper.TIMEOUT_MS, session -> sessions.get(session.getUsername()) == session, this::reap);
+        Metrics.gauge("chat_sessions", "Users registered on this node", sessions::size);
+        Metrics.gauge("chat_roster_size", "Users online across the cluster", presence::size);
+        ConversationCache cache = messageStore.getCache();
+        Metrics.counter("chat_history_cache_hits_total", "History reads answered from the conversation cache", cache::getHits);
+        Metrics.counter("chat_history_cache_misses_total", "History reads that went to the message log", cache::getMisses);
+        Metrics.counter("chat_history_cache_evictions_total", "Conversations evicted from the conversation cache", cache::getEvictions);
+        Metrics.gauge("chat_history_cache_bytes", "Estimated heap held by the conversation cache", cache::getBytes);
+        Metrics.gauge("chat_history_cache_conversations", "Conversations in the conversation cache", cache::getConversations);
+    }
+
+    private void limit(RateLimiter limiter, ChatProtocol.Type... types) {
+        for (ChatProtocol.Type type : types) {
+            limits.put(type, limiter);
+        }
+    }
+
+    public SessionRegistry getSessions() {
+        return sessions;
+    }
+
+    public ConversationDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    MessageStore getMessageStore() {
+        return messageStore;
+    }
+
+    /** Attachment storage, for the {@link AttachmentServer} that serves downloads. */
+    public AttachmentStore getAttachments() {
+        return attachments;
+    }
+
+    /** Starts {@code node} and routes messages for users this node does not host through it. */
+    public void joinCluster(ClusterNode node) throws IOException {
+        this.cluster = node;
+        node.start(this);
+    }
+
+    public ClusterNode getCluster() {
+        return cluster;
+    }
+
+    /** Adds a transport's fan-out; every presence frame is passed to each broadcaster. */
+    public void addBroadcaster(Consumer<String> broadcaster) {
+        broadcasters.add(broadcaster);
+    }
+
+    public void removeBroadcaster(Consumer<String> broadcaster) {
+        broadcasters.remove(broadcaster);
+    }
+
+    private void broadcast(String frame) {
+        for (Consumer<String> broadcaster : broadcasters) {
+            broadcaster.accept(frame);
+        }
+    }
+
+    /**
+     * Handles one text frame received on {@code conn}. The frame is decoded on the calling
+     * transport thread; pings, logins and roster requests are answered there, everything
+     * else runs on the dispatcher lane of its conversation or user.
+     */
+    public void onFrame(ChatConnection conn, String message) {
+        long received = System.nanoTime();
+        touch(conn);
+        ChatProtocol.Frame frame;
+        try {
+            frame = ChatProtocol.decode(message);
+        } catch (Exception e) {
+            FRAME_ERRORS.increment();
+            Log.warn("⚠️ Message processing error: " + e.getMessage());
+            return;
+        }
+        FRAMES_IN.get(frame.type).increment();
+        if (!admit(conn, frame)) {
+            return;
+        }
+        String key = dispatchKey(conn, frame);
+        if (key == null) {
+            handle(conn, message, frame, received);
+        } else {
+            dispatcher.execute(key, () -> handle(conn, message, frame, received));
+        }
+    }
+
+    /**
+     * Takes a token for {@code frame} from the limit of its type in the bucket of the user.
+     * Before {@code init} there is no user yet, so frames are counted per client address
+     * instead, against a limit sized for many users behind one NAT. A refused frame is
+     * dropped and answered with {@code rateLimited}, so the client knows when to retry.
+     */
+    private boolean admit(ChatConnection conn, ChatProtocol.Frame frame) {
+        ChatSession session = conn.getSession();
+        RateLimiter limit = session != null ? limits.get(frame.type) : connectLimit;
+        long retryAfterMs = limit.tryAcquire(session != null ? session.getUsername() : String.valueOf(conn.getRemoteAddress()));
+        if (retryAfterMs == 0) {
+            return true;
+        }
+        String messageId = frame instanceof ChatProtocol.ChatMessage ? ((ChatProtocol.ChatMessage) frame).messageId : null;
+        conn.send(ChatProtocol.rateLimited(limit.getName(), retryAfterMs,
+                messageId != null && messageId.length() <= MessageIdWindow.MAX_ID_LENGTH ? messageId : null));
+        return false;
+    }
+
+    /**
+     * Lane key of {@code frame}: its conversation for messages and history, so they stay in
+     * order, the user for per-session state such as the inbox and uploads, and {@code null}
+     * for frames cheap enough to handle inline. A search is only handed to the search pool
+     * inline.
+     */
+    private String dispatchKey(ChatConnection conn, ChatProtocol.Frame frame) {
+        switch (frame.type) {
+            case PING:
+            case INIT:
+            case GET_USERS:
+            case SEARCH:
+                return null;
+            case MESSAGE: {
+                String username = sessions.getUsername(conn);
+                String receiver = ((ChatProtocol.ChatMessage) frame).receiver;
+                return username != null && receiver != null ? MessageStore.conversationKey(username, receiver) : null;
+            }
+            case HISTORY: {
+                String username = sessions.getUsername(conn);
+                String receiver = ((ChatProtocol.HistoryRequest) frame).receiver;
+                return username != null && receiver != null ? MessageStore.conversationKey(username, receiver) : null;
+            }
+            default:
+                return sessions.getUsername(conn);
+        }
+    }
+
+    private void handle(ChatConnection conn, String message, ChatProtocol.Frame frame, long received) {
+        try {
+            switch (frame.type) {
+                case PING:
+                    conn.send(ChatProtocol.PONG);
+                    break;
+                case INIT:
+                    handleInit(conn, (ChatProtocol.Init) frame);
+                    break;
+                case MESSAGE:
+                    handleChatMessage(conn, message, (ChatProtocol.ChatMessage) frame, received);
+                    break;
+                case GET_USERS:
+                    ChatSession session = conn.getSession();
+                    if (session != null && session.isLegacy()) {
+                        conn.send(ChatProtocol.userList(users.getRegisteredUsers()));
+                    } else {
+                        presence.requestSnapshot(conn::send);
+                    }
+                    break;
+                case HISTORY:
+                    handleHistoryRequest(conn, (ChatProtocol.HistoryRequest) frame);
+                    break;
+                case SEARCH:
+                    handleSearch(conn, (ChatProtocol.SearchRequest) frame);
+                    break;
+                case INBOX_ACK:
+                    handleInboxAck(conn, (ChatProtocol.InboxAck) frame);
+                    break;
+                case UPLOAD_START:
+                    handleUploadStart(conn, (ChatProtocol.UploadStart) frame);
+                    break;
+                case DOWNLOAD:
+                    handleDownload(conn, (ChatProtocol.DownloadRequest) frame);
+                    break;
+                default:
+                    break;
+            }
+        } catch (Exception e) {
+            FRAME_ERRORS.increment();
+            Log.warn("⚠️ Message processing error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Handles one binary frame received on {@code conn}: a chunk {@code [int id][long offset][bytes]}
+     * of an upload started with {@code uploadStart}. A chunk that does not start where the
+     * upload stands is answered with {@code uploadReady}, so the client resends from there.
+     */
+    public void onBinary(ChatConnection conn, ByteBuffer data) {
+        touch(conn);
+        ChatSession session = conn.getSession();
+        if (session == null || data.remaining() < AttachmentStore.CHUNK_HEADER_BYTES) {
+            FRAME_ERRORS.increment();
+            return;
+        }
+        dispatcher.execute(session.getUsername(), () -> writeChunk(conn, session, data)); // Behind its uploadStart
+    }
+
+    private void writeChunk(ChatConnection conn, ChatSession session, ByteBuffer data) {
+        int id = data.getInt();
+        long offset = data.getLong();
+        AttachmentStore.Upload upload = session.getUploads().get(id);
+        if (upload == null) {
+            conn.send(ChatProtocol.transferFailed("uploadFailed", id, "unknown upload"));
+            return;
+        }
+        if (offset != upload.getReceived()) {
+            if (offset > upload.getReceived()) {
+                conn.send(ChatProtocol.uploadReady(id, upload.getReceived(), AttachmentStore.CHUNK_BYTES));
+            }
+            return; // Chunks below the offset repeat what is already stored
+        }
+        int bytes = data.remaining();
+        try {
+            boolean complete = attachments.write(upload, data);
+            UPLOAD_BYTES.add(bytes);
+            if (complete) {
+                session.getUploads().remove(id, upload);
+                completeUpload(session, id, upload.getSha256(), upload.getSize());
+            }
+        } catch (IOException e) {
+            session.getUploads().remove(id, upload);
+            attachments.close(upload);
+            conn.send(ChatProtocol.transferFailed("uploadFailed", id, e.getMessage()));
+        }
+    }
+
+    /** Records that the client on {@code conn} is alive, for frames the router does not see such as WebSocket pongs. */
+    public void touch(ChatConnection conn) {
+        ChatSession session = conn.getSession();
+        if (session != null) {
+            reaper.touch(session);
+        }
+    }
+
+    /** Unregisters a batch of sessions the client stopped talking on and closes their connections. */
+    private void reap(List<ChatSession> idle) {
+        for (ChatSession session : idle) {
+            ChatConnection conn = session.getConnection();
+            onClose(conn); // Frees the name at once; presence reports the batch in one update
+            conn.close();
+        }
+        Log.info("⏱️ Evicted " + idle.size() + " idle sessions");
+    }
+
+    /** Unregisters whoever was on {@code conn}. */
+    public void onClose(ChatConnection conn) {
+        conn.getOutbound().close();
+        ChatSession session = sessions.evict(conn);
+        if (session != null) {
+            String username = session.getUsername();
+            dispatcher.execute(username, () -> { // After the chunks already queued
+                for (AttachmentStore.Upload upload : session.getUploads().values()) {
+                    attachments.close(upload); // The partial file stays for a resume
+                }
+                session.getUploads().clear();
+            });
+            ClusterNode node = cluster;
+            if (node != null) {
+                node.localLeft(username);
+            }
+            if (node == null || node.nodeOf(username) == null) {
+                presence.leave(username);
+            }
+        }
+    }
+
+    /**
+     * Registers the user on {@code conn}. A client that names no {@code protocol} gets its
+     * transport's default, so tools written for the old TCP server keep their replies.
+     */
+    private void handleInit(ChatConnection conn, ChatProtocol.Init init) {
+        String initUsername = init.username;
+        if (initUsername == null) {
+            conn.send(ChatProtocol.error("Invalid init message"));
+        } else if (sessions.register(initUsername, conn) == null) {
+            conn.send(ChatProtocol.error("Username '" + initUsername + "' is already in use"));
+        } else {
+            ChatSession session = sessions.get(conn);
+            session.setProtocol(init.protocol > 0 ? init.protocol : conn.getDefaultProtocol());
+            if (session.isLegacy()) {
+                conn.send(ChatProtocol.registered(initUsername));
+            }
+            Log.info("👥 Added user: " + initUsername + ", Total users: " + sessions.size());
+            // Presence deltas dropped for a slow client are replaced by one fresh snapshot
+            conn.getOutbound().onPresenceStale(() -> presence.requestSnapshot(conn::send));
+            presence.join(initUsername); // Everyone else hears about it on the next presence tick
+            ClusterNode node = cluster;
+            if (node != null) {
+                node.localJoined(initUsername);
+            }
+            presence.requestSnapshot(conn::send);
+            reaper.track(session);
+            // What arrived while the user was away; history is fetched on demand
+            dispatcher.execute(initUsername, () -> sendInbox(session));
+        }
+    }
+
+    /**
+     * Delivers {@code raw} as received, so fields the server does not model reach the peer untouched.
+     * The sender is always the user logged in on {@code conn}: a frame naming someone else is
+     * refused, and one naming nobody gets the user added before it is passed on.
+     * A {@code file} frame also gives the receiver access to the attachment, which the
+     * sender must be able to read. A message whose {@code messageId} the sender used within
+     * the dedup window is a resend: it is only echoed, so the client stops retrying. Resends
+     * of one message share its conversation's lane, so the check and the store cannot race.
+     * A message is delivered, echoed and remembered only once it is saved; if saving fails the
+     * sender gets an {@code error} and keeps the message to resend it.
+     */
+    private void handleChatMessage(ChatConnection conn, String raw, ChatProtocol.ChatMessage message, long received) {
+        String sender = sessions.getUsername(conn);
+        if (sender == null || message.sender != null && !message.sender.equals(sender)) {
+            REJECTED.increment();
+            conn.send(ChatProtocol.error(sender == null ? "Send init before messages" : "Sender does not match the logged-in user"));
+            return;
+        }
+        if (message.sender == null) {
+            raw = ChatProtocol.withSender(raw, sender);
+        }
+        String receiver = message.receiver;
+        String content = message.content;
+        String messageId = message.messageId != null
+                && message.messageId.length() <= MessageIdWindow.MAX_ID_LENGTH ? message.messageId : null;
+        if (messageId != null && recentIds.contains(sender, messageId)) {
+            DUPLICATES.increment();
+            acknowledge(conn, raw, message);
+            return;
+        }
+        if (message.fileId != null && receiver != null && !shareAttachment(conn, message.fileId, receiver)) {
+            Log.warn("⚠️ Attachment " + message.fileId + " is not readable by its sender");
+            conn.send(ChatProtocol.error("Attachment " + message.fileId + " not found"));
+            return;
+        }
+        if (receiver != null && content != null) {
+            ChatSession receiverSession = sessions.get(receiver);
+            boolean local = receiverSession != null && receiverSession.isOpen();
+            String node = local ? null : remoteNodeOf(receiver);
+            if (!local && node == null && !users.userExists(receiver)) {
+                UNROUTABLE.increment();
+                Log.warn("⚠️ Receiver " + receiver + " not found or not open");
+                conn.send(ChatProtocol.error("User '" + receiver + "' not found"));
+                return;
+            }
+            if (!save(sender, receiver, content, messageId)) {
+                // Not echoed and not remembered, so the client keeps the message and resends it
+                conn.send(ChatProtocol.error("Message to '" + receiver + "' was not saved; send it again"));
+                return;
+            }
+            if (local) {
+                DELIVERED_LOCAL.increment();
+                receiverSession.getConnection().send(OutboundFrame.delivery(raw, received)); // Send to receiver
+                sendChatHistory(receiver, sender, null); // Push only what the receiver has not seen
+            } else if (node != null) {
+                DELIVERED_FORWARDED.increment();
+                cluster.forward(node, raw); // The receiver's node delivers it and keeps its own copy
+            } else if (!storeOffline(receiver, raw)) {
+                conn.send(ChatProtocol.error("Message to '" + receiver + "' was not saved; send it again"));
+                return;
+            }
+            acknowledge(conn, raw, message); // Echo to sender
+            remember(sender, messageId);
+            sendChatHistory(sender, receiver, null); // Push only what the sender has not seen
+        } else {
+            Log.warn("⚠️ Invalid receiver or content");
+            conn.send(ChatProtocol.error("Invalid message format"));
+        }
+    }
+
+    /** Confirms an accepted message: the echo of {@code raw}, or {@code sent} for a legacy client. */
+    private static void acknowledge(ChatConnection conn, String raw, ChatProtocol.ChatMessage message) {
+        ChatSession session = conn.getSession();
+        conn.send(session != null && session.isLegacy() ? ChatProtocol.sent(message.receiver, message.content) : raw);
+    }
+
+    /** Records a message id once the message is stored, so a failed attempt can still be retried. */
+    private void remember(String sender, String messageId) {
+        if (messageId != null) {
+            recentIds.add(sender, messageId);
+        }
+    }
+
+    /** Delivers a message another node forwarded to a user connected here, on its conversation's lane. */
+    void deliverForwarded(String raw) {
+        long received = System.nanoTime();
+        ChatProtocol.Frame frame;
+        try {
+            frame = ChatProtocol.decode(raw);
+        } catch (IOException | RuntimeException e) {
+            FRAME_ERRORS.increment();
+            Log.warn("⚠️ Forwarded message processing error: " + e.getMessage());
+            return;
+        }
+        if (frame.type != ChatProtocol.Type.MESSAGE) {
+            return;
+        }
+        ChatProtocol.ChatMessage message = (ChatProtocol.ChatMessage) frame;
+        if (message.sender != null && message.receiver != null) {
+            dispatcher.execute(MessageStore.conversationKey(message.sender, message.receiver),
+                    () -> deliverForwarded(raw, message, received));
+        } else {
+            deliverForwarded(raw, message, received);
+        }
+    }
+
+    /**
+     * Delivers or stores a forwarded message; {@code false} if it could do neither. A message
+     * whose id its sender used within the dedup window is already here, e.g. because a batch
+     * was sent again after the connection carrying it broke, and counts as taken.
+     */
+    private boolean deliverForwarded(String raw, ChatProtocol.ChatMessage message, long received) {
+        String messageId = message.sender != null && message.messageId != null
+                && message.messageId.length() <= MessageIdWindow.MAX_ID_LENGTH ? message.messageId : null;
+        if (messageId != null && forwardedIds.contains(message.sender, messageId)) {
+            DUPLICATES.increment();
+            return true;
+        }
+        ChatSession receiverSession = message.receiver != null ? sessions.get(message.receiver) : null;
+        if (receiverSession != null && receiverSession.isOpen()) {
+            DELIVERED_FROM_PEER.increment();
+            receiverSession.getConnection().send(OutboundFrame.delivery(raw, received));
+            // The sender's node logged it to the database; this copy serves the receiver's history
+            saveChatMessage(message.sender, message.receiver, message.content);
+            // deliverInbox runs on the user's lane; the push belongs on the conversation's
+            dispatcher.execute(MessageStore.conversationKey(message.sender, message.receiver),
+                    () -> sendChatHistory(message.receiver, message.sender, null));
+        } else if (message.receiver == null || !storeOffline(message.receiver, raw)) {
+            UNROUTABLE.increment();
+            Log.warn("⚠️ Forwarded receiver " + message.receiver + " is no longer here");
+            return false;
+        }
+        if (messageId != null) {
+            forwardedIds.add(message.sender, messageId);
+        }
+        return true;
+    }
+
+    /**
+     * Takes over a batch of {@code username}'s stored messages from {@code fromNode}: each is
+     * delivered or stored here, on the user's lane, and the batch is acknowledged only once
+     * all of them are, so the sending node keeps its rows until then.
+     */
+    void deliverInbox(String fromNode, String username, long upTo, List<String> frames) {
+        long received = System.nanoTime();
+        dispatcher.execute(username, () -> {
+            boolean taken = true;
+            for (String raw : frames) {
+                try {
+                    ChatProtocol.Frame frame = ChatProtocol.decode(raw);
+                    if (frame.type == ChatProtocol.Type.MESSAGE) {
+                        taken &= deliverForwarded(raw, (ChatProtocol.ChatMessage) frame, received);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    FRAME_ERRORS.increment();
+                    Log.warn("⚠️ Forwarded inbox message processing error: " + e.getMessage());
+                }
+            }
+            ClusterNode node = cluster;
+            if (taken && node != null) {
+                node.ackInbox(fromNode, username, upTo);
+            }
+        });
+    }
+
+    /** {@code node} has taken over {@code username}'s stored messages up to {@code upTo}. */
+    void inboxTaken(String node, String username, long upTo) {
+        InboxHandoff handoff = inboxHandoffs.get(username);
+        if (handoff != null && handoff.node.equals(node) && handoff.upTo == upTo
+                && inboxHandoffs.remove(username, handoff)) {
+            inbox.ack(inboxNode(), username, upTo);
+            forwardInbox(username);
+        }
+    }
+
+    /** Sends again the inbox batches whose ack is overdue, e.g. because the peer's connection dropped them. */
+    void retryInboxHandoffs() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, InboxHandoff> entry : inboxHandoffs.entrySet()) {
+            if (now - entry.getValue().sentAt > ClusterNode.NODE_TIMEOUT_MS
+                    && inboxHandoffs.remove(entry.getKey(), entry.getValue())) {
+                forwardInbox(entry.getKey());
+            }
+        }
+    }
+
+    void remoteJoined(String username) {
+        presence.join(username);
+        inboxHandoffs.remove(username); // A batch sent to the node the user was on before is sent again
+        forwardInbox(username);
+    }
+
+    void remoteLeft(String username) {
+        if (!sessions.contains(username)) {
+            presence.leave(username);
+        }
+    }
+
+    List<String> localUsers() {
+        return sessions.usernames();
+    }
+
+    /** The other node hosting {@code username}, or {@code null}. */
+    private String remoteNodeOf(String username) {
+        ClusterNode node = cluster;
+        return node != null ? node.nodeOf(username) : null;
+    }
+
+    private void handleHistoryRequest(ChatConnection conn, ChatProtocol.HistoryRequest request) {
+        String username = sessions.getUsername(conn);
+        if (username != null && request.receiver != null) {
+            // Clients pass the last seq they hold; without one they get the full log.
+            sendChatHistory(username, request.receiver, request.since != null ? request.since : 0L);
+        }
+    }
+
+    /**
+     * Runs the search on the search pool; the results go out through the outbound queue of
+     * {@code conn} like any other frame. A full pool is answered with an error right away.
+     */
+    private void handleSearch(ChatConnection conn, ChatProtocol.SearchRequest request) {
+        String username = sessions.getUsername(conn);
+        if (username == null || request.query == null) {
+            return;
+        }
+        try {
+            searches.execute(() -> {
+                try {
+                    List<Map<String, String>> results = chatLogService.search(username, request.query, request.receiver, request.limit);
+                    conn.send(ChatProtocol.searchResults(request.query, results));
+                } catch (RuntimeException e) {
+                    FRAME_ERRORS.increment();
+                    Log.warn("⚠️ Search failed for " + username + ": " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            SEARCHES_REJECTED.increment();
+            conn.send(ChatProtocol.error("Search is busy; try again shortly"));
+        }
+    }
+
+    /**
+     * Commits {@code raw} to the inbox of {@code receiver}, who is connected nowhere in the
+     * cluster. Only registered users get an inbox. If the receiver connected while it was
+     * being stored, the inbox is sent or forwarded right away instead of waiting for the
+     * next connection.
+     */
+    private boolean storeOffline(String receiver, String raw) {
+        if (!users.userExists(receiver) || !inbox.store(inboxNode(), receiver, raw)) {
+            return false;
+        }
+        STORED_OFFLINE.increment();
+        ChatSession session = sessions.get(receiver);
+        if (session != null) {
+            sendInbox(session);
+        } else if (remoteNodeOf(receiver) != null) {
+            forwardInbox(receiver);
+        }
+        return true;
+    }
+
+    /** Sends the oldest batch of the session's inbox, unless a batch is still waiting for its ack. */
+    private void sendInbox(ChatSession session) {
+        if (session == null || !session.isOpen()) {
+            return;
+        }
+        List<InboxService.Entry> batch = inbox.read(inboxNode(), session.getUsername(), 0, InboxService.BATCH_SIZE);
+        if (!batch.isEmpty() && session.beginInboxBatch(batch.get(batch.size() - 1).id)) {
+            session.send(ChatProtocol.inbox(batch));
+        }
+    }
+
+    private void handleInboxAck(ChatConnection conn, ChatProtocol.InboxAck ack) {
+        ChatSession session = sessions.get(conn);
+        if (session != null && session.getInboxInFlight() == ack.upTo && ack.upTo > 0) {
+            inbox.ack(inboxNode(), session.getUsername(), ack.upTo);
+            session.endInboxBatch(ack.upTo);
+            sendInbox(session);
+        }
+    }
+
+    /**
+     * Hands what this node stored for {@code username} to the node it just connected to, one
+     * batch at a time. That node delivers the messages or stores them in its own inbox and
+     * then acknowledges the batch; only then are the rows deleted here and the next batch
+     * sent. A batch that is not acknowledged within {@code CLUSTER_NODE_TIMEOUT_MS} is sent
+     * again, so a message may arrive twice but is not lost.
+     */
+    private void forwardInbox(String username) {
+        String node = remoteNodeOf(username);
+        if (node == null || inboxHandoffs.containsKey(username)) {
+            return;
+        }
+        List<InboxService.Entry> batch = inbox.read(inboxNode(), username, 0, InboxService.BATCH_SIZE);
+        if (batch.isEmpty()) {
+            return;
+        }
+        long upTo = batch.get(batch.size() - 1).id;
+        if (inboxHandoffs.putIfAbsent(username, new InboxHandoff(node, upTo)) == null) {
+            List<String> frames = new ArrayList<>(batch.size());
+            for (InboxService.Entry entry : batch) {
+                frames.add(entry.frame);
+            }
+            cluster.forwardInbox(node, username, upTo, frames);
+        }
+    }
+
+    /** A batch of stored messages sent to another node and not yet acknowledged. */
+    private static final class InboxHandoff {
+        final String node;
+        final long upTo;
+        final long sentAt = System.currentTimeMillis();
+
+        InboxHandoff(String node, long upTo) {
+            this.node = node;
+            this.upTo = upTo;
+        }
+    }
+
+    /** Grants {@code receiver} access to {@code fileId} if the user on {@code conn} has it. */
+    private boolean shareAttachment(ChatConnection conn, String fileId, String receiver) {
+        String username = sessions.getUsername(conn);
+        return attachments.canRead(fileId, username) && attachments.grant(fileId, receiver);
+    }
+
+    /**
+     * Opens or resumes an upload and tells the client where to continue. A file the user
+     * already stored completes at once, without any bytes being sent.
+     */
+    private void handleUploadStart(ChatConnection conn, ChatProtocol.UploadStart start) {
+        ChatSession session = conn.getSession();
+        if (session == null) {
+            conn.send(ChatProtocol.transferFailed("uploadFailed", start.id, "not logged in"));
+            return;
+        }
+        Map<Integer, AttachmentStore.Upload> uploads = session.getUploads();
+        AttachmentStore.Upload previous = uploads.remove(start.id);
+        if (previous != null) {
+            attachments.close(previous);
+        }
+        if (attachments.size(start.sha256) == start.size && attachments.canRead(start.sha256, session.getUsername())) {
+            UPLOADS_SKIPPED.increment();
+            conn.send(ChatProtocol.uploadComplete(start.id, start.sha256, start.size));
+            return;
+        }
+        if (uploads.size() >= MAX_UPLOADS_PER_SESSION) {
+            conn.send(ChatProtocol.transferFailed("uploadFailed", start.id,
+                    "at most " + MAX_UPLOADS_PER_SESSION + " uploads at a time"));
+            return;
+        }
+        try {
+            AttachmentStore.Upload upload = attachments.begin(session.getUsername(), start.sha256, start.size);
+            if (upload.getReceived() == upload.getSize()) {
+                attachments.finish(upload);
+                completeUpload(session, start.id, upload.getSha256(), upload.getSize());
+            } else {
+                uploads.put(start.id, upload);
+                conn.send(ChatProtocol.uploadReady(start.id, upload.getReceived(), AttachmentStore.CHUNK_BYTES));
+            }
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+            conn.send(ChatProtocol.transferFailed("uploadFailed", start.id, e.getMessage()));
+        }
+    }
+
+    private void completeUpload(ChatSession session, int id, String fileId, long size) {
+        if (attachments.grant(fileId, session.getUsername())) {
+            UPLOADS.increment();
+            session.send(ChatProtocol.uploadComplete(id, fileId, size));
+        } else {
+            session.send(ChatProtocol.transferFailed("uploadFailed", id, "could not record the upload"));
+        }
+    }
+
+    /** Answers with the ticket the client downloads the attachment with from the {@link AttachmentServer}. */
+    private void handleDownload(ChatConnection conn, ChatProtocol.DownloadRequest request) {
+        String username = sessions.getUsername(conn);
+        long size = attachments.size(request.fileId);
+        if (username == null || size < 0 || !attachments.canRead(request.fileId, username)) {
+            conn.send(ChatProtocol.transferFailed("downloadFailed", request.id, "not found"));
+            return;
+        }
+        conn.send(ChatProtocol.downloadReady(request.id, request.fileId, size, attachments.ticket(request.fileId)));
+    }
+
+    /** Owner of the inbox rows this router stores: its cluster node, or {@code ""} when standalone. */
+    private String inboxNode() {
+        ClusterNode node = cluster;
+        return node != null ? node.getNodeId() : "";
+    }
+
+    /** Appends a message to the segment log; {@code false} if it could not be written. */
+    private boolean saveChatMessage(String sender, String receiver, String content) {
+        try {
+            messageStore.append(sender, receiver, content, System.currentTimeMillis());
+            return true;
+        } catch (IOException e) {
+            Log.error("⚠️ Failed to save chat message: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Queues a message for the chat log, then appends it to the segment log; {@code false}
+     * if either failed. The chat log goes first because it skips a (sender, messageId) it
+     * already holds, so a resend after a failed append is not logged twice.
+     */
+    private boolean save(String sender, String receiver, String content, String messageId) {
+        return chatLogService.logChat(sender, receiver, content, Instant.now().toString(), messageId) // Queued, committed in batches
+                && saveChatMessage(sender, receiver, content);
+    }
+
+    /**
+     * Sends {@code username} the messages of its conversation with {@code otherUser} newer than
+     * {@code since}. A {@code null} cursor means "whatever this session has not seen yet";
+     * such a push must be made on the conversation's lane, which keeps the cursor in order,
+     * and pushes piling up behind a slow client merge into one.
+     */
+    private void sendChatHistory(String username, String otherUser, Long since) {
+        ChatSession session = sessions.get(username);
+        if (session == null || !session.isOpen()) {
+            return;
+        }
+        long from = since != null ? since : session.getHistoryCursor(otherUser);
+        List<ChatProtocol.ChatMessage> history;
+        try {
+            history = messageStore.readSince(username, otherUser, from);
+        } catch (IOException e) {
+            Log.error("⚠️ Failed to read chat history: " + e.getMessage());
+            return;
+        }
+        if (history.isEmpty() && since == null && session.getHistoryCursor(otherUser) > 0) {
+            return;
+        }
+        long lastSeq = history.isEmpty() ? from : history.get(history.size() - 1).seq;
+        session.advanceHistoryCursor(otherUser, lastSeq);
+        if (since == null) {
+            session.getConnection().send(OutboundFrame.history(otherUser, from, lastSeq, history));
+        } else {
+            session.send(ChatProtocol.history(otherUser, from, lastSeq, history));
+        }
+    }
+
+    /** Outbound queue counters of every registered user. */
+    public Map<String, OutboundQueue.Stats> outboundStats() {
+        Map<String, OutboundQueue.Stats> stats = new TreeMap<>();
+        for (ChatSession session : sessions.sessions()) {
+            stats.put(session.getUsername(), session.getConnection().getOutbound().stats());
+        }
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        ClusterNode node = cluster;
+        if (node != null) {
+            node.close();
+        }
+        reaper.close();
+        for (RateLimiter limit : limits.values()) {
+            limit.close();
+        }
+        connectLimit.close();
+        dispatcher.close(); // Finishes queued work before the stores close
+        searches.shutdownNow();
+        presence.close();
+        try {
+            messageStore.close();
+        } catch (IOException e) {
+            Log.error("⚠️ Failed to close message store: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A registered chat user bound to one live connection, on any transport. Instances are
+ * created by {@link SessionRegistry} and attached to the connection, so the owning user
+ * can be looked up from a frame without scanning the registry.
+ */
+public final class ChatSession {
+    private final String username;
+    private final ChatConnection conn;
+    private final Map<String, Long> historyCursors = new ConcurrentHashMap<>();
+    /** Id of the last inbox message sent and not yet acknowledged, 0 when no batch is out. */
+    private final AtomicLong inboxInFlight = new AtomicLong();
+    /** Attachment uploads in progress on this connection, by the client's upload id. */
+    private final Map<Integer, AttachmentStore.Upload> uploads = new ConcurrentHashMap<>();
+    /** {@link IdleReaper} clock when the client was last heard from. */
+    private volatile long lastActivity;
+    private volatile int protocol = ChatProtocol.VERSION;
+
+    ChatSession(String username, ChatConnection conn) {
+        this.username = username;
+        this.conn = conn;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public ChatConnection getConnection() {
+        return conn;
+    }
+
+    public boolean isOpen() {
+        return conn.isOpen();
+    }
+
+    public void send(String message) {
+        conn.send(message);
+    }
+
+    /** Protocol version the client logged in with. */
+    public int getProtocol() {
+        return protocol;
+    }
+
+    void setProtocol(int protocol) {
+        this.protocol = protocol;
+    }
+
+    /** Whether the client expects the replies of {@link ChatProtocol#LEGACY_VERSION}. */
+    public boolean isLegacy() {
+        return protocol <= ChatProtocol.LEGACY_VERSION;
+    }
+
+    /** Highest history sequence number already delivered for the conversation with {@code peer}. */
+    public long getHistoryCursor(String peer) {
+        return historyCursors.getOrDefault(peer, 0L);
+    }
+
+    public void advanceHistoryCursor(String peer, long seq) {
+        historyCursors.merge(peer, seq, Math::max);
+    }
+
+    long getLastActivity() {
+        return lastActivity;
+    }
+
+    void touch(long now) {
+        lastActivity = now;
+    }
+
+    Map<Integer, AttachmentStore.Upload> getUploads() {
+        return uploads;
+    }
+
+    long getInboxInFlight() {
+        return inboxInFlight.get();
+    }
+
+    /** Marks an inbox batch ending at {@code lastId} as sent; {@code false} if one is already out. */
+    boolean beginInboxBatch(long lastId) {
+        return inboxInFlight.compareAndSet(0, lastId);
+    }
+
+    /** Clears the batch ending at {@code lastId} once it is acknowledged; {@code false} if that is not the batch out. */
+    boolean endInboxBatch(long lastId) {
+        return lastId > 0 && inboxInFlight.compareAndSet(lastId, 0);
+    }
+
+    @Override
+    public String toString() {
+        return "ChatSession[" + username + "]";
+    }
+}
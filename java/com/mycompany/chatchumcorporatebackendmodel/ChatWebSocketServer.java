@@ -1,184 +1,159 @@
 package com.mycompany.chatchumcorporatebackendmodel;
 
 import java.io.*;
-import java.util.*;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.function.Consumer;
 import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.framing.Framedata;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.server.WebSocketServer;
-import com.google.gson.Gson;
 
 public class ChatWebSocketServer extends WebSocketServer {
-    private static final Map<String, WebSocket> usernameToSocket = new HashMap<>();
-    private static final String CLIENTS_FILE = "active_clients.txt";
+    static final String CLIENTS_FILE = "active_clients.txt";
     private static final String CHATLOGS_DIR = "chatlogs";
-    private static final Gson gson = new Gson();
-    private static final int PORT = 8080;
+    static final String SEGMENTS_DIR = CHATLOGS_DIR + "/segments";
+    private static final int PORT = Integer.parseInt(System.getenv().getOrDefault("WS_PORT", "8080"));
+    /** Largest inbound frame: an upload chunk with its header, or 1 MB for anything else. Larger frames close the connection. */
+    private static final int MAX_FRAME_BYTES = Math.max(AttachmentStore.CHUNK_BYTES + AttachmentStore.CHUNK_HEADER_BYTES, 1 << 20);
+    private static final Metrics.Counter CONNECTS = Metrics.counter("chat_ws_connects_total", "WebSocket connections accepted");
+    private static final Metrics.Counter REJECTS = Metrics.counter("chat_ws_rejected_total", "WebSocket connections refused for their origin");
+    private static final Metrics.Counter DISCONNECTS = Metrics.counter("chat_ws_disconnects_total", "WebSocket connections closed");
+
+    private final ChatRouter router;
+    private final boolean ownsRouter;
+    private final FrameBroadcaster broadcaster;
+    private final Consumer<String> broadcastFrame = this::broadcastFrame;
+
+    public ChatWebSocketServer() throws IOException {
+        this(PORT, SEGMENTS_DIR);
+    }
+
+    /** Server on {@code port} (0 for an ephemeral port) that keeps its message log in {@code segmentsDir}. */
+    public ChatWebSocketServer(int port, String segmentsDir) throws IOException {
+        this(port, new ChatRouter(segmentsDir, new File(CLIENTS_FILE)), true);
+    }
+
+    /** Server on {@code port} that shares {@code router} with other transports. */
+    public ChatWebSocketServer(int port, ChatRouter router) {
+        this(port, router, false);
+    }
 
-    public ChatWebSocketServer() {
-        super(new java.net.InetSocketAddress(PORT));
+    private ChatWebSocketServer(int port, ChatRouter router, boolean ownsRouter) {
+        super(new java.net.InetSocketAddress(port),
+                Collections.singletonList(new Draft_6455(Collections.emptyList(), MAX_FRAME_BYTES)));
+        setReuseAddr(true);
+        setTcpNoDelay(true); // Chat frames are small; don't let Nagle hold them back for an ACK
+        this.router = router;
+        this.ownsRouter = ownsRouter;
+        this.broadcaster = new FrameBroadcaster(router.getSessions());
+        router.addBroadcaster(broadcastFrame);
+        Metrics.gauge("chat_ws_connections", "Open WebSocket connections", () -> getConnections().size());
     }
 
     @Override
     public void onOpen(WebSocket conn, ClientHandshake handshake) {
         String origin = handshake.getFieldValue("Origin");
 
-        System.out.println("🌐 WebSocket connection attempt from origin: " + origin);
+        Log.debug("🌐 WebSocket connection attempt from origin: " + origin);
 
         // Only allow known safe frontend
         if (origin != null && !origin.equals("http://localhost:3000")) {
-            System.out.println("❌ Blocked connection from disallowed origin: " + origin);
+            REJECTS.increment();
+            Log.warn("❌ Blocked connection from disallowed origin: " + origin);
             conn.close(); // Close if origin not allowed
             return;
         }
 
-        System.out.println("✅ WebSocket connected. Total clients: " + getConnections().size());
+        WebSocketConnection.of(conn);
+        CONNECTS.increment();
+        Log.info("✅ WebSocket connected. Total clients: " + getConnections().size());
     }
 
     @Override
     public void onClose(WebSocket conn, int code, String reason, boolean remote) {
-        String username = getUsername(conn);
-        if (username != null) {
-            usernameToSocket.remove(username);
-            updateActiveClients();
-            broadcastClientList();
+        WebSocketConnection connection = conn.getAttachment();
+        if (connection != null) {
+            DISCONNECTS.increment();
+            router.onClose(connection);
         }
-        System.out.println("🔌 Client disconnected. Reason: " + reason);
+        Log.info("🔌 Client disconnected. Reason: " + reason);
     }
 
     @Override
     public void onMessage(WebSocket conn, String message) {
-        try {
-            Map<String, String> data = gson.fromJson(message, Map.class);
-            String type = data.get("type");
-            
-            if ("ping".equals(type)) {
-                conn.send("{\"type\":\"pong\"}");
-            }
-            String username = getUsername(conn);
-
-            if ("init".equals(type)) {
-                String initUsername = data.get("username");
-                if (initUsername != null && !usernameToSocket.containsKey(initUsername)) {
-                    usernameToSocket.put(initUsername, conn);
-                    System.out.println("👥 Added user: " + initUsername + ", Total users: " + usernameToSocket.size());
-                    updateActiveClients();
-                    broadcastClientList();
-                    sendChatHistory(initUsername); // Send history to new user
-                }
-            } else if ("message".equals(type)) {
-                String sender = data.get("sender");
-                String receiver = data.get("receiver");
-                String content = data.get("content");
-                if (sender != null && receiver != null && content != null) {
-                    WebSocket receiverConn = usernameToSocket.get(receiver);
-                    if (receiverConn != null && receiverConn.isOpen()) {
-                        receiverConn.send(message); // Send to receiver
-                        conn.send(message); // Echo to sender
-                        saveChatMessage(sender, receiver, content); // Use sender from JSON
-                        sendChatHistory(sender, receiver); // Update sender's history
-                        sendChatHistory(receiver, sender); // Update receiver's history
-                    } else {
-                        System.out.println("⚠️ Receiver " + receiver + " not found or not open");
-                    }
-                } else {
-                    System.out.println("⚠️ Invalid sender or receiver or content");
-                }
-            }
-        } catch (Exception e) {
-            System.err.println("⚠️ Message processing error: " + e.getMessage());
-        }
+        router.onFrame(WebSocketConnection.of(conn), message);
     }
 
+    /** Binary frames carry attachment upload chunks. */
     @Override
-    public void onError(WebSocket conn, Exception ex) {
-        System.err.println("⚠️ WebSocket error: " + ex.getMessage());
+    public void onMessage(WebSocket conn, ByteBuffer message) {
+        router.onBinary(WebSocketConnection.of(conn), message);
     }
 
+    /** Pongs to the library's keep-alive pings count as activity, so a quiet but live tab is not evicted. */
     @Override
-    public void onStart() {
-        System.out.println("🚀 WebSocket Chat Server started on port " + PORT);
-    }
-
-    private String getUsername(WebSocket conn) {
-        for (Map.Entry<String, WebSocket> entry : usernameToSocket.entrySet()) {
-            if (entry.getValue().equals(conn)) {
-                return entry.getKey();
-            }
-        }
-        return null;
-    }
-
-    private void updateActiveClients() {
-        System.out.println("👥 Updating active clients: " + usernameToSocket.keySet());
-        try (PrintWriter writer = new PrintWriter(new FileWriter(CLIENTS_FILE))) {
-            usernameToSocket.keySet().forEach(writer::println);
-        } catch (IOException e) {
-            System.err.println("⚠️ Failed to update active_clients.txt: " + e.getMessage());
+    public void onWebsocketPong(WebSocket conn, Framedata f) {
+        super.onWebsocketPong(conn, f);
+        WebSocketConnection connection = conn.getAttachment();
+        if (connection != null) {
+            router.touch(connection);
         }
     }
 
-    private void broadcastClientList() {
-        String clientsJson = gson.toJson(new ArrayList<>(usernameToSocket.keySet()));
-        for (WebSocket conn : getConnections()) {
-            if (conn.isOpen()) {
-                conn.send("{\"type\":\"clientList\",\"clients\":" + clientsJson + "}");
-            }
-        }
+    @Override
+    public void onError(WebSocket conn, Exception ex) {
+        Log.warn("⚠️ WebSocket error: " + ex.getMessage());
     }
 
-    private void saveChatMessage(String sender, String receiver, String content) {
-        try {
-            File dir = new File(CHATLOGS_DIR);
-            if (!dir.exists()) dir.mkdir();
-            File userDir = new File(CHATLOGS_DIR + "/" + sender);
-            if (!userDir.exists()) userDir.mkdir();
-            String fileName = CHATLOGS_DIR + "/" + sender + "/" + sender + "_" + receiver + ".json";
-            Map<String, Object> chat = new HashMap<>();
-            chat.put("sender", sender);
-            chat.put("receiver", receiver);
-            chat.put("content", content);
-            chat.put("timestamp", new java.util.Date().toString());
-            try (FileWriter writer = new FileWriter(fileName, true)) {
-                writer.write(gson.toJson(chat) + "\n");
-            }
-        } catch (IOException e) {
-            System.err.println("⚠️ Failed to save chat message: " + e.getMessage());
-        }
+    @Override
+    public void onStart() {
+        System.out.println("🚀 WebSocket Chat Server started on port " + getPort());
     }
 
-    private void sendChatHistory(String username) {
-        for (String otherUser : usernameToSocket.keySet()) {
-            if (!otherUser.equals(username)) {
-                sendChatHistory(username, otherUser);
-            }
-        }
+    private void broadcastFrame(String frame) {
+        // Encoded and framed once for all recipients; slow clients may drop it
+        broadcaster.broadcast(frame, OutboundFrame.Kind.PRESENCE, getConnections());
     }
 
-    private void sendChatHistory(String username, String otherUser) {
-        String fileName = CHATLOGS_DIR + "/" + username + "/" + username + "_" + otherUser + ".json";
-        List<Map<String, Object>> history = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                Map<String, Object> chat = gson.fromJson(line, Map.class);
-                history.add(chat);
-            }
-        } catch (IOException e) {
-            // File might not exist yet
-        }
-        WebSocket conn = usernameToSocket.get(username);
-        if (conn != null && conn.isOpen()) {
-            conn.send("{\"type\":\"chatHistory\",\"receiver\":\"" + otherUser + "\",\"history\":" + gson.toJson(history) + "}");
+    @Override
+    public void stop(int timeout, String closeMessage) throws InterruptedException {
+        super.stop(timeout, closeMessage);
+        router.removeBroadcaster(broadcastFrame);
+        if (ownsRouter) {
+            router.close();
         }
     }
 
+    /**
+     * Runs the WebSocket server, the TCP server and the attachment download server on one
+     * shared router, joined to the cluster described by {@code CLUSTER_NODE_ID}/{@code CLUSTER_PEERS}
+     * if set, and serves {@code /metrics} on {@code METRICS_PORT} if set.
+     */
     public static void main(String[] args) {
-        ChatWebSocketServer server = new ChatWebSocketServer();
         try {
+            ChatRouter router = new ChatRouter(SEGMENTS_DIR, new File(CLIENTS_FILE));
+            ClusterNode cluster = ClusterNode.fromEnv();
+            if (cluster != null) {
+                router.joinCluster(cluster);
+            }
+            ChatWebSocketServer server = new ChatWebSocketServer(PORT, router);
+            AdvancedChatServerSystem tcpServer = new AdvancedChatServerSystem(AdvancedChatServerSystem.PORT, router);
+            AttachmentServer attachmentServer = new AttachmentServer(AttachmentServer.PORT, router.getAttachments());
             server.start();
+            tcpServer.start();
+            attachmentServer.start();
+            String metricsPort = System.getenv("METRICS_PORT");
+            if (metricsPort != null && !metricsPort.isEmpty()) {
+                Metrics.serve(Integer.parseInt(metricsPort));
+            }
             System.out.println("🚀 Server running. Press Enter to stop.");
             System.in.read();
+            attachmentServer.close();
+            tcpServer.close();
             server.stop();
+            router.close();
         } catch (Exception e) {
             System.err.println("⚠️ Server failed to start: " + e.getMessage());
         }
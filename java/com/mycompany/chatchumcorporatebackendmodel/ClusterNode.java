@@ -0,0 +1,410 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This node's membership in a chat cluster: the shared routing table of which node hosts
+ * which user, and the forwarding of messages to users on other nodes.
+ *
+ * Each node gossips its own users to every peer: a {@code route} frame as soon as a user
+ * logs in or out here, and the full list every {@code CLUSTER_GOSSIP_MS}. The full list
+ * doubles as a heartbeat and repairs whatever a lost connection dropped; a peer silent
+ * for {@code CLUSTER_NODE_TIMEOUT_MS} is dropped with all its users. Remote users are fed
+ * into the local {@link PresenceService}, so clients see one roster for the cluster.
+ *
+ * Frames for a peer are queued and sent in batches of up to {@code CLUSTER_BATCH_SIZE},
+ * at most {@code CLUSTER_LINGER_MS} after the first was queued, without waiting for the
+ * previous batch to arrive. Everything for one peer goes through one queue, so the peer
+ * sees route changes and forwarded messages in the order they were made here.
+ *
+ * Stored messages of a user who logs in on another node are handed over as {@code inbox}
+ * batches, which that node acknowledges with {@code inboxAck} once it has delivered or
+ * stored them; see {@link ChatRouter#inboxTaken}.
+ */
+public final class ClusterNode implements AutoCloseable {
+    static final int BATCH_SIZE = Integer.parseInt(System.getenv().getOrDefault("CLUSTER_BATCH_SIZE", "256"));
+    static final long LINGER_MS = Long.parseLong(System.getenv().getOrDefault("CLUSTER_LINGER_MS", "1"));
+    static final long GOSSIP_MS = Long.parseLong(System.getenv().getOrDefault("CLUSTER_GOSSIP_MS", "1000"));
+    static final long NODE_TIMEOUT_MS = Long.parseLong(System.getenv().getOrDefault("CLUSTER_NODE_TIMEOUT_MS", "5000"));
+    private static final Metrics.Counter FORWARDED = Metrics.counter("cluster_forwarded_total", "Client frames forwarded to other nodes");
+    private static final Metrics.Counter BATCHES_SENT = Metrics.counter("cluster_batches_sent_total", "Frame batches handed to the cluster transport");
+    private static final Metrics.Counter FRAMES_RECEIVED = Metrics.counter("cluster_frames_received_total", "Frames received from other nodes");
+
+    private final String nodeId;
+    private final ClusterTransport transport;
+    /** Remote username -> id of the node hosting it. */
+    private final ConcurrentHashMap<String, String> routes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Peer> peers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private volatile ChatRouter router;
+
+    public ClusterNode(String nodeId, ClusterTransport transport) {
+        this.nodeId = nodeId;
+        this.transport = transport;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cluster-" + nodeId);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Cluster node configured from {@code CLUSTER_NODE_ID}, {@code CLUSTER_PORT}, {@code CLUSTER_PEERS}
+     * and {@code CLUSTER_SECRET}, or {@code null} when clustering is off.
+     */
+    public static ClusterNode fromEnv() {
+        String nodeId = System.getenv("CLUSTER_NODE_ID");
+        if (nodeId == null || nodeId.isEmpty()) {
+            return null;
+        }
+        String secret = System.getenv("CLUSTER_SECRET");
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException("CLUSTER_SECRET must be set to run as cluster node " + nodeId);
+        }
+        int port = Integer.parseInt(System.getenv().getOrDefault("CLUSTER_PORT", "9100"));
+        return new ClusterNode(nodeId, new TcpClusterTransport(port, TcpClusterTransport.parsePeers(System.getenv("CLUSTER_PEERS")), secret));
+    }
+
+    /** Called by {@link ChatRouter#joinCluster}. */
+    void start(ChatRouter router) throws IOException {
+        this.router = router;
+        transport.start(nodeId, this::onBatch);
+        scheduler.scheduleWithFixedDelay(this::gossip, 0, GOSSIP_MS, TimeUnit.MILLISECONDS);
+        Metrics.gauge("cluster_remote_users", "Users hosted on other nodes", routes::size);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /** The node hosting {@code username}, or {@code null} if no other node has it. */
+    public String nodeOf(String username) {
+        return routes.get(username);
+    }
+
+    public int remoteUserCount() {
+        return routes.size();
+    }
+
+    /** Queues a client frame for delivery on {@code node}. */
+    void forward(String node, String frame) {
+        FORWARDED.increment();
+        enqueue(node, deliverFrame(frame));
+    }
+
+    /** Queues stored messages of {@code username} for {@code node}, which acknowledges them with {@link #ackInbox}. */
+    void forwardInbox(String node, String username, long upTo, List<String> frames) {
+        FORWARDED.add(frames.size());
+        enqueue(node, inboxFrame(username, upTo, frames));
+    }
+
+    /** Tells {@code node} the inbox batch of {@code username} up to {@code upTo} was taken over here. */
+    void ackInbox(String node, String username, long upTo) {
+        enqueue(node, inboxAckFrame(username, upTo));
+    }
+
+    void localJoined(String username) {
+        enqueueAll(routeFrame(username, true));
+    }
+
+    void localLeft(String username) {
+        enqueueAll(routeFrame(username, false));
+    }
+
+    private void enqueueAll(String frame) {
+        for (String peer : transport.peers()) {
+            enqueue(peer, frame);
+        }
+    }
+
+    private Peer peer(String id) {
+        return peers.computeIfAbsent(id, Peer::new);
+    }
+
+    private void enqueue(String peerId, String frame) {
+        Peer peer = peer(peerId);
+        peer.pending.add(frame);
+        int queued = peer.pendingCount.incrementAndGet();
+        if (peer.flushScheduled.compareAndSet(false, true)) {
+            try {
+                scheduler.schedule(() -> flush(peer), queued >= BATCH_SIZE ? 0 : LINGER_MS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+            }
+        }
+    }
+
+    private void flush(Peer peer) {
+        peer.flushScheduled.set(false);
+        List<String> batch = new ArrayList<>();
+        String frame;
+        while ((frame = peer.pending.poll()) != null) {
+            peer.pendingCount.decrementAndGet();
+            batch.add(frame);
+            if (batch.size() == BATCH_SIZE) {
+                send(peer, batch);
+                batch = new ArrayList<>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            send(peer, batch);
+        }
+    }
+
+    private void send(Peer peer, List<String> batch) {
+        try {
+            transport.send(peer.id, batch);
+            BATCHES_SENT.increment();
+        } catch (RuntimeException e) {
+            Log.error("⚠️ ClusterNode: Failed to send to " + peer.id + ": " + e.getMessage());
+        }
+    }
+
+    /** Announces every local user to every peer and drops peers that went silent. */
+    private void gossip() {
+        try {
+            enqueueAll(routesFrame(router.localUsers()));
+            router.retryInboxHandoffs();
+            long now = System.currentTimeMillis();
+            for (Peer peer : peers.values()) {
+                if (peer.lastSeen > 0 && now - peer.lastSeen > NODE_TIMEOUT_MS) {
+                    peer.lastSeen = 0;
+                    Log.info("🔌 ClusterNode: Node " + peer.id + " timed out; dropping its users");
+                    replaceRoutes(peer, Collections.emptyList());
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.error("⚠️ ClusterNode: Gossip failed: " + e.getMessage());
+        }
+    }
+
+    private void onBatch(String from, List<String> frames) {
+        Peer peer = peer(from);
+        peer.lastSeen = System.currentTimeMillis();
+        FRAMES_RECEIVED.add(frames.size());
+        for (String frame : frames) {
+            try {
+                handle(peer, frame);
+            } catch (IOException | RuntimeException e) {
+                Log.warn("⚠️ ClusterNode: Bad frame from " + from + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void handle(Peer peer, String json) throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(json));
+        String type = null;
+        String user = null;
+        String frame = null;
+        boolean online = false;
+        long upTo = 0;
+        List<String> users = null;
+        List<String> frames = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "type": type = reader.nextString(); break;
+                case "user": user = reader.nextString(); break;
+                case "online": online = reader.nextBoolean(); break;
+                case "frame": frame = reader.nextString(); break;
+                case "upTo": upTo = reader.nextLong(); break;
+                case "frames":
+                    frames = new ArrayList<>();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        frames.add(reader.nextString());
+                    }
+                    reader.endArray();
+                    break;
+                case "users":
+                    users = new ArrayList<>();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        users.add(reader.nextString());
+                    }
+                    reader.endArray();
+                    break;
+                default: reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if ("deliver".equals(type) && frame != null) {
+            router.deliverForwarded(frame);
+        } else if ("route".equals(type) && user != null) {
+            if (online) {
+                addRoute(peer, user);
+            } else {
+                removeRoute(peer, user);
+            }
+        } else if ("routes".equals(type) && users != null) {
+            replaceRoutes(peer, users);
+        } else if ("inbox".equals(type) && user != null && frames != null) {
+            router.deliverInbox(peer.id, user, upTo, frames);
+        } else if ("inboxAck".equals(type) && user != null) {
+            router.inboxTaken(peer.id, user, upTo);
+        }
+    }
+
+    private void addRoute(Peer peer, String username) {
+        synchronized (peer) {
+            peer.users.add(username);
+        }
+        if (routes.put(username, peer.id) == null) {
+            router.remoteJoined(username);
+        }
+    }
+
+    private void removeRoute(Peer peer, String username) {
+        synchronized (peer) {
+            peer.users.remove(username);
+        }
+        if (routes.remove(username, peer.id)) {
+            router.remoteLeft(username);
+        }
+    }
+
+    private void replaceRoutes(Peer peer, Collection<String> users) {
+        List<String> gone;
+        synchronized (peer) {
+            gone = new ArrayList<>(peer.users);
+        }
+        gone.removeAll(new HashSet<>(users));
+        for (String username : gone) {
+            removeRoute(peer, username);
+        }
+        for (String username : users) {
+            addRoute(peer, username);
+        }
+    }
+
+    private static String deliverFrame(String frame) {
+        StringWriter out = new StringWriter(frame.length() + 32);
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject();
+            writer.name("type").value("deliver");
+            writer.name("frame").value(frame);
+            writer.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    private static String inboxFrame(String username, long upTo, List<String> frames) {
+        StringWriter out = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject();
+            writer.name("type").value("inbox");
+            writer.name("user").value(username);
+            writer.name("upTo").value(upTo);
+            writer.name("frames").beginArray();
+            for (String frame : frames) {
+                writer.value(frame);
+            }
+            writer.endArray();
+            writer.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    private static String inboxAckFrame(String username, long upTo) {
+        StringWriter out = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject();
+            writer.name("type").value("inboxAck");
+            writer.name("user").value(username);
+            writer.name("upTo").value(upTo);
+            writer.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    private static String routeFrame(String username, boolean online) {
+        StringWriter out = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject();
+            writer.name("type").value("route");
+            writer.name("user").value(username);
+            writer.name("online").value(online);
+            writer.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    private static String routesFrame(Collection<String> usernames) {
+        StringWriter out = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject();
+            writer.name("type").value("routes");
+            writer.name("users").beginArray();
+            for (String username : usernames) {
+                writer.value(username);
+            }
+            writer.endArray();
+            writer.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    /** Tells the peers this node's users are gone, then leaves the cluster. */
+    @Override
+    public void close() {
+        enqueueAll(routesFrame(Collections.emptyList()));
+        scheduler.shutdown(); // Already scheduled flushes still run
+        try {
+            scheduler.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        transport.close();
+    }
+
+    /** Outgoing queue of one peer, and what it has told us. */
+    private static final class Peer {
+        final String id;
+        final Queue<String> pending = new ConcurrentLinkedQueue<>();
+        final AtomicInteger pendingCount = new AtomicInteger();
+        final AtomicBoolean flushScheduled = new AtomicBoolean();
+        /** Users the peer announced; guarded by the peer. */
+        final Set<String> users = new HashSet<>();
+        volatile long lastSeen;
+
+        Peer(String id) {
+            this.id = id;
+        }
+    }
+}
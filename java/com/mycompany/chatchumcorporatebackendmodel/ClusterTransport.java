@@ -0,0 +1,35 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Node-to-node channel of a chat cluster.
+ *
+ * {@link ClusterNode} only needs ordered, batched delivery of text frames between named
+ * nodes, so the channel is pluggable: {@link TcpClusterTransport} connects real nodes,
+ * {@link InProcessClusterTransport} runs several nodes in one JVM.
+ */
+public interface ClusterTransport extends AutoCloseable {
+
+    /** Receives the batches peers send to this node. */
+    interface Receiver {
+        void onBatch(String fromNode, List<String> frames);
+    }
+
+    /** Starts accepting batches for {@code nodeId}. */
+    void start(String nodeId, Receiver receiver) throws IOException;
+
+    /**
+     * Sends {@code frames} to {@code nodeId} without waiting for them to arrive. Batches to
+     * one node arrive in the order they were sent; batches to an unreachable node are lost.
+     */
+    void send(String nodeId, List<String> frames);
+
+    /** Ids of the other nodes this transport can reach. */
+    Collection<String> peers();
+
+    @Override
+    void close();
+}
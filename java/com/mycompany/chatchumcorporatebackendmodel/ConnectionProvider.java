@@ -0,0 +1,163 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.sql.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shared access to chatchum.db: one long-lived writer connection and a bounded pool of
+ * reader connections, each with its own prepared-statement cache.
+ *
+ * SQLite allows a single writer at a time, so all writes are serialized on the writer
+ * connection instead of contending for the file lock. With WAL enabled the readers keep
+ * working while a write is in progress.
+ */
+public final class ConnectionProvider {
+    private static final String DB_URL = System.getenv().getOrDefault("DB_URL", "jdbc:sqlite:chatchum.db");
+    private static final int READERS = Integer.parseInt(System.getenv().getOrDefault("DB_READERS", "4"));
+    private static final long BORROW_TIMEOUT_MS = 5000;
+    private static ConnectionProvider instance;
+
+    /** Work done against a pooled connection. */
+    @FunctionalInterface
+    public interface SqlWork<T> {
+        T run(PooledConnection conn) throws SQLException;
+    }
+
+    private final String url;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final BlockingQueue<PooledConnection> readers;
+    private PooledConnection writer;
+
+    ConnectionProvider(String url, int readers) {
+        this.url = url;
+        this.readers = new ArrayBlockingQueue<>(readers);
+        for (int i = 0; i < readers; i++) {
+            this.readers.add(new PooledConnection(url));
+        }
+        this.writer = new PooledConnection(url);
+    }
+
+    public static synchronized ConnectionProvider getInstance() {
+        if (instance == null) {
+            instance = new ConnectionProvider(DB_URL, READERS);
+        }
+        return instance;
+    }
+
+    /** Runs {@code work} on the single writer connection. Writers are serialized. */
+    public <T> T write(SqlWork<T> work) throws SQLException {
+        writeLock.lock();
+        try {
+            if (!writer.isUsable()) {
+                writer.close();
+                writer = new PooledConnection(url);
+            }
+            return work.run(writer);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Runs {@code work} inside a single transaction on the writer connection, committing on
+     * success and rolling back if it throws.
+     */
+    public <T> T transaction(SqlWork<T> work) throws SQLException {
+        return write(conn -> {
+            Connection raw = conn.connection();
+            raw.setAutoCommit(false);
+            try {
+                T result = work.run(conn);
+                raw.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                raw.rollback();
+                throw e;
+            } finally {
+                raw.setAutoCommit(true);
+            }
+        });
+    }
+
+    /** Runs {@code work} on a pooled reader connection, waiting for one to become free. */
+    public <T> T read(SqlWork<T> work) throws SQLException {
+        PooledConnection conn;
+        try {
+            conn = readers.poll(BORROW_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        if (conn == null) {
+            throw new SQLException("Timed out waiting for a database connection");
+        }
+        try {
+            if (!conn.isUsable()) {
+                conn.close();
+                conn = new PooledConnection(url);
+            }
+            return work.run(conn);
+        } finally {
+            readers.offer(conn);
+        }
+    }
+
+    /**
+     * A connection owned by the provider. Statements returned by {@link #prepare} are
+     * cached and must not be closed by the caller; close their result sets instead.
+     */
+    public static final class PooledConnection {
+        private final String url;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+        private Connection connection;
+
+        PooledConnection(String url) {
+            this.url = url;
+        }
+
+        public Connection connection() throws SQLException {
+            if (connection == null) {
+                connection = DriverManager.getConnection(url);
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.execute("PRAGMA journal_mode=WAL;");
+                    stmt.execute("PRAGMA busy_timeout=5000;");
+                }
+            }
+            return connection;
+        }
+
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement pstmt = statements.get(sql);
+            if (pstmt == null) {
+                pstmt = connection().prepareStatement(sql);
+                statements.put(sql, pstmt);
+            }
+            return pstmt;
+        }
+
+        boolean isUsable() {
+            try {
+                return connection == null || !connection.isClosed();
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        void close() {
+            statements.clear();
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    System.err.println("⚠️ ConnectionProvider: Failed to close connection: " + e.getMessage());
+                }
+                connection = null;
+            }
+        }
+    }
+}
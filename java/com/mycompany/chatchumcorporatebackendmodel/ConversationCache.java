@@ -0,0 +1,229 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Memory-bounded cache of the newest messages of each conversation, kept by
+ * {@link MessageStore} so that history reads for active chats do not touch the segments.
+ *
+ * Every conversation holds a ring buffer of its last {@code tailLength} messages, grown on
+ * demand so a short conversation costs a short array. The store writes every append
+ * through, so a cached tail always ends at the conversation's newest message and a read
+ * is a hit whenever the tail reaches back to the first message asked for. The total
+ * estimated size of all tails is capped at {@code maxBytes}; when it is exceeded, whole
+ * conversations are evicted, least recently read or written first.
+ *
+ * The caller serializes appends and fills of one conversation; the cache itself is
+ * guarded by a single lock, held only to copy references in and out.
+ */
+public final class ConversationCache {
+    /** Object headers, fields and the four string headers of one cached message. */
+    private static final long MESSAGE_OVERHEAD_BYTES = 160;
+    /** Map entry, key and ring bookkeeping of one conversation. */
+    private static final long TAIL_OVERHEAD_BYTES = 160;
+    private static final int INITIAL_RING = 8;
+
+    private final long maxBytes;
+    private final int tailLength;
+    /** Conversation key -> tail, least recently used first; guarded by itself. */
+    private final LinkedHashMap<String, Tail> tails = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ConversationCache(long maxBytes, int tailLength) {
+        this.maxBytes = maxBytes;
+        this.tailLength = tailLength;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /** Whether anything is cached at all; a cache of zero bytes or messages is disabled. */
+    public boolean isEnabled() {
+        return maxBytes > 0 && tailLength > 0;
+    }
+
+    /**
+     * Messages of the conversation with a seq in {@code (afterSeq, endSeq]}, oldest first,
+     * or {@code null} when the cached tail does not reach back to {@code afterSeq + 1}.
+     */
+    List<ChatProtocol.ChatMessage> read(String key, long afterSeq, long endSeq) {
+        if (!isEnabled()) {
+            return null;
+        }
+        synchronized (tails) {
+            Tail tail = tails.get(key);
+            if (tail == null || tail.size == 0 || tail.firstSeq() > afterSeq + 1 || tail.lastSeq() < endSeq) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            List<ChatProtocol.ChatMessage> messages = new ArrayList<>((int) Math.max(endSeq - afterSeq, 0));
+            for (long seq = afterSeq + 1; seq <= endSeq; seq++) {
+                messages.add(tail.get(seq));
+            }
+            return messages;
+        }
+    }
+
+    /** Adds the conversation's newest message; one that does not follow the tail restarts it. */
+    void append(String key, ChatProtocol.ChatMessage message) {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (tails) {
+            Tail tail = tails.get(key);
+            if (tail == null) {
+                tail = new Tail();
+                tails.put(key, tail);
+                bytes += tail.bytes;
+            } else if (tail.size > 0 && tail.lastSeq() + 1 != message.seq) {
+                bytes -= tail.clear();
+            }
+            bytes += tail.add(message, tailLength);
+            evict();
+        }
+    }
+
+    /**
+     * Replaces the conversation's tail with the newest of {@code messages}, which must run up
+     * to its newest message, unless the cached tail already reaches back further.
+     */
+    void fill(String key, List<ChatProtocol.ChatMessage> messages) {
+        if (!isEnabled() || messages.isEmpty()) {
+            return;
+        }
+        synchronized (tails) {
+            Tail tail = tails.get(key);
+            if (tail != null && tail.size > 0 && tail.firstSeq() <= messages.get(0).seq) {
+                return;
+            }
+            if (tail == null) {
+                tail = new Tail();
+                tails.put(key, tail);
+                bytes += tail.bytes;
+            } else {
+                bytes -= tail.clear();
+            }
+            for (int i = Math.max(0, messages.size() - tailLength); i < messages.size(); i++) {
+                bytes += tail.add(messages.get(i), tailLength);
+            }
+            evict();
+        }
+    }
+
+    /** Drops least recently used conversations until the cache fits in {@code maxBytes}. */
+    private void evict() {
+        Iterator<Map.Entry<String, Tail>> eldest = tails.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().getValue().bytes;
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    /** Reads answered from memory. */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /** Reads that had to go to the segments. */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /** Conversations evicted to stay within the byte budget. */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /** Estimated heap held by the cached tails. */
+    public long getBytes() {
+        synchronized (tails) {
+            return bytes;
+        }
+    }
+
+    public int getConversations() {
+        synchronized (tails) {
+            return tails.size();
+        }
+    }
+
+    static long estimateBytes(ChatProtocol.ChatMessage message) {
+        return MESSAGE_OVERHEAD_BYTES + 2L * (length(message.sender) + length(message.receiver)
+                + length(message.content) + length(message.timestamp));
+    }
+
+    private static int length(String s) {
+        return s != null ? s.length() : 0;
+    }
+
+    /** Ring buffer of the newest messages of one conversation, consecutive by seq. */
+    private static final class Tail {
+        ChatProtocol.ChatMessage[] ring = new ChatProtocol.ChatMessage[INITIAL_RING];
+        /** Index of the oldest message. */
+        int head;
+        int size;
+        long bytes = TAIL_OVERHEAD_BYTES + 4L * INITIAL_RING;
+
+        long firstSeq() {
+            return ring[head].seq;
+        }
+
+        long lastSeq() {
+            return ring[(head + size - 1) % ring.length].seq;
+        }
+
+        /** The message with {@code seq}, which must be in the tail. */
+        ChatProtocol.ChatMessage get(long seq) {
+            return ring[(int) ((head + seq - firstSeq()) % ring.length)];
+        }
+
+        /** Appends {@code message}, overwriting the oldest once {@code capacity} is reached; returns the change in bytes. */
+        long add(ChatProtocol.ChatMessage message, int capacity) {
+            long before = bytes;
+            if (size == ring.length && size < capacity) {
+                ChatProtocol.ChatMessage[] grown = new ChatProtocol.ChatMessage[Math.min(ring.length * 2, capacity)];
+                for (int i = 0; i < size; i++) {
+                    grown[i] = ring[(head + i) % ring.length];
+                }
+                bytes += 4L * (grown.length - ring.length);
+                ring = grown;
+                head = 0;
+            }
+            if (size == ring.length) {
+                bytes -= estimateBytes(ring[head]);
+                ring[head] = message;
+                head = (head + 1) % ring.length;
+            } else {
+                ring[(head + size) % ring.length] = message;
+                size++;
+            }
+            bytes += estimateBytes(message);
+            return bytes - before;
+        }
+
+        /** Empties the tail, keeping its array; returns the bytes released. */
+        long clear() {
+            long released = 0;
+            for (int i = 0; i < size; i++) {
+                released += estimateBytes(ring[(head + i) % ring.length]);
+            }
+            Arrays.fill(ring, null);
+            head = 0;
+            size = 0;
+            bytes -= released;
+            return released;
+        }
+    }
+}
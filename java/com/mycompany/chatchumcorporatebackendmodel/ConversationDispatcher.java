@@ -0,0 +1,196 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs chat work on a fixed set of single-threaded lanes, one per core by default.
+ *
+ * Every task carries a key and lands on the lane the key hashes to, so tasks with the same
+ * key run one at a time in the order they were submitted while different keys run in
+ * parallel. {@link ChatRouter} keys messages and history by conversation and per-user work
+ * by username; transport threads only decode a frame and hand it over, so a slow disk
+ * write holds up its own lane rather than every connection on the transport thread.
+ *
+ * Each lane queues at most {@code CHAT_DISPATCH_QUEUE} tasks from outside the dispatcher. A
+ * submitter that finds its lane full waits, which pushes back on the connections feeding it
+ * instead of growing the heap. Tasks submitted from a lane never wait: a send from a lane can
+ * disconnect a slow client, whose cleanup is submitted to a lane that may be full, maybe the
+ * very one that would have to drain it. Those tasks are queued past the limit instead, in
+ * order with the rest.
+ */
+public final class ConversationDispatcher implements AutoCloseable {
+    static final int LANES = Integer.parseInt(System.getenv().getOrDefault("CHAT_DISPATCH_LANES",
+            String.valueOf(Runtime.getRuntime().availableProcessors())));
+    static final int QUEUE_CAPACITY = Integer.parseInt(System.getenv().getOrDefault("CHAT_DISPATCH_QUEUE", "4096"));
+    private static final Metrics.Histogram WAIT = Metrics.histogram("chat_dispatch_wait_seconds", "Time a task waits in its lane before it runs");
+    private static final Metrics.Counter DROPPED = Metrics.counter("chat_dispatch_dropped_total", "Tasks dropped because the dispatcher was closed");
+    private static final Task STOP = new Task(() -> { }, 0, false);
+
+    private final Lane[] lanes;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean closed;
+
+    public ConversationDispatcher() {
+        this(LANES, QUEUE_CAPACITY);
+    }
+
+    public ConversationDispatcher(int lanes, int queueCapacity) {
+        if (lanes < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("lanes and queue capacity must be positive");
+        }
+        this.lanes = new Lane[lanes];
+        for (int i = 0; i < lanes; i++) {
+            this.lanes[i] = new Lane(i, queueCapacity);
+        }
+        Metrics.gauge("chat_dispatch_queued", "Tasks waiting in dispatch lanes", this::getQueued);
+    }
+
+    /**
+     * Runs {@code task} on the lane of {@code key}, after every task submitted earlier under
+     * the same key. Waits while that lane is full, unless called from a lane; after
+     * {@link #close} the task is dropped and counted.
+     */
+    public void execute(String key, Runnable task) {
+        if (closed) {
+            drop(1);
+            return;
+        }
+        Lane lane = lanes[laneOf(key)];
+        boolean bounded = !(Thread.currentThread() instanceof Lane);
+        if (bounded) {
+            try {
+                lane.permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                drop(1);
+                return;
+            }
+        }
+        Task queued = new Task(task, System.nanoTime(), bounded);
+        lane.queue.add(queued);
+        if (closed && !lane.isAlive() && lane.queue.remove(queued)) { // Raced with close; nobody will run it
+            drop(1);
+        }
+    }
+
+    private void drop(long tasks) {
+        DROPPED.add(tasks);
+        if (dropped.getAndAdd(tasks) == 0) {
+            Log.warn("⚠️ ConversationDispatcher: Dropping tasks submitted after close");
+        }
+    }
+
+    private int laneOf(String key) {
+        int h = key.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), lanes.length);
+    }
+
+    public int getLanes() {
+        return lanes.length;
+    }
+
+    /** Tasks submitted but not started yet, over all lanes. */
+    public long getQueued() {
+        long queued = 0;
+        for (Lane lane : lanes) {
+            queued += lane.queue.size();
+        }
+        return queued;
+    }
+
+    /** Tasks dropped because they were submitted after {@link #close}. */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /** Waits until every task submitted before this call has run. */
+    public void awaitIdle() throws InterruptedException {
+        CountDownLatch idle = new CountDownLatch(lanes.length);
+        for (Lane lane : lanes) {
+            lane.queue.add(new Task(idle::countDown, System.nanoTime(), false));
+        }
+        idle.await();
+    }
+
+    /** Runs what is already queued, then stops the lanes. */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Lane lane : lanes) {
+            lane.queue.add(STOP);
+        }
+        for (Lane lane : lanes) {
+            if (lane == Thread.currentThread()) {
+                continue; // Closed from one of its own tasks; the lane stops after it
+            }
+            try {
+                lane.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            int left = lane.queue.size();
+            if (left > 0) { // Submitted while the lane was stopping
+                lane.queue.clear();
+                drop(left);
+            }
+        }
+    }
+
+    private static final class Task {
+        final Runnable task;
+        final long queuedNanos;
+        /** Whether the task holds one of its lane's permits. */
+        final boolean bounded;
+
+        Task(Runnable task, long queuedNanos, boolean bounded) {
+            this.task = task;
+            this.queuedNanos = queuedNanos;
+            this.bounded = bounded;
+        }
+    }
+
+    private static final class Lane extends Thread {
+        final BlockingQueue<Task> queue = new LinkedBlockingQueue<>();
+        /** Room for tasks from outside the lanes. */
+        final Semaphore permits;
+
+        Lane(int index, int capacity) {
+            super("chat-lane-" + index);
+            this.permits = new Semaphore(capacity);
+            setDaemon(true);
+            start();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Task next;
+                try {
+                    next = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (next == STOP) {
+                    return;
+                }
+                if (next.bounded) {
+                    permits.release();
+                }
+                WAIT.record(System.nanoTime() - next.queuedNanos);
+                try {
+                    next.task.run();
+                } catch (RuntimeException e) {
+                    Log.error("⚠️ ConversationDispatcher: Task failed on " + getName() + ": " + e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseToken;
+
+import java.util.concurrent.CompletableFuture;
+
+/** {@link TokenVerifier} backed by the Firebase Admin SDK; the app must be initialized first. */
+public final class FirebaseTokenVerifier implements TokenVerifier {
+
+    @Override
+    public CompletableFuture<VerifiedToken> verify(String idToken) {
+        CompletableFuture<VerifiedToken> result = new CompletableFuture<>();
+        ApiFutures.addCallback(FirebaseAuth.getInstance().verifyIdTokenAsync(idToken), new ApiFutureCallback<FirebaseToken>() {
+            @Override
+            public void onSuccess(FirebaseToken token) {
+                Object exp = token.getClaims().get("exp");
+                long expiresAtMillis = exp instanceof Number ? ((Number) exp).longValue() * 1000 : 0;
+                result.complete(new VerifiedToken(token.getUid(), token.getEmail(), expiresAtMillis, token.getClaims()));
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                result.completeExceptionally(t);
+            }
+        }, Runnable::run);
+        return result;
+    }
+}
@@ -0,0 +1,126 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.DefaultExtension;
+import org.java_websocket.framing.Framedata;
+
+/**
+ * Fan-out of one text payload to many connections.
+ *
+ * {@code conn.send(String)} UTF-8 encodes and frames the payload again for every
+ * recipient. Here the payload is encoded and framed once per distinct draft, and every
+ * recipient's {@link OutboundQueue} gets the same frame, whose wire bytes each socket
+ * consumes through its own read-only view. Drafts with a negotiated extension (e.g.
+ * permessage-deflate) keep per-connection state, so those recipients get the plain text.
+ */
+public class FrameBroadcaster {
+    private final SessionRegistry sessions;
+
+    public FrameBroadcaster(SessionRegistry sessions) {
+        this.sessions = sessions;
+    }
+
+    /** Sends {@code payload} to every open connection in {@code targets}. Returns the number of recipients. */
+    public int broadcast(String payload, Collection<WebSocket> targets) {
+        return broadcast(payload, OutboundFrame.Kind.MESSAGE, targets);
+    }
+
+    /**
+     * Sends {@code payload} as a frame of {@code kind}, so a recipient that has fallen behind
+     * applies its slow-consumer policy to it. Returns the number of recipients.
+     */
+    public int broadcast(String payload, OutboundFrame.Kind kind, Collection<WebSocket> targets) {
+        Map<Draft, OutboundFrame> frameByDraft = new HashMap<>(2);
+        OutboundFrame plain = null;
+        int sent = 0;
+        for (WebSocket socket : targets) {
+            WebSocketConnection conn = socket.getAttachment();
+            if (conn == null || !socket.isOpen()) {
+                continue; // Not accepted (origin check) or already closing
+            }
+            Draft draft = socket.getDraft();
+            OutboundFrame frame;
+            if (socket instanceof WebSocketImpl && isStateless(draft)) {
+                frame = frameByDraft.computeIfAbsent(draft, d -> OutboundFrame.shared(kind, payload, encode(d, payload)));
+            } else {
+                if (plain == null) {
+                    plain = OutboundFrame.shared(kind, payload, null);
+                }
+                frame = plain;
+            }
+            conn.send(frame);
+            sent++;
+        }
+        return sent;
+    }
+
+    /** Sends {@code payload} to the listed users that are connected, e.g. a room or department. */
+    public int broadcastToUsers(String payload, Collection<String> usernames) {
+        List<WebSocket> targets = new ArrayList<>(usernames.size());
+        int sent = 0;
+        for (String username : usernames) {
+            ChatSession session = sessions.get(username);
+            if (session != null) {
+                sent += collect(session, payload, targets);
+            }
+        }
+        return sent + broadcast(payload, targets);
+    }
+
+    /** Sends {@code payload} to every registered user. */
+    public int broadcastToAll(String payload) {
+        List<WebSocket> targets = new ArrayList<>(sessions.size());
+        int sent = 0;
+        for (ChatSession session : sessions.sessions()) {
+            sent += collect(session, payload, targets);
+        }
+        return sent + broadcast(payload, targets);
+    }
+
+    /** Adds a WebSocket user to {@code targets}; users on other transports are sent to directly. */
+    private static int collect(ChatSession session, String payload, List<WebSocket> targets) {
+        ChatConnection conn = session.getConnection();
+        if (conn instanceof WebSocketConnection) {
+            targets.add(((WebSocketConnection) conn).getSocket());
+            return 0;
+        }
+        if (!conn.isOpen()) {
+            return 0;
+        }
+        conn.send(payload);
+        return 1;
+    }
+
+    private static boolean isStateless(Draft draft) {
+        return draft instanceof Draft_6455
+                && ((Draft_6455) draft).getExtension().getClass() == DefaultExtension.class;
+    }
+
+    /** Server-to-client frames are unmasked, so the same bytes are valid for every recipient. */
+    private static ByteBuffer encode(Draft draft, String payload) {
+        List<Framedata> frames = draft.createFrames(payload, false);
+        if (frames.size() == 1) {
+            return draft.createBinaryFrame(frames.get(0)).asReadOnlyBuffer();
+        }
+        List<ByteBuffer> parts = new ArrayList<>(frames.size());
+        int total = 0;
+        for (Framedata frame : frames) {
+            ByteBuffer part = draft.createBinaryFrame(frame);
+            parts.add(part);
+            total += part.remaining();
+        }
+        ByteBuffer wire = ByteBuffer.allocate(total);
+        parts.forEach(wire::put);
+        wire.flip();
+        return wire.asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,141 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Evicts sessions that have sent nothing for {@code SESSION_IDLE_TIMEOUT_MS}.
+ *
+ * Sessions sit in a hashed timing wheel of {@code SLOTS} buckets, each covering one tick,
+ * with the wheel spanning at least one timeout. A frame only stores the current clock in
+ * its session ({@link #touch}); nothing in the wheel moves. When the wheel reaches a
+ * bucket, each session in it is either past its deadline and expired, or moved to the
+ * bucket of its new deadline. A session is therefore looked at about once per timeout
+ * whatever its traffic, and both touching and expiring are O(1). Sessions that are no
+ * longer registered are dropped lazily when their bucket comes up.
+ *
+ * The sessions expiring in one tick are handed over as one batch, so their presence
+ * updates go out together.
+ */
+public final class IdleReaper implements AutoCloseable {
+    static final long TIMEOUT_MS = Long.parseLong(System.getenv().getOrDefault("SESSION_IDLE_TIMEOUT_MS", "220000"));
+    private static final int SLOTS = 512;
+    private static final Metrics.Counter REAPED = Metrics.counter("chat_sessions_reaped_total", "Sessions evicted for being idle");
+
+    private final long timeoutMs;
+    private final long tickMs;
+    /** Buckets of the wheel; guarded by itself. */
+    private final List<ArrayList<ChatSession>> wheel = new ArrayList<>(SLOTS);
+    private final Predicate<ChatSession> tracked;
+    private final Consumer<List<ChatSession>> expire;
+    private final LongSupplier millis;
+    private final ScheduledExecutorService ticker;
+    /** Milliseconds on a monotonic clock, as of the last tick. */
+    private volatile long clock;
+    /** Last tick whose bucket was processed; guarded by {@code wheel}. */
+    private long processedTick;
+
+    /**
+     * @param tracked whether a session is still registered; others are dropped from the wheel
+     * @param expire receives the sessions that went idle in one tick
+     */
+    public IdleReaper(long timeoutMs, Predicate<ChatSession> tracked, Consumer<List<ChatSession>> expire) {
+        this(timeoutMs, tracked, expire, IdleReaper::monotonicMillis);
+        ticker.scheduleAtFixedRate(this::tick, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** A reaper on {@code millis} that only moves when the caller {@link #tick}s it. */
+    IdleReaper(long timeoutMs, Predicate<ChatSession> tracked, Consumer<List<ChatSession>> expire, LongSupplier millis) {
+        this.timeoutMs = timeoutMs;
+        this.tickMs = Math.max(1, (timeoutMs + SLOTS - 2) / (SLOTS - 1));
+        this.tracked = tracked;
+        this.expire = expire;
+        this.millis = millis;
+        for (int i = 0; i < SLOTS; i++) {
+            wheel.add(new ArrayList<>());
+        }
+        this.clock = millis.getAsLong();
+        this.processedTick = clock / tickMs;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "idle-reaper");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Starts tracking a newly registered session. */
+    public void track(ChatSession session) {
+        long now = clock;
+        session.touch(now);
+        schedule(session, now + timeoutMs);
+    }
+
+    /** Records activity on {@code session}; a plain field write, skipped within one tick. */
+    public void touch(ChatSession session) {
+        long now = clock;
+        if (session.getLastActivity() != now) {
+            session.touch(now);
+        }
+    }
+
+    private void schedule(ChatSession session, long deadline) {
+        synchronized (wheel) {
+            // A deadline in the bucket being processed waits for the next one instead of a whole turn
+            long tick = Math.max(deadline / tickMs, processedTick + 1);
+            wheel.get((int) Math.floorMod(tick, (long) SLOTS)).add(session);
+        }
+    }
+
+    /** Advances the wheel to the current time and expires the sessions that went idle. */
+    void tick() {
+        try {
+            long now = millis.getAsLong();
+            clock = now;
+            List<ChatSession> idle = new ArrayList<>();
+            for (long current = now / tickMs; processedTick < current; ) {
+                ArrayList<ChatSession> due;
+                synchronized (wheel) {
+                    processedTick++;
+                    int slot = (int) Math.floorMod(processedTick, (long) SLOTS);
+                    due = wheel.get(slot);
+                    if (due.isEmpty()) {
+                        continue;
+                    }
+                    wheel.set(slot, new ArrayList<>());
+                }
+                for (ChatSession session : due) {
+                    if (!tracked.test(session)) {
+                        continue;
+                    }
+                    long deadline = session.getLastActivity() + timeoutMs;
+                    if (deadline <= now) {
+                        idle.add(session);
+                    } else {
+                        schedule(session, deadline);
+                    }
+                }
+            }
+            if (!idle.isEmpty()) {
+                REAPED.add(idle.size());
+                expire.accept(idle);
+            }
+        } catch (RuntimeException e) {
+            Log.error("⚠️ IdleReaper: Tick failed: " + e);
+        }
+    }
+
+    private static long monotonicMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+    }
+}
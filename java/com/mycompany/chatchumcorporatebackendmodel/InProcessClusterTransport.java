@@ -0,0 +1,73 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * {@link ClusterTransport} between nodes in one JVM, for running a cluster on one machine
+ * without sockets. Every node gets its own inbox thread, so batches from one sender arrive
+ * in order and a sender never runs the receiver's code.
+ */
+public final class InProcessClusterTransport implements ClusterTransport {
+
+    /** The nodes that can reach each other; share one instance between all of them. */
+    public static final class Fabric {
+        private final Map<String, InProcessClusterTransport> nodes = new ConcurrentHashMap<>();
+    }
+
+    private final Fabric fabric;
+    private volatile String nodeId;
+    private volatile Receiver receiver;
+    private volatile ExecutorService inbox;
+
+    public InProcessClusterTransport(Fabric fabric) {
+        this.fabric = fabric;
+    }
+
+    @Override
+    public void start(String nodeId, Receiver receiver) {
+        this.nodeId = nodeId;
+        this.receiver = receiver;
+        this.inbox = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "cluster-inbox-" + nodeId);
+            t.setDaemon(true);
+            return t;
+        });
+        fabric.nodes.put(nodeId, this);
+    }
+
+    @Override
+    public void send(String peer, List<String> frames) {
+        InProcessClusterTransport target = fabric.nodes.get(peer);
+        if (target == null) {
+            return;
+        }
+        String from = nodeId;
+        try {
+            target.inbox.execute(() -> target.receiver.onBatch(from, frames));
+        } catch (RejectedExecutionException e) {
+            // Peer is shutting down
+        }
+    }
+
+    @Override
+    public Collection<String> peers() {
+        List<String> peers = new ArrayList<>(fabric.nodes.keySet());
+        peers.remove(nodeId);
+        return peers;
+    }
+
+    @Override
+    public void close() {
+        if (nodeId != null) {
+            fabric.nodes.remove(nodeId, this);
+            inbox.shutdown();
+        }
+    }
+}
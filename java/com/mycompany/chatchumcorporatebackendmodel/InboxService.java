@@ -0,0 +1,128 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Durable store-and-forward inbox for messages whose receiver is not connected.
+ *
+ * A message is committed to the inbox table before the sender gets its echo, so it survives
+ * a restart. When the receiver connects, {@link ChatRouter} hands the inbox over in batches
+ * of {@code INBOX_BATCH_SIZE}, oldest first, one batch at a time: rows are deleted only when
+ * the client acknowledges a batch, and the next batch is sent after that. A client that
+ * disconnects before acknowledging gets the same messages again on its next connection.
+ * Reading an inbox walks idx_inbox_recipient, so reconnecting costs what is unread rather
+ * than the size of the user's history.
+ *
+ * Every row belongs to the cluster node that stored it ({@code ""} without a cluster), so
+ * nodes sharing one database each hand over only their own rows.
+ */
+public class InboxService {
+    static final int BATCH_SIZE = Integer.parseInt(System.getenv().getOrDefault("INBOX_BATCH_SIZE", "100"));
+    private static final Metrics.Counter STORED = Metrics.counter("chat_inbox_stored_total", "Messages stored for receivers that were not connected");
+    private static final Metrics.Counter ACKED = Metrics.counter("chat_inbox_acked_total", "Inbox messages acknowledged by their receiver");
+    private static InboxService instance;
+    private final ConnectionProvider db = ConnectionProvider.getInstance();
+
+    /** One stored message: its inbox id and the frame as the sender sent it. */
+    public static final class Entry {
+        public final long id;
+        public final String frame;
+
+        Entry(long id, String frame) {
+            this.id = id;
+            this.frame = frame;
+        }
+    }
+
+    private InboxService() {
+        try {
+            db.write(conn -> {
+                try (Statement stmt = conn.connection().createStatement()) {
+                    stmt.execute("CREATE TABLE IF NOT EXISTS inbox (" +
+                            "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                            "node TEXT NOT NULL, " +
+                            "recipient TEXT NOT NULL, " +
+                            "frame TEXT NOT NULL, " +
+                            "stored_at INTEGER NOT NULL)");
+                    stmt.execute("CREATE INDEX IF NOT EXISTS idx_inbox_recipient ON inbox (node, recipient, id)");
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            System.err.println("⚠️ InboxService: Failed to initialize database: " + e.getMessage());
+        }
+    }
+
+    public static synchronized InboxService getInstance() {
+        if (instance == null) {
+            instance = new InboxService();
+        }
+        return instance;
+    }
+
+    /** Commits {@code frame} to {@code recipient}'s inbox on {@code node}; {@code false} if it could not be stored. */
+    public boolean store(String node, String recipient, String frame) {
+        try {
+            db.write(conn -> {
+                PreparedStatement pstmt = conn.prepare("INSERT INTO inbox (node, recipient, frame, stored_at) VALUES (?, ?, ?, ?)");
+                pstmt.setString(1, node);
+                pstmt.setString(2, recipient);
+                pstmt.setString(3, frame);
+                pstmt.setLong(4, System.currentTimeMillis());
+                return pstmt.executeUpdate();
+            });
+            STORED.increment();
+            return true;
+        } catch (SQLException e) {
+            Log.error("⚠️ InboxService: Failed to store message for " + recipient + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /** Up to {@code limit} messages of {@code recipient}'s inbox on {@code node} with an id above {@code afterId}, oldest first. */
+    public List<Entry> read(String node, String recipient, long afterId, int limit) {
+        List<Entry> entries = new ArrayList<>();
+        try {
+            db.read(conn -> {
+                PreparedStatement pstmt = conn.prepare(
+                        "SELECT id, frame FROM inbox WHERE node = ? AND recipient = ? AND id > ? ORDER BY id LIMIT ?");
+                pstmt.setString(1, node);
+                pstmt.setString(2, recipient);
+                pstmt.setLong(3, afterId);
+                pstmt.setInt(4, limit);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        entries.add(new Entry(rs.getLong("id"), rs.getString("frame")));
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            Log.error("⚠️ InboxService: Failed to read inbox of " + recipient + ": " + e.getMessage());
+        }
+        return entries;
+    }
+
+    /** Deletes {@code recipient}'s messages up to and including {@code upToId}; returns how many. */
+    public int ack(String node, String recipient, long upToId) {
+        try {
+            int deleted = db.write(conn -> {
+                PreparedStatement pstmt = conn.prepare("DELETE FROM inbox WHERE node = ? AND recipient = ? AND id <= ?");
+                pstmt.setString(1, node);
+                pstmt.setString(2, recipient);
+                pstmt.setLong(3, upToId);
+                return pstmt.executeUpdate();
+            });
+            ACKED.add(deleted);
+            return deleted;
+        } catch (SQLException e) {
+            Log.error("⚠️ InboxService: Failed to acknowledge inbox of " + recipient + ": " + e.getMessage());
+            return 0;
+        }
+    }
+}
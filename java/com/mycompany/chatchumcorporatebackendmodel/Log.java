@@ -0,0 +1,117 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous leveled logger for the connection and message paths.
+ *
+ * Callers only enqueue; a single writer thread prints in batches, to stdout below
+ * {@code WARN} and to stderr from it, so a burst of log lines never holds a network thread
+ * on the console lock. Messages below {@code LOG_LEVEL} (default {@code INFO}) are discarded
+ * before they are queued. When the queue ({@code LOG_QUEUE_CAPACITY}) is full, lines are
+ * dropped and counted rather than blocking the caller. Whatever is queued at shutdown is
+ * printed before the JVM exits.
+ */
+public final class Log {
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+
+    private static final Level LEVEL = Level.valueOf(System.getenv().getOrDefault("LOG_LEVEL", "INFO").toUpperCase());
+    private static final int QUEUE_CAPACITY = Integer.parseInt(System.getenv().getOrDefault("LOG_QUEUE_CAPACITY", "8192"));
+    private static final int BATCH = 256;
+    private static final Metrics.Counter DROPPED = Metrics.counter("log_dropped_total", "Log lines dropped because the log queue was full");
+
+    private static final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final Thread writer = new Thread(Log::run, "log-writer");
+
+    static {
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::drain, "log-writer-shutdown"));
+    }
+
+    private Log() {
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(LEVEL) >= 0;
+    }
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message);
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message);
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message);
+    }
+
+    public static void error(String message) {
+        log(Level.ERROR, message);
+    }
+
+    private static void log(Level level, String message) {
+        if (isEnabled(level) && !queue.offer(new Entry(level, message))) {
+            DROPPED.increment();
+        }
+    }
+
+    private static void run() {
+        List<Entry> batch = new ArrayList<>(BATCH);
+        while (true) {
+            try {
+                Entry first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH - 1);
+                write(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /** Prints everything still queued; run at shutdown. */
+    private static void drain() {
+        List<Entry> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        write(rest);
+    }
+
+    private static void write(List<Entry> batch) {
+        boolean out = false;
+        boolean err = false;
+        for (Entry entry : batch) {
+            PrintStream stream = entry.level.compareTo(Level.WARN) >= 0 ? System.err : System.out;
+            stream.println(entry.message);
+            out |= stream == System.out;
+            err |= stream == System.err;
+        }
+        if (out) {
+            System.out.flush();
+        }
+        if (err) {
+            System.err.flush();
+        }
+    }
+
+    private static final class Entry {
+        final Level level;
+        final String message;
+
+        Entry(Level level, String message) {
+            this.level = level;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Client message ids seen in the last {@code DEDUP_WINDOW_MS}, so a message the client
+ * resends after a dropped connection is delivered and stored once.
+ *
+ * Ids are scoped to their sender and kept as 64-bit fingerprints of (sender, id) in
+ * open-addressing {@code long} tables, 8 to 16 bytes per id instead of a string set entry.
+ * The window is cut into {@code SLICES} generations: new ids go into the newest one, and
+ * when a slice's time is up the oldest generation is dropped whole, so expiry costs
+ * nothing per id. A generation holding {@code DEDUP_SLICE_CAPACITY} ids ends early, which
+ * bounds memory under a flood at the price of a shorter window. The tables are split into
+ * shards with their own locks, so lanes checking ids do not contend.
+ *
+ * Two different ids collide with odds of about n²/2^65 for n ids in the window; the
+ * unique index on chats.message_id still catches retries the window has forgotten.
+ */
+public final class MessageIdWindow {
+    static final long WINDOW_MS = Long.parseLong(System.getenv().getOrDefault("DEDUP_WINDOW_MS", "600000"));
+    static final int SLICE_CAPACITY = Integer.parseInt(System.getenv().getOrDefault("DEDUP_SLICE_CAPACITY", "1048576"));
+    /** Longest id that is remembered; longer ones are treated as absent. */
+    static final int MAX_ID_LENGTH = 128;
+    private static final int SLICES = 4;
+    private static final int SHARDS = 16;
+    private static final int INITIAL_TABLE = 1024;
+
+    private final long sliceNanos;
+    private final int shardCapacity;
+    private final Shard[] shards = new Shard[SHARDS];
+    private final LongSupplier nanos;
+
+    public MessageIdWindow() {
+        this(WINDOW_MS, SLICE_CAPACITY);
+    }
+
+    /**
+     * @param windowMs how long an id is remembered at least, unless generations fill up early
+     * @param sliceCapacity ids one generation holds over all shards
+     */
+    public MessageIdWindow(long windowMs, int sliceCapacity) {
+        this(windowMs, sliceCapacity, System::nanoTime);
+    }
+
+    /** A window on the clock {@code nanos} instead of {@link System#nanoTime}. */
+    MessageIdWindow(long windowMs, int sliceCapacity, LongSupplier nanos) {
+        // An id added at the end of a slice survives the other SLICES - 1 slices
+        this.sliceNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, windowMs / (SLICES - 1)));
+        this.shardCapacity = Math.max(1, sliceCapacity / SHARDS);
+        this.nanos = nanos;
+        long now = nanos.getAsLong();
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard(now);
+        }
+    }
+
+    /** Whether {@code sender} already sent {@code messageId} within the window. */
+    public boolean contains(String sender, String messageId) {
+        long fingerprint = fingerprint(sender, messageId);
+        return shard(fingerprint).contains(fingerprint, nanos.getAsLong());
+    }
+
+    /** Remembers that {@code sender} sent {@code messageId}. */
+    public void add(String sender, String messageId) {
+        long fingerprint = fingerprint(sender, messageId);
+        shard(fingerprint).add(fingerprint, nanos.getAsLong());
+    }
+
+    private Shard shard(long fingerprint) {
+        return shards[(int) (fingerprint >>> 60) & (SHARDS - 1)];
+    }
+
+    /** FNV-1a over both strings with a final mix; never 0, which marks an empty table slot. */
+    static long fingerprint(String sender, String messageId) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < sender.length(); i++) {
+            h = (h ^ sender.charAt(i)) * 0x100000001b3L;
+        }
+        h = (h ^ 0x1F) * 0x100000001b3L;
+        for (int i = 0; i < messageId.length(); i++) {
+            h = (h ^ messageId.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h != 0 ? h : 1;
+    }
+
+    private final class Shard {
+        /** Generations, newest at {@code current}; an empty slice is {@code null}. */
+        private final long[][] tables = new long[SLICES][];
+        private final int[] sizes = new int[SLICES];
+        private int current;
+        private long sliceStart;
+
+        Shard(long now) {
+            this.sliceStart = now;
+        }
+
+        synchronized boolean contains(long fingerprint, long now) {
+            rotate(now);
+            for (long[] table : tables) {
+                if (table != null && find(table, fingerprint) >= 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized void add(long fingerprint, long now) {
+            rotate(now);
+            if (sizes[current] >= shardCapacity) {
+                advance(now);
+            }
+            long[] table = tables[current];
+            if (table == null) {
+                table = tables[current] = new long[INITIAL_TABLE];
+            } else if ((sizes[current] + 1) * 2 > table.length) {
+                table = tables[current] = grow(table);
+            }
+            int slot = find(table, fingerprint);
+            if (slot < 0) {
+                table[-slot - 1] = fingerprint;
+                sizes[current]++;
+            }
+        }
+
+        /** Drops the generations whose time has passed. */
+        private void rotate(long now) {
+            long elapsed = (now - sliceStart) / sliceNanos;
+            if (elapsed > 0) {
+                long start = sliceStart + elapsed * sliceNanos;
+                for (long i = 0; i < Math.min(elapsed, SLICES); i++) {
+                    advance(now);
+                }
+                sliceStart = start;
+            }
+        }
+
+        private void advance(long now) {
+            current = (current + 1) % SLICES;
+            tables[current] = null;
+            sizes[current] = 0;
+            sliceStart = now;
+        }
+
+        /** Slot holding {@code fingerprint}, or {@code -(free slot) - 1} where it would go. */
+        private int find(long[] table, long fingerprint) {
+            int mask = table.length - 1;
+            for (int i = (int) fingerprint & mask; ; i = (i + 1) & mask) {
+                if (table[i] == fingerprint) {
+                    return i;
+                }
+                if (table[i] == 0) {
+                    return -i - 1;
+                }
+            }
+        }
+
+        private long[] grow(long[] table) {
+            long[] grown = new long[table.length * 2];
+            for (long fingerprint : table) {
+                if (fingerprint != 0) {
+                    grown[-find(grown, fingerprint) - 1] = fingerprint;
+                }
+            }
+            return grown;
+        }
+    }
+}
@@ -0,0 +1,656 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.annotations.SerializedName;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only chat store made of size-rolled segment files.
+ *
+ * Each record is {@code [int length][int crc32][body]} where the body holds the position of
+ * the previous record of the same conversation, the per-conversation sequence number, the
+ * timestamp and the sender, receiver and content. Records are written through a
+ * {@link FileChannel} and read through memory-mapped segments. A position is global:
+ * segment base offset plus the offset inside the segment, and segment files are named
+ * after their base offset.
+ *
+ * For every conversation (both directions of a chat share one) we keep the last sequence
+ * number, the last position and the position of every {@link #CHECKPOINT_INTERVAL}th
+ * record. A range read starts at the nearest known position at or above the end of the
+ * range and follows the back pointers, so it costs O(range + interval) regardless of how
+ * much else is in the log. The index is rebuilt by scanning the segments on open, which
+ * also truncates a torn record left at the tail of the last segment by a crash. A sealed
+ * segment was forced before the next one was opened, so damage there is not a torn write;
+ * the store refuses to open rather than drop the records after it.
+ *
+ * A store created next to the JSON-lines logs of earlier versions
+ * ({@code <legacyDir>/<user>/<user>_<peer>.json}) imports them once, in timestamp order.
+ *
+ * The newest messages of each conversation are also kept in a {@link ConversationCache}
+ * ({@code CONVERSATION_CACHE_BYTES}, {@code CONVERSATION_CACHE_TAIL} messages per
+ * conversation), written through on append and warmed from the end of the log on open, so
+ * the "what did I miss" reads of reconnecting clients are answered from memory.
+ *
+ * Appends to different conversations run in parallel: a record is encoded and checksummed
+ * under the lock of its conversation, and the store-wide lock is held only for the write
+ * itself, which keeps the log contiguous. {@code MESSAGE_STORE_FSYNC_MS} bounds how much a
+ * power loss can take: 0 forces every append to disk before it returns, with appenders that
+ * arrive during a force sharing the next one (group commit); a positive value forces the log
+ * that often in the background; a negative one only on segment roll and close.
+ */
+public class MessageStore implements AutoCloseable {
+    static final int CHECKPOINT_INTERVAL = 64;
+    static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+    static final long DEFAULT_CACHE_BYTES = Long.parseLong(System.getenv().getOrDefault("CONVERSATION_CACHE_BYTES", String.valueOf(64L * 1024 * 1024)));
+    static final int DEFAULT_CACHE_TAIL = Integer.parseInt(System.getenv().getOrDefault("CONVERSATION_CACHE_TAIL", "64"));
+    static final long DEFAULT_FSYNC_MS = Long.parseLong(System.getenv().getOrDefault("MESSAGE_STORE_FSYNC_MS", "1000"));
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "message-store-fsync");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final String SEGMENT_SUFFIX = ".seg";
+    /** Present while a legacy import runs; a store that finds it on open redoes the import. */
+    private static final String IMPORT_MARKER = "legacy-import.pending";
+    private static final Gson gson = new Gson();
+    private static final int HEADER_BYTES = 8;
+    /** prev position, seq, timestamp, and three string lengths. */
+    private static final int FIXED_BODY_BYTES = 8 + 8 + 8 + 4 * 3;
+
+    private final File dir;
+    private final File legacyDir;
+    private final long segmentBytes;
+    private final ConversationCache cache;
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Map<String, ConversationIndex> conversations = new ConcurrentHashMap<>();
+    /** username -> everyone that user has a conversation with. */
+    private final Map<String, Set<String>> peers = new ConcurrentHashMap<>();
+    private final long fsyncMillis;
+    private final Object forceLock = new Object();
+    /** Global position up to which the log is known to be on disk. */
+    private volatile long durable;
+    private volatile boolean closed;
+    private final ScheduledFuture<?> flusher;
+    private Segment active;
+
+    public MessageStore(String dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_BYTES);
+    }
+
+    /** Store that imports the JSON-lines logs under {@code legacyDir} when it is first created. */
+    public MessageStore(String dir, File legacyDir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_BYTES, new ConversationCache(DEFAULT_CACHE_BYTES, DEFAULT_CACHE_TAIL), DEFAULT_FSYNC_MS, legacyDir);
+    }
+
+    public MessageStore(String dir, ConversationCache cache) throws IOException {
+        this(dir, DEFAULT_SEGMENT_BYTES, cache);
+    }
+
+    public MessageStore(String dir, long segmentBytes) throws IOException {
+        this(dir, segmentBytes, new ConversationCache(DEFAULT_CACHE_BYTES, DEFAULT_CACHE_TAIL));
+    }
+
+    public MessageStore(String dir, long segmentBytes, ConversationCache cache) throws IOException {
+        this(dir, segmentBytes, cache, DEFAULT_FSYNC_MS);
+    }
+
+    /**
+     * @param fsyncMillis 0 to force every append to disk, a positive interval to force the log
+     *                    that often, or a negative value to force it only on roll and close
+     */
+    public MessageStore(String dir, long segmentBytes, ConversationCache cache, long fsyncMillis) throws IOException {
+        this(dir, segmentBytes, cache, fsyncMillis, null);
+    }
+
+    /**
+     * @param fsyncMillis 0 to force every append to disk, a positive interval to force the log
+     *                    that often, or a negative value to force it only on roll and close
+     * @param legacyDir   root of the JSON-lines logs to import into a new store, or {@code null}
+     */
+    public MessageStore(String dir, long segmentBytes, ConversationCache cache, long fsyncMillis, File legacyDir) throws IOException {
+        this.dir = new File(dir);
+        this.legacyDir = legacyDir;
+        this.cache = cache;
+        this.fsyncMillis = fsyncMillis;
+        if (segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segments are addressed with int offsets; max " + Integer.MAX_VALUE + " bytes");
+        }
+        this.segmentBytes = segmentBytes;
+        if (!this.dir.exists() && !this.dir.mkdirs()) {
+            throw new IOException("Cannot create message store directory " + dir);
+        }
+        File marker = new File(this.dir, IMPORT_MARKER);
+        if (marker.exists()) {
+            discardSegments();
+        }
+        boolean created = !recover();
+        if (created && legacyDir != null) {
+            importLegacy(marker);
+        }
+        Files.deleteIfExists(marker.toPath());
+        durable = end();
+        flusher = fsyncMillis > 0
+                ? FLUSHER.scheduleWithFixedDelay(this::flush, fsyncMillis, fsyncMillis, TimeUnit.MILLISECONDS) : null;
+    }
+
+    /**
+     * Order-independent conversation key; both directions of a chat share one sequence.
+     * Unit separator (U+001F) cannot appear in usernames.
+     */
+    static String conversationKey(String a, String b) {
+        return a.compareTo(b) <= 0 ? a + '\u001F' + b : b + '\u001F' + a;
+    }
+
+    /** Appends a message and returns its sequence number within the conversation. */
+    public long append(String sender, String receiver, String content, long timestamp) throws IOException {
+        String key = conversationKey(sender, receiver);
+        ConversationIndex index = index(key, sender, receiver);
+        byte[] senderBytes = sender.getBytes(StandardCharsets.UTF_8);
+        byte[] receiverBytes = receiver.getBytes(StandardCharsets.UTF_8);
+        byte[] contentBytes = content.getBytes(StandardCharsets.UTF_8);
+        int bodyLength = FIXED_BODY_BYTES + senderBytes.length + receiverBytes.length + contentBytes.length;
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + bodyLength);
+        long seq;
+        long end;
+        // Only appenders change lastSeq and lastPosition, always under appendLock
+        synchronized (index.appendLock) {
+            seq = index.lastSeq + 1;
+            record.putInt(bodyLength).putInt(0);
+            record.putLong(index.lastPosition).putLong(seq).putLong(timestamp);
+            record.putInt(senderBytes.length).put(senderBytes);
+            record.putInt(receiverBytes.length).put(receiverBytes);
+            record.putInt(contentBytes.length).put(contentBytes);
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), HEADER_BYTES, bodyLength);
+            record.putInt(4, (int) crc.getValue());
+            record.flip();
+
+            long position;
+            synchronized (this) {
+                if (active.size > 0 && active.size + record.remaining() > segmentBytes) {
+                    roll();
+                }
+                position = active.baseOffset + active.size;
+                long offset = active.size;
+                while (record.hasRemaining()) {
+                    offset += active.channel.write(record, offset);
+                }
+                active.size = offset;
+                end = active.baseOffset + offset;
+            }
+            ChatProtocol.ChatMessage message = cache.isEnabled()
+                    ? new ChatProtocol.ChatMessage(sender, receiver, content, new Date(timestamp).toString(), seq) : null;
+            synchronized (index) {
+                index.advance(seq, position);
+                if (message != null) {
+                    cache.append(key, message);
+                }
+            }
+        }
+        if (fsyncMillis == 0) {
+            force(end);
+        }
+        return seq;
+    }
+
+    /** Sequence number of the newest message between {@code a} and {@code b}, 0 if none. */
+    public long lastSeq(String a, String b) {
+        ConversationIndex index = conversations.get(conversationKey(a, b));
+        if (index == null) return 0;
+        synchronized (index) {
+            return index.lastSeq;
+        }
+    }
+
+    /** Users {@code username} has exchanged at least one message with. */
+    public Set<String> peers(String username) {
+        Set<String> result = peers.get(username);
+        return result != null ? Collections.unmodifiableSet(result) : Collections.emptySet();
+    }
+
+    /** Messages between {@code a} and {@code b} with a seq greater than {@code since}, oldest first. */
+    public List<ChatProtocol.ChatMessage> readSince(String a, String b, long since) throws IOException {
+        return read(a, b, since, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Up to {@code limit} messages between {@code a} and {@code b} with a seq greater than
+     * {@code afterSeq}, oldest first.
+     */
+    public List<ChatProtocol.ChatMessage> read(String a, String b, long afterSeq, int limit) throws IOException {
+        String key = conversationKey(a, b);
+        ConversationIndex index = conversations.get(key);
+        if (index == null || limit <= 0) {
+            return new ArrayList<>();
+        }
+        long from = Math.max(afterSeq, 0);
+        long endSeq;
+        long position;
+        synchronized (index) {
+            if (from >= index.lastSeq) {
+                return new ArrayList<>();
+            }
+            endSeq = Math.min(index.lastSeq, from + limit);
+            List<ChatProtocol.ChatMessage> cached = cache.read(key, from, endSeq);
+            if (cached != null) {
+                return cached;
+            }
+            // Checkpoint slot s holds seq s * CHECKPOINT_INTERVAL + 1; take the first one at or past endSeq.
+            int slot = (int) ((endSeq - 1 + CHECKPOINT_INTERVAL - 1) / CHECKPOINT_INTERVAL);
+            position = slot < index.checkpointCount ? index.checkpoints[slot] : index.lastPosition;
+        }
+        List<ChatProtocol.ChatMessage> messages = new ArrayList<>((int) Math.min(endSeq - from, 1024));
+        while (position >= 0) {
+            ByteBuffer body = body(position);
+            long prev = body.getLong();
+            long seq = body.getLong();
+            if (seq <= from) break;
+            if (seq <= endSeq) {
+                messages.add(decode(body, seq));
+            }
+            position = prev;
+        }
+        Collections.reverse(messages);
+        synchronized (index) {
+            if (cache.isEnabled() && endSeq == index.lastSeq) { // Nothing was appended since; the read is the tail
+                cache.fill(key, messages);
+            }
+        }
+        return messages;
+    }
+
+    /** The cache of conversation tails in front of the segments, for its statistics. */
+    public ConversationCache getCache() {
+        return cache;
+    }
+
+    /** Forces written records to disk. */
+    public void sync() throws IOException {
+        force(end());
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (flusher != null) {
+            flusher.cancel(false);
+        }
+        synchronized (forceLock) {
+            synchronized (this) {
+                if (active != null) {
+                    active.channel.force(false);
+                }
+                for (Segment segment : segments.values()) {
+                    segment.channel.close();
+                }
+            }
+        }
+    }
+
+    private synchronized long end() {
+        return active.baseOffset + active.size;
+    }
+
+    /**
+     * Returns once the log is on disk up to {@code position}. Appenders waiting here while a
+     * force runs are covered by the next one, which takes in everything written by then.
+     * Sealed segments were forced when they rolled, so forcing the active one is enough.
+     */
+    private void force(long position) throws IOException {
+        if (durable >= position) {
+            return;
+        }
+        synchronized (forceLock) {
+            if (durable >= position) {
+                return;
+            }
+            Segment segment;
+            long end;
+            synchronized (this) {
+                segment = active;
+                end = segment.baseOffset + segment.size;
+            }
+            segment.channel.force(false);
+            durable = end;
+        }
+    }
+
+    /** Background force for a positive {@code MESSAGE_STORE_FSYNC_MS}. */
+    private void flush() {
+        if (closed) {
+            return;
+        }
+        try {
+            force(end());
+        } catch (IOException e) {
+            if (!closed) {
+                Log.error("⚠️ MessageStore: Periodic fsync failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private ConversationIndex index(String key, String sender, String receiver) {
+        return conversations.computeIfAbsent(key, k -> {
+            peers.computeIfAbsent(sender, u -> ConcurrentHashMap.newKeySet()).add(receiver);
+            peers.computeIfAbsent(receiver, u -> ConcurrentHashMap.newKeySet()).add(sender);
+            return new ConversationIndex();
+        });
+    }
+
+    private ByteBuffer body(long position) throws IOException {
+        Map.Entry<Long, Segment> entry = segments.floorEntry(position);
+        if (entry == null) {
+            throw new IOException("No segment holds position " + position);
+        }
+        return entry.getValue().read((int) (position - entry.getKey()));
+    }
+
+    private static ChatProtocol.ChatMessage decode(ByteBuffer body, long seq) {
+        long timestamp = body.getLong();
+        String sender = readString(body);
+        String receiver = readString(body);
+        String content = readString(body);
+        return new ChatProtocol.ChatMessage(sender, receiver, content, new Date(timestamp).toString(), seq);
+    }
+
+    private static String readString(ByteBuffer body) {
+        int length = body.getInt();
+        byte[] bytes = new byte[length];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void roll() throws IOException {
+        active.seal();
+        long base = active.baseOffset + active.size;
+        active = openSegment(base);
+        Log.info("🗂️ MessageStore: Rolled to segment " + segmentFile(base).getName());
+    }
+
+    private Segment openSegment(long baseOffset) throws IOException {
+        Segment segment = new Segment(baseOffset, segmentFile(baseOffset));
+        segments.put(baseOffset, segment);
+        return segment;
+    }
+
+    private File segmentFile(long baseOffset) {
+        return new File(dir, String.format("%020d%s", baseOffset, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Rebuilds the conversation index from the segments and truncates a torn tail record.
+     * Returns false if there were no segments and an empty log was started.
+     */
+    private boolean recover() throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files == null || files.length == 0) {
+            active = openSegment(0);
+            return false;
+        }
+        Arrays.sort(files);
+        String last = files[files.length - 1].getName();
+        long end = Long.parseLong(last.substring(0, last.length() - SEGMENT_SUFFIX.length())) + files[files.length - 1].length();
+        long warmFrom = cache.isEnabled() ? end - cache.getMaxBytes() : Long.MAX_VALUE;
+        for (int i = 0; i < files.length; i++) {
+            String name = files[i].getName();
+            long base = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            Segment segment = openSegment(base);
+            long valid = scan(segment, warmFrom);
+            if (valid < segment.size && i < files.length - 1) {
+                for (Segment opened : segments.values()) {
+                    opened.channel.close();
+                }
+                throw new IOException("Corrupt record in sealed segment " + name + " at offset " + valid
+                        + "; " + (segment.size - valid) + " bytes after it were not read");
+            }
+            if (valid < segment.size) {
+                Log.warn("⚠️ MessageStore: Truncating " + (segment.size - valid)
+                        + " bytes of torn or corrupt records from " + name);
+                segment.channel.truncate(valid);
+                segment.size = valid;
+            }
+            if (i < files.length - 1) {
+                segment.seal();
+            } else {
+                active = segment;
+            }
+        }
+        return true;
+    }
+
+    /** Deletes the segments left by an import that did not finish. */
+    private void discardSegments() throws IOException {
+        Log.warn("⚠️ MessageStore: Legacy import did not finish; starting it over");
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+        for (File file : files != null ? files : new File[0]) {
+            Files.delete(file.toPath());
+        }
+    }
+
+    /**
+     * Appends every message of the {@code <user>/<user>_<peer>.json} logs under
+     * {@code legacyDir} to this (new) store. Each old file held one sender's side of a
+     * conversation, so the entries of all files are merged by timestamp; entries of the same
+     * second keep their file order. The marker makes an interrupted import start over.
+     */
+    private void importLegacy(File marker) throws IOException {
+        File[] users = legacyDir.listFiles(File::isDirectory);
+        if (users == null) {
+            return;
+        }
+        List<LegacyEntry> entries = new ArrayList<>();
+        for (File userDir : users) {
+            String prefix = userDir.getName() + "_";
+            File[] logs = userDir.listFiles((d, name) -> name.startsWith(prefix) && name.endsWith(".json"));
+            if (logs == null) continue;
+            Arrays.sort(logs);
+            for (File log : logs) {
+                readLegacy(log, entries);
+            }
+        }
+        if (entries.isEmpty()) {
+            return;
+        }
+        Files.write(marker.toPath(), new byte[0]);
+        entries.sort(Comparator.comparingLong(e -> e.timestamp)); // Stable, so ties keep file order
+        for (LegacyEntry entry : entries) {
+            append(entry.sender, entry.receiver, entry.content, entry.timestamp);
+        }
+        sync();
+        Log.info("🗂️ MessageStore: Imported " + entries.size() + " messages from the JSON logs in " + legacyDir);
+    }
+
+    private static void readLegacy(File log, List<LegacyEntry> entries) throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy", Locale.US);
+        try (BufferedReader reader = Files.newBufferedReader(log.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                if (line.isBlank()) continue;
+                LegacyEntry entry;
+                try {
+                    entry = gson.fromJson(line, LegacyEntry.class);
+                } catch (JsonSyntaxException e) {
+                    entry = null;
+                }
+                if (entry == null || entry.sender == null || entry.receiver == null || entry.content == null) {
+                    Log.warn("⚠️ MessageStore: Skipping unreadable line " + number + " of " + log);
+                    continue;
+                }
+                try {
+                    entry.timestamp = entry.time != null ? format.parse(entry.time).getTime() : log.lastModified();
+                } catch (ParseException e) {
+                    entry.timestamp = log.lastModified();
+                }
+                entries.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Indexes every intact record of {@code segment} and returns the end of the last one.
+     * Records from position {@code warmFrom} on are also loaded into the cache.
+     */
+    private long scan(Segment segment, long warmFrom) throws IOException {
+        if (segment.size == 0) return 0;
+        ByteBuffer map = segment.remap();
+        CRC32 crc = new CRC32();
+        int offset = 0;
+        while (offset + HEADER_BYTES <= segment.size) {
+            int length = map.getInt(offset);
+            int expected = map.getInt(offset + 4);
+            if (length < FIXED_BODY_BYTES || offset + HEADER_BYTES + (long) length > segment.size) {
+                break;
+            }
+            ByteBuffer body = map.duplicate();
+            body.position(offset + HEADER_BYTES).limit(offset + HEADER_BYTES + length);
+            crc.reset();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != expected) {
+                break;
+            }
+            body.getLong(); // previous position, implied by the rebuilt index
+            long seq = body.getLong();
+            long timestamp = body.getLong();
+            String sender = readString(body);
+            String receiver = readString(body);
+            String key = conversationKey(sender, receiver);
+            ConversationIndex index = index(key, sender, receiver);
+            index.advance(seq, segment.baseOffset + offset);
+            if (segment.baseOffset + offset >= warmFrom) {
+                String content = readString(body);
+                cache.append(key, new ChatProtocol.ChatMessage(sender, receiver, content, new Date(timestamp).toString(), seq));
+            }
+            offset += HEADER_BYTES + length;
+        }
+        return offset;
+    }
+
+    private static final class Segment {
+        /** How far the active segment may grow past its mapping before it is remapped. */
+        private static final long REMAP_THRESHOLD = 1024 * 1024;
+
+        final long baseOffset;
+        final FileChannel channel;
+        volatile long size;
+        private volatile MappedByteBuffer mapped;
+
+        Segment(long baseOffset, File file) throws IOException {
+            this.baseOffset = baseOffset;
+            this.channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.size = channel.size();
+        }
+
+        /**
+         * Body of the record at {@code offset}. Served from the mapping when it covers the
+         * record; the freshest records of the active segment are read through the channel
+         * so that each append does not force a remap.
+         */
+        ByteBuffer read(int offset) throws IOException {
+            ByteBuffer map = mapped;
+            if ((map == null || map.capacity() < offset + HEADER_BYTES) || size - map.capacity() > REMAP_THRESHOLD) {
+                map = remap();
+            }
+            if (map.capacity() >= offset + HEADER_BYTES) {
+                int length = map.getInt(offset);
+                if (map.capacity() >= offset + HEADER_BYTES + length) {
+                    ByteBuffer body = map.duplicate();
+                    body.position(offset + HEADER_BYTES).limit(offset + HEADER_BYTES + length);
+                    return body.slice();
+                }
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(header, offset);
+            ByteBuffer body = ByteBuffer.allocate(header.getInt(0));
+            readFully(body, offset + HEADER_BYTES);
+            body.flip();
+            return body;
+        }
+
+        private void readFully(ByteBuffer buffer, long offset) throws IOException {
+            while (buffer.hasRemaining()) {
+                int n = channel.read(buffer, offset + buffer.position());
+                if (n < 0) throw new IOException("Unexpected end of segment at " + (baseOffset + offset));
+            }
+        }
+
+        synchronized MappedByteBuffer remap() throws IOException {
+            long current = size;
+            if (mapped == null || mapped.capacity() < current) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, current);
+            }
+            return mapped;
+        }
+
+        void seal() throws IOException {
+            channel.force(false);
+            remap();
+        }
+    }
+
+    /** One line of a legacy JSON log; {@code timestamp} holds {@link Date#toString()} there. */
+    private static final class LegacyEntry {
+        String sender;
+        String receiver;
+        String content;
+        @SerializedName("timestamp")
+        String time;
+        transient long timestamp;
+    }
+
+    private static final class ConversationIndex {
+        /** Serializes the appends of the conversation; readers lock the index itself. */
+        final Object appendLock = new Object();
+        long lastSeq;
+        long lastPosition = -1;
+        /** checkpoints[i] is the position of the record with seq i * CHECKPOINT_INTERVAL + 1. */
+        long[] checkpoints = new long[4];
+        int checkpointCount;
+
+        void advance(long seq, long position) {
+            if ((seq - 1) % CHECKPOINT_INTERVAL == 0) {
+                int slot = (int) ((seq - 1) / CHECKPOINT_INTERVAL);
+                if (slot >= checkpoints.length) {
+                    checkpoints = Arrays.copyOf(checkpoints, checkpoints.length * 2);
+                }
+                checkpoints[slot] = position;
+                checkpointCount = slot + 1;
+            }
+            lastSeq = seq;
+            lastPosition = position;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import spark.Spark;
+
+/**
+ * Process-wide counters, gauges and latency histograms, rendered in the Prometheus text
+ * format by {@link #render()}.
+ *
+ * Recording is lock-free: counters are {@link LongAdder}s, so threads hitting the same
+ * counter update separate cells, and histograms bump one slot of a fixed array of
+ * log-linear buckets. Metrics are looked up once and kept in a static field by the code
+ * that records them; only labelled series created per request go through the registry
+ * map on the hot path.
+ */
+public final class Metrics {
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name, String help) {
+        return counter(name, help, "");
+    }
+
+    /** @param labels Prometheus label pairs without braces, e.g. {@code route="/login"} */
+    public static Counter counter(String name, String help, String labels) {
+        return (Counter) family(name, help, "counter").series.computeIfAbsent(labels, l -> new Counter());
+    }
+
+    public static Histogram histogram(String name, String help) {
+        return histogram(name, help, "");
+    }
+
+    /** A latency histogram in nanoseconds, exported in seconds as a summary. */
+    public static Histogram histogram(String name, String help, String labels) {
+        return (Histogram) family(name, help, "summary").series.computeIfAbsent(labels, l -> new Histogram());
+    }
+
+    /** Registers a counter kept elsewhere, read at scrape time; a later registration under the same name replaces it. */
+    public static void counter(String name, String help, LongSupplier value) {
+        family(name, help, "counter").series.put("", value);
+    }
+
+    /** Registers a gauge read at scrape time; a later registration under the same name replaces it. */
+    public static void gauge(String name, String help, LongSupplier value) {
+        family(name, help, "gauge").series.put("", value);
+    }
+
+    private static Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, n -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is a " + family.type + ", not a " + type);
+        }
+        return family;
+    }
+
+    /** Every metric in the Prometheus text exposition format. */
+    public static String render() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> series : new ConcurrentSkipListMap<>(family.series).entrySet()) {
+                String labels = series.getKey();
+                Object metric = series.getValue();
+                if (metric instanceof Counter) {
+                    sample(out, name, labels, "", Long.toString(((Counter) metric).get()));
+                } else if (metric instanceof LongSupplier) {
+                    long value;
+                    try {
+                        value = ((LongSupplier) metric).getAsLong();
+                    } catch (RuntimeException e) {
+                        continue;
+                    }
+                    sample(out, name, labels, "", Long.toString(value));
+                } else {
+                    ((Histogram) metric).render(out, name, labels);
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    /** Adds {@code GET /metrics} to the Spark server being configured. */
+    public static void route() {
+        Spark.get("/metrics", (req, res) -> {
+            res.type(CONTENT_TYPE);
+            return render();
+        });
+    }
+
+    /** Starts a Spark server on {@code port} that only serves {@code GET /metrics}. */
+    public static void serve(int port) {
+        Spark.port(port);
+        route();
+        Spark.init();
+        Log.info("📈 Metrics available on port " + port + " at /metrics");
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, String extraLabel, String value) {
+        out.append(name);
+        if (!labels.isEmpty() || !extraLabel.isEmpty()) {
+            out.append('{').append(labels);
+            if (!labels.isEmpty() && !extraLabel.isEmpty()) {
+                out.append(',');
+            }
+            out.append(extraLabel).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static final class Family {
+        final String help;
+        final String type;
+        /** Label pairs -> Counter, Histogram or LongSupplier. */
+        final Map<String, Object> series = new ConcurrentHashMap<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long n) {
+            value.add(n);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * Log-linear histogram of non-negative values, HDR style: every power of two is split
+     * into {@code 2^SUB_BITS} equal buckets, so any recorded value is reported within
+     * about 6% of its true value, from nanoseconds to hours, in under 8 KB.
+     */
+    public static final class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS) * SUB;
+        private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        public void record(long nanos) {
+            long value = Math.max(0, nanos);
+            buckets.incrementAndGet(index(value));
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        /** Records the time elapsed since {@code startNanos}, a {@link System#nanoTime()} reading. */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        /** Upper bound of the bucket holding the {@code quantile} value, or 0 when empty. */
+        public long percentile(double quantile) {
+            long[] snapshot = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+            return percentile(snapshot, total, quantile);
+        }
+
+        private long percentile(long[] snapshot, long total, double quantile) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        static int index(long value) {
+            if (value < SUB) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB - 1);
+            return (exponent - SUB_BITS + 1) * SUB + sub;
+        }
+
+        static long upperBound(int index) {
+            if (index < SUB) {
+                return index;
+            }
+            int exponent = index / SUB - 1 + SUB_BITS;
+            long lower = (1L << exponent) | ((long) (index % SUB) << (exponent - SUB_BITS));
+            return lower + (1L << (exponent - SUB_BITS)) - 1;
+        }
+
+        void render(StringBuilder out, String name, String labels) {
+            long[] snapshot = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+            for (double quantile : QUANTILES) {
+                sample(out, name, labels, "quantile=\"" + quantile + "\"", seconds(percentile(snapshot, total, quantile)));
+            }
+            sample(out, name + "_max", labels, "", seconds(max.get()));
+            sample(out, name + "_sum", labels, "", seconds(sum.sum()));
+            sample(out, name + "_count", labels, "", Long.toString(total));
+        }
+
+        private static String seconds(long nanos) {
+            return Double.toString(nanos / 1e9);
+        }
+    }
+}
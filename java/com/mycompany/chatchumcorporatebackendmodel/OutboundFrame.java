@@ -0,0 +1,111 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One frame waiting in an {@link OutboundQueue}. The kind decides what the queue may do
+ * with it when the client falls behind. Chat messages and replies are never dropped.
+ */
+public final class OutboundFrame {
+    public enum Kind {
+        /** Chat messages, replies and snapshots; never dropped. */
+        MESSAGE,
+        /** Roster deltas; the oldest are dropped first and replaced by a fresh snapshot. */
+        PRESENCE,
+        /** History pushes; pushes for the same peer collapse into one. */
+        HISTORY
+    }
+
+    final Kind kind;
+    /** History pushes with the same key are coalesced; {@code null} never coalesces. */
+    final String key;
+    private final String text;
+    /** Transport-specific wire bytes shared by every recipient, or {@code null}. */
+    final ByteBuffer wire;
+    /** {@link System#nanoTime()} when the chat message this delivers was received, or 0. */
+    final long receivedNanos;
+
+    // History pushes only; changed by their queue's coalescing while queued, under its lock
+    private final long since;
+    private long lastSeq;
+    private List<ChatProtocol.ChatMessage> messages;
+    private int historyBytes;
+
+    OutboundFrame(Kind kind, String key, String text, ByteBuffer wire, long receivedNanos) {
+        this.kind = kind;
+        this.key = key;
+        this.text = text;
+        this.wire = wire;
+        this.receivedNanos = receivedNanos;
+        this.since = 0;
+    }
+
+    private OutboundFrame(String peer, long since, long lastSeq, List<ChatProtocol.ChatMessage> messages) {
+        this.kind = Kind.HISTORY;
+        this.key = peer;
+        this.text = null;
+        this.wire = null;
+        this.receivedNanos = 0;
+        this.since = since;
+        this.lastSeq = lastSeq;
+        this.messages = messages;
+        this.historyBytes = estimate(messages);
+    }
+
+    public static OutboundFrame message(String text) {
+        return new OutboundFrame(Kind.MESSAGE, null, text, null, 0);
+    }
+
+    /** Chat message received at {@code receivedNanos}; its delivery latency is recorded when it is written. */
+    public static OutboundFrame delivery(String text, long receivedNanos) {
+        return new OutboundFrame(Kind.MESSAGE, null, text, null, receivedNanos);
+    }
+
+    /** Frame of {@code kind} whose encoding {@code wire} is shared by all recipients on one transport. */
+    public static OutboundFrame shared(Kind kind, String text, ByteBuffer wire) {
+        return new OutboundFrame(kind, null, text, wire, 0);
+    }
+
+    /**
+     * History push for {@code peer}: the messages after {@code since}, up to {@code lastSeq},
+     * already read by the caller. Pushes for the same peer queued behind a slow client merge
+     * into one frame covering all of their messages; it is encoded once it leaves the queue.
+     */
+    public static OutboundFrame history(String peer, long since, long lastSeq, List<ChatProtocol.ChatMessage> messages) {
+        return new OutboundFrame(peer, since, lastSeq, messages);
+    }
+
+    /** Appends the messages of {@code newer}, a later push for the same peer; returns the bytes added. */
+    int absorb(OutboundFrame newer) {
+        List<ChatProtocol.ChatMessage> merged = new ArrayList<>(messages.size() + newer.messages.size());
+        merged.addAll(messages);
+        merged.addAll(newer.messages);
+        messages = merged;
+        lastSeq = Math.max(lastSeq, newer.lastSeq);
+        historyBytes += newer.historyBytes;
+        return newer.historyBytes;
+    }
+
+    /** The frame's text, encoding it now for a history push. */
+    String text() {
+        return messages != null ? ChatProtocol.history(key, since, lastSeq, messages) : text;
+    }
+
+    /** Approximate bytes held while queued. */
+    int size() {
+        if (wire != null) {
+            return wire.remaining();
+        }
+        return messages != null ? historyBytes : text.length();
+    }
+
+    private static int estimate(List<ChatProtocol.ChatMessage> messages) {
+        int bytes = 96;
+        for (ChatProtocol.ChatMessage message : messages) {
+            bytes += 64 + message.content.length() + message.sender.length() + message.receiver.length();
+        }
+        return bytes;
+    }
+}
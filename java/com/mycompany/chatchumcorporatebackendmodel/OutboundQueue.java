@@ -0,0 +1,297 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded outbound queue of one connection, with a slow-consumer policy.
+ *
+ * Frames pass straight through to the transport while the transport has fewer than
+ * {@code OUTBOUND_TRANSPORT_WINDOW} frames in flight. Beyond that they wait here, where
+ * the policy can act on them; Java-WebSocket's own buffers would just grow. When the
+ * queue is full:
+ * <ul>
+ *   <li>the oldest presence delta is dropped, and the client gets a fresh roster
+ *       snapshot once it has caught up ({@code OUTBOUND_DROP_PRESENCE});</li>
+ *   <li>history pushes for a peer that is already queued merge into the queued one
+ *       ({@code OUTBOUND_COALESCE_HISTORY}, applied at any depth);</li>
+ *   <li>if nothing can be dropped, or the queued bytes pass
+ *       {@code OUTBOUND_HIGH_WATER_BYTES}, the client is disconnected.</li>
+ * </ul>
+ * Backlogged queues are drained by their transport's writer when it has room, and by a
+ * shared pump thread for transports that do not report it. A slow client therefore only
+ * ever costs its own queue, never another sender's thread.
+ *
+ * One thread at a time drains a queue. It takes frames under the queue's lock and
+ * encodes and writes them outside it, so senders never wait behind a transport write.
+ * Frames reach the queue ready to write: history is read by the caller, on its lane.
+ */
+public final class OutboundQueue {
+    static final int CAPACITY = Integer.parseInt(System.getenv().getOrDefault("OUTBOUND_QUEUE_CAPACITY", "1024"));
+    static final long HIGH_WATER_BYTES = Long.parseLong(System.getenv().getOrDefault("OUTBOUND_HIGH_WATER_BYTES", String.valueOf(4 * 1024 * 1024)));
+    static final int TRANSPORT_WINDOW = Integer.parseInt(System.getenv().getOrDefault("OUTBOUND_TRANSPORT_WINDOW", "128"));
+    static final boolean DROP_PRESENCE = Boolean.parseBoolean(System.getenv().getOrDefault("OUTBOUND_DROP_PRESENCE", "true"));
+    static final boolean COALESCE_HISTORY = Boolean.parseBoolean(System.getenv().getOrDefault("OUTBOUND_COALESCE_HISTORY", "true"));
+    private static final Metrics.Counter FRAMES_OUT = Metrics.counter("chat_frames_out_total", "Frames handed to a transport");
+    private static final Metrics.Counter DROPPED_PRESENCE = Metrics.counter("chat_outbound_dropped_presence_total", "Presence deltas dropped for slow clients");
+    private static final Metrics.Counter COALESCED_HISTORY = Metrics.counter("chat_outbound_coalesced_history_total", "History pushes merged into one already queued");
+    private static final Metrics.Counter SLOW_DISCONNECTS = Metrics.counter("chat_slow_consumer_disconnects_total", "Clients disconnected for not keeping up");
+    private static final Metrics.Histogram DELIVERY = Metrics.histogram("chat_delivery_seconds", "From receiving a chat message to writing it to the receiver's transport");
+
+    /** The transport below a queue. */
+    public interface Transport {
+        /** Frames handed to the transport that it has not written to the socket yet. */
+        int backlog();
+
+        void write(OutboundFrame frame, String text);
+
+        /** Drops the connection because its client cannot keep up. */
+        void disconnect(String reason);
+    }
+
+    private final Transport transport;
+    private final ArrayDeque<OutboundFrame> queue = new ArrayDeque<>();
+    /** Queued history pushes by peer, which later pushes merge into. */
+    private final Map<String, OutboundFrame> pendingHistory = new HashMap<>();
+    private long bytes;
+    private boolean closed;
+    /** Whether a thread is draining; frames are written outside the lock, by one thread at a time. */
+    private boolean draining;
+    private boolean presenceStale;
+    private Runnable onPresenceStale;
+
+    private long sent;
+    private long droppedPresence;
+    private long coalescedHistory;
+    private int peakDepth;
+    private String disconnectReason;
+
+    public OutboundQueue(Transport transport) {
+        this.transport = transport;
+    }
+
+    /** Called once the client has caught up after presence deltas were dropped. */
+    public synchronized void onPresenceStale(Runnable resync) {
+        this.onPresenceStale = resync;
+    }
+
+    public void offer(OutboundFrame frame) {
+        String reason = null;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            OutboundFrame queued = COALESCE_HISTORY && frame.kind == OutboundFrame.Kind.HISTORY && frame.key != null
+                    ? pendingHistory.get(frame.key) : null;
+            if (queued != null) {
+                coalescedHistory++;
+                COALESCED_HISTORY.increment();
+                bytes += queued.absorb(frame);
+                if (bytes <= HIGH_WATER_BYTES) {
+                    return;
+                }
+                reason = "outbound queue passed " + HIGH_WATER_BYTES + " bytes";
+            } else if (queue.size() >= CAPACITY) {
+                if (DROP_PRESENCE && frame.kind == OutboundFrame.Kind.PRESENCE) {
+                    droppedPresence++;
+                    DROPPED_PRESENCE.increment();
+                    presenceStale = true;
+                    return;
+                }
+                if (!(DROP_PRESENCE && dropOldestPresence())) {
+                    reason = "outbound queue full (" + CAPACITY + " frames)";
+                }
+            }
+            if (reason == null) {
+                queue.add(frame);
+                if (COALESCE_HISTORY && frame.kind == OutboundFrame.Kind.HISTORY && frame.key != null) {
+                    pendingHistory.put(frame.key, frame);
+                }
+                bytes += frame.size();
+                peakDepth = Math.max(peakDepth, queue.size());
+                if (bytes > HIGH_WATER_BYTES) {
+                    reason = "outbound queue passed " + HIGH_WATER_BYTES + " bytes";
+                }
+            }
+            if (reason != null) {
+                close(reason);
+            }
+        }
+        if (reason != null) {
+            SLOW_DISCONNECTS.increment();
+            Log.warn("⚠️ OutboundQueue: Disconnecting slow consumer: " + reason);
+            transport.disconnect(reason);
+            return;
+        }
+        drain();
+    }
+
+    /**
+     * Hands queued frames to the transport until its window is full. Safe from any thread;
+     * if another thread is already draining, it picks up whatever this caller queued.
+     */
+    public void drain() {
+        synchronized (this) {
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        Runnable resync = null;
+        try {
+            while (true) {
+                OutboundFrame frame;
+                synchronized (this) {
+                    if (closed || queue.isEmpty() || transport.backlog() >= TRANSPORT_WINDOW) {
+                        draining = false;
+                        if (queue.isEmpty() || closed) {
+                            Pump.unwatch(this);
+                            if (presenceStale && !closed) {
+                                presenceStale = false;
+                                resync = onPresenceStale;
+                            }
+                        } else {
+                            Pump.watch(this);
+                        }
+                        break;
+                    }
+                    frame = queue.poll();
+                    bytes -= frame.size();
+                    if (frame.kind == OutboundFrame.Kind.HISTORY && frame.key != null) {
+                        pendingHistory.remove(frame.key, frame);
+                    }
+                    sent++;
+                }
+                transport.write(frame, frame.text());
+                FRAMES_OUT.increment();
+                if (frame.receivedNanos != 0) {
+                    DELIVERY.recordSince(frame.receivedNanos);
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            synchronized (this) {
+                draining = false; // Let the next caller or the pump try again
+                Pump.watch(this);
+            }
+            throw e;
+        }
+        if (resync != null) {
+            resync.run();
+        }
+    }
+
+    /** Discards everything queued; the connection is gone. */
+    public synchronized void close() {
+        close(null);
+    }
+
+    private void close(String reason) {
+        closed = true;
+        if (reason != null) {
+            disconnectReason = reason;
+        }
+        queue.clear();
+        pendingHistory.clear();
+        bytes = 0;
+        Pump.unwatch(this);
+    }
+
+    private boolean dropOldestPresence() {
+        Iterator<OutboundFrame> it = queue.iterator();
+        while (it.hasNext()) {
+            OutboundFrame queued = it.next();
+            if (queued.kind == OutboundFrame.Kind.PRESENCE) {
+                it.remove();
+                bytes -= queued.size();
+                droppedPresence++;
+                DROPPED_PRESENCE.increment();
+                presenceStale = true;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(queue.size(), bytes, transport.backlog(), peakDepth, sent, droppedPresence,
+                coalescedHistory, disconnectReason);
+    }
+
+    /** Point-in-time counters of one queue. */
+    public static final class Stats {
+        public final int depth;
+        public final long bytes;
+        public final int transportBacklog;
+        public final int peakDepth;
+        public final long sent;
+        public final long droppedPresence;
+        public final long coalescedHistory;
+        /** Why the connection was dropped as a slow consumer, or {@code null}. */
+        public final String disconnectReason;
+
+        Stats(int depth, long bytes, int transportBacklog, int peakDepth, long sent, long droppedPresence,
+              long coalescedHistory, String disconnectReason) {
+            this.depth = depth;
+            this.bytes = bytes;
+            this.transportBacklog = transportBacklog;
+            this.peakDepth = peakDepth;
+            this.sent = sent;
+            this.droppedPresence = droppedPresence;
+            this.coalescedHistory = coalescedHistory;
+            this.disconnectReason = disconnectReason;
+        }
+
+        @Override
+        public String toString() {
+            return "depth=" + depth + " bytes=" + bytes + " transportBacklog=" + transportBacklog
+                    + " peakDepth=" + peakDepth + " sent=" + sent + " droppedPresence=" + droppedPresence
+                    + " coalescedHistory=" + coalescedHistory
+                    + (disconnectReason != null ? " disconnected=" + disconnectReason : "");
+        }
+    }
+
+    /** Retries backlogged queues whose transport does not report when it has drained. */
+    private static final class Pump {
+        private static final long INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+        private static final Set<OutboundQueue> backlogged = ConcurrentHashMap.newKeySet();
+        private static Thread thread;
+
+        static void watch(OutboundQueue queue) {
+            if (backlogged.add(queue)) {
+                ensureStarted();
+            }
+        }
+
+        static void unwatch(OutboundQueue queue) {
+            backlogged.remove(queue);
+        }
+
+        private static synchronized void ensureStarted() {
+            if (thread == null) {
+                thread = new Thread(Pump::run, "outbound-pump");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+
+        private static void run() {
+            while (true) {
+                LockSupport.parkNanos(INTERVAL_NANOS);
+                for (OutboundQueue queue : backlogged) {
+                    try {
+                        queue.drain();
+                    } catch (RuntimeException e) {
+                        Log.error("⚠️ OutboundQueue: Drain failed: " + e.getMessage());
+                        unwatch(queue);
+                    }
+                }
+            }
+        }
+    }
+}
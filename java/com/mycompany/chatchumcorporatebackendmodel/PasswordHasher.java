@@ -0,0 +1,120 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import org.mindrot.jbcrypt.BCrypt;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs bcrypt on its own bounded pool instead of on HTTP request threads.
+ *
+ * {@code AUTH_BCRYPT_THREADS} hashes run at once and at most {@code AUTH_BCRYPT_QUEUE}
+ * more wait; anything beyond that is rejected immediately with a
+ * {@link RejectedExecutionException}, which the server answers with 503. A login storm
+ * can therefore hold at most threads + queue request threads, and cheap endpoints keep
+ * the rest. New hashes use {@code AUTH_BCRYPT_COST}; hashes made with another cost are
+ * reported by {@link #needsRehash} so they can be upgraded on the next successful login.
+ */
+public final class PasswordHasher implements AutoCloseable {
+    static final int WORK_FACTOR = Integer.parseInt(System.getenv().getOrDefault("AUTH_BCRYPT_COST", "10"));
+    private static final int THREADS = Integer.parseInt(System.getenv().getOrDefault("AUTH_BCRYPT_THREADS",
+            String.valueOf(Runtime.getRuntime().availableProcessors())));
+    private static final int QUEUE = Integer.parseInt(System.getenv().getOrDefault("AUTH_BCRYPT_QUEUE", "64"));
+    private static final Metrics.Histogram HASH_SECONDS = Metrics.histogram("auth_bcrypt_seconds", "Time spent in bcrypt", "op=\"hash\"");
+    private static final Metrics.Histogram CHECK_SECONDS = Metrics.histogram("auth_bcrypt_seconds", "Time spent in bcrypt", "op=\"check\"");
+
+    private final int workFactor;
+    private final ThreadPoolExecutor executor;
+    private final LongAdder rejected = new LongAdder();
+
+    public PasswordHasher() {
+        this(WORK_FACTOR, THREADS, QUEUE);
+    }
+
+    public PasswordHasher(int workFactor, int threads, int queueCapacity) {
+        this.workFactor = workFactor;
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), r -> {
+                    Thread t = new Thread(r, "bcrypt-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /** Hashes {@code password} with the configured work factor. */
+    public CompletableFuture<String> hash(String password) {
+        return submit(() -> {
+            long start = System.nanoTime();
+            try {
+                return BCrypt.hashpw(password, BCrypt.gensalt(workFactor));
+            } finally {
+                HASH_SECONDS.recordSince(start);
+            }
+        });
+    }
+
+    /** Whether {@code password} matches {@code hash}; {@code false} for a missing or malformed hash. */
+    public CompletableFuture<Boolean> check(String password, String hash) {
+        if (hash == null || hash.isEmpty()) {
+            return CompletableFuture.completedFuture(false); // e.g. Google accounts, which have no password
+        }
+        return submit(() -> {
+            long start = System.nanoTime();
+            try {
+                return BCrypt.checkpw(password, hash);
+            } catch (IllegalArgumentException e) {
+                return false;
+            } finally {
+                CHECK_SECONDS.recordSince(start);
+            }
+        });
+    }
+
+    /** Whether {@code hash} was made with a different work factor than the configured one. */
+    public boolean needsRehash(String hash) {
+        // $2a$10$... : the cost is the two digits after the version
+        if (hash == null || hash.length() < 7 || hash.charAt(0) != '$' || hash.charAt(3) != '$') {
+            return false;
+        }
+        try {
+            return Integer.parseInt(hash.substring(4, 6)) != workFactor;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    public int getWorkFactor() {
+        return workFactor;
+    }
+
+    /** Hashes running or waiting. */
+    public int getBacklog() {
+        return executor.getActiveCount() + executor.getQueue().size();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /** @throws RejectedExecutionException when the pool and its queue are full */
+    private <T> CompletableFuture<T> submit(Supplier<T> work) {
+        try {
+            return CompletableFuture.supplyAsync(work, executor);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,168 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * In-memory, versioned roster of online users.
+ *
+ * Joins and leaves update the roster immediately but are only published once per tick:
+ * every change made during a tick is folded into one {@code presence} frame carrying the
+ * final state of each user that changed. Applying a delta is idempotent, so a client that
+ * took its {@code clientList} snapshot in the middle of a tick converges too. Snapshots
+ * requested during a tick are serialized once and handed to every requester, so a login
+ * storm costs one roster serialization per tick rather than one per login. The
+ * {@code active_clients.txt} snapshot is rewritten from the tick thread, at most once per
+ * snapshot interval, and never on the connect/disconnect path.
+ */
+public class PresenceService implements AutoCloseable {
+    private final Set<String> roster = ConcurrentHashMap.newKeySet();
+    /** username -> online after the last change in the current tick. */
+    private final Map<String, Boolean> pending = new LinkedHashMap<>();
+    private final List<Consumer<String>> snapshotRequests = new ArrayList<>();
+    private final Consumer<String> broadcaster;
+    private final File snapshotFile;
+    private final long snapshotIntervalMs;
+    private final ScheduledExecutorService ticker;
+    private volatile long version;
+    private boolean snapshotDirty;
+    private long lastSnapshotMs;
+
+    /**
+     * @param broadcaster sends one frame to every connected client
+     * @param snapshotFile roster file to keep up to date, or {@code null} to skip it
+     */
+    public PresenceService(Consumer<String> broadcaster, File snapshotFile, long tickMs, long snapshotIntervalMs) {
+        this.broadcaster = broadcaster;
+        this.snapshotFile = snapshotFile;
+        this.snapshotIntervalMs = snapshotIntervalMs;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "presence-tick");
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleWithFixedDelay(this::tick, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void join(String username) {
+        if (roster.add(username)) {
+            record(username, true);
+        }
+    }
+
+    public void leave(String username) {
+        if (roster.remove(username)) {
+            record(username, false);
+        }
+    }
+
+    public boolean isOnline(String username) {
+        return roster.contains(username);
+    }
+
+    public int size() {
+        return roster.size();
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /** Sends the full roster to {@code sink} on the next tick. */
+    public synchronized void requestSnapshot(Consumer<String> sink) {
+        snapshotRequests.add(sink);
+    }
+
+    /** Full roster frame for a client that has no state yet. */
+    public String snapshotFrame() {
+        return ChatProtocol.clientList(version, roster);
+    }
+
+    private synchronized void record(String username, boolean online) {
+        pending.put(username, online);
+    }
+
+    /**
+     * Publishes the changes collected since the previous tick as one delta frame. Runs every
+     * {@code tickMs} on the tick thread; callers outside it are tests and benchmarks.
+     */
+    public void tick() {
+        try {
+            List<String> joined = new ArrayList<>();
+            List<String> left = new ArrayList<>();
+            List<Consumer<String>> requesters;
+            synchronized (this) {
+                for (Map.Entry<String, Boolean> change : pending.entrySet()) {
+                    (change.getValue() ? joined : left).add(change.getKey());
+                }
+                pending.clear();
+                requesters = new ArrayList<>(snapshotRequests);
+                snapshotRequests.clear();
+            }
+            if (!joined.isEmpty() || !left.isEmpty()) {
+                version++;
+                snapshotDirty = true;
+                broadcaster.accept(ChatProtocol.presence(version, joined, left));
+            }
+            if (!requesters.isEmpty()) {
+                String snapshot = snapshotFrame();
+                for (Consumer<String> requester : requesters) {
+                    try {
+                        requester.accept(snapshot);
+                    } catch (RuntimeException e) {
+                        // Requester disconnected before the tick
+                    }
+                }
+            }
+            long now = System.currentTimeMillis();
+            if (snapshotDirty && snapshotFile != null && now - lastSnapshotMs >= snapshotIntervalMs) {
+                writeSnapshot();
+                lastSnapshotMs = now;
+                snapshotDirty = false;
+            }
+        } catch (RuntimeException e) {
+            Log.error("⚠️ PresenceService: Tick failed: " + e.getMessage());
+        }
+    }
+
+    private void writeSnapshot() {
+        File tmp = new File(snapshotFile.getPath() + ".tmp");
+        try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+            roster.forEach(writer::println);
+        } catch (IOException e) {
+            Log.error("⚠️ Failed to update " + snapshotFile.getName() + ": " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Log.error("⚠️ Failed to update " + snapshotFile.getName() + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdown();
+        try {
+            ticker.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        tick();
+        if (snapshotDirty && snapshotFile != null) {
+            writeSnapshot();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Token buckets keyed by user or client address, all with the same rate and burst.
+ *
+ * Each bucket is kept as a single {@code long}: the time at which it would be full again
+ * (the generic cell rate algorithm). Taking a token moves that time forward by one
+ * interval with a compare-and-set, so there is no lock and no refill thread, and a
+ * bucket costs one map entry. A request is admitted while the bucket is at most
+ * {@code burst} intervals ahead of the clock; otherwise it is told how long to wait.
+ *
+ * Buckets that have filled up again hold no state worth keeping and are swept from the
+ * map every few seconds, so memory follows the clients that are active, not every
+ * client ever seen. A token taken while its bucket is being swept is granted from the
+ * full bucket that was removed, which is what it would have been granted anyway.
+ */
+public final class RateLimiter implements AutoCloseable {
+    private static final long SWEEP_INTERVAL_MS = 5_000;
+    private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "rate-limit-sweeper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final String name;
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final Metrics.Counter rejected;
+    private final ScheduledFuture<?> sweep;
+    private final LongSupplier nanos;
+
+    /**
+     * @param name label of the limit in metrics and error frames, e.g. {@code message}
+     * @param perSecond tokens added per second; 0 or less turns the limit off
+     * @param burst tokens a full bucket holds
+     */
+    public RateLimiter(String name, double perSecond, int burst) {
+        this(name, perSecond, burst, System::nanoTime);
+    }
+
+    /** A limit on the clock {@code nanos} instead of {@link System#nanoTime}. */
+    RateLimiter(String name, double perSecond, int burst, LongSupplier nanos) {
+        this.name = name;
+        this.nanos = nanos;
+        this.intervalNanos = perSecond > 0 ? Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / perSecond)) : 0;
+        this.toleranceNanos = intervalNanos * Math.max(1, burst);
+        this.rejected = Metrics.counter("rate_limited_total", "Requests refused by a rate limit", "limit=\"" + name + "\"");
+        this.sweep = intervalNanos > 0
+                ? SWEEPER.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL_MS, SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS) : null;
+    }
+
+    /** Limit configured as {@code rate:burst} in {@code env}, e.g. {@code RATE_LIMIT_MESSAGE=20:40}. */
+    public static RateLimiter fromEnv(String name, String env, String defaults) {
+        String spec = System.getenv().getOrDefault(env, defaults);
+        try {
+            return parse(name, spec);
+        } catch (NumberFormatException e) {
+            Log.warn("⚠️ RateLimiter: Ignoring " + env + "=" + spec + ", expected rate:burst");
+            return parse(name, defaults);
+        }
+    }
+
+    /** Limit from {@code rate:burst}; a bare rate gets a burst of one second's worth. */
+    static RateLimiter parse(String name, String spec) {
+        String[] parts = spec.trim().split(":", 2);
+        double perSecond = Double.parseDouble(parts[0]);
+        int burst = parts.length > 1 ? Integer.parseInt(parts[1]) : (int) Math.ceil(perSecond);
+        return new RateLimiter(name, perSecond, burst);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Takes one token from the bucket of {@code key}.
+     *
+     * @return 0 if the request is admitted, otherwise the milliseconds until a token is free
+     */
+    public long tryAcquire(String key) {
+        if (intervalNanos == 0) {
+            return 0;
+        }
+        long now = nanos.getAsLong();
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+        }
+        while (true) {
+            long full = bucket.get();
+            long next = Math.max(full - now, 0) + intervalNanos;
+            if (next > toleranceNanos) {
+                rejected.increment();
+                return Math.max(1, TimeUnit.NANOSECONDS.toMillis(next - toleranceNanos + 999_999));
+            }
+            if (bucket.compareAndSet(full, now + next)) {
+                return 0;
+            }
+        }
+    }
+
+    /** Buckets currently held, full ones included until the next sweep. */
+    public int size() {
+        return buckets.size();
+    }
+
+    /** Drops the buckets that have refilled completely. */
+    void sweep() {
+        try {
+            long now = nanos.getAsLong();
+            buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+        } catch (RuntimeException e) {
+            Log.error("⚠️ RateLimiter: Sweep of " + name + " failed: " + e);
+        }
+    }
+
+    /** Stops sweeping; the limit keeps working but no longer forgets idle buckets. */
+    @Override
+    public void close() {
+        if (sweep != null) {
+            sweep.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A chat search as typed into the search box: the FTS5 expression that finds matching
+ * chats, and the score that ranks them.
+ *
+ * Words must all appear, in any order; {@code "quoted words"} must appear as a phrase; a
+ * trailing {@code *} matches any word with that prefix; a leading {@code -} excludes
+ * messages containing the word or phrase. Every term is emitted as an FTS5 string, so
+ * FTS5 operators and punctuation in the input are searched for literally instead of
+ * being parsed as query syntax.
+ */
+final class SearchQuery {
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final List<Term> include = new ArrayList<>();
+    private final List<Term> exclude = new ArrayList<>();
+
+    private SearchQuery() {
+    }
+
+    static SearchQuery parse(String text) {
+        SearchQuery query = new SearchQuery();
+        if (text == null) {
+            return query;
+        }
+        int i = 0;
+        int n = text.length();
+        while (i < n) {
+            if (Character.isWhitespace(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            boolean negated = text.charAt(i) == '-';
+            if (negated) {
+                i++;
+            }
+            Term term;
+            if (i < n && text.charAt(i) == '"') {
+                int close = text.indexOf('"', i + 1);
+                int end = close < 0 ? n : close;
+                term = Term.of(text.substring(i + 1, end), false);
+                i = end + 1;
+            } else {
+                int start = i;
+                while (i < n && !Character.isWhitespace(text.charAt(i))) {
+                    i++;
+                }
+                String word = text.substring(start, i);
+                boolean prefix = word.length() > 1 && word.endsWith("*");
+                term = Term.of(prefix ? word.substring(0, word.length() - 1) : word, prefix);
+            }
+            if (term != null) {
+                (negated ? query.exclude : query.include).add(term);
+            }
+        }
+        return query;
+    }
+
+    /** Whether there is nothing to look for; a query of exclusions alone matches nothing. */
+    boolean isEmpty() {
+        return include.isEmpty();
+    }
+
+    /**
+     * Expression matching the query in the message column of chats sent or received by
+     * {@code username}, and also by {@code with} when it is not {@code null}.
+     */
+    String toMatch(String username, String with) {
+        StringBuilder match = new StringBuilder(64);
+        participant(match, username);
+        participant(match, with);
+        match.append("message : (");
+        for (int i = 0; i < include.size(); i++) {
+            match.append(i == 0 ? "" : " ").append(include.get(i).fts);
+        }
+        for (Term term : exclude) {
+            match.append(" NOT ").append(term.fts);
+        }
+        return match.append(')').toString();
+    }
+
+    /**
+     * BM25 relevance of a message that matched: how often each term occurs, saturating, and
+     * normalized for the message's length against {@code averageLength} tokens. Every match
+     * contains every term, so the inverse document frequency would only reweight the terms
+     * against each other and is left out.
+     */
+    double score(List<String> tokens, double averageLength) {
+        double norm = K1 * (1 - B + B * tokens.size() / Math.max(averageLength, 1));
+        double score = 0;
+        for (Term term : include) {
+            int tf = term.count(tokens);
+            score += tf * (K1 + 1) / (tf + norm);
+        }
+        return score;
+    }
+
+    /**
+     * Words of {@code text} as the index's unicode61 tokenizer sees them: runs of letters and
+     * digits, case-folded, with diacritics removed.
+     */
+    static List<String> tokens(String text) {
+        if (text == null || text.isEmpty()) {
+            return Collections.emptyList();
+        }
+        String folded = Normalizer.normalize(text, Normalizer.Form.NFD).toLowerCase(Locale.ROOT);
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i < folded.length(); ) {
+            int cp = folded.codePointAt(i);
+            i += Character.charCount(cp);
+            if (Character.getType(cp) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            if (Character.isLetterOrDigit(cp)) {
+                token.appendCodePoint(cp);
+            } else if (token.length() > 0) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        if (token.length() > 0) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    /** Narrows the match to chats {@code username} took part in; {@code null} leaves it as is. */
+    private static void participant(StringBuilder match, String username) {
+        if (username != null && !username.isEmpty()) {
+            match.append("participants : ").append(participantToken(username)).append(" AND ");
+        }
+    }
+
+    /** The token the index holds for {@code username}: SQLite's {@code hex()} of its UTF-8 bytes. */
+    static String participantToken(String username) {
+        byte[] bytes = username.getBytes(StandardCharsets.UTF_8);
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /** One word or phrase of the query. */
+    private static final class Term {
+        final List<String> tokens;
+        final boolean prefix;
+        final String fts;
+
+        private Term(List<String> tokens, boolean prefix, String fts) {
+            this.tokens = tokens;
+            this.prefix = prefix;
+            this.fts = fts;
+        }
+
+        /** The term for {@code text}, or {@code null} if it has no word characters to match. */
+        static Term of(String text, boolean prefix) {
+            List<String> tokens = tokens(text);
+            if (tokens.isEmpty()) {
+                return null;
+            }
+            String fts = '"' + text.replace("\"", "\"\"") + '"';
+            return new Term(tokens, prefix, prefix ? fts + "*" : fts);
+        }
+
+        /** Occurrences of the term in {@code message}; a prefix applies to its last word. */
+        int count(List<String> message) {
+            int count = 0;
+            int last = tokens.size() - 1;
+            for (int start = 0; start + last < message.size(); start++) {
+                boolean match = true;
+                for (int i = 0; i <= last && match; i++) {
+                    String word = message.get(start + i);
+                    match = i == last && prefix ? word.startsWith(tokens.get(i)) : word.equals(tokens.get(i));
+                }
+                if (match) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe bidirectional index of connected users across all transports.
+ *
+ * Both directions (username -> session and connection -> session) are constant-time
+ * lookups. The session is also stored as the connection's attachment so the hot path
+ * can resolve the sender of a frame without touching either map.
+ */
+public class SessionRegistry {
+    private final ConcurrentHashMap<String, ChatSession> byUsername = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<ChatConnection, ChatSession> byConnection = new ConcurrentHashMap<>();
+
+    /**
+     * Registers {@code username} on {@code conn} unless the name is already taken.
+     *
+     * @return the new session, or {@code null} if another connection owns the name
+     *         or this connection is already registered under a different name
+     */
+    public ChatSession register(String username, ChatConnection conn) {
+        ChatSession session = new ChatSession(username, conn);
+        if (byConnection.putIfAbsent(conn, session) != null) {
+            return null;
+        }
+        if (byUsername.putIfAbsent(username, session) != null) {
+            byConnection.remove(conn, session);
+            return null;
+        }
+        conn.setSession(session);
+        if (!conn.isOpen()) {
+            // onClose may have run before the attachment was visible; undo so the name is not leaked.
+            evict(session);
+            return null;
+        }
+        return session;
+    }
+
+    /**
+     * Removes whatever session is bound to {@code conn}.
+     *
+     * @return the removed session, or {@code null} if the connection was never registered
+     */
+    public ChatSession evict(ChatConnection conn) {
+        ChatSession session = byConnection.remove(conn);
+        if (session != null) {
+            byUsername.remove(session.getUsername(), session);
+            conn.setSession(null);
+        }
+        return session;
+    }
+
+    /**
+     * Removes {@code session} only if it is still the current owner of its name, so a
+     * late close of a replaced connection cannot evict the user's new session.
+     */
+    public boolean evict(ChatSession session) {
+        boolean removed = byConnection.remove(session.getConnection(), session);
+        byUsername.remove(session.getUsername(), session);
+        if (removed) {
+            session.getConnection().setSession(null);
+        }
+        return removed;
+    }
+
+    public ChatSession get(String username) {
+        return byUsername.get(username);
+    }
+
+    public ChatSession get(ChatConnection conn) {
+        ChatSession session = conn.getSession();
+        return session != null ? session : byConnection.get(conn);
+    }
+
+    public String getUsername(ChatConnection conn) {
+        ChatSession session = get(conn);
+        return session != null ? session.getUsername() : null;
+    }
+
+    public boolean contains(String username) {
+        return byUsername.containsKey(username);
+    }
+
+    public int size() {
+        return byUsername.size();
+    }
+
+    public List<String> usernames() {
+        return new ArrayList<>(byUsername.keySet());
+    }
+
+    public Collection<ChatSession> sessions() {
+        return Collections.unmodifiableCollection(byUsername.values());
+    }
+}
@@ -0,0 +1,273 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link ChatConnection} over a non-blocking socket speaking line-delimited JSON: one
+ * UTF-8 frame per line.
+ *
+ * Reads happen only on the selector thread that owns the connection. An idle connection
+ * holds no buffers: a partial line gets a buffer only until its newline arrives. Sends
+ * may come from any thread and go through the connection's {@link OutboundQueue}. Lines
+ * the queue releases are written directly by whichever thread wins the write flag. The
+ * selector takes over with {@code OP_WRITE} only when the socket's send buffer is full,
+ * and pulls more from the queue once it has drained.
+ */
+public final class TcpChatConnection implements ChatConnection, OutboundQueue.Transport {
+    /** Lines longer than this close the connection instead of growing the buffer further. */
+    static final int MAX_LINE_BYTES = 1024 * 1024;
+    private static final int RETAINED_LINE_BUFFER_BYTES = 8 * 1024;
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final AdvancedChatServerSystem server;
+    private final OutboundQueue outbound = new OutboundQueue(this);
+    /** Lines released by the outbound queue and not yet fully written. */
+    private final Queue<ByteBuffer> lines = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger lineCount = new AtomicInteger();
+    private final AtomicBoolean writing = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile ChatSession session;
+
+    // Selector thread only
+    private byte[] partial;
+    private int partialLength;
+
+    TcpChatConnection(SocketChannel channel, SelectionKey key, AdvancedChatServerSystem server) {
+        this.channel = channel;
+        this.key = key;
+        this.server = server;
+    }
+
+    /** One frame as a wire line. JSON never needs a raw line break, so any present are flattened. */
+    static ByteBuffer encode(String frame) {
+        if (frame.indexOf('\n') >= 0 || frame.indexOf('\r') >= 0) {
+            frame = frame.replace('\n', ' ').replace('\r', ' ');
+        }
+        byte[] body = frame.getBytes(StandardCharsets.UTF_8);
+        byte[] line = Arrays.copyOf(body, body.length + 1);
+        line[body.length] = '\n';
+        return ByteBuffer.wrap(line);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed.get();
+    }
+
+    @Override
+    public void send(String frame) {
+        outbound.offer(OutboundFrame.message(frame));
+    }
+
+    @Override
+    public void send(OutboundFrame frame) {
+        outbound.offer(frame);
+    }
+
+    @Override
+    public OutboundQueue getOutbound() {
+        return outbound;
+    }
+
+    @Override
+    public int backlog() {
+        return lineCount.get();
+    }
+
+    @Override
+    public void write(OutboundFrame frame, String text) {
+        if (!closed.get()) {
+            // A shared line is consumed through a view, so every recipient writes the same bytes
+            lines.offer(frame.wire != null ? frame.wire.duplicate() : encode(text));
+            lineCount.incrementAndGet();
+            flush();
+        }
+    }
+
+    @Override
+    public void disconnect(String reason) {
+        close();
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+        outbound.close();
+        lines.clear();
+        lineCount.set(0);
+        partial = null;
+        server.onClosed(this);
+    }
+
+    @Override
+    public ChatSession getSession() {
+        return session;
+    }
+
+    /** Tools written for the old thread-per-socket server log in without naming a version. */
+    @Override
+    public int getDefaultProtocol() {
+        return ChatProtocol.LEGACY_VERSION;
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        InetAddress address = channel.socket().getInetAddress();
+        return address != null ? address.getHostAddress() : null;
+    }
+
+    @Override
+    public void setSession(ChatSession session) {
+        this.session = session;
+    }
+
+    /** Reads what is available and hands every complete line to the server. */
+    void onReadable(ByteBuffer buffer) {
+        try {
+            int n;
+            do {
+                buffer.clear();
+                n = channel.read(buffer);
+                if (n < 0) {
+                    close();
+                    return;
+                }
+                buffer.flip();
+                consume(buffer);
+            } while (n == buffer.capacity() && !closed.get());
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    void onWritable() {
+        key.interestOpsAnd(~SelectionKey.OP_WRITE);
+        flush();
+        outbound.drain();
+    }
+
+    private void consume(ByteBuffer buffer) {
+        byte[] bytes = buffer.array();
+        int position = buffer.position();
+        int limit = buffer.limit();
+        while (position < limit && !closed.get()) {
+            int newline = position;
+            while (newline < limit && bytes[newline] != '\n') {
+                newline++;
+            }
+            if (newline == limit) {
+                appendPartial(bytes, position, limit - position);
+                return;
+            }
+            String line;
+            if (partialLength == 0) {
+                line = decodeLine(bytes, position, newline - position);
+            } else {
+                appendPartial(bytes, position, newline - position);
+                if (closed.get()) {
+                    return;
+                }
+                line = decodeLine(partial, 0, partialLength);
+                partialLength = 0;
+                if (partial != null && partial.length > RETAINED_LINE_BUFFER_BYTES) {
+                    partial = null;
+                }
+            }
+            position = newline + 1;
+            if (line != null) {
+                server.onFrame(this, line);
+            }
+        }
+    }
+
+    private static String decodeLine(byte[] bytes, int offset, int length) {
+        if (length > 0 && bytes[offset + length - 1] == '\r') {
+            length--;
+        }
+        return length == 0 ? null : new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+
+    private void appendPartial(byte[] bytes, int offset, int length) {
+        if (closed.get()) {
+            return;
+        }
+        int needed = partialLength + length;
+        if (needed > MAX_LINE_BYTES) {
+            Log.warn("⚠️ TCP client sent a line over " + MAX_LINE_BYTES + " bytes; closing");
+            close();
+            return;
+        }
+        if (partial == null || partial.length < needed) {
+            int size = partial == null ? 256 : partial.length;
+            while (size < needed) {
+                size *= 2;
+            }
+            partial = partial == null ? new byte[size] : Arrays.copyOf(partial, size);
+        }
+        System.arraycopy(bytes, offset, partial, partialLength, length);
+        partialLength = needed;
+    }
+
+    /** Writes queued lines until the queue is empty or the socket would block. */
+    private void flush() {
+        while (!closed.get() && writing.compareAndSet(false, true)) {
+            boolean blocked = false;
+            try {
+                ByteBuffer line;
+                while ((line = lines.peek()) != null) {
+                    channel.write(line);
+                    if (line.hasRemaining()) {
+                        blocked = true;
+                        break;
+                    }
+                    lines.poll();
+                    lineCount.decrementAndGet();
+                }
+            } catch (IOException e) {
+                writing.set(false);
+                close();
+                return;
+            }
+            writing.set(false);
+            if (blocked) {
+                try {
+                    key.interestOpsOr(SelectionKey.OP_WRITE);
+                    key.selector().wakeup();
+                } catch (CancelledKeyException e) {
+                    close();
+                }
+                return;
+            }
+            if (lines.isEmpty()) {
+                return;
+            }
+            // Another thread queued a line after our last peek but lost the flag to us; go again.
+        }
+    }
+
+    @Override
+    public String toString() {
+        ChatSession current = session;
+        return "TcpChatConnection[" + (current != null ? current.getUsername() : "unregistered") + "]";
+    }
+}
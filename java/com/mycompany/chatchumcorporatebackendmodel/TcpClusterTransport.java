@@ -0,0 +1,388 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * {@link ClusterTransport} over TCP, with every node listening on its own port and
+ * holding one outgoing connection per peer.
+ *
+ * A connection opens with a handshake proving that both ends hold {@code CLUSTER_SECRET}:
+ * the accepting node sends {@code challenge <nonce>}, the connecting node answers
+ * {@code node <id> <nonce> <mac>} and the accepting node confirms with {@code ok <mac>}, each
+ * mac an HMAC-SHA256 over the id and both nonces. A peer that fails it is disconnected
+ * before any of its frames are read. After that each batch is a line with
+ * its frame count followed by one line per frame. Every peer has a writer thread that
+ * writes whatever batches are queued back to back and flushes once, so batches are
+ * pipelined rather than sent one round trip at a time. Batches for a peer that cannot be
+ * reached wait, up to {@code CLUSTER_PEER_QUEUE} of them, while the writer reconnects;
+ * beyond that they are dropped, and {@link ClusterNode}'s periodic route announcements
+ * repair the routing table once the peer is back. Batches that were in flight when a
+ * connection broke are sent again, so a peer may see them twice.
+ */
+public final class TcpClusterTransport implements ClusterTransport {
+    private static final int PEER_QUEUE_BATCHES = Integer.parseInt(System.getenv().getOrDefault("CLUSTER_PEER_QUEUE", "4096"));
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    private static final long RECONNECT_BACKOFF_MS = 500;
+    private static final int NONCE_BYTES = 16;
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final Metrics.Counter DROPPED = Metrics.counter("cluster_batches_dropped_total", "Batches dropped because a peer's queue was full");
+    private static final Metrics.Counter REJECTED = Metrics.counter("cluster_handshakes_rejected_total", "Inbound peer connections that failed the handshake");
+
+    private final int port;
+    private final Map<String, InetSocketAddress> peerAddresses;
+    private final SecretKeySpec secret;
+    private final Map<String, PeerWriter> writers = new ConcurrentHashMap<>();
+    private final Set<Socket> inbound = ConcurrentHashMap.newKeySet();
+    private ServerSocket serverSocket;
+    private volatile String nodeId;
+    private volatile Receiver receiver;
+    private volatile boolean running;
+
+    /**
+     * @param port port to accept peers on, 0 for an ephemeral one
+     * @param peerAddresses node id -> address of every other node
+     * @param secret shared by every node of the cluster
+     */
+    public TcpClusterTransport(int port, Map<String, InetSocketAddress> peerAddresses, String secret) {
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException("A cluster secret is required");
+        }
+        this.port = port;
+        this.peerAddresses = new LinkedHashMap<>(peerAddresses);
+        this.secret = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+    }
+
+    /**
+     * Parses {@code CLUSTER_PEERS}-style lists: comma-separated {@code id@host:port}
+     * entries, e.g. {@code node2@10.0.0.2:9100,node3@10.0.0.3:9100}.
+     */
+    public static Map<String, InetSocketAddress> parsePeers(String peers) {
+        Map<String, InetSocketAddress> addresses = new LinkedHashMap<>();
+        if (peers == null) {
+            return addresses;
+        }
+        for (String entry : peers.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int at = entry.indexOf('@');
+            int colon = entry.lastIndexOf(':');
+            if (at <= 0 || colon < at) {
+                throw new IllegalArgumentException("Invalid cluster peer (expected id@host:port): " + entry);
+            }
+            addresses.put(entry.substring(0, at),
+                    new InetSocketAddress(entry.substring(at + 1, colon), Integer.parseInt(entry.substring(colon + 1))));
+        }
+        return addresses;
+    }
+
+    @Override
+    public void start(String nodeId, Receiver receiver) throws IOException {
+        this.nodeId = nodeId;
+        this.receiver = receiver;
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(port));
+        running = true;
+        Thread acceptor = new Thread(this::acceptLoop, "cluster-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        System.out.println("🚀 Cluster node " + nodeId + " listening on port " + getPort());
+    }
+
+    /** Bound port, useful when started on port 0. */
+    public int getPort() {
+        return serverSocket != null ? serverSocket.getLocalPort() : port;
+    }
+
+    @Override
+    public void send(String peer, List<String> frames) {
+        if (!running || !peerAddresses.containsKey(peer)) {
+            return;
+        }
+        writers.computeIfAbsent(peer, PeerWriter::new).offer(frames);
+    }
+
+    @Override
+    public Collection<String> peers() {
+        return peerAddresses.keySet();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                inbound.add(socket);
+                Thread reader = new Thread(() -> readLoop(socket), "cluster-read");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (running) {
+                    Log.warn("⚠️ TcpClusterTransport: Accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void readLoop(Socket socket) {
+        String from = null;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            from = acceptHandshake(socket, in);
+            if (from == null) {
+                REJECTED.increment();
+                Log.warn("⚠️ TcpClusterTransport: Rejected peer " + socket.getRemoteSocketAddress() + ": handshake failed");
+                return;
+            }
+            String header;
+            while ((header = in.readLine()) != null) {
+                int count = Integer.parseInt(header);
+                List<String> frames = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    String frame = in.readLine();
+                    if (frame == null) {
+                        return;
+                    }
+                    frames.add(frame);
+                }
+                receiver.onBatch(from, frames);
+            }
+        } catch (IOException | NumberFormatException e) {
+            if (running) {
+                Log.warn("⚠️ TcpClusterTransport: Lost connection from " + from + ": " + e.getMessage());
+            }
+        } finally {
+            inbound.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    /** Checks that the connecting peer holds the secret and proves this node does; returns its id, or {@code null}. */
+    private String acceptHandshake(Socket socket, BufferedReader in) throws IOException {
+        socket.setSoTimeout(CONNECT_TIMEOUT_MS);
+        Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+        String challenge = nonce();
+        out.write("challenge " + challenge + "\n");
+        out.flush();
+        String hello = in.readLine();
+        String[] parts = hello != null ? hello.split(" ") : new String[0];
+        if (parts.length != 4 || !"node".equals(parts[0])
+                || !matches(parts[3], mac("node", parts[1], challenge, parts[2]))) {
+            return null;
+        }
+        out.write("ok " + mac("peer", parts[1], challenge, parts[2]) + "\n");
+        out.flush();
+        socket.setSoTimeout(0);
+        return parts[1];
+    }
+
+    /** HMAC of one side's handshake line, bound to the connecting node's id and both nonces. */
+    private String mac(String role, String id, String challenge, String nonce) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(secret);
+            return hex(mac.doFinal((role + "\n" + id + "\n" + challenge + "\n" + nonce).getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean matches(String received, String expected) {
+        return MessageDigest.isEqual(received.getBytes(StandardCharsets.UTF_8), expected.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String nonce() {
+        byte[] nonce = new byte[NONCE_BYTES];
+        RANDOM.nextBytes(nonce);
+        return hex(nonce);
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        closeQuietly(serverSocket);
+        for (PeerWriter writer : writers.values()) {
+            writer.close();
+        }
+        for (Socket socket : inbound) {
+            closeQuietly(socket);
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            // Already gone
+        }
+    }
+
+    /** Outgoing connection to one peer and the thread that writes to it. */
+    private final class PeerWriter {
+        private final String peer;
+        private final BlockingQueue<List<String>> batches = new ArrayBlockingQueue<>(PEER_QUEUE_BATCHES);
+        private final Thread thread;
+        private volatile Socket socket;
+        private Writer out;
+        private volatile boolean unreachable;
+        private volatile boolean closing;
+
+        PeerWriter(String peer) {
+            this.peer = peer;
+            this.thread = new Thread(this::run, "cluster-write-" + peer);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void offer(List<String> frames) {
+            if (batches.offer(frames)) {
+                return;
+            }
+            DROPPED.increment();
+            if (!unreachable) {
+                Log.warn("⚠️ TcpClusterTransport: Queue to " + peer + " is full; dropping batches");
+            }
+        }
+
+        private void run() {
+            List<List<String>> pending = new ArrayList<>();
+            while (true) {
+                if (pending.isEmpty()) {
+                    List<String> first;
+                    try {
+                        first = batches.poll(100, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    if (first == null) {
+                        if (closing) {
+                            break;
+                        }
+                        continue;
+                    }
+                    pending.add(first);
+                }
+                batches.drainTo(pending, Math.max(0, PEER_QUEUE_BATCHES - pending.size()));
+                try {
+                    write(pending);
+                    pending.clear();
+                    unreachable = false;
+                } catch (IOException e) {
+                    disconnect();
+                    if (!unreachable) {
+                        Log.warn("⚠️ TcpClusterTransport: Cannot reach " + peer + ": " + e.getMessage());
+                        unreachable = true;
+                    }
+                    if (closing) {
+                        break;
+                    }
+                    try {
+                        Thread.sleep(RECONNECT_BACKOFF_MS);
+                    } catch (InterruptedException interrupted) {
+                        break;
+                    }
+                }
+            }
+            disconnect();
+        }
+
+        private void write(List<List<String>> pending) throws IOException {
+            if (out == null) {
+                connect();
+            }
+            for (List<String> frames : pending) {
+                out.write(Integer.toString(frames.size()));
+                out.write('\n');
+                for (String frame : frames) {
+                    out.write(frame);
+                    out.write('\n');
+                }
+            }
+            out.flush();
+        }
+
+        private void connect() throws IOException {
+            Socket s = new Socket();
+            try {
+                s.connect(peerAddresses.get(peer), CONNECT_TIMEOUT_MS);
+                s.setTcpNoDelay(true);
+                s.setSoTimeout(CONNECT_TIMEOUT_MS);
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+                String challenge = in.readLine();
+                if (challenge == null || !challenge.startsWith("challenge ")) {
+                    throw new IOException("no handshake challenge");
+                }
+                challenge = challenge.substring(10);
+                String nonce = nonce();
+                out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8), 64 * 1024);
+                out.write("node " + nodeId + " " + nonce + " " + mac("node", nodeId, challenge, nonce) + "\n");
+                out.flush();
+                String ok = in.readLine();
+                if (ok == null || !ok.startsWith("ok ") || !matches(ok.substring(3), mac("peer", nodeId, challenge, nonce))) {
+                    throw new IOException("handshake failed; check CLUSTER_SECRET");
+                }
+                s.setSoTimeout(0);
+                socket = s;
+            } catch (IOException e) {
+                out = null;
+                closeQuietly(s);
+                throw e;
+            }
+        }
+
+        private void disconnect() {
+            out = null;
+            closeQuietly(socket);
+            socket = null;
+        }
+
+        /** Writes what is already queued, giving up after a second. */
+        void close() {
+            closing = true;
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread.interrupt();
+            closeQuietly(socket);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Checks an ID token and returns its claims. {@link FirebaseTokenVerifier} is the real
+ * one; tests can pass a local stand-in to {@link AuthServer#start}.
+ */
+@FunctionalInterface
+public interface TokenVerifier {
+
+    /** Completes with the decoded token, or exceptionally if the token is invalid. */
+    CompletableFuture<VerifiedToken> verify(String idToken);
+}
@@ -1,19 +1,49 @@
 package com.mycompany.chatchumcorporatebackendmodel;
 
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
 import java.sql.*;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Directory of registered usernames.
+ *
+ * The users table is loaded into a concurrent set once at startup and kept in step by
+ * writing through on every insert, so lookups never open a connection or take a lock.
+ * The serialized roster is rebuilt at most once per change instead of once per request.
+ * This assumes the process is the only writer of the users table; if the startup load
+ * fails, every call falls back to SQLite.
+ */
 public class UserService {
-    private static final String DB_URL = "jdbc:sqlite:chatchum.db";
     private static UserService instance;
+    private final ConnectionProvider db = ConnectionProvider.getInstance();
+    private final Set<String> users = ConcurrentHashMap.newKeySet();
+    private final Set<String> usersView = Collections.unmodifiableSet(users);
+    /** Bumped after every change to {@link #users}. */
+    private final AtomicLong version = new AtomicLong();
+    private volatile boolean loaded;
+    private volatile Roster roster;
 
     private UserService() {
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            Statement stmt = conn.createStatement();
-            stmt.execute("CREATE TABLE IF NOT EXISTS users (username TEXT PRIMARY KEY)");
+        try {
+            db.write(conn -> {
+                try (Statement stmt = conn.connection().createStatement()) {
+                    stmt.execute("CREATE TABLE IF NOT EXISTS users (username TEXT PRIMARY KEY)");
+                }
+                return null;
+            });
+            users.addAll(loadUsers());
+            loaded = true;
+            System.out.println("👥 UserService: Loaded " + users.size() + " registered users");
         } catch (SQLException e) {
-            System.err.println("⚠️ UserService: Failed to initialize database: " + e.getMessage());
+            Log.error("⚠️ UserService: Failed to initialize database: " + e.getMessage());
         }
     }
 
@@ -24,40 +54,133 @@ public class UserService {
         return instance;
     }
 
-    public synchronized boolean addUser(String username) {
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            PreparedStatement pstmt = conn.prepareStatement("INSERT OR IGNORE INTO users (username) VALUES (?)");
-            pstmt.setString(1, username);
-            int rows = pstmt.executeUpdate();
+    public boolean addUser(String username) {
+        if (username == null || (loaded && users.contains(username))) {
+            return false;
+        }
+        try {
+            int rows = db.write(conn -> {
+                PreparedStatement pstmt = conn.prepare("INSERT OR IGNORE INTO users (username) VALUES (?)");
+                pstmt.setString(1, username);
+                return pstmt.executeUpdate();
+            });
+            cache(username);
             return rows > 0;
         } catch (SQLException e) {
-            System.err.println("⚠️ UserService: Failed to add user: " + e.getMessage());
+            Log.error("⚠️ UserService: Failed to add user: " + e.getMessage());
             return false;
         }
     }
 
-    public synchronized Set<String> getRegisteredUsers() {
-        Set<String> users = new HashSet<>();
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery("SELECT username FROM users");
-            while (rs.next()) {
-                users.add(rs.getString("username"));
-            }
+    /** Adds many users in one transaction, e.g. for an import. Returns how many were new. */
+    public int addUsers(Collection<String> usernames) {
+        try {
+            int added = db.transaction(conn -> {
+                PreparedStatement pstmt = conn.prepare("INSERT OR IGNORE INTO users (username) VALUES (?)");
+                int rows = 0;
+                for (String username : usernames) {
+                    pstmt.setString(1, username);
+                    rows += pstmt.executeUpdate();
+                }
+                return rows;
+            });
+            users.addAll(usernames);
+            version.incrementAndGet();
+            return added;
         } catch (SQLException e) {
-            System.err.println("⚠️ UserService: Failed to load users: " + e.getMessage());
+            Log.error("⚠️ UserService: Failed to add users: " + e.getMessage());
+            return 0;
         }
-        return users;
     }
 
-    public synchronized boolean userExists(String username) {
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            PreparedStatement pstmt = conn.prepareStatement("SELECT 1 FROM users WHERE username = ?");
-            pstmt.setString(1, username);
-            return pstmt.executeQuery().next();
+    /** Every registered username, as a read-only live view. */
+    public Set<String> getRegisteredUsers() {
+        if (loaded) {
+            return usersView;
+        }
+        try {
+            return loadUsers();
+        } catch (SQLException e) {
+            Log.error("⚠️ UserService: Failed to load users: " + e.getMessage());
+            return Collections.emptySet();
+        }
+    }
+
+    /** Every registered username as a JSON array, serialized once per change. */
+    public String getRegisteredUsersJson() {
+        long current = version.get();
+        Roster cached = roster;
+        if (cached != null && cached.version == current) {
+            return cached.json;
+        }
+        // Tagged with the version read before serializing, so a concurrent add forces a rebuild
+        String json = toJson(getRegisteredUsers());
+        roster = new Roster(current, json);
+        return json;
+    }
+
+    public boolean userExists(String username) {
+        if (username == null) {
+            return false;
+        }
+        if (loaded) {
+            return users.contains(username);
+        }
+        try {
+            return db.read(conn -> {
+                PreparedStatement pstmt = conn.prepare("SELECT 1 FROM users WHERE username = ?");
+                pstmt.setString(1, username);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    return rs.next();
+                }
+            });
         } catch (SQLException e) {
-            System.err.println("⚠️ UserService: Failed to check user: " + e.getMessage());
+            Log.error("⚠️ UserService: Failed to check user: " + e.getMessage());
             return false;
         }
     }
+
+    private void cache(String username) {
+        if (users.add(username)) {
+            version.incrementAndGet();
+        }
+    }
+
+    private Set<String> loadUsers() throws SQLException {
+        Set<String> loadedUsers = new HashSet<>();
+        db.read(conn -> {
+            try (ResultSet rs = conn.prepare("SELECT username FROM users").executeQuery()) {
+                while (rs.next()) {
+                    loadedUsers.add(rs.getString("username"));
+                }
+            }
+            return null;
+        });
+        return loadedUsers;
+    }
+
+    private static String toJson(Collection<String> usernames) {
+        StringWriter out = new StringWriter(usernames.size() * 16 + 2);
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginArray();
+            for (String username : usernames) {
+                writer.value(username);
+            }
+            writer.endArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    /** A serialized roster and the directory version it was built from. */
+    private static final class Roster {
+        final long version;
+        final String json;
+
+        Roster(long version, String json) {
+            this.version = version;
+            this.json = json;
+        }
+    }
 }
\ No newline at end of file
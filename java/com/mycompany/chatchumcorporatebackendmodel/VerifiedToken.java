@@ -0,0 +1,34 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.util.Collections;
+import java.util.Map;
+
+/** Claims of a verified ID token, plus the username it maps to once that has been looked up. */
+public final class VerifiedToken {
+    public final String uid;
+    public final String email;
+    /** The token's {@code exp} claim in epoch milliseconds. */
+    public final long expiresAtMillis;
+    public final Map<String, Object> claims;
+    private volatile String username;
+
+    public VerifiedToken(String uid, String email, long expiresAtMillis, Map<String, Object> claims) {
+        this.uid = uid;
+        this.email = email;
+        this.expiresAtMillis = expiresAtMillis;
+        this.claims = claims != null ? Collections.unmodifiableMap(claims) : Collections.emptyMap();
+    }
+
+    public boolean isExpired(long nowMillis) {
+        return nowMillis >= expiresAtMillis;
+    }
+
+    /** The username in {@code auth_users}, or {@code null} if it has not been looked up yet. */
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+}
@@ -0,0 +1,146 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded cache of verified ID tokens in front of a {@link TokenVerifier}, so a token the
+ * frontend presents on every page load is verified once instead of on every request.
+ *
+ * An entry lives until the token's {@code exp} claim and is never served after it.
+ * Concurrent requests for a token that is not cached yet share one verification; a
+ * failed verification is not cached. When the cache is full, the entries closest to
+ * expiry are evicted first. Expired entries are swept whenever a new one is added.
+ */
+public final class VerifiedTokenCache {
+    private final TokenVerifier verifier;
+    private final int maxEntries;
+    private final LongSupplier clock;
+    /** Token -> verification, either in flight or completed successfully. */
+    private final ConcurrentHashMap<String, CompletableFuture<VerifiedToken>> entries = new ConcurrentHashMap<>();
+    /** Completed entries, soonest expiry first; guarded by itself. */
+    private final PriorityQueue<Expiry> expiries = new PriorityQueue<>(Comparator.comparingLong(e -> e.atMillis));
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public VerifiedTokenCache(TokenVerifier verifier, int maxEntries) {
+        this(verifier, maxEntries, System::currentTimeMillis);
+    }
+
+    VerifiedTokenCache(TokenVerifier verifier, int maxEntries, LongSupplier clock) {
+        this.verifier = verifier;
+        this.maxEntries = maxEntries;
+        this.clock = clock;
+    }
+
+    /** The verified token, from the cache or from a verification shared with concurrent callers. */
+    public CompletableFuture<VerifiedToken> verify(String idToken) {
+        CompletableFuture<VerifiedToken> cached = entries.get(idToken);
+        if (cached != null) {
+            VerifiedToken verified = completedValue(cached);
+            if (verified == null || !verified.isExpired(clock.getAsLong())) {
+                hits.increment();
+                return cached;
+            }
+            entries.remove(idToken, cached);
+        }
+        CompletableFuture<VerifiedToken> created = new CompletableFuture<>();
+        CompletableFuture<VerifiedToken> existing = entries.putIfAbsent(idToken, created);
+        if (existing != null) {
+            hits.increment();
+            return existing;
+        }
+        misses.increment();
+        CompletableFuture<VerifiedToken> verification;
+        try {
+            verification = verifier.verify(idToken);
+        } catch (RuntimeException e) {
+            verification = CompletableFuture.failedFuture(e);
+        }
+        verification.whenComplete((verified, error) -> {
+            if (error != null || verified == null || verified.isExpired(clock.getAsLong())) {
+                entries.remove(idToken, created);
+            } else {
+                track(idToken, verified, created);
+            }
+            if (error != null) {
+                created.completeExceptionally(error);
+            } else {
+                created.complete(verified);
+            }
+        });
+        return created;
+    }
+
+    /** Records a username change on every cached token of {@code email}. */
+    public void updateUsername(String email, String username) {
+        for (CompletableFuture<VerifiedToken> entry : entries.values()) {
+            VerifiedToken verified = completedValue(entry);
+            if (verified != null && email.equals(verified.email)) {
+                verified.setUsername(username);
+            }
+        }
+    }
+
+    /** Forgets {@code idToken}, so its slot counts against {@code maxEntries} no longer. */
+    public void invalidate(String idToken) {
+        CompletableFuture<VerifiedToken> removed = entries.remove(idToken);
+        if (removed != null) {
+            synchronized (expiries) {
+                expiries.removeIf(e -> e.entry == removed);
+            }
+        }
+    }
+
+    /** Completed entries awaiting expiry or eviction. */
+    int tracked() {
+        synchronized (expiries) {
+            return expiries.size();
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /** Lookups answered without starting a verification, including joins of one in flight. */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private void track(String idToken, VerifiedToken verified, CompletableFuture<VerifiedToken> entry) {
+        long now = clock.getAsLong();
+        synchronized (expiries) {
+            expiries.add(new Expiry(idToken, verified.expiresAtMillis, entry));
+            Expiry head;
+            while ((head = expiries.peek()) != null && (head.atMillis <= now || expiries.size() > maxEntries)) {
+                expiries.poll();
+                entries.remove(head.idToken, head.entry);
+            }
+        }
+    }
+
+    private static VerifiedToken completedValue(CompletableFuture<VerifiedToken> entry) {
+        return entry.isDone() && !entry.isCompletedExceptionally() ? entry.join() : null;
+    }
+
+    private static final class Expiry {
+        final String idToken;
+        final long atMillis;
+        final CompletableFuture<VerifiedToken> entry;
+
+        Expiry(String idToken, long atMillis, CompletableFuture<VerifiedToken> entry) {
+            this.idToken = idToken;
+            this.atMillis = atMillis;
+            this.entry = entry;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.mycompany.chatchumcorporatebackendmodel;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.CloseFrame;
+
+import java.net.InetSocketAddress;
+
+/**
+ * {@link ChatConnection} over a Java-WebSocket connection. It is created when the socket
+ * opens and kept as the socket's attachment, so every frame resolves its connection
+ * without a map lookup. Frames pass through an {@link OutboundQueue}; the socket's own
+ * out queue is the transport window below it.
+ */
+public final class WebSocketConnection implements ChatConnection, OutboundQueue.Transport {
+    private final WebSocket socket;
+    private final OutboundQueue outbound = new OutboundQueue(this);
+    private volatile ChatSession session;
+
+    private WebSocketConnection(WebSocket socket) {
+        this.socket = socket;
+    }
+
+    /** The connection attached to {@code socket}, attaching a new one if there is none yet. */
+    public static WebSocketConnection of(WebSocket socket) {
+        WebSocketConnection conn = socket.getAttachment();
+        if (conn == null) {
+            conn = new WebSocketConnection(socket);
+            socket.setAttachment(conn);
+        }
+        return conn;
+    }
+
+    public WebSocket getSocket() {
+        return socket;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return socket.isOpen();
+    }
+
+    @Override
+    public void send(String frame) {
+        outbound.offer(OutboundFrame.message(frame));
+    }
+
+    @Override
+    public void send(OutboundFrame frame) {
+        outbound.offer(frame);
+    }
+
+    @Override
+    public OutboundQueue getOutbound() {
+        return outbound;
+    }
+
+    @Override
+    public void close() {
+        outbound.close();
+        socket.close();
+    }
+
+    @Override
+    public ChatSession getSession() {
+        return session;
+    }
+
+    @Override
+    public void setSession(ChatSession session) {
+        this.session = session;
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        InetSocketAddress address = socket.getRemoteSocketAddress();
+        return address != null ? address.getAddress().getHostAddress() : null;
+    }
+
+    @Override
+    public int backlog() {
+        return socket instanceof WebSocketImpl ? ((WebSocketImpl) socket).outQueue.size() : 0;
+    }
+
+    @Override
+    public void write(OutboundFrame frame, String text) {
+        try {
+            if (frame.wire != null) {
+                if (!socket.isOpen()) {
+                    throw new WebsocketNotConnectedException();
+                }
+                // Pre-framed bytes shared with the other recipients of a broadcast
+                ((WebSocketImpl) socket).outQueue.offer(frame.wire.duplicate());
+                ((WebSocketImpl) socket).getWebSocketListener().onWriteDemand(socket);
+            } else {
+                socket.send(text);
+            }
+        } catch (WebsocketNotConnectedException e) {
+            outbound.close(); // Closed under us; onClose cleans up the session
+        }
+    }
+
+    @Override
+    public void disconnect(String reason) {
+        if (socket instanceof WebSocketImpl) {
+            // Don't queue a close frame behind the backlog the client isn't reading
+            ((WebSocketImpl) socket).closeConnection(CloseFrame.TRY_AGAIN_LATER, "Slow consumer: " + reason);
+        } else {
+            socket.close(CloseFrame.TRY_AGAIN_LATER, "Slow consumer: " + reason);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "WebSocketConnection[" + socket.getRemoteSocketAddress() + "]";
+    }
+}
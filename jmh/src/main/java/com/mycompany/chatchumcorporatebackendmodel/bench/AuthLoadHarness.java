@@ -0,0 +1,130 @@
+package com.mycompany.chatchumcorporatebackendmodel.bench;
+
+import com.mycompany.chatchumcorporatebackendmodel.AuthServer;
+import com.mycompany.chatchumcorporatebackendmodel.VerifiedToken;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Login-storm test for {@link AuthServer}: measures {@code /verify-session} latency on its
+ * own, then again while {@code threads} clients hammer {@code /login}.
+ *
+ * ID tokens are checked by a local stand-in instead of Firebase, so the run needs no
+ * credentials. Logins answered with 503 are counted separately; they are the bcrypt pool
+ * shedding load instead of queueing it on request threads. The storm comes from one address
+ * at a few accounts, so the login rate limits are turned off for the run.
+ *
+ * <pre>
+ * DB_URL=jdbc:sqlite:/tmp/chatchum-auth.db RATE_LIMIT_AUTH_IP=0 RATE_LIMIT_LOGIN_EMAIL=0 java -cp jmh/target/benchmarks.jar com.mycompany.chatchumcorporatebackendmodel.bench.AuthLoadHarness [threads] [seconds] [port]
+ * </pre>
+ */
+public final class AuthLoadHarness {
+    private static final String PASSWORD = "correct horse battery staple";
+    private static final int USERS = 20;
+
+    private AuthLoadHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getenv("DB_URL") == null) {
+            System.err.println("⚠️ AuthLoadHarness: Set DB_URL to a scratch database, e.g. jdbc:sqlite:/tmp/chatchum-auth.db");
+            System.exit(1);
+        }
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 18081;
+
+        String run = Long.toString(System.currentTimeMillis(), 36);
+        String sessionEmail = "load-0-" + run + "@bench";
+        AuthServer.start(port, token -> CompletableFuture.completedFuture(
+                new VerifiedToken(token, sessionEmail, System.currentTimeMillis() + 3_600_000, null)));
+        spark.Spark.awaitInitialization();
+        String base = "http://localhost:" + port;
+        HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+
+        for (int i = 0; i < USERS; i++) {
+            String email = "load-" + i + "-" + run + "@bench";
+            post(http, base + "/signup", "{\"email\":\"" + email + "\",\"username\":\"load-" + i + "-" + run
+                    + "\",\"password\":\"" + PASSWORD + "\"}");
+        }
+
+        long window = seconds * 1_000_000_000L / 2;
+        System.out.println("📊 /verify-session alone for " + seconds / 2 + "s");
+        probe(http, base, window, "verify-session (idle)");
+
+        System.out.println("📊 /verify-session during a login storm from " + threads + " clients");
+        ConcurrentHashMap<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        LatencyRecorder[] loginLatency = new LatencyRecorder[threads];
+        long stormEnd = System.nanoTime() + window;
+        List<Thread> storm = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            LatencyRecorder recorder = loginLatency[t] = new LatencyRecorder();
+            String body = "{\"email\":\"load-" + (t % USERS) + "-" + run + "@bench\",\"password\":\"" + PASSWORD + "\"}";
+            Thread thread = new Thread(() -> {
+                while (System.nanoTime() < stormEnd) {
+                    long t0 = System.nanoTime();
+                    int status = post(http, base + "/login", body);
+                    recorder.record(System.nanoTime() - t0);
+                    statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+                }
+            }, "login-storm-" + t);
+            thread.start();
+            storm.add(thread);
+        }
+        long start = System.nanoTime();
+        probe(http, base, window, "verify-session (storm)");
+        for (Thread thread : storm) {
+            thread.join();
+        }
+        LatencyRecorder logins = new LatencyRecorder();
+        for (LatencyRecorder recorder : loginLatency) {
+            logins.merge(recorder);
+        }
+        System.out.println(logins.summary("login (storm)", System.nanoTime() - start));
+        System.out.println("   login statuses: " + statuses);
+        spark.Spark.stop();
+        System.exit(0);
+    }
+
+    /** Calls /verify-session back to back for {@code nanos} and prints the latency summary. */
+    private static void probe(HttpClient http, String base, long nanos, String label) {
+        LatencyRecorder recorder = new LatencyRecorder();
+        long start = System.nanoTime();
+        long end = start + nanos;
+        while (System.nanoTime() < end) {
+            long t0 = System.nanoTime();
+            HttpRequest request = HttpRequest.newBuilder(URI.create(base + "/verify-session"))
+                    .header("Authorization", "Bearer load-token")
+                    .POST(HttpRequest.BodyPublishers.noBody())
+                    .build();
+            try {
+                http.send(request, HttpResponse.BodyHandlers.discarding());
+            } catch (Exception e) {
+                System.err.println("⚠️ AuthLoadHarness: verify-session failed: " + e.getMessage());
+            }
+            recorder.record(System.nanoTime() - t0);
+        }
+        System.out.println(recorder.summary(label, System.nanoTime() - start));
+    }
+
+    private static int post(HttpClient http, String url, String json) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+        try {
+            return http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
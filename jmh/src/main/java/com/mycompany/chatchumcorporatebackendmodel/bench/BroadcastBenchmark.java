@@ -0,0 +1,129 @@
+package com.mycompany.chatchumcorporatebackendmodel.bench;
+
+import com.mycompany.chatchumcorporatebackendmodel.FrameBroadcaster;
+import com.mycompany.chatchumcorporatebackendmodel.SessionRegistry;
+import com.mycompany.chatchumcorporatebackendmodel.WebSocketConnection;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketAdapter;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.handshake.Handshakedata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Broadcast cost per recipient: one payload to {@link #RECIPIENTS} WebSocket connections.
+ *
+ * {@code sharedFrame} goes through {@link FrameBroadcaster}, which encodes and frames the
+ * payload once and queues the same bytes for everyone. {@code sendPerRecipient} is the
+ * old fan-out, {@code conn.send(String)} on each connection, which encodes and frames it
+ * again for every recipient. Both pass through each connection's outbound queue into the
+ * socket's out queue; the sockets are open {@link WebSocketImpl}s with no network behind
+ * them, and their out queues are emptied after every broadcast.
+ *
+ * <pre>
+ * mvn -B -pl jmh -am package
+ * java -jar jmh/target/benchmarks.jar BroadcastBenchmark -prof gc
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BroadcastBenchmark {
+    static final int RECIPIENTS = 1_000;
+
+    /** Payload size in characters: a presence delta or chat message, and a large roster snapshot. */
+    @Param({"200", "20000"})
+    int size;
+
+    String payload;
+    List<WebSocket> sockets;
+    List<WebSocketConnection> connections;
+    FrameBroadcaster broadcaster;
+
+    /** An open socket that queues its frames and never writes them anywhere. */
+    private static final class DetachedSocket extends WebSocketImpl {
+        DetachedSocket(Listener listener) {
+            super(listener, new Draft_6455());
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+    }
+
+    private static final class Listener extends WebSocketAdapter {
+        @Override public void onWebsocketMessage(WebSocket conn, String message) { }
+        @Override public void onWebsocketMessage(WebSocket conn, ByteBuffer blob) { }
+        @Override public void onWebsocketOpen(WebSocket conn, Handshakedata d) { }
+        @Override public void onWebsocketClose(WebSocket ws, int code, String reason, boolean remote) { }
+        @Override public void onWebsocketClosing(WebSocket ws, int code, String reason, boolean remote) { }
+        @Override public void onWebsocketCloseInitiated(WebSocket ws, int code, String reason) { }
+        @Override public void onWebsocketError(WebSocket conn, Exception ex) { }
+        @Override public void onWriteDemand(WebSocket conn) { }
+        @Override public InetSocketAddress getLocalSocketAddress(WebSocket conn) { return null; }
+        @Override public InetSocketAddress getRemoteSocketAddress(WebSocket conn) { return null; }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        char[] text = new char[size];
+        Arrays.fill(text, 'x');
+        payload = "{\"type\":\"message\",\"content\":\"" + new String(text, 0, Math.max(0, size - 30)) + "\"}";
+        Listener listener = new Listener();
+        sockets = new ArrayList<>(RECIPIENTS);
+        connections = new ArrayList<>(RECIPIENTS);
+        for (int i = 0; i < RECIPIENTS; i++) {
+            WebSocket socket = new DetachedSocket(listener);
+            sockets.add(socket);
+            connections.add(WebSocketConnection.of(socket));
+        }
+        broadcaster = new FrameBroadcaster(new SessionRegistry());
+    }
+
+    @TearDown(Level.Invocation)
+    public void drain() {
+        for (WebSocket socket : sockets) {
+            ((WebSocketImpl) socket).outQueue.clear();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECIPIENTS)
+    public int sharedFrame() {
+        return broadcaster.broadcast(payload, sockets);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECIPIENTS)
+    public int sendPerRecipient() {
+        for (WebSocketConnection conn : connections) {
+            conn.send(payload);
+        }
+        return connections.size();
+    }
+}
@@ -0,0 +1,256 @@
+package com.mycompany.chatchumcorporatebackendmodel.bench;
+
+import com.mycompany.chatchumcorporatebackendmodel.ChatLogService;
+import com.mycompany.chatchumcorporatebackendmodel.ChatProtocol;
+import com.mycompany.chatchumcorporatebackendmodel.ConversationCache;
+import com.mycompany.chatchumcorporatebackendmodel.MessageStore;
+import com.mycompany.chatchumcorporatebackendmodel.UserService;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * JMH microbenchmarks for the backend hot paths: frame decoding and encoding, chat logging,
+ * history reads, user lookups and the segment log. The {@code *Baseline} benchmarks do the
+ * same lookup or insert the way the code did before the connection pool: a fresh
+ * {@link DriverManager} connection per call and SQL that is not prepared.
+ *
+ * The SQLite benchmarks write to the database named by {@code DB_URL}, which must point at
+ * a scratch file. Run with {@code -prof gc} to see the bytes allocated per frame:
+ *
+ * <pre>
+ * mvn -B -pl jmh -am package
+ * DB_URL=jdbc:sqlite:/tmp/chatchum-bench.db java -jar jmh/target/benchmarks.jar ChatBenchmark -prof gc
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChatBenchmark {
+    private static final String MESSAGE_FRAME =
+            "{\"type\":\"message\",\"sender\":\"alice\",\"receiver\":\"bob\","
+            + "\"content\":\"Can you review the Q3 forecast before the 2pm sync?\","
+            + "\"timestamp\":\"2024-05-01T10:15:30Z\",\"fileName\":null}";
+    private static final int USERS = 100_000;
+    private static final int HISTORY_MESSAGES = 500;
+    private static final int CONVERSATIONS = 64;
+    private static final String DB_URL = System.getenv().getOrDefault("DB_URL", "jdbc:sqlite:chatchum.db");
+
+    /** Round-robin position of one benchmark thread over the users and conversations. */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        int next(int bound) {
+            int i = next;
+            next = i + 1 == bound ? 0 : i + 1;
+            return i;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Directory {
+        UserService users;
+        /** Half registered, half not, so lookups are an even mix of hits and misses. */
+        String[] probes;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            users = UserService.getInstance();
+            probes = new String[USERS * 2];
+            List<String> registered = new ArrayList<>(USERS);
+            for (int i = 0; i < probes.length; i++) {
+                probes[i] = "bench-user-" + i;
+                if (i < USERS) {
+                    registered.add(probes[i]);
+                }
+            }
+            users.addUsers(registered);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ChatLog {
+        ChatLogService chatLog;
+        String timestamp;
+        String[] senders = new String[CONVERSATIONS];
+        String[] receivers = new String[CONVERSATIONS];
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            if (System.getenv("DB_URL") == null) {
+                throw new IllegalStateException("Set DB_URL to a scratch database, e.g. jdbc:sqlite:/tmp/chatchum-bench.db");
+            }
+            chatLog = ChatLogService.getInstance();
+            timestamp = Instant.now().toString();
+            for (int i = 0; i < CONVERSATIONS; i++) {
+                senders[i] = "bench-a" + i;
+                receivers[i] = "bench-b" + i;
+            }
+            for (int i = 0; i < HISTORY_MESSAGES; i++) {
+                chatLog.logChat(i % 2 == 0 ? "bench-hist-a" : "bench-hist-b", i % 2 == 0 ? "bench-hist-b" : "bench-hist-a",
+                        "history " + i, timestamp);
+            }
+            chatLog.flush();
+        }
+
+        /** Commits what logChat queued, so the next iteration starts with an empty writer. */
+        @TearDown(Level.Iteration)
+        public void flush() {
+            chatLog.flush();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Segments {
+        /** Whether reads may be answered from the conversation cache. */
+        @Param({"true", "false"})
+        boolean cached;
+        /**
+         * Messages in each conversation before measuring. Reads should cost the same at every
+         * length; the longest conversations no longer fit the cache tail.
+         */
+        @Param({"10", "1000", "100000"})
+        int length;
+        Path dir;
+        MessageStore store;
+        String[] senders = new String[CONVERSATIONS];
+        String[] receivers = new String[CONVERSATIONS];
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            dir = Files.createTempDirectory("chatchum-bench-segments");
+            store = cached ? new MessageStore(dir.toString()) : new MessageStore(dir.toString(), new ConversationCache(0, 0));
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < CONVERSATIONS; i++) {
+                senders[i] = "bench-a" + i;
+                receivers[i] = "bench-b" + i;
+            }
+            // Interleaved, so the records of one conversation are spread over the whole log
+            for (int m = 0; m < length; m++) {
+                for (int i = 0; i < CONVERSATIONS; i++) {
+                    store.append(senders[i], receivers[i], "message " + m, now);
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            store.close();
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public ChatProtocol.Frame decode() throws IOException {
+        return ChatProtocol.decode(MESSAGE_FRAME);
+    }
+
+    @Benchmark
+    public String encodeHistory(Segments segments, Cursor cursor) throws IOException {
+        int c = cursor.next(CONVERSATIONS);
+        String a = segments.senders[c];
+        String b = segments.receivers[c];
+        long last = segments.store.lastSeq(a, b);
+        return ChatProtocol.history(b, last - 20, last, segments.store.readSince(a, b, last - 20));
+    }
+
+    @Benchmark
+    public boolean userExists(Directory directory, Cursor cursor) {
+        return directory.users.userExists(directory.probes[cursor.next(directory.probes.length)]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public boolean userExistsBaseline(Directory directory, Cursor cursor) throws SQLException {
+        String probe = directory.probes[cursor.next(directory.probes.length)];
+        try (Connection conn = DriverManager.getConnection(DB_URL);
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT 1 FROM users WHERE username = " + quote(probe))) {
+            return rs.next();
+        }
+    }
+
+    /** Cost to the caller; the rows are committed in batches by the writer thread. */
+    @Benchmark
+    public void logChat(ChatLog log, Cursor cursor) {
+        int c = cursor.next(CONVERSATIONS);
+        log.chatLog.logChat(log.senders[c], log.receivers[c], "message", log.timestamp);
+    }
+
+    /** One autocommitted insert per chat on the caller's thread, with the columns the table had then. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int logChatBaseline(ChatLog log, Cursor cursor) throws SQLException {
+        int c = cursor.next(CONVERSATIONS);
+        try (Connection conn = DriverManager.getConnection(DB_URL);
+             Statement stmt = conn.createStatement()) {
+            return stmt.executeUpdate("INSERT INTO chats (sender, receiver, message, timestamp) VALUES ("
+                    + quote(log.senders[c]) + ", " + quote(log.receivers[c]) + ", 'message', " + quote(log.timestamp) + ")");
+        }
+    }
+
+    private static String quote(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<Map<String, String>> chatHistory(ChatLog log) {
+        return log.chatLog.getChatHistory("bench-hist-a", "bench-hist-b");
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<Map<String, String>> chatHistoryPage(ChatLog log) {
+        return log.chatLog.getChatHistoryPage("bench-hist-a", "bench-hist-b", Long.MAX_VALUE, 50);
+    }
+
+    @Benchmark
+    public long messageStoreAppend(Segments segments, Cursor cursor) throws IOException {
+        int c = cursor.next(CONVERSATIONS);
+        return segments.store.append(segments.senders[c], segments.receivers[c], "message", System.currentTimeMillis());
+    }
+
+    /** A typical reconnect delta: the last 20 messages of a conversation. */
+    @Benchmark
+    public List<ChatProtocol.ChatMessage> messageStoreReadSince(Segments segments, Cursor cursor) throws IOException {
+        int c = cursor.next(CONVERSATIONS);
+        String a = segments.senders[c];
+        String b = segments.receivers[c];
+        return segments.store.readSince(a, b, Math.max(0, segments.store.lastSeq(a, b) - 20));
+    }
+}
@@ -0,0 +1,199 @@
+package com.mycompany.chatchumcorporatebackendmodel.bench;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.mycompany.chatchumcorporatebackendmodel.ChatLogService;
+import com.mycompany.chatchumcorporatebackendmodel.ChatProtocol;
+import com.mycompany.chatchumcorporatebackendmodel.ChatWebSocketServer;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+
+/**
+ * End-to-end load test: starts a {@link ChatWebSocketServer} on an ephemeral port and drives
+ * simulated clients through the Java-WebSocket client.
+ *
+ * Clients are paired up and each one sends {@code messages} chat messages to its partner at
+ * {@code rate} messages per second. Each message carries its send time, and the partner
+ * records the delivery latency when the message arrives. The run reports delivered
+ * messages per second and the p50/p99/p999 delivery latency.
+ *
+ * <pre>
+ * DB_URL=jdbc:sqlite:/tmp/chatchum-load.db java -cp jmh/target/benchmarks.jar com.mycompany.chatchumcorporatebackendmodel.bench.ChatLoadHarness [clients] [messages] [rate]
+ * </pre>
+ */
+public final class ChatLoadHarness {
+    private static final String ORIGIN = "http://localhost:3000";
+    private static final long CONNECT_TIMEOUT_MS = 30_000;
+
+    private ChatLoadHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getenv("DB_URL") == null) {
+            System.err.println("⚠️ ChatLoadHarness: Set DB_URL to a scratch database, e.g. jdbc:sqlite:/tmp/chatchum-load.db");
+            System.exit(1);
+        }
+        int clientCount = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int rate = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        if (clientCount < 2 || clientCount % 2 != 0) {
+            System.err.println("⚠️ ChatLoadHarness: Client count must be even and at least 2");
+            System.exit(1);
+        }
+
+        ChatWebSocketServer server = new ChatWebSocketServer(0,
+                Files.createTempDirectory("chatchum-load-segments").toString());
+        server.start();
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+        while (server.getPort() <= 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        URI uri = new URI("ws://localhost:" + server.getPort());
+
+        CountDownLatch delivered = new CountDownLatch(clientCount * messages);
+        List<Client> clients = new ArrayList<>(clientCount);
+        for (int i = 0; i < clientCount; i++) {
+            clients.add(new Client(uri, "load-" + i, "load-" + (i ^ 1), delivered));
+        }
+        for (Client client : clients) {
+            if (!client.connectBlocking(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("Client " + client.username + " failed to connect");
+            }
+            client.send("{\"type\":\"init\",\"username\":\"" + client.username + "\"}");
+        }
+        awaitRoster(clients.get(0), clientCount, deadline);
+        System.out.println("📊 " + clientCount + " clients online, sending " + messages + " messages each at "
+                + rate + "/s");
+
+        ScheduledExecutorService senders = Executors.newScheduledThreadPool(
+                Runtime.getRuntime().availableProcessors(), r -> {
+                    Thread t = new Thread(r, "load-sender");
+                    t.setDaemon(true);
+                    return t;
+                });
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        for (Client client : clients) {
+            long offset = ThreadLocalRandom.current().nextLong(intervalNanos); // Spread senders over the interval
+            client.task = senders.scheduleAtFixedRate(() -> client.sendNext(messages), offset, intervalNanos,
+                    TimeUnit.NANOSECONDS);
+        }
+
+        long expectedMs = TimeUnit.NANOSECONDS.toMillis(intervalNanos * messages);
+        boolean complete = delivered.await(expectedMs + 60_000, TimeUnit.MILLISECONDS);
+        long elapsed = Collections.max(clients, (a, b) -> Long.compare(a.lastReceived.get(), b.lastReceived.get()))
+                .lastReceived.get() - start;
+        senders.shutdownNow();
+
+        LatencyRecorder latency = new LatencyRecorder();
+        for (Client client : clients) {
+            synchronized (client.latency) {
+                latency.merge(client.latency);
+            }
+        }
+        System.out.println(latency.summary("delivery latency", elapsed));
+        if (!complete) {
+            System.out.println("⚠️ Only " + latency.count() + " of " + (clientCount * messages)
+                    + " messages were delivered before the timeout");
+        }
+
+        for (Client client : clients) {
+            client.closeBlocking();
+        }
+        server.stop(1000);
+        ChatLogService.getInstance().flush();
+        System.exit(complete ? 0 : 2);
+    }
+
+    /** Waits until the server's roster lists every client, so no message targets an unknown user. */
+    private static void awaitRoster(Client probe, int clientCount, long deadline) throws InterruptedException {
+        while (probe.rosterSize.get() < clientCount) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Only " + probe.rosterSize.get() + " clients joined the roster");
+            }
+            probe.send("{\"type\":\"getUsers\"}");
+            Thread.sleep(200);
+        }
+    }
+
+    private static final class Client extends WebSocketClient {
+        final String username;
+        final String peer;
+        final CountDownLatch delivered;
+        final LatencyRecorder latency = new LatencyRecorder();
+        final AtomicInteger sent = new AtomicInteger();
+        final AtomicInteger rosterSize = new AtomicInteger();
+        final AtomicLong lastReceived = new AtomicLong();
+        volatile ScheduledFuture<?> task;
+
+        Client(URI uri, String username, String peer, CountDownLatch delivered) {
+            super(uri, Collections.singletonMap("Origin", ORIGIN));
+            this.username = username;
+            this.peer = peer;
+            this.delivered = delivered;
+            setTcpNoDelay(true);
+        }
+
+        void sendNext(int messages) {
+            int n = sent.incrementAndGet();
+            if (n > messages) {
+                task.cancel(false);
+                return;
+            }
+            if (isOpen()) {
+                send("{\"type\":\"message\",\"sender\":\"" + username + "\",\"receiver\":\"" + peer
+                        + "\",\"content\":\"" + System.nanoTime() + "\"}");
+            }
+        }
+
+        @Override
+        public void onMessage(String message) {
+            try {
+                ChatProtocol.Frame frame = ChatProtocol.decode(message);
+                if (frame.type == ChatProtocol.Type.MESSAGE) {
+                    ChatProtocol.ChatMessage chat = (ChatProtocol.ChatMessage) frame;
+                    if (username.equals(chat.receiver)) { // The sender's echo is not a delivery
+                        long now = System.nanoTime();
+                        synchronized (latency) {
+                            latency.record(now - Long.parseLong(chat.content));
+                        }
+                        lastReceived.set(now);
+                        delivered.countDown();
+                    }
+                } else if (frame.type == ChatProtocol.Type.UNKNOWN && "clientList".equals(((ChatProtocol.Unknown) frame).name)) {
+                    JsonObject list = JsonParser.parseString(message).getAsJsonObject();
+                    rosterSize.set(list.getAsJsonArray("clients").size());
+                }
+            } catch (Exception e) {
+                System.err.println("⚠️ ChatLoadHarness: Bad frame for " + username + ": " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void onOpen(ServerHandshake handshake) {
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+        }
+
+        @Override
+        public void onError(Exception ex) {
+            System.err.println("⚠️ ChatLoadHarness: Client " + username + " error: " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.mycompany.chatchumcorporatebackendmodel.bench;
+
+import com.mycompany.chatchumcorporatebackendmodel.ChatLogService;
+import com.mycompany.chatchumcorporatebackendmodel.ConnectionProvider;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.SplittableRandom;
+import java.util.function.Supplier;
+
+/**
+ * Query latency of chat search over a large chats table.
+ *
+ * Fills the database named by {@code DB_URL} (a scratch file) with synthetic chats between
+ * {@code USERS} users, drawn from a skewed vocabulary so some words are in most messages
+ * and others in a handful. Rows go through the index triggers, so the load rate is the
+ * rate of incremental indexing. It then times a full reindex and each kind of query:
+ *
+ * <pre>
+ * DB_URL=jdbc:sqlite:/tmp/chatchum-search.db java -cp jmh/target/benchmarks.jar com.mycompany.chatchumcorporatebackendmodel.bench.ChatSearchBenchmark [messages] [queries]
+ * </pre>
+ *
+ * Run it with 10000000 messages for the production-sized figure; an existing table is
+ * topped up rather than refilled.
+ */
+public final class ChatSearchBenchmark {
+    private static final int USERS = 1_000;
+    private static final int VOCABULARY = 20_000;
+    private static final int WORDS_PER_MESSAGE = 12;
+    private static final int LOAD_BATCH = 10_000;
+
+    private ChatSearchBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getenv("DB_URL") == null) {
+            System.err.println("⚠️ ChatSearchBenchmark: Set DB_URL to a scratch database, e.g. jdbc:sqlite:/tmp/chatchum-search.db");
+            System.exit(1);
+        }
+        long messages = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+        ChatLogService chatLog = ChatLogService.getInstance();
+
+        load(messages);
+        if (Boolean.parseBoolean(System.getenv().getOrDefault("BENCH_REINDEX", "true"))) {
+            long start = System.nanoTime();
+            long rows = chatLog.reindex();
+            System.out.printf("%-28s %9d chats reindexed in %d ms%n", "  (reindex)", rows, (System.nanoTime() - start) / 1_000_000);
+        }
+
+        SplittableRandom random = new SplittableRandom(7);
+        benchSearch(chatLog, random, queries, "search common word", () -> word(0), false);
+        benchSearch(chatLog, random, queries, "search rare word", () -> word(VOCABULARY - 1 - random.nextInt(VOCABULARY / 2)), false);
+        benchSearch(chatLog, random, queries, "search two words", () -> word(skewed(random)) + " " + word(skewed(random)), false);
+        benchSearch(chatLog, random, queries, "search phrase", () -> '"' + word(1) + " " + word(2) + '"', false);
+        benchSearch(chatLog, random, queries, "search prefix", () -> word(random.nextInt(VOCABULARY)).substring(0, 4) + "*", false);
+        benchSearch(chatLog, random, queries, "search one conversation", () -> word(skewed(random)), true);
+        System.exit(0);
+    }
+
+    /** Tops the chats table up to {@code messages} rows. */
+    private static void load(long messages) throws SQLException {
+        ConnectionProvider db = ConnectionProvider.getInstance();
+        long existing = db.read(conn -> {
+            try (ResultSet rs = conn.prepare("SELECT count(*) FROM chats").executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0L;
+            }
+        });
+        long missing = messages - existing;
+        if (missing <= 0) {
+            System.out.printf("%-28s %9d chats already present%n", "  (load)", existing);
+            return;
+        }
+        SplittableRandom random = new SplittableRandom(existing);
+        String timestamp = Instant.now().toString();
+        long start = System.nanoTime();
+        for (long done = 0; done < missing; ) {
+            int batch = (int) Math.min(LOAD_BATCH, missing - done);
+            db.transaction(conn -> {
+                PreparedStatement pstmt = conn.prepare(
+                        "INSERT INTO chats (sender, receiver, message, timestamp, conversation_key) VALUES (?, ?, ?, ?, ?)");
+                StringBuilder text = new StringBuilder(128);
+                for (int i = 0; i < batch; i++) {
+                    String sender = user(random.nextInt(USERS));
+                    String receiver = user(random.nextInt(USERS));
+                    text.setLength(0);
+                    for (int w = 0; w < WORDS_PER_MESSAGE; w++) {
+                        text.append(w == 0 ? "" : " ").append(word(skewed(random)));
+                    }
+                    pstmt.setString(1, sender);
+                    pstmt.setString(2, receiver);
+                    pstmt.setString(3, text.toString());
+                    pstmt.setString(4, timestamp);
+                    pstmt.setString(5, sender.compareTo(receiver) <= 0 ? sender + '\u001F' + receiver : receiver + '\u001F' + sender);
+                    pstmt.addBatch();
+                }
+                return pstmt.executeBatch();
+            });
+            done += batch;
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-28s %9d chats indexed in %d ms (%.0f/s)%n", "  (load)", missing,
+                elapsed / 1_000_000, missing * 1e9 / elapsed);
+    }
+
+    private static void benchSearch(ChatLogService chatLog, SplittableRandom random, int queries, String label,
+                                    Supplier<String> query, boolean scoped) {
+        long sink = 0;
+        for (int i = 0; i < Math.max(queries / 10, 10); i++) {
+            sink += chatLog.search(user(random.nextInt(USERS)), query.get(), null, 20).size();
+        }
+        LatencyRecorder recorder = new LatencyRecorder();
+        long start = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            String username = user(random.nextInt(USERS));
+            String with = scoped ? user(random.nextInt(USERS)) : null;
+            String q = query.get();
+            long t0 = System.nanoTime();
+            sink += chatLog.search(username, q, with, 20).size();
+            recorder.record(System.nanoTime() - t0);
+        }
+        System.out.println(recorder.summary(label, System.nanoTime() - start) + (sink == 42 ? " " : ""));
+    }
+
+    /** Word rank with a roughly Zipfian distribution: low ranks are far more common. */
+    private static int skewed(SplittableRandom random) {
+        return (int) Math.min(VOCABULARY - 1, Math.exp(random.nextDouble() * Math.log(VOCABULARY)) - 1);
+    }
+
+    private static String word(int rank) {
+        return "w" + Integer.toString(rank + 50_000, 36);
+    }
+
+    private static String user(int i) {
+        return "search-user-" + i;
+    }
+}
@@ -0,0 +1,164 @@
+package com.mycompany.chatchumcorporatebackendmodel.bench;
+
+import com.mycompany.chatchumcorporatebackendmodel.ChatConnection;
+import com.mycompany.chatchumcorporatebackendmodel.ChatLogService;
+import com.mycompany.chatchumcorporatebackendmodel.ChatRouter;
+import com.mycompany.chatchumcorporatebackendmodel.ChatSession;
+import com.mycompany.chatchumcorporatebackendmodel.ConversationDispatcher;
+import com.mycompany.chatchumcorporatebackendmodel.OutboundFrame;
+import com.mycompany.chatchumcorporatebackendmodel.OutboundQueue;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Message throughput of {@link ChatRouter} as the number of dispatch lanes grows from 1 to
+ * the number of cores.
+ *
+ * Each run starts a router on a fresh message log with {@code lanes} lanes, logs in two
+ * in-memory connections per conversation and feeds {@code messages} chat frames spread
+ * over {@code conversations} conversations from as many feeder threads as there are cores,
+ * standing in for the transport threads. A message is done once it has been appended,
+ * queued for the chat log, delivered and the history pushes written to the connections.
+ * Every connection logs in from one address and sends far faster than a person would, so
+ * the login and message limits are turned off.
+ *
+ * <pre>
+ * DB_URL=jdbc:sqlite:/tmp/chatchum-dispatch.db RATE_LIMIT_CONNECT=0 RATE_LIMIT_MESSAGE=0 java -cp jmh/target/benchmarks.jar com.mycompany.chatchumcorporatebackendmodel.bench.DispatchBenchmark [conversations] [messages]
+ * </pre>
+ */
+public final class DispatchBenchmark {
+
+    private DispatchBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getenv("DB_URL") == null) {
+            System.err.println("⚠️ DispatchBenchmark: Set DB_URL to a scratch database, e.g. jdbc:sqlite:/tmp/chatchum-dispatch.db");
+            System.exit(1);
+        }
+        int conversations = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        run(Math.max(1, cores), conversations, messages / 10, null); // Warm-up
+        for (int lanes = 1; ; lanes = Math.min(lanes * 2, cores)) {
+            run(lanes, conversations, messages, String.format("%-28s", "  " + lanes + (lanes == 1 ? " lane" : " lanes")));
+            if (lanes >= cores) {
+                break;
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void run(int lanes, int conversations, int messages, String label) throws Exception {
+        ConversationDispatcher dispatcher = new ConversationDispatcher(lanes, 4096);
+        ChatRouter router = new ChatRouter(Files.createTempDirectory("chatchum-dispatch-segments").toString(),
+                Files.createTempDirectory("chatchum-dispatch-attachments").toString(), null, dispatcher);
+        LongAdder written = new LongAdder();
+        List<Connection> senders = new ArrayList<>(conversations);
+        for (int i = 0; i < conversations; i++) {
+            Connection sender = new Connection(written);
+            router.onFrame(sender, "{\"type\":\"init\",\"username\":\"dispatch-a" + i + "\"}");
+            router.onFrame(new Connection(written), "{\"type\":\"init\",\"username\":\"dispatch-b" + i + "\"}");
+            senders.add(sender);
+        }
+        dispatcher.awaitIdle();
+        written.reset();
+
+        int feeders = Runtime.getRuntime().availableProcessors();
+        List<Thread> threads = new ArrayList<>(feeders);
+        long start = System.nanoTime();
+        for (int f = 0; f < feeders; f++) {
+            int first = f;
+            Thread thread = new Thread(() -> {
+                for (int m = first; m < messages; m += feeders) {
+                    int c = m % conversations;
+                    router.onFrame(senders.get(c), "{\"type\":\"message\",\"sender\":\"dispatch-a" + c
+                            + "\",\"receiver\":\"dispatch-b" + c + "\",\"content\":\"message " + m + "\"}");
+                }
+            }, "dispatch-feeder-" + f);
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        dispatcher.awaitIdle();
+        long elapsed = System.nanoTime() - start;
+        ChatLogService.getInstance().flush();
+        router.close();
+        if (label != null) {
+            System.out.printf("%s %9d messages in %d ms (%.0f msg/s, %d frames out)%n", label, messages,
+                    elapsed / 1_000_000, messages * 1e9 / elapsed, written.sum());
+        }
+    }
+
+    /** Connection that writes every frame straight away and only counts it. */
+    private static final class Connection implements ChatConnection, OutboundQueue.Transport {
+        private final OutboundQueue outbound = new OutboundQueue(this);
+        private final LongAdder written;
+        private volatile ChatSession session;
+
+        Connection(LongAdder written) {
+            this.written = written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void send(String frame) {
+            outbound.offer(OutboundFrame.message(frame));
+        }
+
+        @Override
+        public void send(OutboundFrame frame) {
+            outbound.offer(frame);
+        }
+
+        @Override
+        public OutboundQueue getOutbound() {
+            return outbound;
+        }
+
+        @Override
+        public void close() {
+            outbound.close();
+        }
+
+        @Override
+        public ChatSession getSession() {
+            return session;
+        }
+
+        @Override
+        public void setSession(ChatSession session) {
+            this.session = session;
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return "127.0.0.1";
+        }
+
+        @Override
+        public int backlog() {
+            return 0;
+        }
+
+        @Override
+        public void write(OutboundFrame frame, String text) {
+            written.increment();
+        }
+
+        @Override
+        public void disconnect(String reason) {
+            close();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.mycompany.chatchumcorporatebackendmodel.bench;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects raw latency samples in nanoseconds and reports exact percentiles.
+ *
+ * Not thread-safe: give every thread its own recorder and {@link #merge} them at the end.
+ */
+public final class LatencyRecorder {
+    private long[] samples = new long[1024];
+    private int count;
+
+    public void record(long nanos) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, count * 2);
+        }
+        samples[count++] = nanos;
+    }
+
+    public void merge(LatencyRecorder other) {
+        for (int i = 0; i < other.count; i++) {
+            record(other.samples[i]);
+        }
+    }
+
+    public int count() {
+        return count;
+    }
+
+    /** One report line: throughput over {@code elapsedNanos} plus mean and tail latency. */
+    public String summary(String label, long elapsedNanos) {
+        if (count == 0) {
+            return String.format("%-28s no samples", label);
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long sample : sorted) {
+            total += sample;
+        }
+        double perSecond = count / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+        return String.format("%-28s %9d ops %12.0f ops/s  mean %9s  p50 %9s  p99 %9s  p999 %9s  max %9s",
+                label, count, perSecond, format(total / count), format(percentile(sorted, 0.50)),
+                format(percentile(sorted, 0.99)), format(percentile(sorted, 0.999)), format(sorted[count - 1]));
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static String format(long nanos) {
+        if (nanos < 10_000) {
+            return nanos + "ns";
+        }
+        if (nanos < 10_000_000) {
+            return (nanos / 1_000) + "us";
+        }
+        return (nanos / 1_000_000) + "ms";
+    }
+}
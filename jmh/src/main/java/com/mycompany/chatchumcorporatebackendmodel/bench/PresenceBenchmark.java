@@ -0,0 +1,109 @@
+package com.mycompany.chatchumcorporatebackendmodel.bench;
+
+import com.mycompany.chatchumcorporatebackendmodel.ChatProtocol;
+import com.mycompany.chatchumcorporatebackendmodel.PresenceService;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A login storm: {@code clients} users connect within one presence tick, each asking for
+ * the roster. Every frame a connected client would receive is handed to a {@link Blackhole}.
+ *
+ * {@code presenceTick} is the roster as it is now: the joins fold into one delta for
+ * everyone online and the snapshot requests share one serialized roster.
+ * {@code fullListPerLogin} is what the server did before: serialize the whole list on
+ * every login and send it to everyone connected so far, O(n²) in the storm. The rewrite of
+ * {@code active_clients.txt} on every login is left out of the baseline; it would only
+ * widen the gap.
+ *
+ * <pre>
+ * mvn -B -pl jmh -am package
+ * java -jar jmh/target/benchmarks.jar PresenceBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class PresenceBenchmark {
+    @Param({"5000"})
+    int clients;
+
+    String[] usernames;
+    /** Everyone online, as the broadcaster sees them. */
+    int online;
+    Blackhole sink;
+    PresenceService presence;
+
+    @Setup(Level.Trial)
+    public void names() {
+        usernames = new String[clients];
+        for (int i = 0; i < clients; i++) {
+            usernames[i] = "storm-user-" + i;
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setUp(Blackhole blackhole) {
+        sink = blackhole;
+        online = 0;
+        // Ticks only when the benchmark says so
+        presence = new PresenceService(frame -> {
+            for (int i = 0; i < online; i++) {
+                sink.consume(frame);
+            }
+        }, null, TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(1));
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        presence.close();
+    }
+
+    @Benchmark
+    public long presenceTick() {
+        for (String username : usernames) {
+            presence.join(username);
+            presence.requestSnapshot(sink::consume);
+        }
+        online = clients;
+        presence.tick();
+        return presence.getVersion();
+    }
+
+    @Benchmark
+    public int fullListPerLogin() {
+        Set<String> roster = new LinkedHashSet<>();
+        List<Blackhole> connections = new ArrayList<>(clients);
+        for (String username : usernames) {
+            roster.add(username);
+            connections.add(sink);
+            String list = ChatProtocol.clientList(roster.size(), roster);
+            for (Blackhole conn : connections) {
+                conn.consume(list);
+            }
+        }
+        return roster.size();
+    }
+}
@@ -0,0 +1,79 @@
+package com.mycompany.chatchumcorporatebackendmodel.bench;
+
+import com.mycompany.chatchumcorporatebackendmodel.RateLimiter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cost of one {@link RateLimiter#tryAcquire} call, the overhead every chat frame and
+ * credential request now pays before it is handled.
+ *
+ * Each case runs {@code calls} acquires per thread on a limit generous enough to admit
+ * them all, so the numbers are the admit path: a map lookup and one compare-and-set.
+ * Keys are prebuilt, as usernames are in a session. "one hot key" has every thread take
+ * from the same bucket, the worst case for the compare-and-set.
+ *
+ * <pre>
+ * java -cp jmh/target/benchmarks.jar com.mycompany.chatchumcorporatebackendmodel.bench.RateLimiterBenchmark [keys] [calls]
+ * </pre>
+ */
+public final class RateLimiterBenchmark {
+
+    private RateLimiterBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int calls = args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000;
+        int cores = Runtime.getRuntime().availableProcessors();
+        String[] names = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            names[i] = "user-" + i;
+        }
+
+        run("warm-up", cores, names, calls, null);
+        run("1 thread, one key", 1, new String[] { names[0] }, calls, "  ");
+        run("1 thread, " + keys + " keys", 1, names, calls, "  ");
+        if (cores > 1) {
+            run(cores + " threads, one hot key", cores, new String[] { names[0] }, calls, "  ");
+            run(cores + " threads, " + keys + " keys", cores, names, calls, "  ");
+        }
+        System.exit(0);
+    }
+
+    private static void run(String label, int threads, String[] keys, int calls, String indent) throws Exception {
+        try (RateLimiter limiter = new RateLimiter("bench", 1e9, 1_000_000_000)) {
+            List<Thread> workers = new ArrayList<>(threads);
+            long[] refused = new long[threads];
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                int index = t;
+                Thread worker = new Thread(() -> {
+                    long count = 0;
+                    for (int i = 0, k = index % keys.length; i < calls; i++, k = k + 1 == keys.length ? 0 : k + 1) {
+                        if (limiter.tryAcquire(keys[k]) != 0) {
+                            count++;
+                        }
+                    }
+                    refused[index] = count;
+                }, "limiter-bench-" + t);
+                worker.start();
+                workers.add(worker);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            long elapsed = System.nanoTime() - start;
+            long total = 0;
+            for (long count : refused) {
+                total += count;
+            }
+            if (indent != null) {
+                System.out.printf("%s%-34s %6.1f ns/acquire per thread, %5.1f M acquires/s, %d refused, %d buckets%n",
+                        indent, label, (double) elapsed / calls,
+                        (long) calls * threads * 1e3 / elapsed, total, limiter.size());
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.mycompany.chatchumcorporatebackendmodel.bench;
+
+import com.mycompany.chatchumcorporatebackendmodel.AdvancedChatServerSystem;
+import com.mycompany.chatchumcorporatebackendmodel.ChatRouter;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Idle-connection capacity test for the TCP transport.
+ *
+ * Opens {@code connections} sockets, registers a user on each and keeps them idle. A
+ * client selector thread drains the presence traffic, as real clients would. With every
+ * connection held, a sample of them send {@code ping}, and the run reports the pong
+ * round trip. In-process runs also report heap per connection (client and server side
+ * together).
+ *
+ * Every in-process connection uses two file descriptors and one ephemeral port per target
+ * address. Connections are spread over 127.0.0.1-127.0.0.4, so the port range is not the
+ * limit. For 50k connections, raise {@code ulimit -n} above 100k, or run the server
+ * separately and pass its {@code host:port}:
+ *
+ * <pre>
+ * DB_URL=jdbc:sqlite:/tmp/chatchum-idle.db RATE_LIMIT_CONNECT=0 java -cp jmh/target/benchmarks.jar com.mycompany.chatchumcorporatebackendmodel.bench.TcpIdleHarness [connections] [host:port]
+ * </pre>
+ */
+public final class TcpIdleHarness {
+    private static final int TARGET_ADDRESSES = 4;
+    private static final int PING_SAMPLE = 200;
+    private static final byte[] PONG = "\"pong\"".getBytes(StandardCharsets.UTF_8);
+
+    private TcpIdleHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        AdvancedChatServerSystem server = null;
+        ChatRouter router = null;
+        String host;
+        int port;
+        if (args.length > 1) {
+            String[] target = args[1].split(":");
+            host = target[0];
+            port = Integer.parseInt(target[1]);
+        } else {
+            if (System.getenv("DB_URL") == null) {
+                System.err.println("⚠️ TcpIdleHarness: Set DB_URL to a scratch database, e.g. jdbc:sqlite:/tmp/chatchum-idle.db");
+                System.exit(1);
+            }
+            router = new ChatRouter(Files.createTempDirectory("chatchum-idle-segments").toString(), null);
+            server = new AdvancedChatServerSystem(0, router);
+            server.start();
+            host = null;
+            port = server.getPort();
+        }
+
+        long heapBefore = usedHeap();
+        Selector selector = Selector.open();
+        Drainer drainer = new Drainer(selector);
+        List<SocketChannel> channels = new ArrayList<>(count);
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            InetSocketAddress address = host != null ? new InetSocketAddress(host, port)
+                    : new InetSocketAddress("127.0.0." + (1 + i % TARGET_ADDRESSES), port);
+            SocketChannel channel;
+            try {
+                channel = SocketChannel.open(address);
+            } catch (IOException e) {
+                System.err.println("⚠️ TcpIdleHarness: Connection " + i + " failed: " + e.getMessage());
+                break;
+            }
+            channel.write(ByteBuffer.wrap(("{\"type\":\"init\",\"username\":\"idle-" + i + "\"}\n")
+                    .getBytes(StandardCharsets.UTF_8)));
+            channel.configureBlocking(false);
+            drainer.register(channel);
+            channels.add(channel);
+            if ((i + 1) % 10_000 == 0) {
+                System.out.println("📊 " + (i + 1) + " connections open");
+            }
+        }
+        long connectNanos = System.nanoTime() - start;
+        System.out.printf("📊 Opened %d connections in %d ms (%.0f/s)%n", channels.size(),
+                TimeUnit.NANOSECONDS.toMillis(connectNanos), channels.size() / (connectNanos / 1e9));
+
+        Thread.sleep(2000); // Let the join storm settle into idle
+        if (server != null) {
+            System.out.println("📊 Server holds " + server.getConnectionCount() + " connections");
+            long heapAfter = usedHeap();
+            System.out.printf("📊 Heap: %d MB for %d connections, ~%d bytes per connection (client + server)%n",
+                    (heapAfter - heapBefore) >> 20, channels.size(),
+                    channels.isEmpty() ? 0 : (heapAfter - heapBefore) / channels.size());
+        }
+
+        LatencyRecorder rtt = drainer.ping(channels, Math.min(PING_SAMPLE, channels.size()));
+        System.out.println(rtt.summary("idle ping round trip", drainer.pingElapsed));
+
+        for (SocketChannel channel : channels) {
+            channel.close();
+        }
+        if (server != null) {
+            server.close();
+            router.close();
+        }
+        System.exit(rtt.count() == Math.min(PING_SAMPLE, channels.size()) ? 0 : 2);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /** Reads and discards everything the server sends, watching sampled connections for pong. */
+    private static final class Drainer implements Runnable {
+        private final Selector selector;
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        private final List<SocketChannel> pending = new ArrayList<>();
+        private volatile CountDownLatch pongs = new CountDownLatch(0);
+        private final LatencyRecorder rtt = new LatencyRecorder();
+        long pingElapsed;
+
+        Drainer(Selector selector) {
+            this.selector = selector;
+            Thread thread = new Thread(this, "idle-drainer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void register(SocketChannel channel) {
+            synchronized (pending) {
+                pending.add(channel);
+            }
+            selector.wakeup();
+        }
+
+        LatencyRecorder ping(List<SocketChannel> channels, int sample) throws IOException, InterruptedException {
+            pongs = new CountDownLatch(sample);
+            long start = System.nanoTime();
+            for (int i = 0; i < sample; i++) {
+                SocketChannel channel = channels.get(i * (channels.size() / sample));
+                SelectionKey key = channel.keyFor(selector);
+                if (key != null) {
+                    key.attach(System.nanoTime());
+                }
+                channel.write(ByteBuffer.wrap("{\"type\":\"ping\"}\n".getBytes(StandardCharsets.UTF_8)));
+            }
+            pongs.await(30, TimeUnit.SECONDS);
+            pingElapsed = System.nanoTime() - start;
+            synchronized (rtt) {
+                return rtt;
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (selector.isOpen()) {
+                    selector.select();
+                    synchronized (pending) {
+                        for (SocketChannel channel : pending) {
+                            channel.register(selector, SelectionKey.OP_READ);
+                        }
+                        pending.clear();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        read(key);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("⚠️ TcpIdleHarness: Drainer failed: " + e.getMessage());
+            }
+        }
+
+        private void read(SelectionKey key) {
+            try {
+                buffer.clear();
+                if (((SocketChannel) key.channel()).read(buffer) < 0) {
+                    key.cancel();
+                    return;
+                }
+                Object sentAt = key.attachment();
+                if (sentAt != null && contains(buffer, PONG)) {
+                    synchronized (rtt) {
+                        rtt.record(System.nanoTime() - (Long) sentAt);
+                    }
+                    key.attach(null);
+                    pongs.countDown();
+                }
+            } catch (IOException e) {
+                key.cancel();
+            }
+        }
+
+        private static boolean contains(ByteBuffer buffer, byte[] needle) {
+            byte[] bytes = buffer.array();
+            outer:
+            for (int i = 0; i + needle.length <= buffer.position(); i++) {
+                for (int j = 0; j < needle.length; j++) {
+                    if (bytes[i + j] != needle[j]) {
+                        continue outer;
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+}
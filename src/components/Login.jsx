@@ -53,7 +53,7 @@ const Login = () => {
         login({ email: data.email, token: data.token, username: data.username });
         navigate(data.username ? '/chat' : '/set-username');
       } else {
-        setError(data.message || 'Invalid email or password.');
+        setError(data.error || data.message || 'Invalid email or password.');
       }
     } catch (err) {
       console.error('Email Login Error:', err);
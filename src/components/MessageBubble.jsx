@@ -1,11 +1,24 @@
-import React from 'react';
+import React, { useEffect, useState } from 'react';
 import { useTheme } from '../providers/ThemeProvider';
 import { useAuth } from '../providers/AuthProvider';
+import { useSocket } from '../providers/SocketProvider';
 import './MessageBubble.css';
 
-const MessageBubble = ({ text, sender, timestamp, fileName }) => {
+const MessageBubble = ({ text, sender, timestamp, fileName, fileId }) => {
   const { theme } = useTheme();
   const { user } = useAuth();
+  const { getFileUrl } = useSocket();
+  const [attachmentUrl, setAttachmentUrl] = useState(null);
+
+  // Attachments are fetched with a short-lived ticket from the attachment server
+  useEffect(() => {
+    if (!fileId) return;
+    let cancelled = false;
+    getFileUrl(fileId)
+      .then((url) => { if (!cancelled) setAttachmentUrl(url); })
+      .catch((err) => console.error('❌ Error loading attachment:', err));
+    return () => { cancelled = true; };
+  }, [fileId]);
 
   const bubbleType = sender;
   const isImage = fileName && /\.(jpg|jpeg|png|gif)$/i.test(fileName);
@@ -21,7 +34,9 @@ const MessageBubble = ({ text, sender, timestamp, fileName }) => {
       ? 'bg-gray-700 text-white'
       : 'bg-gray-300 text-black';
 
-  const fileUrl = text.startsWith('http') ? text : `http://localhost:8081/${text}`;
+  const fileUrl = fileId
+    ? attachmentUrl || undefined
+    : text.startsWith('http') ? text : `http://localhost:8081/${text}`;
 
   return (
     <div className={`message-bubble ${bubbleType} mb-3`}>
@@ -1,13 +1,11 @@
 import React, { useState, useRef } from 'react';
 import { useSocket } from '../providers/SocketProvider';
-import { useAuth } from '../providers/AuthProvider'; // Added to access user
 import './MessageInput.css';
 
 const MessageInput = ({ message, setMessage, handleSend, chatPartnerUsername }) => {
   const [text, setText] = useState('');
-  const { sendMessage, sendFile } = useSocket(); // ✅ Include sendFile here
+  const { sendMessage, uploadFile } = useSocket();
   const fileInputRef = useRef();
-  const { user } = useAuth(); // Added to get username
 
   const handleSendInternal = () => {
     if (text.trim() && text.length <= 500 && chatPartnerUsername) {
@@ -16,47 +14,18 @@ const MessageInput = ({ message, setMessage, handleSend, chatPartnerUsername })
     }
   };
 
-  const generateSmartFilename = (originalName) => {
-    const extension = originalName.split('.').pop(); // Get file extension
-    const timestamp = Math.floor(new Date().getTime() / 1000); // 10-digit Unix time
-    const randomPart = Math.random().toString(36).substring(2, 7); // 5 random chars
-    return `ww-${timestamp}-${randomPart}.${extension}`;
-  };
-
-  const handleFileUpload = (e) => {
+  // Streams the file over the chat socket in chunks; an interrupted upload resumes on reconnect
+  const handleFileUpload = async (e) => {
     const file = e.target.files[0];
+    e.target.value = '';
     if (!file || !chatPartnerUsername) return;
 
-    const reader = new FileReader(); // <== Add this before reader.onload
-    reader.onload = async () => {
-  const arrayBuffer = reader.result;
-  const blob = new Blob([arrayBuffer], { type: file.type });
-  const formData = new FormData();
-
-  const newName = generateSmartFilename(file.name);
-  const path = `${user.username}/${user.username}_${chatPartnerUsername}/${newName}`;
-
-  formData.append('file', file, newName);
-  formData.append('path', path); // Server will store in correct subfolder
-
-  try {
-    const res = await fetch('http://localhost:8082/upload', {
-      method: 'POST',
-      body: formData,
-    });
-
-    if (res.ok) {
-      sendFile(chatPartnerUsername, path, newName, file.type); // 🆕 now path = content
-    } else {
-      console.error('❌ Upload failed');
+    try {
+      await uploadFile(chatPartnerUsername, file);
+    } catch (err) {
+      console.error('❌ Error uploading file:', err);
     }
-  } catch (err) {
-    console.error('❌ Error uploading file:', err);
-  }
-};
-
-reader.readAsArrayBuffer(file);
-};
+  };
 
 
 
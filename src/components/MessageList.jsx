@@ -39,6 +39,7 @@ const MessageList = ({ messages }) => {
           sender={msg.sender === user.username ? 'sent' : 'received'} // Correctly sets 'sent' or 'received'
           timestamp={msg.timestamp}
           fileName={msg.fileName} // ✅ Added filename prop
+          fileId={msg.fileId}
         />
       ))}
       <div ref={messagesEndRef} />
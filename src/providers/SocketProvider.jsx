@@ -20,6 +20,12 @@ export const SocketProvider = ({ children }) => {
   const socketInstance = useRef(null);
   const pingIntervalRef = useRef(null);
   const pingStartTime = useRef(null);
+  const historyCursors = useRef({});
+  const transferIds = useRef(0);
+  const uploads = useRef({});
+  const downloads = useRef({});
+  const fileUrls = useRef({});
+  const pendingMessages = useRef({});
 
   const encrypt = (text, key = 'secretKey') => text.split('').map((char, i) => String.fromCharCode(char.charCodeAt(0) ^ key.charCodeAt(i % key.length))).join('');
   const decrypt = (text, key = 'secretKey') => text.split('').map((char, i) => String.fromCharCode(char.charCodeAt(0) ^ key.charCodeAt(i % key.length))).join('');
@@ -38,12 +44,14 @@ export const SocketProvider = ({ children }) => {
 
     const msgPayload = {
       type: metadata.type || 'message',
+      messageId: crypto.randomUUID(), // Same id on every resend, so the server stores it once
       sender: user.username,
       receiver,
       content: encryptedContent,
       timestamp: dayjs().format('YYYY-MM-DD  HH:mm'),
       fileName: metadata.fileName || undefined,
       mimeType: metadata.mimeType || undefined,
+      fileId: metadata.fileId || undefined,
     };
 
    if (msgPayload.type === 'message') {
@@ -61,12 +69,14 @@ export const SocketProvider = ({ children }) => {
     ...prev,
     {
       id: tempId,
+      messageId: msgPayload.messageId,
       type: 'file',
       sender: user.username,
       receiver,
       content, // file path, not encrypted
       fileName: msgPayload.fileName || content.split('/').pop(),
       mimeType: msgPayload.mimeType || null,
+      fileId: msgPayload.fileId,
       status: 'sent',
       timestamp: msgPayload.timestamp,
       isFile: true,
@@ -82,16 +92,19 @@ console.log("📨 Message added to state (file):", msgPayload);
         return;
       }
 
-      if (!socket || socket.readyState !== WebSocket.OPEN) {
+      const sock = socketInstance.current;
+      if (!sock || sock.readyState !== WebSocket.OPEN) {
         setTimeout(attemptSend, delay * Math.pow(2, attempts));
         attempts++;
         return;
       }
 
       console.log('📤 Sending message:', msgPayload);
-      socket.send(JSON.stringify(msgPayload));
+      sock.send(JSON.stringify(msgPayload));
     };
 
+    // Kept until the server echoes it; resent after a reconnect in case the echo was lost
+    pendingMessages.current[msgPayload.messageId] = msgPayload;
     attemptSend();
   },
   [socket, user]
@@ -134,13 +147,24 @@ console.log("📨 Message added to state (file):", msgPayload);
               setUserList(data.clients || data.users || []);
               setLoading(false);
               break;
+            case 'presence':
+              setUserList((prev) => {
+                const next = new Set(prev);
+                (data.left || []).forEach((name) => next.delete(name));
+                (data.joined || []).forEach((name) => next.add(name));
+                return Array.from(next);
+              });
+              break;
             case 'message':
               const decryptedContent = decrypt(data.content);
               if (data.receiver === user.username || data.sender === user.username) { // Filter for current user
-                setMessages((prev) => [...prev, { ...data, content: decryptedContent, status: 'delivered' }]);
+                addOrConfirm({ ...data, content: decryptedContent, status: 'delivered' });
               }
               break;
            case 'chatHistory': {
+  if (data.lastSeq != null) {
+    historyCursors.current[data.receiver] = Math.max(historyCursors.current[data.receiver] || 0, data.lastSeq);
+  }
   const newHistory = data.history.map(msg => ({
     ...msg,
     content: decrypt(msg.content || msg.content),
@@ -165,21 +189,77 @@ case 'file': {
   // Do NOT decrypt `content` (it's a file path)
   console.log("📦 File message received:", data);
   if (data.receiver === user.username || data.sender === user.username) {
-    setMessages((prev) => [
-      ...prev,
-      {
-        ...data,
-        status: 'delivered',
-        isFile: true,
-        mimeType: data.mimeType || null,
-        fileName: data.fileName || null,
-      },
-    ]);
+    addOrConfirm({
+      ...data,
+      status: 'delivered',
+      isFile: true,
+      mimeType: data.mimeType || null,
+      fileName: data.fileName || null,
+    });
   }
   break;
 }
 
 
+            case 'inbox': {
+              // Messages that arrived while we were offline; ack so the server sends the next batch
+              const received = (data.messages || [])
+                .filter((msg) => msg.receiver === user.username || msg.sender === user.username)
+                .map((msg) => (msg.type === 'file'
+                  ? { ...msg, status: 'delivered', isFile: true, mimeType: msg.mimeType || null, fileName: msg.fileName || null }
+                  : { ...msg, content: decrypt(msg.content), status: 'delivered' }));
+              setMessages((prev) => [...prev, ...received]);
+              newSocket.send(JSON.stringify({ type: 'inboxAck', upTo: data.lastId }));
+              break;
+            }
+
+            case 'uploadReady':
+              sendChunks(newSocket, data.id, data.offset, data.chunkSize);
+              break;
+            case 'uploadComplete': {
+              const upload = uploads.current[data.id];
+              delete uploads.current[data.id];
+              if (upload) upload.resolve(data.fileId);
+              break;
+            }
+            case 'uploadFailed': {
+              const upload = uploads.current[data.id];
+              delete uploads.current[data.id];
+              if (upload) upload.reject(new Error(data.reason));
+              break;
+            }
+            case 'downloadReady':
+            case 'downloadFailed': {
+              const download = downloads.current[data.id];
+              delete downloads.current[data.id];
+              if (!download) break;
+              if (data.type === 'downloadReady') download.resolve(`http://localhost:8082${data.path}`);
+              else download.reject(new Error(data.reason));
+              break;
+            }
+
+            case 'rateLimited': {
+              // Refused messages stay pending; send them again once the server has a token free
+              const pending = data.messageId && pendingMessages.current[data.messageId];
+              if (pending) {
+                setTimeout(() => {
+                  if (pendingMessages.current[data.messageId] && newSocket.readyState === WebSocket.OPEN) {
+                    newSocket.send(JSON.stringify(pending));
+                  }
+                }, data.retryAfterMs);
+              } else if (data.limit === 'connect') {
+                // Login refused while many clients reconnect at once; try again when told
+                setTimeout(() => {
+                  if (newSocket.readyState === WebSocket.OPEN) {
+                    newSocket.send(JSON.stringify({ type: 'init', username: user.username }));
+                  }
+                }, data.retryAfterMs);
+              } else {
+                setError(`Too many ${data.limit} requests, try again in ${Math.ceil(data.retryAfterMs / 1000)}s`);
+              }
+              break;
+            }
+
             case 'pong':
               console.log('🏓 Pong received');
               break;
@@ -243,6 +323,11 @@ case 'file': {
       console.log("✅ Sending init after user is ready:", user.username);
       socket.send(JSON.stringify({ type: 'init', username: user.username }));
       requestUserList();
+      Object.values(pendingMessages.current).forEach((payload) => socket.send(JSON.stringify(payload)));
+      // Resume uploads cut off by the last disconnect; the server answers with where to continue
+      Object.entries(uploads.current).forEach(([id, upload]) => {
+        socket.send(JSON.stringify({ type: 'uploadStart', id: Number(id), size: upload.file.size, sha256: upload.sha256 }));
+      });
     };
 
     tryInit();
@@ -274,7 +359,7 @@ case 'file': {
   const loadChatHistory = (receiverEmail) => {
     const username = getUsernameFromEmail(receiverEmail);
     if (socket && socket.readyState === WebSocket.OPEN && user) {
-      socket.send(JSON.stringify({ type: 'history', receiver: username }));
+      socket.send(JSON.stringify({ type: 'history', receiver: username, since: historyCursors.current[username] || 0 }));
       localStorage.setItem('activeChatUser', receiverEmail); // preserve email for UI
     }
   };
@@ -299,6 +384,73 @@ case 'file': {
 };
 
 
+  // The server's echo of our own message confirms it; anything else with a known id is a repeat
+  const addOrConfirm = (message) => {
+    if (message.messageId) delete pendingMessages.current[message.messageId];
+    setMessages((prev) => {
+      if (message.messageId && prev.some((m) => m.messageId === message.messageId)) {
+        return prev.map((m) => (m.messageId === message.messageId ? { ...m, status: 'sent' } : m));
+      }
+      return [...prev, message];
+    });
+  };
+
+  // Sends binary chunks [int32 id][int64 offset][bytes] from offset on, pausing while the socket buffer is full
+  const sendChunks = async (sock, id, offset, chunkSize) => {
+    const upload = uploads.current[id];
+    if (!upload) return;
+    const run = (upload.run || 0) + 1;
+    upload.run = run;
+    for (let position = offset; position < upload.file.size; position += chunkSize) {
+      while (sock.bufferedAmount > 4 * chunkSize) {
+        await new Promise((resolve) => setTimeout(resolve, 20));
+      }
+      if (upload.run !== run || sock.readyState !== WebSocket.OPEN) return;
+      const bytes = await upload.file.slice(position, position + chunkSize).arrayBuffer();
+      const frame = new Uint8Array(12 + bytes.byteLength);
+      const header = new DataView(frame.buffer);
+      header.setInt32(0, id);
+      header.setBigInt64(4, BigInt(position));
+      frame.set(new Uint8Array(bytes), 12);
+      sock.send(frame);
+    }
+  };
+
+  // Uploads the file over the chat socket, then sends the receiver a file message that refers to it
+  const uploadFile = async (receiverEmail, file) => {
+    const username = getUsernameFromEmail(receiverEmail);
+    const digest = await crypto.subtle.digest('SHA-256', await file.arrayBuffer());
+    const sha256 = Array.from(new Uint8Array(digest), (b) => b.toString(16).padStart(2, '0')).join('');
+    const id = ++transferIds.current;
+    const fileId = await new Promise((resolve, reject) => {
+      uploads.current[id] = { file, sha256, resolve, reject };
+      const sock = socketInstance.current;
+      if (sock && sock.readyState === WebSocket.OPEN) {
+        sock.send(JSON.stringify({ type: 'uploadStart', id, size: file.size, sha256 }));
+      }
+    });
+    sendWithRetry(username, file.name, { type: 'file', fileName: file.name, mimeType: file.type, fileId });
+  };
+
+  // Resolves to a download URL for an attachment; tickets are valid for a few minutes
+  const getFileUrl = (fileId) => {
+    const cached = fileUrls.current[fileId];
+    if (cached && cached.expires > Date.now()) return cached.url;
+    const url = new Promise((resolve, reject) => {
+      const sock = socketInstance.current;
+      if (!sock || sock.readyState !== WebSocket.OPEN) {
+        reject(new Error('Not connected'));
+        return;
+      }
+      const id = ++transferIds.current;
+      downloads.current[id] = { resolve, reject };
+      sock.send(JSON.stringify({ type: 'download', id, fileId }));
+    });
+    fileUrls.current[fileId] = { url, expires: Date.now() + 4 * 60 * 1000 };
+    url.catch(() => delete fileUrls.current[fileId]);
+    return url;
+  };
+
   return (
     <SocketContext.Provider
       value={{
@@ -311,6 +463,8 @@ case 'file': {
         loadChatHistory,
         sendMessage,
         sendFile,
+        uploadFile,
+        getFileUrl,
         loading,
         error,
         isConnected,